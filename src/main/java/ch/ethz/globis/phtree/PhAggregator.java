@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Aggregation function for window queries, see
+ * {@link PhTree#aggregate(long[], long[], PhAggregator)}.
+ *
+ * Aggregators are stateful, a new instance should be used for every query.
+ *
+ * @param <T> value type of the tree
+ * @param <R> result type
+ */
+public interface PhAggregator<T, R> {
+
+	/**
+	 * Add a single entry to the aggregate.
+	 * @param key the key of the entry, this is only valid during the call
+	 * @param value the value of the entry
+	 */
+	void add(long[] key, T value);
+
+	/**
+	 * Add a whole subtree that lies completely inside the query window. This is only called
+	 * by trees that maintain subtree counts.
+	 * @param nEntries number of entries in the subtree
+	 * @return {@code true} if the subtree has been aggregated, {@code false} if the entries of
+	 * the subtree should be passed individually to {@link #add(long[], Object)}.
+	 */
+	default boolean addSubtree(int nEntries) {
+		return false;
+	}
+
+	/**
+	 * @return the aggregated result
+	 */
+	R result();
+
+	/**
+	 * @return An aggregator that counts entries.
+	 * @param <T> value type of the tree
+	 */
+	static <T> PhAggregator<T, Integer> count() {
+		return new PhAggregator<T, Integer>() {
+			private int n = 0;
+			@Override
+			public void add(long[] key, T value) {
+				n++;
+			}
+			@Override
+			public boolean addSubtree(int nEntries) {
+				n += nEntries;
+				return true;
+			}
+			@Override
+			public Integer result() {
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * @param fn function that extracts a field from a value
+	 * @return An aggregator that sums up the field values.
+	 * @param <T> value type of the tree
+	 */
+	static <T> PhAggregator<T, Double> sum(ToDoubleFunction<? super T> fn) {
+		return new PhAggregator<T, Double>() {
+			private double sum = 0;
+			@Override
+			public void add(long[] key, T value) {
+				sum += fn.applyAsDouble(value);
+			}
+			@Override
+			public Double result() {
+				return sum;
+			}
+		};
+	}
+
+	/**
+	 * @param fn function that extracts a field from a value
+	 * @return An aggregator that returns the minimum field value or {@code null} if
+	 * there are no entries.
+	 * @param <T> value type of the tree
+	 */
+	static <T> PhAggregator<T, Double> min(ToDoubleFunction<? super T> fn) {
+		return new PhAggregator<T, Double>() {
+			private Double min = null;
+			@Override
+			public void add(long[] key, T value) {
+				double d = fn.applyAsDouble(value);
+				if (min == null || d < min) {
+					min = d;
+				}
+			}
+			@Override
+			public Double result() {
+				return min;
+			}
+		};
+	}
+
+	/**
+	 * @param fn function that extracts a field from a value
+	 * @return An aggregator that returns the maximum field value or {@code null} if
+	 * there are no entries.
+	 * @param <T> value type of the tree
+	 */
+	static <T> PhAggregator<T, Double> max(ToDoubleFunction<? super T> fn) {
+		return new PhAggregator<T, Double>() {
+			private Double max = null;
+			@Override
+			public void add(long[] key, T value) {
+				double d = fn.applyAsDouble(value);
+				if (max == null || d > max) {
+					max = d;
+				}
+			}
+			@Override
+			public Double result() {
+				return max;
+			}
+		};
+	}
+}
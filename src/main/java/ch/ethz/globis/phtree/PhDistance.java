@@ -33,6 +33,47 @@ public interface PhDistance {
 	 */
 	void toMBB(double distance, long[] center, long[] outMin, long[] outMax);
 
+	/**
+	 * Check whether the distance function can be used with keys of the given dimensionality.
+	 * This is called once when a query is set up, so {@link #dist(long[], long[])} does not
+	 * need to validate its arguments.
+	 * @param dims number of dimensions of the keys
+	 * @throws IllegalArgumentException if the dimensionality is not supported
+	 */
+	default void checkDims(int dims) {
+		//any dimensionality
+	}
+
+
+	/**
+	 * Returns the minimum distance between {@code center} and any point inside the node
+	 * with the given prefix. This is a lower bound for the distance of all entries in the node
+	 * and is evaluated once per visited node by the kNN and distance queries.
+	 * <p>
+	 * The default implementation clamps the center to the node's bounds and calls
+	 * {@link #dist(long[], long[])}. Implementations may override this with a fused kernel that
+	 * does not need the buffer, but the result must never be larger than
+	 * {@code dist(center, p)} for any {@code p} inside the node.
+	 *
+	 * @param center the query center
+	 * @param prefix the node's prefix
+	 * @param bitsToIgnore trailing bits to ignore when using 'prefix' as node bounds
+	 * @param buf buffer of length {@code center.length} that may be used by the implementation
+	 * @return the minimum distance between the center and the node
+	 */
+	default double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		for (int i = 0; i < buf.length; i++) {
+			//if v is outside the node, return distance to closest edge,
+			//otherwise return v itself (assume possible distance=0)
+			long min = prefix[i] & maskMin;
+			long max = prefix[i] | maskMax;
+			buf[i] = min > center[i] ? min : (max < center[i] ? max : center[i]);
+		}
+		return dist(center, buf);
+	}
+
 
 	/**
 	 * Calculate array of distances. This is used by the new experimental k-nearest neighbor search (HSZ) to minimize 
@@ -29,12 +29,48 @@ public class PhDistanceF implements PhDistance {
 	 */
 	@Override
 	public double dist(long[] v1, long[] v2) {
-		double d = 0;
-		for (int i = 0; i < v1.length; i++) {
-			double dl = BitTools.toDouble(v1[i]) - BitTools.toDouble(v2[i]);
-			d += dl*dl;
+		//Four independent accumulators allow the CPU to execute several iterations in parallel.
+		double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+		int i = 0;
+		for (; i + 3 < v1.length; i += 4) {
+			d0 += sq(v1[i], v2[i]);
+			d1 += sq(v1[i+1], v2[i+1]);
+			d2 += sq(v1[i+2], v2[i+2]);
+			d3 += sq(v1[i+3], v2[i+3]);
 		}
-		return Math.sqrt(d);
+		for (; i < v1.length; i++) {
+			d0 += sq(v1[i], v2[i]);
+		}
+		return Math.sqrt((d0 + d1) + (d2 + d3));
+	}
+
+	private static double sq(long v1, long v2) {
+		double dl = BitTools.toDouble(v1) - BitTools.toDouble(v2);
+		return dl*dl;
+	}
+
+	/**
+	 * Calculate the minimum distance between 'center' and a node without creating the
+	 * closest point in the node explicitly.
+	 * 
+	 * @see PhDistance#distToNode(long[], long[], int, long[])
+	 */
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+		int i = 0;
+		for (; i + 3 < center.length; i += 4) {
+			d0 += sq(center[i], PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax));
+			d1 += sq(center[i+1], PhDistanceL.clamp(center[i+1], prefix[i+1], maskMin, maskMax));
+			d2 += sq(center[i+2], PhDistanceL.clamp(center[i+2], prefix[i+2], maskMin, maskMax));
+			d3 += sq(center[i+3], PhDistanceL.clamp(center[i+3], prefix[i+3], maskMin, maskMax));
+		}
+		for (; i < center.length; i++) {
+			d0 += sq(center[i], PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax));
+		}
+		return Math.sqrt((d0 + d1) + (d2 + d3));
 	}
 
 	@Override
@@ -50,11 +86,42 @@ public class PhDistanceF implements PhDistance {
 	
 	@Override
 	public void knnCalcDistances(long[] kNNCenter, long[] prefix, int bitsToIgnore, double[] outDistances) {
+		if (!knnAxisDistances(kNNCenter, prefix, bitsToIgnore, outDistances)) {
+			return;
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] *= outDistances[i];
+		}
+		
+		Arrays.sort(outDistances);
+
+		//create totals
+		for (int i = 1; i < outDistances.length; i++) {
+			outDistances[i] += outDistances[i-1];
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] = Math.sqrt(outDistances[i]);
+		}
+	}
+
+	/**
+	 * Calculates the absolute axis-aligned distances between the kNN center and the
+	 * center of the node, as required by 
+	 * {@link PhDistance#knnCalcDistances(long[], long[], int, double[])}.
+	 * 
+	 * @param kNNCenter Query center 
+	 * @param prefix  Node center
+	 * @param bitsToIgnore Trailing Bits to ignore when using 'prefix' as node center   
+	 * @param outDistances Unsorted array of distances
+	 * @return 'false' if the distances could not be calculated
+	 */
+	static boolean knnAxisDistances(long[] kNNCenter, long[] prefix, int bitsToIgnore, 
+			double[] outDistances) {
 		long maskSingleBit = 1L << (bitsToIgnore-1);
 		if (maskSingleBit < 0) {
 			//TODO
 			//can't yet deal with negative/positive of postLen==63
-			return;
+			return false;
 		}
 		long maskPrefix = (-1L) << bitsToIgnore;
 		long maskPostFix = (~maskPrefix) >> 1;
@@ -72,18 +139,9 @@ public class PhDistanceF implements PhDistance {
 
 			//TODO use unconverted input for nodeCenter???
 			double dist = BitTools.toDouble(nodeCenter) - BitTools.toDouble(kNNCenter[i]);
-			outDistances[i] = dist * dist;
-		}
-		
-		Arrays.sort(outDistances);
-
-		//create totals
-		for (int i = 1; i < outDistances.length; i++) {
-			outDistances[i] += outDistances[i-1];
-		}
-		for (int i = 0; i < outDistances.length; i++) {
-			outDistances[i] = Math.sqrt(outDistances[i]);
+			outDistances[i] = Math.abs(dist);
 		}
+		return true;
 	}
 
 	@Override
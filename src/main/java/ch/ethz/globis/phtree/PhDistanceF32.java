@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.Arrays;
+
+import ch.ethz.globis.phtree.pre.PreProcessorPointF32;
+
+
+/**
+ * Calculate the euclidean distance for {@code float} values that are encoded with
+ * a {@link PreProcessorPointF32}.
+ * 
+ * @see PhDistance
+ * @see PhTreeF32
+ */
+public class PhDistanceF32 implements PhDistance {
+
+	/** Distance function for the default IEEE preprocessor. */
+	public static final PhDistanceF32 THIS = new PhDistanceF32(new PreProcessorPointF32.IEEE());
+
+	private static final long MAX = 0xFFFFFFFFL;
+
+	private final PreProcessorPointF32 pre;
+
+	/**
+	 * @param pre the preprocessor that was used to encode the keys
+	 */
+	public PhDistanceF32(PreProcessorPointF32 pre) {
+		this.pre = pre;
+	}
+
+	/**
+	 * Calculate the euclidean distance for encoded {@code float} values.
+	 * 
+	 * @see PhDistance#dist(long[], long[])
+	 */
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+		int i = 0;
+		for (; i + 3 < v1.length; i += 4) {
+			d0 += sq(v1[i], v2[i]);
+			d1 += sq(v1[i+1], v2[i+1]);
+			d2 += sq(v1[i+2], v2[i+2]);
+			d3 += sq(v1[i+3], v2[i+3]);
+		}
+		for (; i < v1.length; i++) {
+			d0 += sq(v1[i], v2[i]);
+		}
+		return Math.sqrt((d0 + d1) + (d2 + d3));
+	}
+
+	private double sq(long v1, long v2) {
+		double dl = (double) pre.post(v1) - pre.post(v2);
+		return dl*dl;
+	}
+
+	/**
+	 * Calculate the minimum distance between 'center' and a node without creating the
+	 * closest point in the node explicitly.
+	 * 
+	 * @see PhDistance#distToNode(long[], long[], int, long[])
+	 */
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			d += sq(center[i], PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax));
+		}
+		return Math.sqrt(d);
+	}
+
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin,
+			long[] outMax) {
+		for (int i = 0; i < center.length; i++) {
+			double c = pre.post(center[i]);
+			double lo = c - distance;
+			double hi = c + distance;
+			//round outwards, the MBB must not be smaller than the range
+			if (lo <= pre.post(0)) {
+				outMin[i] = 0;
+			} else {
+				outMin[i] = pre.pre((float) lo);
+				if (outMin[i] > 0 && pre.post(outMin[i]) > lo) {
+					outMin[i]--;
+				}
+			}
+			if (hi >= pre.post(MAX)) {
+				outMax[i] = MAX;
+			} else {
+				outMax[i] = pre.pre((float) hi);
+				if (outMax[i] < MAX && pre.post(outMax[i]) < hi) {
+					outMax[i]++;
+				}
+			}
+		}
+	}
+
+	
+	@Override
+	public void knnCalcDistances(long[] kNNCenter, long[] prefix, int bitsToIgnore, double[] outDistances) {
+		long maskSingleBit = 1L << (bitsToIgnore-1);
+		if (maskSingleBit < 0) {
+			//not a 32 bit tree
+			return;
+		}
+		long maskPrefix = (-1L) << bitsToIgnore;
+		long maskPostFix = (~maskPrefix) >> 1;
+		for (int i = 0; i < prefix.length; i++) {
+			long nodeCenter = prefix[i] & maskPrefix;
+			//see PhDistanceF.knnAxisDistances()
+			boolean isLarger = kNNCenter[i] > (nodeCenter | maskPostFix);
+			nodeCenter |= isLarger ? maskPostFix : maskSingleBit;
+			double dist = (double) pre.post(nodeCenter) - pre.post(kNNCenter[i]);
+			outDistances[i] = dist * dist;
+		}
+		
+		Arrays.sort(outDistances);
+
+		//create totals
+		for (int i = 1; i < outDistances.length; i++) {
+			outDistances[i] += outDistances[i-1];
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] = Math.sqrt(outDistances[i]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.Arrays;
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+
+/**
+ * Calculate the cosine distance {@code 1 - cos(v1, v2)} for encoded {@code double} values.
+ * <p>
+ * All vectors (keys and query centers) must be normalized to unit length. For unit vectors the 
+ * cosine distance is {@code |v1-v2|^2 / 2}, which is what this class calculates. Using the
+ * squared euclidean distance allows the same node bounds as for {@link PhDistanceF}.
+ * 
+ * @see PhDistance
+ */
+public class PhDistanceF_Cosine implements PhDistance {
+
+	public static final PhDistanceF_Cosine THIS = new PhDistanceF_Cosine();
+
+	/**
+	 * Calculate the cosine distance for normalized encoded {@code double} values.
+	 * 
+	 * @see PhDistance#dist(long[], long[])
+	 */
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d = 0;
+		for (int i = 0; i < v1.length; i++) {
+			double dl = BitTools.toDouble(v1[i]) - BitTools.toDouble(v2[i]);
+			d += dl*dl;
+		}
+		return d/2;
+	}
+
+	/**
+	 * A cosine distance 'd' corresponds to an euclidean distance of {@code sqrt(2*d)}.
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		double dAxis = Math.sqrt(2*distance);
+		for (int i = 0; i < center.length; i++) {
+			double c = BitTools.toDouble(center[i]);
+			outMin[i] = BitTools.toSortableLong(c - dAxis);
+			outMax[i] = BitTools.toSortableLong(c + dAxis);
+		}
+	}
+
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			long c = PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax);
+			double dl = BitTools.toDouble(center[i]) - BitTools.toDouble(c);
+			d += dl*dl;
+		}
+		return d/2;
+	}
+
+	@Override
+	public void knnCalcDistances(long[] kNNCenter, long[] prefix, int bitsToIgnore, double[] outDistances) {
+		if (!PhDistanceF.knnAxisDistances(kNNCenter, prefix, bitsToIgnore, outDistances)) {
+			return;
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] *= outDistances[i];
+		}
+		
+		Arrays.sort(outDistances);
+
+		//create totals
+		for (int i = 1; i < outDistances.length; i++) {
+			outDistances[i] += outDistances[i-1];
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] /= 2;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName();
+	}
+
+}
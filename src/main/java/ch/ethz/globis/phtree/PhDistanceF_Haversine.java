@@ -0,0 +1,173 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+
+/**
+ * Calculate the great-circle (haversine) distance for encoded {@code double} values.
+ * <p>
+ * Keys must have two dimensions: {@code {latitude, longitude}} in degrees, with
+ * latitude in [-90, 90] and longitude in [-180, 180], as stored by a {@link PhTreeF} with
+ * the default (IEEE) preprocessor. Distances are returned in the unit of the radius.
+ *
+ * @see PhDistance
+ */
+public class PhDistanceF_Haversine implements PhDistance {
+
+	/** Mean earth radius in meters. */
+	public static final double EARTH_RADIUS_M = 6_371_008.8;
+
+	/** Haversine distance on earth, in meters. */
+	public static final PhDistanceF_Haversine EARTH = new PhDistanceF_Haversine(EARTH_RADIUS_M);
+
+	/** Relative margin that compensates rounding errors in bounding boxes and node distances. */
+	private static final double EPS = 1e-12;
+
+	private final double radius;
+
+	/**
+	 * @param radius the radius of the sphere, {@code > 0}.
+	 */
+	public PhDistanceF_Haversine(double radius) {
+		if (!(radius > 0) || Double.isInfinite(radius)) {
+			throw new IllegalArgumentException("Radius must be > 0: " + radius);
+		}
+		this.radius = radius;
+	}
+
+	/**
+	 * Calculate the great-circle distance for encoded {@code {lat, lon}} values.
+	 *
+	 * @see PhDistance#dist(long[], long[])
+	 */
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		return radius * angle(BitTools.toDouble(v1[0]), BitTools.toDouble(v1[1]),
+				BitTools.toDouble(v2[0]), BitTools.toDouble(v2[1]));
+	}
+
+	/**
+	 * @return The central angle in radians between two points given in degrees.
+	 */
+	private static double angle(double lat1, double lon1, double lat2, double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double sinDPhi = Math.sin((phi2 - phi1)/2);
+		double sinDLambda = Math.sin(Math.toRadians(lon2 - lon1)/2);
+		double h = sinDPhi*sinDPhi + Math.cos(phi1)*Math.cos(phi2)*sinDLambda*sinDLambda;
+		return 2*Math.asin(Math.sqrt(Math.min(1, h)));
+	}
+
+	/**
+	 * Calculates the bounding box of a circle on the sphere. If the circle contains a pole,
+	 * the box covers all longitudes. If the circle crosses the antimeridian, the box also covers
+	 * all longitudes, because a single box cannot represent the wrapped range. In both cases
+	 * the exact filtering is done with {@link #dist(long[], long[])} and
+	 * {@link #distToNode(long[], long[], int, long[])}.
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		double lat = BitTools.toDouble(center[0]);
+		double lon = BitTools.toDouble(center[1]);
+		double delta = distance / radius * (1 + EPS) + EPS;
+		double deltaDeg = Math.toDegrees(delta);
+		double latMin = lat - deltaDeg;
+		double latMax = lat + deltaDeg;
+		double lonMin = -180;
+		double lonMax = 180;
+		if (latMin > -90 && latMax < 90 && delta < Math.PI/2) {
+			//no pole inside the circle
+			double sinRatio = Math.sin(delta) / Math.cos(Math.toRadians(lat));
+			if (sinRatio < 1) {
+				double dLon = Math.toDegrees(Math.asin(sinRatio));
+				if (lon - dLon >= -180 && lon + dLon <= 180) {
+					lonMin = lon - dLon;
+					lonMax = lon + dLon;
+				}
+			}
+		}
+		outMin[0] = BitTools.toSortableLong(Math.max(-90, latMin));
+		outMax[0] = BitTools.toSortableLong(Math.min(90, latMax));
+		outMin[1] = BitTools.toSortableLong(lonMin);
+		outMax[1] = BitTools.toSortableLong(lonMax);
+	}
+
+	/**
+	 * Calculates the minimum great-circle distance between the center and the lat/lon box
+	 * of the node. If the center is outside the node's longitude range, the closest point lies
+	 * on one of the two bounding meridians.
+	 */
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double lat = BitTools.toDouble(center[0]);
+		double lon = BitTools.toDouble(center[1]);
+		double latMin = Math.max(-90, toDouble(prefix[0] & maskMin));
+		double latMax = Math.min(90, toDouble(prefix[0] | maskMax));
+		double lonMin = Math.max(-180, toDouble(prefix[1] & maskMin));
+		double lonMax = Math.min(180, toDouble(prefix[1] | maskMax));
+		if (latMin > latMax || lonMin > lonMax) {
+			//node contains no valid coordinates
+			return 0;
+		}
+
+		double a;
+		if (lon >= lonMin && lon <= lonMax) {
+			//closest point is on the same meridian
+			double latC = lat < latMin ? latMin : (lat > latMax ? latMax : lat);
+			a = Math.toRadians(Math.abs(lat - latC));
+		} else {
+			a = Math.min(angleToMeridian(lat, lon, lonMin, latMin, latMax),
+					angleToMeridian(lat, lon, lonMax, latMin, latMax));
+		}
+		return radius * a * (1 - EPS);
+	}
+
+	private static double toDouble(long l) {
+		double d = BitTools.toDouble(l);
+		if (Double.isNaN(d)) {
+			//sortable NaNs are located beyond +/- infinity
+			return l < 0 ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+		return d;
+	}
+
+	/**
+	 * @return the minimum angle between (lat, lon) and the meridian 'lonM' between
+	 * 'latMin' and 'latMax'.
+	 */
+	private static double angleToMeridian(double lat, double lon, double lonM,
+			double latMin, double latMax) {
+		double dLon = Math.toRadians(lon - lonM);
+		double cosDLon = Math.cos(dLon);
+		if (cosDLon <= 0) {
+			//The distance has no local minimum on this half of the meridian,
+			//so the minimum is at one of the ends.
+			return Math.min(angle(lat, lon, latMin, lonM), angle(lat, lon, latMax, lonM));
+		}
+		//latitude of the closest point on the (full) meridian
+		double latFoot = Math.toDegrees(Math.atan(Math.tan(Math.toRadians(lat)) / cosDLon));
+		double latC = latFoot < latMin ? latMin : (latFoot > latMax ? latMax : latFoot);
+		return angle(lat, lon, latC, lonM);
+	}
+
+	/**
+	 * @return the radius of the sphere
+	 */
+	public double getRadius() {
+		return radius;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(r=" + radius + ")";
+	}
+
+}
@@ -29,12 +29,47 @@ public class PhDistanceF_L1 implements PhDistance {
 	 */
 	@Override
 	public double dist(long[] v1, long[] v2) {
-		double d = 0;
-		for (int i = 0; i < v1.length; i++) {
-			double dl = BitTools.toDouble(v1[i]) - BitTools.toDouble(v2[i]);
-			d += Math.abs(dl);
+		//Four independent accumulators allow the CPU to execute several iterations in parallel.
+		double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+		int i = 0;
+		for (; i + 3 < v1.length; i += 4) {
+			d0 += abs(v1[i], v2[i]);
+			d1 += abs(v1[i+1], v2[i+1]);
+			d2 += abs(v1[i+2], v2[i+2]);
+			d3 += abs(v1[i+3], v2[i+3]);
 		}
-		return d;
+		for (; i < v1.length; i++) {
+			d0 += abs(v1[i], v2[i]);
+		}
+		return (d0 + d1) + (d2 + d3);
+	}
+
+	private static double abs(long v1, long v2) {
+		return Math.abs(BitTools.toDouble(v1) - BitTools.toDouble(v2));
+	}
+
+	/**
+	 * Calculate the minimum distance between 'center' and a node without creating the
+	 * closest point in the node explicitly.
+	 * 
+	 * @see PhDistance#distToNode(long[], long[], int, long[])
+	 */
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+		int i = 0;
+		for (; i + 3 < center.length; i += 4) {
+			d0 += abs(center[i], PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax));
+			d1 += abs(center[i+1], PhDistanceL.clamp(center[i+1], prefix[i+1], maskMin, maskMax));
+			d2 += abs(center[i+2], PhDistanceL.clamp(center[i+2], prefix[i+2], maskMin, maskMax));
+			d3 += abs(center[i+3], PhDistanceL.clamp(center[i+3], prefix[i+3], maskMin, maskMax));
+		}
+		for (; i < center.length; i++) {
+			d0 += abs(center[i], PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax));
+		}
+		return (d0 + d1) + (d2 + d3);
 	}
 
 	@Override
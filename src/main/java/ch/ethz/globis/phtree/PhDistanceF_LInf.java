@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.Arrays;
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+
+/**
+ * Calculate the L-infinity (Chebyshev/maximum) distance for encoded {@code double} values.
+ * 
+ * @see PhDistance
+ */
+public class PhDistanceF_LInf implements PhDistance {
+
+	public static final PhDistanceF_LInf THIS = new PhDistanceF_LInf();
+
+	/**
+	 * Calculate the L-infinity distance for encoded {@code double} values.
+	 * 
+	 * @see PhDistance#dist(long[], long[])
+	 */
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d = 0;
+		for (int i = 0; i < v1.length; i++) {
+			double dl = Math.abs(BitTools.toDouble(v1[i]) - BitTools.toDouble(v2[i]));
+			d = dl > d ? dl : d;
+		}
+		return d;
+	}
+
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		for (int i = 0; i < center.length; i++) {
+			double c = BitTools.toDouble(center[i]);
+			outMin[i] = BitTools.toSortableLong(c - distance);
+			outMax[i] = BitTools.toSortableLong(c + distance);
+		}
+	}
+
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			long c = PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax);
+			double dl = Math.abs(BitTools.toDouble(center[i]) - BitTools.toDouble(c));
+			d = dl > d ? dl : d;
+		}
+		return d;
+	}
+
+	@Override
+	public void knnCalcDistances(long[] kNNCenter, long[] prefix, int bitsToIgnore, double[] outDistances) {
+		if (!PhDistanceF.knnAxisDistances(kNNCenter, prefix, bitsToIgnore, outDistances)) {
+			return;
+		}
+		//The maximum of the 'n' smallest distances is simply the n'th smallest distance.
+		Arrays.sort(outDistances);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName();
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.Arrays;
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+
+/**
+ * Calculate the Minkowski (Lp) distance for encoded {@code double} values.
+ * For L1, L2 and L-infinity the specialized classes {@link PhDistanceF_L1}, {@link PhDistanceF}
+ * and {@link PhDistanceF_LInf} are faster. 
+ * 
+ * @see PhDistance
+ */
+public class PhDistanceF_Lp implements PhDistance {
+
+	private final double p;
+	private final double pInv;
+
+	/**
+	 * @param p the exponent, {@code p >= 1}.
+	 */
+	public PhDistanceF_Lp(double p) {
+		if (!(p >= 1) || Double.isInfinite(p)) {
+			throw new IllegalArgumentException("p must be >= 1 and finite: " + p);
+		}
+		this.p = p;
+		this.pInv = 1/p;
+	}
+
+	/**
+	 * Calculate the Lp distance for encoded {@code double} values.
+	 * 
+	 * @see PhDistance#dist(long[], long[])
+	 */
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d = 0;
+		for (int i = 0; i < v1.length; i++) {
+			double dl = BitTools.toDouble(v1[i]) - BitTools.toDouble(v2[i]);
+			d += Math.pow(Math.abs(dl), p);
+		}
+		return Math.pow(d, pInv);
+	}
+
+	/**
+	 * For {@code p >= 1}, no single axis can contribute more than the total distance, so
+	 * the MBB is the same as for Euclidean distance.
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		for (int i = 0; i < center.length; i++) {
+			double c = BitTools.toDouble(center[i]);
+			outMin[i] = BitTools.toSortableLong(c - distance);
+			outMax[i] = BitTools.toSortableLong(c + distance);
+		}
+	}
+
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			long c = PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax);
+			double dl = BitTools.toDouble(center[i]) - BitTools.toDouble(c);
+			d += Math.pow(Math.abs(dl), p);
+		}
+		return Math.pow(d, pInv);
+	}
+
+	@Override
+	public void knnCalcDistances(long[] kNNCenter, long[] prefix, int bitsToIgnore, double[] outDistances) {
+		if (!PhDistanceF.knnAxisDistances(kNNCenter, prefix, bitsToIgnore, outDistances)) {
+			return;
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] = Math.pow(outDistances[i], p);
+		}
+		
+		Arrays.sort(outDistances);
+
+		//create totals
+		for (int i = 1; i < outDistances.length; i++) {
+			outDistances[i] += outDistances[i-1];
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] = Math.pow(outDistances[i], pInv);
+		}
+	}
+
+	/**
+	 * @return the exponent 'p'
+	 */
+	public double getP() {
+		return p;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(p=" + p + ")";
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.Arrays;
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+
+/**
+ * Calculate the weighted euclidean distance for encoded {@code double} values:
+ * {@code sqrt(sum(w[i] * (v1[i]-v2[i])^2))}.
+ * 
+ * @see PhDistance
+ */
+public class PhDistanceF_WeightedL2 implements PhDistance {
+
+	private final double[] weights;
+	private final double[] maxAxisFactor;
+
+	/**
+	 * @param weights the weight per dimension, each weight must be {@code > 0}. The number
+	 * of weights must match the number of dimensions of the tree, this is verified by
+	 * {@link #checkDims(int)} when a query is set up.
+	 */
+	public PhDistanceF_WeightedL2(double... weights) {
+		this.weights = weights.clone();
+		this.maxAxisFactor = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			if (!(weights[i] > 0) || Double.isInfinite(weights[i])) {
+				throw new IllegalArgumentException("Weights must be > 0 and finite: " + 
+						Arrays.toString(weights));
+			}
+			maxAxisFactor[i] = 1/Math.sqrt(weights[i]);
+		}
+	}
+
+	/**
+	 * Calculate the weighted euclidean distance for encoded {@code double} values.
+	 * 
+	 * @see PhDistance#dist(long[], long[])
+	 */
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d = 0;
+		for (int i = 0; i < v1.length; i++) {
+			double dl = BitTools.toDouble(v1[i]) - BitTools.toDouble(v2[i]);
+			d += weights[i]*dl*dl;
+		}
+		return Math.sqrt(d);
+	}
+
+	/**
+	 * Along axis 'i', a point can be at most {@code distance/sqrt(w[i])} away from the center.
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		for (int i = 0; i < center.length; i++) {
+			double c = BitTools.toDouble(center[i]);
+			double dAxis = distance*maxAxisFactor[i];
+			outMin[i] = BitTools.toSortableLong(c - dAxis);
+			outMax[i] = BitTools.toSortableLong(c + dAxis);
+		}
+	}
+
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			long c = PhDistanceL.clamp(center[i], prefix[i], maskMin, maskMax);
+			double dl = BitTools.toDouble(center[i]) - BitTools.toDouble(c);
+			d += weights[i]*dl*dl;
+		}
+		return Math.sqrt(d);
+	}
+
+	@Override
+	public void knnCalcDistances(long[] kNNCenter, long[] prefix, int bitsToIgnore, double[] outDistances) {
+		if (!PhDistanceF.knnAxisDistances(kNNCenter, prefix, bitsToIgnore, outDistances)) {
+			return;
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] = weights[i]*outDistances[i]*outDistances[i];
+		}
+		
+		Arrays.sort(outDistances);
+
+		//create totals
+		for (int i = 1; i < outDistances.length; i++) {
+			outDistances[i] += outDistances[i-1];
+		}
+		for (int i = 0; i < outDistances.length; i++) {
+			outDistances[i] = Math.sqrt(outDistances[i]);
+		}
+	}
+
+	@Override
+	public void checkDims(int dims) {
+		if (dims != weights.length) {
+			throw new IllegalArgumentException("Number of weights does not match the " + 
+					"number of dimensions: " + weights.length + " / " + dims);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + Arrays.toString(weights);
+	}
+
+}
@@ -26,7 +26,6 @@ public class PhDistanceL implements PhDistance {
 	 */
 	@Override
 	public double dist(long[] v1, long[] v2) {
-		double d = 0;
 		//How do we best handle this?
 		//Substraction can easily overflow, especially with floating point values that have been 
 		//converted to 'long'.
@@ -36,14 +35,65 @@ public class PhDistanceL implements PhDistance {
 		//   'double' values. However, we can thus enforce using PhDistanceF instead. This
 		//   would be absolutely precise and unlikely to overflow.
 		//The dl*dl can be done as 'double', which is always safe.
-		for (int i = 0; i < v1.length; i++) {
-			//double dl = (double)v1[i] - (double)v2[i];
-			long dl = Math.subtractExact(v1[i], v2[i]);
-			d += Math.multiplyExact(dl, dl);
-//			double dl = Math.subtractExact(v1[i], v2[i]);
-//			d += dl*dl;
+		//We use four independent accumulators, this breaks the dependency chain of the
+		//additions and allows the CPU to execute several iterations in parallel.
+		double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+		int i = 0;
+		for (; i + 3 < v1.length; i += 4) {
+			d0 += sq(v1[i], v2[i]);
+			d1 += sq(v1[i+1], v2[i+1]);
+			d2 += sq(v1[i+2], v2[i+2]);
+			d3 += sq(v1[i+3], v2[i+3]);
 		}
-		return Math.sqrt(d);
+		for (; i < v1.length; i++) {
+			d0 += sq(v1[i], v2[i]);
+		}
+		return Math.sqrt((d0 + d1) + (d2 + d3));
+	}
+
+	private static double sq(long v1, long v2) {
+		//double dl = (double)v1 - (double)v2;
+		long dl = Math.subtractExact(v1, v2);
+		return (double) dl * dl;
+	}
+
+	/**
+	 * Calculate the minimum distance between 'center' and a node without creating the
+	 * closest point in the node explicitly. The accumulation order is the same as in
+	 * {@link #dist(long[], long[])}, so the result is never larger than the distance of any
+	 * point in the node.
+	 * 
+	 * @see PhDistance#distToNode(long[], long[], int, long[])
+	 */
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore, long[] buf) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+		int i = 0;
+		for (; i + 3 < center.length; i += 4) {
+			d0 += sq(center[i], clamp(center[i], prefix[i], maskMin, maskMax));
+			d1 += sq(center[i+1], clamp(center[i+1], prefix[i+1], maskMin, maskMax));
+			d2 += sq(center[i+2], clamp(center[i+2], prefix[i+2], maskMin, maskMax));
+			d3 += sq(center[i+3], clamp(center[i+3], prefix[i+3], maskMin, maskMax));
+		}
+		for (; i < center.length; i++) {
+			d0 += sq(center[i], clamp(center[i], prefix[i], maskMin, maskMax));
+		}
+		return Math.sqrt((d0 + d1) + (d2 + d3));
+	}
+
+	/**
+	 * @param v a coordinate
+	 * @param prefix the node's prefix in the same dimension
+	 * @param maskMin mask for the lower node bound
+	 * @param maskMax mask for the upper node bound
+	 * @return The coordinate 'v' clamped to the bounds of the node.
+	 */
+	static long clamp(long v, long prefix, long maskMin, long maskMax) {
+		long min = prefix & maskMin;
+		long max = prefix | maskMax;
+		return min > v ? min : (max < v ? max : v);
 	}
 
 	@Override
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+
+/**
+ * Filter that accepts only keys that are stored after a given key in z-order, see
+ * {@link PhTreeHelper#compareZOrder(long[], long[])}. This is used to resume queries.
+ * <p>
+ * Every node covers a contiguous range in z-order. Nodes are rejected if the last key in 
+ * their range is not after the given key. Nodes that contain the given key can start
+ * iterating at {@link #startPos(long[], int)}.
+ */
+public class PhFilterAfterKey implements PhFilter {
+
+	/**  */
+	private static final long serialVersionUID = 1L;
+
+	private final long[] afterKey;
+	private final long[] buf;
+
+	/**
+	 * @param afterKey only keys after this key are accepted
+	 */
+	public PhFilterAfterKey(long[] afterKey) {
+		this.afterKey = afterKey.clone();
+		this.buf = new long[afterKey.length];
+	}
+
+	@Override
+	public boolean isValid(long[] key) {
+		return PhTreeHelper.compareZOrder(key, afterKey) > 0;
+	}
+
+	@Override
+	public boolean isValid(int bitsToIgnore, long[] prefix) {
+		long maskMax = bitsToIgnore == 64 ? -1L : ~((-1L) << bitsToIgnore);
+		for (int i = 0; i < prefix.length; i++) {
+			buf[i] = prefix[i] | maskMax;
+		}
+		return PhTreeHelper.compareZOrder(buf, afterKey) > 0;
+	}
+
+	/**
+	 * Entries in a node at a lower hypercube position than the returned position are
+	 * ordered before the given key. This works only for up to 62 dimensions.
+	 * @param prefix the prefix of the node, may be {@code null} for the root node
+	 * @param postLen the postfix length of the node
+	 * @return the hypercube position of the given key in the node, or 0 if the node does 
+	 * not contain the given key.
+	 */
+	public long startPos(long[] prefix, int postLen) {
+		if (postLen < 63) {
+			if (prefix == null) {
+				return 0;
+			}
+			long mask = (-1L) << (postLen + 1);
+			for (int i = 0; i < prefix.length; i++) {
+				if (((prefix[i] ^ afterKey[i]) & mask) != 0) {
+					return 0;
+				}
+			}
+		}
+		return PhTreeHelper.posInArray(afterKey, postLen);
+	}
+
+}
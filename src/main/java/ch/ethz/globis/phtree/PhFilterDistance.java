@@ -21,6 +21,7 @@ public class PhFilterDistance implements PhFilter {
 	private long[] v;
 	private PhDistance dist;
 	private double maxDist;
+	private transient long[] buf;
 
 	/**
 	 * Set the parameters for this distance filter.
@@ -45,17 +46,10 @@ public class PhFilterDistance implements PhFilter {
 
 	@Override
 	public boolean isValid(int bitsToIgnore, long[] prefix) {
-		long maskMin = (-1L) << bitsToIgnore;
-		long maskMax = ~maskMin;
-		long[] buf = new long[prefix.length];
-		for (int i = 0; i < buf.length; i++) {
-			//if v is outside the node, return distance to closest edge,
-			//otherwise return v itself (assume possible distance=0)
-			long min = prefix[i] & maskMin;
-			long max = prefix[i] | maskMax;
-			buf[i] = min > v[i] ? min : (max < v[i] ? max : v[i]); 
+		if (buf == null || buf.length != prefix.length) {
+			buf = new long[prefix.length];
 		}
-		return dist.dist(v, buf) <= maxDist;
+		return dist.distToNode(v, prefix, bitsToIgnore, buf) <= maxDist;
 	}
 
 	public PhDistance getDistance() {
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+
+/**
+ * Filter for reverse nearest neighbour queries (TPL). The filter rejects keys and nodes for
+ * which at least 'k' pruning points are guaranteed to be closer than the query center.
+ * Such keys cannot have the center among their 'k' nearest neighbours.
+ * <p>
+ * Keys are checked with the distance function. Nodes are checked with half-spaces: a node
+ * is pruned if it lies completely on the side of the bisector between center and at least 'k'
+ * pruning points. This is only exact for euclidean distances, so node pruning is only
+ * performed for {@link PhDistanceL} and {@link PhDistanceF}. For other distance functions,
+ * only keys are filtered.
+ */
+public class PhFilterRkNN implements PhFilter {
+
+	/**  */
+	private static final long serialVersionUID = 1L;
+
+	/** Relative margin that compensates rounding errors in the half-space test. */
+	private static final double EPS = 1e-12;
+
+	private final int k;
+	private final PhDistance dist;
+	private final long[] center;
+	private final ArrayList<long[]> pruners = new ArrayList<>();
+	private final boolean isL;
+	private final boolean isF;
+
+	/**
+	 * @param k the 'k' of the RkNN query
+	 * @param dist the distance function
+	 * @param center the query center
+	 */
+	public PhFilterRkNN(int k, PhDistance dist, long[] center) {
+		this.k = k;
+		this.dist = dist;
+		this.center = center;
+		this.isL = dist instanceof PhDistanceL;
+		this.isF = dist instanceof PhDistanceF;
+	}
+
+	/**
+	 * Add a data point that is used for pruning.
+	 * @param key a key that exists in the tree
+	 */
+	public void addPruningPoint(long[] key) {
+		pruners.add(key);
+	}
+
+	@Override
+	public boolean isValid(long[] key) {
+		double dCenter = dist.dist(key, center);
+		int n = 0;
+		for (int i = 0; i < pruners.size(); i++) {
+			long[] p = pruners.get(i);
+			if (dist.dist(key, p) < dCenter && !Arrays.equals(key, p) && ++n >= k) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isValid(int bitsToIgnore, long[] prefix) {
+		if (!isL && !isF) {
+			return true;
+		}
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		int n = 0;
+		for (int i = 0; i < pruners.size(); i++) {
+			if (isDominated(pruners.get(i), prefix, maskMin, maskMax) && ++n >= k) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether all points in the node are closer to 'p' than to the center.
+	 * For x in the node we check max(|x-p|^2 - |x-c|^2) < 0. The function is linear in x, so
+	 * the maximum is located at a corner of the node.
+	 * Pruning points inside the node are ignored, because they may be the key that is
+	 * checked, and a key cannot prune itself.
+	 */
+	private boolean isDominated(long[] p, long[] prefix, long maskMin, long maskMax) {
+		double f = 0;
+		double mag = 0;
+		boolean pInside = true;
+		for (int i = 0; i < prefix.length; i++) {
+			long lMin = prefix[i] & maskMin;
+			long lMax = prefix[i] | maskMax;
+			pInside &= lMin <= p[i] && p[i] <= lMax;
+			double pi = toDouble(p[i]);
+			double ci = toDouble(center[i]);
+			double diff = pi - ci;
+			if (diff == 0) {
+				continue;
+			}
+			//choose the corner that maximizes -2*x*(p-c)
+			double x = diff > 0 ? toDouble(lMin) : toDouble(lMax);
+			if (Double.isInfinite(x)) {
+				return false;
+			}
+			double t1 = -2*x*diff;
+			double t2 = pi*pi - ci*ci;
+			f += t1 + t2;
+			mag += Math.abs(t1) + Math.abs(t2);
+		}
+		return !pInside && f < -EPS*mag;
+	}
+
+	private double toDouble(long l) {
+		if (isL) {
+			return l;
+		}
+		double d = BitTools.toDouble(l);
+		if (Double.isNaN(d)) {
+			//sortable NaNs are located beyond +/- infinity
+			return l < 0 ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+		return d;
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.v16.PhQueryKnnGroup;
+import ch.ethz.globis.phtree.v16.PhTree16;
+
+/**
+ * All-nearest-neighbour and kNN-join queries.
+ * <p>
+ * The entries of the outer tree are processed in z-order, so that consecutive kNN queries
+ * visit mostly the same nodes of the inner tree. The entries are split into chunks of
+ * consecutive entries. Each chunk is processed with a single kNN query instance that is
+ * reset for every entry, so the priority queues and entry pools are reused.
+ * With 'parallel=true' the chunks are processed in parallel in the common ForkJoinPool.
+ * This requires that the trees are not modified during the join.
+ * <p>
+ * If the inner tree is a {@link PhTree16} and the distance function is supported by
+ * {@link PhQueryKnnGroup}, each chunk is split into groups of consecutive entries. Every 
+ * group is searched with a single traversal of the inner tree that compares node regions 
+ * with the bounding box of the group, see {@link PhQueryKnnGroup}.
+ */
+public class PhKnnJoin {
+
+	/** Minimum number of entries per chunk. */
+	private static final int MIN_CHUNK_SIZE = 64;
+	/** Number of chunks per thread, for load balancing. */
+	private static final int CHUNKS_PER_THREAD = 8;
+	/** Number of entries that are searched together with a group query. */
+	private static final int GROUP_SIZE = 32;
+
+	/**
+	 * Consumer for kNN-join results.
+	 * @param <T> value type of the outer tree
+	 * @param <U> value type of the inner tree
+	 */
+	@FunctionalInterface
+	public interface PhKnnConsumer<T, U> {
+		/**
+		 * @param entry an entry of the outer tree
+		 * @param neighbours the nearest neighbours of 'entry' in the inner tree, ordered by
+		 * distance. The list and its entries are reused and are only valid during the call.
+		 */
+		void accept(PhEntry<T> entry, List<PhEntryDist<U>> neighbours);
+	}
+
+	private PhKnnJoin() {
+		//static methods only
+	}
+
+	/**
+	 * Find the 'k' nearest neighbours for every entry in 'tree'. The entry itself is not
+	 * returned as neighbour.
+	 * @param tree the tree
+	 * @param k number of neighbours per entry
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param parallel whether to use multiple threads. If 'true', the consumer must be
+	 * thread-safe.
+	 * @param consumer the consumer of the results
+	 * @param <T> value type
+	 */
+	public static <T> void allNearestNeighbours(PhTree<T> tree, int k, PhDistance dist,
+			boolean parallel, PhKnnConsumer<T, T> consumer) {
+		join(tree, tree, k, dist, parallel, true, consumer);
+	}
+
+	/**
+	 * For every entry in 'outer', find the 'k' nearest neighbours in 'inner'.
+	 * @param outer the outer tree
+	 * @param inner the tree in which neighbours are searched
+	 * @param k number of neighbours per entry
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param parallel whether to use multiple threads. If 'true', the consumer must be
+	 * thread-safe.
+	 * @param consumer the consumer of the results
+	 * @param <T> value type of the outer tree
+	 * @param <U> value type of the inner tree
+	 */
+	public static <T, U> void knnJoin(PhTree<T> outer, PhTree<U> inner, int k, PhDistance dist,
+			boolean parallel, PhKnnConsumer<T, U> consumer) {
+		if (outer.getDim() != inner.getDim()) {
+			throw new IllegalArgumentException("Dimensions differ: " + outer.getDim() +
+					" / " + inner.getDim());
+		}
+		join(outer, inner, k, dist, parallel, false, consumer);
+	}
+
+	private static <T, U> void join(PhTree<T> outer, PhTree<U> inner, int k, PhDistance dist,
+			boolean parallel, boolean excludeSelf, PhKnnConsumer<T, U> consumer) {
+		if (k <= 0 || outer.size() == 0) {
+			return;
+		}
+		PhDistance d = dist == null ? PhDistanceL.THIS : dist;
+
+		//collect outer entries in z-order
+		List<PhEntry<T>> entries = new ArrayList<>(outer.size());
+		PhExtent<T> it = outer.queryExtent();
+		while (it.hasNext()) {
+			entries.add(it.nextEntry());
+		}
+
+		int nThreads = parallel ? Runtime.getRuntime().availableProcessors() : 1;
+		int chunkSize = Math.max(MIN_CHUNK_SIZE,
+				(entries.size() + nThreads*CHUNKS_PER_THREAD - 1) / (nThreads*CHUNKS_PER_THREAD));
+		int nChunks = (entries.size() + chunkSize - 1) / chunkSize;
+		IntStream chunks = IntStream.range(0, nChunks);
+		if (parallel) {
+			chunks = chunks.parallel();
+		}
+		if (inner instanceof PhTree16 && PhQueryKnnGroup.isSupported(d)) {
+			PhTree16<U> inner16 = (PhTree16<U>) inner;
+			chunks.forEach(c -> processChunkGroups(entries, c*chunkSize,
+					Math.min(entries.size(), (c+1)*chunkSize), inner16, k, d, excludeSelf, 
+					consumer));
+		} else {
+			chunks.forEach(c -> processChunk(entries, c*chunkSize,
+					Math.min(entries.size(), (c+1)*chunkSize), inner, k, d, excludeSelf, 
+					consumer));
+		}
+	}
+
+	private static <T, U> void processChunkGroups(List<PhEntry<T>> entries, int start, int end,
+			PhTree16<U> inner, int k, PhDistance dist, boolean excludeSelf,
+			PhKnnConsumer<T, U> consumer) {
+		PhQueryKnnGroup<U> q = new PhQueryKnnGroup<>(inner);
+		List<PhEntryDist<U>> neighbours = new ArrayList<>(k);
+		long[][] centers = new long[GROUP_SIZE][];
+		for (int i = start; i < end; i += GROUP_SIZE) {
+			int n = Math.min(GROUP_SIZE, end - i);
+			for (int j = 0; j < n; j++) {
+				centers[j] = entries.get(i + j).getKey();
+			}
+			q.reset(k, dist, excludeSelf, centers, n);
+			for (int j = 0; j < n; j++) {
+				q.getResult(j, neighbours);
+				consumer.accept(entries.get(i + j), neighbours);
+			}
+		}
+	}
+
+	private static <T, U> void processChunk(List<PhEntry<T>> entries, int start, int end,
+			PhTree<U> inner, int k, PhDistance dist, boolean excludeSelf,
+			PhKnnConsumer<T, U> consumer) {
+		int kInner = excludeSelf ? k + 1 : k;
+		List<PhEntryDist<U>> neighbours = new ArrayList<>(kInner);
+		PhKnnQuery<U> q = null;
+		for (int i = start; i < end; i++) {
+			PhEntry<T> e = entries.get(i);
+			long[] key = e.getKey();
+			if (q == null) {
+				q = inner.nearestNeighbour(kInner, dist, null, key);
+			} else {
+				q.reset(kInner, dist, key);
+			}
+			neighbours.clear();
+			while (q.hasNext() && neighbours.size() < k) {
+				PhEntryDist<U> n = q.nextEntryReuse();
+				if (excludeSelf && Arrays.equals(key, n.getKey())) {
+					continue;
+				}
+				neighbours.add(n);
+			}
+			consumer.accept(e, neighbours);
+		}
+	}
+}
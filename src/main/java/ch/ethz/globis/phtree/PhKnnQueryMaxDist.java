@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.NoSuchElementException;
+
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+
+/**
+ * Distance-bounded kNN query for trees that do not support 'maxDist' natively, see
+ * {@link PhTree#nearestNeighbour(int, double, PhDistance, long...)}.
+ * It runs a normal kNN query and stops at the first entry that is further away than 'maxDist'.
+ * This relies on kNN queries returning entries in order of increasing distance.
+ *
+ * @param <T> value type
+ */
+class PhKnnQueryMaxDist<T> implements PhKnnQuery<T> {
+
+	private final PhTree<T> tree;
+	private PhKnnQuery<T> knn;
+	private double maxDist;
+	//the next result and the result returned by nextEntryReuse()
+	private PhEntryDist<T> next;
+	private PhEntryDist<T> current;
+	private boolean hasNext;
+
+	PhKnnQueryMaxDist(PhTree<T> tree) {
+		this.tree = tree;
+		this.next = new PhEntryDist<>(new long[tree.getDim()], null, 0);
+		this.current = new PhEntryDist<>(new long[tree.getDim()], null, 0);
+	}
+
+	@Override
+	public PhKnnQuery<T> reset(int nMin, PhDistance dist, long... center) {
+		return reset(nMin, Double.POSITIVE_INFINITY, dist, center);
+	}
+
+	/**
+	 * @param nMin maximum number of entries to return
+	 * @param maxDist maximum distance
+	 * @param dist distance function, can be {@code null}
+	 * @param center the center point
+	 * @return this query
+	 */
+	PhKnnQuery<T> reset(int nMin, double maxDist, PhDistance dist, long... center) {
+		this.maxDist = maxDist;
+		PhDistance d = dist == null ? PhDistanceL.THIS : dist;
+		int n = Math.min(nMin, tree.size());
+		if (knn == null) {
+			knn = tree.nearestNeighbour(n, d, null, center);
+		} else {
+			knn.reset(n, d, center);
+		}
+		findNext();
+		return this;
+	}
+
+	private void findNext() {
+		hasNext = false;
+		if (knn.hasNext()) {
+			PhEntryDist<T> e = knn.nextEntryReuse();
+			if (e.dist() <= maxDist) {
+				next.setCopyKey(e.getKey(), e.getValue(), e.dist());
+				hasNext = true;
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	@Override
+	public PhEntryDist<T> nextEntryReuse() {
+		if (!hasNext) {
+			throw new NoSuchElementException();
+		}
+		PhEntryDist<T> e = next;
+		next = current;
+		current = e;
+		findNext();
+		return e;
+	}
+
+	@Override
+	public PhEntryDist<T> nextEntry() {
+		return new PhEntryDist<>(nextEntryReuse());
+	}
+
+	@Override
+	public long[] nextKey() {
+		return nextEntry().getKey();
+	}
+
+	@Override
+	public T nextValue() {
+		return nextEntryReuse().getValue();
+	}
+
+	@Override
+	public T next() {
+		return nextValue();
+	}
+}
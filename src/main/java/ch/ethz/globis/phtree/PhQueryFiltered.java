@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.NoSuchElementException;
+
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+
+/**
+ * Window query that returns only entries that pass a {@link PhFilter}, for trees that
+ * do not support filters natively, see {@link PhTree#query(long[], long[], long[])}.
+ * The filter is applied to the results of a normal window query, so it does not skip
+ * any nodes.
+ *
+ * @param <T> value type
+ */
+class PhQueryFiltered<T> implements PhQuery<T> {
+
+	private final PhTree<T> tree;
+	private final PhFilter filter;
+	private PhQuery<T> query;
+	//the next result and the result returned by nextEntryReuse()
+	private PhEntry<T> next;
+	private PhEntry<T> current;
+	private boolean hasNext;
+
+	PhQueryFiltered(PhTree<T> tree, PhFilter filter) {
+		this.tree = tree;
+		this.filter = filter;
+		this.next = new PhEntry<>(new long[tree.getDim()], null);
+		this.current = new PhEntry<>(new long[tree.getDim()], null);
+	}
+
+	@Override
+	public void reset(long[] min, long[] max) {
+		if (query == null) {
+			query = tree.query(min, max);
+		} else {
+			query.reset(min, max);
+		}
+		findNext();
+	}
+
+	private void findNext() {
+		while (query.hasNext()) {
+			PhEntry<T> e = query.nextEntryReuse();
+			if (filter.isValid(e.getKey())) {
+				System.arraycopy(e.getKey(), 0, next.getKey(), 0, next.getKey().length);
+				next.setValue(e.getValue());
+				hasNext = true;
+				return;
+			}
+		}
+		hasNext = false;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	@Override
+	public PhEntry<T> nextEntryReuse() {
+		if (!hasNext) {
+			throw new NoSuchElementException();
+		}
+		PhEntry<T> e = next;
+		next = current;
+		current = e;
+		findNext();
+		return e;
+	}
+
+	@Override
+	public PhEntry<T> nextEntry() {
+		return new PhEntry<>(nextEntryReuse());
+	}
+
+	@Override
+	public long[] nextKey() {
+		return nextEntry().getKey();
+	}
+
+	@Override
+	public T nextValue() {
+		return nextEntryReuse().getValue();
+	}
+
+	@Override
+	public T next() {
+		return nextValue();
+	}
+}
@@ -29,6 +29,7 @@ public class PhRangeQuery<T> implements PhIterator<T> {
   public PhRangeQuery(PhQuery<T> iter, PhTree<T> tree, 
       PhDistance dist, PhFilterDistance filter) {
     this.dims = tree.getDim();
+    dist.checkDims(dims);
     this.q = iter;
     this.dist = dist;
     this.filter = filter;
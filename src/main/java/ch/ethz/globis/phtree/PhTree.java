@@ -6,7 +6,13 @@
  */
 package ch.ethz.globis.phtree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 import ch.ethz.globis.phtree.util.PhIteratorBase;
 import ch.ethz.globis.phtree.util.PhMapper;
@@ -43,6 +49,20 @@ public interface PhTree<T> {
 	 */
 	public PhTreeStats getStats();
 
+	/**
+	 * Statistics of the nodes near the root. Nodes are visited in breadth-first order until 
+	 * 'maxEntries' entries have been visited, so the cost does not depend on the size of 
+	 * the tree. Only {@code nNodes}, {@code nTotalChildren} and {@code nodeSizeLogHist} 
+	 * are filled in.
+	 * <p>
+	 * The default implementation returns {@link #getStats()}.
+	 * @param maxEntries the number of entries after which no more nodes are visited
+	 * @return PH-Tree statistics of the visited nodes
+	 */
+	public default PhTreeStats getStatsSample(int maxEntries) {
+		return getStats();
+	}
+
 
 	/**
 	 * Insert an entry associated with a k dimensional key.
@@ -75,6 +95,85 @@ public interface PhTree<T> {
 	 */
 	public abstract T remove(long... key);
 
+	/**
+	 * Emulates {@link java.util.Map#compute(Object, BiFunction)}. The function is called
+	 * with the key and the current value, or {@code null} if the key does not exist.
+	 * If the function returns {@code null}, the entry is removed, otherwise the new value is 
+	 * inserted or replaces the current value. Entries with a {@code null} value are treated 
+	 * like absent entries, however they are not removed if the function returns {@code null}.
+	 * The v13, v16 and v16HD PH-trees perform this in a single traversal of the tree.
+	 * @param key the key
+	 * @param remappingFunction the function that computes the new value
+	 * @return the new value or {@code null} if there is none
+	 */
+	public default T compute(long[] key, BiFunction<long[], ? super T, ? extends T> remappingFunction) {
+		T oldValue = get(key);
+		T newValue = remappingFunction.apply(key, oldValue);
+		if (newValue == null) {
+			if (oldValue != null) {
+				remove(key);
+			}
+		} else if (newValue != oldValue) {
+			put(key, newValue);
+		}
+		return newValue;
+	}
+
+	/**
+	 * Emulates {@link java.util.Map#computeIfAbsent(Object, Function)}.
+	 * @param key the key
+	 * @param mappingFunction the function that computes a value if the key does not exist
+	 * @return the current (existing or computed) value or {@code null} if there is none
+	 * @see #compute(long[], BiFunction)
+	 */
+	public default T computeIfAbsent(long[] key, Function<long[], ? extends T> mappingFunction) {
+		return compute(key, (k, v) -> v != null ? v : mappingFunction.apply(k));
+	}
+
+	/**
+	 * Emulates {@link java.util.Map#computeIfPresent(Object, BiFunction)}.
+	 * @param key the key
+	 * @param remappingFunction the function that computes a value if the key exists
+	 * @return the new value or {@code null} if there is none
+	 * @see #compute(long[], BiFunction)
+	 */
+	public default T computeIfPresent(long[] key, 
+			BiFunction<long[], ? super T, ? extends T> remappingFunction) {
+		return compute(key, (k, v) -> v == null ? null : remappingFunction.apply(k, v));
+	}
+
+	/**
+	 * Emulates {@link java.util.Map#putIfAbsent(Object, Object)}.
+	 * @param key the key
+	 * @param value the value to insert if the key does not exist
+	 * @return the previous value or {@code null} if there was none
+	 * @see #compute(long[], BiFunction)
+	 */
+	@SuppressWarnings("unchecked")
+	public default T putIfAbsent(long[] key, T value) {
+		Object[] prev = new Object[1];
+		compute(key, (k, v) -> {
+			prev[0] = v;
+			return v != null ? v : value;
+		});
+		return (T) prev[0];
+	}
+
+	/**
+	 * Emulates {@link java.util.Map#merge(Object, Object, BiFunction)}. If the key does not 
+	 * exist, the given value is inserted. Otherwise the function is called with the current 
+	 * and the given value.
+	 * @param key the key
+	 * @param value the value to insert or to merge with the current value
+	 * @param remappingFunction the function that merges the values
+	 * @return the new value or {@code null} if there is none
+	 * @see #compute(long[], BiFunction)
+	 */
+	public default T merge(long[] key, T value, 
+			BiFunction<? super T, ? super T, ? extends T> remappingFunction) {
+		return compute(key, (k, v) -> v == null ? value : remappingFunction.apply(v, value));
+	}
+
 	/**
 	 * @return A string with a list of all entries in the tree.
 	 */
@@ -100,6 +199,31 @@ public interface PhTree<T> {
 	 */
 	public abstract PhQuery<T> query(long[] min, long[] max);
 
+	/**
+	 * Performs a rectangular window query that starts after 'afterKey'. Entries are
+	 * returned in z-order (the order in which they are stored in the tree), so the key of the
+	 * last entry of a page can be used as 'afterKey' to resume the query with the next page.
+	 * <p>
+	 * v13 and v16 trees start iterating every node on the path to 'afterKey' at the
+	 * position of 'afterKey' and skip all other nodes before 'afterKey' by their prefix,
+	 * so they do not rescan previous pages. v16HD skips nodes by their prefix only. Other 
+	 * trees run a normal query and filter out the entries before 'afterKey'. 
+	 * <p>
+	 * Note that calling {@link PhQuery#reset(long[], long[])} on the returned query 
+	 * keeps 'afterKey'.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @param afterKey only entries after this key are returned. The key does not need to 
+	 * exist in the tree.
+	 * @return Result iterator.
+	 * @see PhTreeHelper#compareZOrder(long[], long[])
+	 */
+	public default PhQuery<T> query(long[] min, long[] max, long[] afterKey) {
+		PhQuery<T> q = new PhQueryFiltered<>(this, new PhFilterAfterKey(afterKey));
+		q.reset(min, max);
+		return q;
+	}
+
 	/**
 	 * 
 	 * @return the number of dimensions of the tree
@@ -116,6 +240,10 @@ public interface PhTree<T> {
 	 * Locate nearest neighbours for a given point in space.
 	 * @param nMin number of entries to be returned. More entries may or may not be returned if 
 	 * several points have the same distance.
+	 * <p>
+	 * The v13, v16 and v16HD trees compute the results lazily while the iterator is 
+	 * consumed. The tree must therefore not be modified until the iterator is exhausted
+	 * or discarded, see {@link PhKnnQuery}.
 	 * @param key the center point
 	 * @return The query iterator.
 	 */
@@ -128,11 +256,42 @@ public interface PhTree<T> {
 	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
 	 * @param dims the dimension filter, can be {@code null}
 	 * @param key the center point
-	 * @return The query iterator.
+	 * @return The query iterator. The tree must not be modified while it is in use, 
+	 * see {@link PhKnnQuery}.
 	 */
 	public abstract PhKnnQuery<T> nearestNeighbour(int nMin, PhDistance dist, PhFilter dims, 
 			long... key);
 
+	/**
+	 * Locate at most 'nMin' nearest neighbours within a maximum distance of a given point.
+	 * Nodes that are further away than 'maxDist' are never traversed. Results are returned in
+	 * order of increasing distance. Trees without native support run a normal kNN query 
+	 * and stop at the first entry that is further away than 'maxDist'.
+	 * @param nMin maximum number of entries to be returned
+	 * @param maxDist the maximum distance
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param center the center point
+	 * @return The query iterator.
+	 */
+	public default PhKnnQuery<T> nearestNeighbour(int nMin, double maxDist, PhDistance dist, 
+			long... center) {
+		return new PhKnnQueryMaxDist<>(this).reset(nMin, maxDist, dist, center);
+	}
+
+	/**
+	 * Locate nearest neighbours for a given point in space without a fixed number of 
+	 * results. Entries are returned in order of increasing distance until the iterator
+	 * is exhausted or the caller stops iterating. The v13 and v16 trees calculate the results 
+	 * lazily, i.e. they only traverse as much of the tree as is required for the 
+	 * returned entries.
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param center the center point
+	 * @return The query iterator.
+	 */
+	public default PhKnnQuery<T> nearestNeighbourIncremental(PhDistance dist, long... center) {
+		return nearestNeighbour(size(), dist == null ? PhDistanceL.THIS : dist, null, center);
+	}
+
 	/**
 	 * Find all entries within a given distance from a center point.
 	 * @param dist Maximum distance
@@ -150,6 +309,111 @@ public interface PhTree<T> {
 	 */
 	public abstract PhRangeQuery<T> rangeQuery(double dist, PhDistance optionalDist, long... center);
 
+	/**
+	 * Find all entries within a given distance from a center point. Unlike 
+	 * {@link #rangeQuery(double, PhDistance, long...)}, the entries are returned in order of 
+	 * increasing distance, together with their distance. The tree is traversed lazily 
+	 * (best-first), so stopping early avoids traversing the rest of the tree.
+	 * @param dist Maximum distance
+	 * @param optionalDist Distance function, optional, can be `null`.
+	 * @param center Center point
+	 * @return All entries with at most distance `dist` from `center`, ordered by distance.
+	 * @see #nearestNeighbour(int, double, PhDistance, long...)
+	 */
+	public default PhKnnQuery<T> rangeQueryOrdered(double dist, PhDistance optionalDist, 
+			long... center) {
+		return nearestNeighbour(Integer.MAX_VALUE, dist, optionalDist, center);
+	}
+
+	/**
+	 * Reverse nearest neighbour query: find all entries that have 'center' among their 'k'
+	 * nearest neighbours, i.e. entries for which fewer than 'k' other entries are closer than
+	 * 'center'.
+	 * <p>
+	 * This implements the TPL filter/refine approach. The nearest neighbours of 'center' 
+	 * are used as pruning points, nodes and entries that are closer to at least 'k' pruning
+	 * points than to 'center' are skipped. The remaining candidates are verified with a 
+	 * distance-bounded kNN query.
+	 * @param k the 'k'
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param center the query point, does not need to exist in the tree
+	 * @return All entries that have 'center' among their 'k' nearest neighbours. The distance 
+	 * to 'center' is available via {@link PhEntryDist#dist()}.
+	 * @see PhFilterRkNN
+	 */
+	public default List<PhEntryDist<T>> reverseNearestNeighbour(int k, PhDistance dist, 
+			long... center) {
+		PhDistance d = dist == null ? PhDistanceL.THIS : dist;
+		List<PhEntryDist<T>> result = new ArrayList<>();
+		if (k <= 0 || size() == 0) {
+			return result;
+		}
+		
+		//filter
+		PhFilterRkNN filter = new PhFilterRkNN(k, d, center);
+		int nPruners = Math.min(size(), k * (4 * getDim() + 4));
+		PhKnnQuery<T> nn = nearestNeighbour(nPruners, d, null, center);
+		while (nn.hasNext()) {
+			filter.addPruningPoint(nn.nextEntryReuse().getKey().clone());
+		}
+		long[] min = new long[getDim()];
+		long[] max = new long[getDim()];
+		Arrays.fill(min, Long.MIN_VALUE);
+		Arrays.fill(max, Long.MAX_VALUE);
+		List<PhEntryDist<T>> candidates = queryAll(min, max, Integer.MAX_VALUE, filter, 
+				e -> new PhEntryDist<>(e.getKey().clone(), e.getValue(), 0));
+		
+		//refine
+		for (PhEntryDist<T> c : candidates) {
+			long[] key = c.getKey();
+			double dCenter = d.dist(key, center);
+			int nCloser = 0;
+			PhKnnQuery<T> q = nearestNeighbour(k + 1, dCenter, d, key);
+			while (q.hasNext() && nCloser < k) {
+				PhEntryDist<T> e = q.nextEntryReuse();
+				if (e.dist() < dCenter && !Arrays.equals(key, e.getKey())) {
+					nCloser++;
+				}
+			}
+			if (nCloser < k) {
+				c.setDist(dCenter);
+				result.add(c);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * All-nearest-neighbours query: find the 'k' nearest neighbours of every entry in this
+	 * tree. The entry itself is not reported as its own neighbour.
+	 * @param k number of neighbours per entry
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param parallel whether to process the entries with multiple threads. If 'true', the 
+	 * consumer must be thread-safe.
+	 * @param consumer receives each entry with its neighbours, ordered by distance
+	 * @see PhKnnJoin
+	 */
+	public default void allNearestNeighbours(int k, PhDistance dist, boolean parallel,
+			PhKnnJoin.PhKnnConsumer<T, T> consumer) {
+		PhKnnJoin.allNearestNeighbours(this, k, dist, parallel, consumer);
+	}
+
+	/**
+	 * kNN-join: find the 'k' nearest neighbours in 'other' for every entry in this tree.
+	 * @param other the tree in which the neighbours are searched
+	 * @param k number of neighbours per entry
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param parallel whether to process the entries with multiple threads. If 'true', the 
+	 * consumer must be thread-safe.
+	 * @param consumer receives each entry with its neighbours, ordered by distance
+	 * @param <U> value type of the other tree
+	 * @see PhKnnJoin
+	 */
+	public default <U> void knnJoin(PhTree<U> other, int k, PhDistance dist, boolean parallel,
+			PhKnnJoin.PhKnnConsumer<T, U> consumer) {
+		PhKnnJoin.knnJoin(this, other, k, dist, parallel, consumer);
+	}
+
 	/**
 	 * Update the key of an entry. Update may fail if the old key does not exist, or if the new
 	 * key already exists.
@@ -160,6 +424,29 @@ public interface PhTree<T> {
 	 */
 	public T update(long[] oldKey, long[] newKey);
 
+	/**
+	 * Update the keys of several entries. This is equivalent to calling 
+	 * {@link #update(long[], long[])} for every pair of keys, except that the updates
+	 * may be executed in a different order. Therefore, a key should not occur more than once.
+	 * @param oldKeys the old keys
+	 * @param newKeys the new keys
+	 * @return the number of entries that were found and updated
+	 */
+	public default int updateAll(long[][] oldKeys, long[][] newKeys) {
+		if (oldKeys.length != newKeys.length) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + oldKeys.length +  
+					" / " + newKeys.length);
+		}
+		int n = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (contains(oldKeys[i])) {
+				update(oldKeys[i], newKeys[i]);
+				n++;
+			}
+		}
+		return n;
+	}
+
 	/**
 	 * Same as {@link #query(long[], long[])}, except that it returns a list
 	 * instead of an iterator. This may be faster for small result sets. 
@@ -183,6 +470,66 @@ public interface PhTree<T> {
 	public <R> List<R> queryAll(long[] min, long[] max, int maxResults, 
 			PhFilter filter, PhMapper<T, R> mapper);
 
+	/**
+	 * Count the entries in a rectangular window.
+	 * @param min the minimum values
+	 * @param max the maximum values
+	 * @return the number of entries in the window
+	 */
+	public default int count(long[] min, long[] max) {
+		return aggregate(min, max, PhAggregator.count());
+	}
+
+	/**
+	 * Aggregate the entries in a rectangular window. Trees that maintain subtree counts
+	 * pass subtrees that lie completely inside the window to
+	 * {@link PhAggregator#addSubtree(int)}, all other entries are passed to
+	 * {@link PhAggregator#add(long[], Object)}.
+	 * @param min the minimum values
+	 * @param max the maximum values
+	 * @param aggregator the aggregation function
+	 * @return the result of the aggregator
+	 * @param <R> the result type
+	 */
+	public default <R> R aggregate(long[] min, long[] max, PhAggregator<T, R> aggregator) {
+		PhQuery<T> q = query(min, max);
+		while (q.hasNext()) {
+			PhEntry<T> e = q.nextEntryReuse();
+			aggregator.add(e.getKey(), e.getValue());
+		}
+		return aggregator.result();
+	}
+
+	/**
+	 * Find the 'k' entries with the highest score in a rectangular window.
+	 * @param min the minimum values
+	 * @param max the maximum values
+	 * @param k the maximum number of entries to return
+	 * @param score the score function
+	 * @return Up to 'k' entries, ordered by descending score. The score is available
+	 * via {@link PhEntryDist#dist()}.
+	 */
+	public default List<PhEntryDist<T>> queryTopK(long[] min, long[] max, int k, 
+			ToDoubleFunction<? super T> score) {
+		PriorityQueue<PhEntryDist<T>> heap = new PriorityQueue<>(Math.max(1, k), PhEntryDist.COMP);
+		PhQuery<T> q = query(min, max);
+		while (q.hasNext()) {
+			PhEntry<T> e = q.nextEntryReuse();
+			double s = score.applyAsDouble(e.getValue());
+			if (heap.size() < k) {
+				heap.add(new PhEntryDist<>(e, s));
+			} else if (k > 0 && s > heap.peek().dist()) {
+				//reuse the entry with the lowest score
+				PhEntryDist<T> lowest = heap.poll();
+				lowest.set(e, s);
+				heap.add(lowest);
+			}
+		}
+		List<PhEntryDist<T>> result = new ArrayList<>(heap);
+		result.sort(PhEntryDist.COMP.reversed());
+		return result;
+	}
+
 	/**
 	 * Create a new tree with the specified number of dimensions.
 	 * 
@@ -271,6 +618,11 @@ public interface PhTree<T> {
 
 	/**
 	 * Interface for k nearest neighbor queries. The reset methods allows reusing the query.
+	 * <p>
+	 * Depending on the tree version, the results are either calculated in advance by 
+	 * {@link #reset(int, PhDistance, long...)} or lazily during iteration (v13, v16 and v16HD).
+	 * With lazy iteration, modifying the tree while the query is in use has undefined 
+	 * results. To modify the tree during iteration, copy the results into a list first.
 	 * 
 	 * @param <T> the type of the iterator value
 	 */
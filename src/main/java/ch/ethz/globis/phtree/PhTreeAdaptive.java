@@ -0,0 +1,651 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import ch.ethz.globis.phtree.util.PhMapper;
+import ch.ethz.globis.phtree.util.PhTreeStats;
+import ch.ethz.globis.phtree.v13.PhTree13;
+import ch.ethz.globis.phtree.v16.PhTree16;
+import ch.ethz.globis.phtree.v16hd.PhTree16HD;
+
+/**
+ * PH-tree facade that selects the tree implementation based on the observed workload.
+ * <p>
+ * The facade counts operations by type. With {@link #setAutoMigrate(boolean) autoMigrate}
+ * enabled, every operation triggers an evaluation with probability 
+ * 1/{@link #setCheckInterval(int) checkInterval}, at most one evaluation runs at a time. 
+ * The evaluation samples the {@link PhTreeStats} of the nodes near the root, see 
+ * {@link PhTree#getStatsSample(int)}, and asks the {@link Policy} for the best version.
+ * If the policy recommends another version, the tree is migrated in the background.
+ * Automatic migration is disabled by default, {@link #adapt()} can be called instead.
+ * <p>
+ * All tree versions are created with the same {@link PhTreeConfig}.
+ * <p>
+ * Migration copies the tree in z-order batches, see
+ * {@link PhTree#query(long[], long[], long[])}. Writers are synchronized with the copier,
+ * updates to keys that have already been copied are applied to both trees, so the final
+ * switch is instantaneous. Readers are never blocked, they use the old tree until the
+ * migration is complete. Iterators that were created before the switch continue on the
+ * old tree.
+ * <p>
+ * Like all PH-tree implementations, the facade does not make concurrent writes safe.
+ *
+ * @param <T> The value type of the tree
+ */
+public class PhTreeAdaptive<T> implements PhTree<T> {
+
+	/** Tree implementations. */
+	public enum Version {
+		V13, V16, V16HD;
+	}
+
+	/**
+	 * Policy for choosing the tree implementation.
+	 */
+	@FunctionalInterface
+	public interface Policy {
+		/**
+		 * @param dim number of dimensions
+		 * @param current the current version
+		 * @param workload the operations since the last evaluation
+		 * @param stats sampled statistics of the current tree
+		 * @return the recommended version
+		 */
+		Version choose(int dim, Version current, Workload workload, PhTreeStats stats);
+	}
+
+	/**
+	 * Number of operations since the last evaluation, by type.
+	 */
+	public static class Workload {
+		public final long nPointQueries;
+		public final long nWindowQueries;
+		public final long nKnnQueries;
+		public final long nUpdates;
+
+		public Workload(long nPointQueries, long nWindowQueries, long nKnnQueries,
+				long nUpdates) {
+			this.nPointQueries = nPointQueries;
+			this.nWindowQueries = nWindowQueries;
+			this.nKnnQueries = nKnnQueries;
+			this.nUpdates = nUpdates;
+		}
+
+		/**
+		 * @return total number of operations
+		 */
+		public long total() {
+			return nPointQueries + nWindowQueries + nKnnQueries + nUpdates;
+		}
+
+		/**
+		 * @return the fraction of updates, or 0 if there were no operations
+		 */
+		public double updateRatio() {
+			long n = total();
+			return n == 0 ? 0 : nUpdates / (double) n;
+		}
+	}
+
+	/**
+	 * The default policy.
+	 * <ul>
+	 * <li> dim &gt; 60 always uses v16HD. </li>
+	 * <li> Update-heavy workloads (&gt;50% updates) on trees with large nodes (average
+	 * fan-out of the sampled nodes &ge; 16) use v16, because v16 avoids copying large 
+	 * node arrays. </li>
+	 * <li> Read-mostly workloads (&lt;10% updates) with dim &lt; 8 use v13, which has
+	 * faster node scans. </li>
+	 * <li> Otherwise the current version is kept. </li>
+	 * </ul>
+	 */
+	public static final Policy DEFAULT_POLICY = (dim, current, workload, stats) -> {
+		if (dim > 60) {
+			return Version.V16HD;
+		}
+		double fanOut = stats.nNodes == 0 ? 0 : stats.nTotalChildren / (double) stats.nNodes;
+		double updateRatio = workload.updateRatio();
+		if (updateRatio > 0.5 && fanOut >= 16) {
+			return Version.V16;
+		}
+		if (updateRatio < 0.1 && dim < 8) {
+			return Version.V13;
+		}
+		return current;
+	};
+
+	/** Number of entries that are copied per batch during migration. */
+	private static final int MIGRATION_BATCH_SIZE = 1024;
+	/** Number of entries that are visited for the statistics of an evaluation. */
+	private static final int SAMPLE_SIZE = 4096;
+
+	private final PhTreeConfig cfg;
+	private final int dim;
+	private volatile PhTree<T> tree;
+	private volatile Version version;
+	private Policy policy = DEFAULT_POLICY;
+	private int checkInterval = 1 << 16;
+	private int minSize = 1000;
+	private boolean autoMigrate = false;
+
+	private final LongAdder nPointQueries = new LongAdder();
+	private final LongAdder nWindowQueries = new LongAdder();
+	private final LongAdder nKnnQueries = new LongAdder();
+	private final LongAdder nUpdates = new LongAdder();
+
+	/** Synchronizes writers with the migration. */
+	private final Object writeLock = new Object();
+	private final AtomicBoolean isMigrating = new AtomicBoolean();
+	private final AtomicBoolean isEvaluating = new AtomicBoolean();
+	//These are guarded by writeLock
+	private PhTree<T> target;
+	private long[] cursor;
+	private volatile CompletableFuture<Void> migration = CompletableFuture.completedFuture(null);
+
+	/**
+	 * @param dim number of dimensions
+	 */
+	public PhTreeAdaptive(int dim) {
+		this(new PhTreeConfig(dim));
+	}
+
+	/**
+	 * @param cfg configuration for all tree versions
+	 */
+	public PhTreeAdaptive(PhTreeConfig cfg) {
+		this.cfg = cfg;
+		this.dim = cfg.getDim();
+		this.version = dim > 60 ? Version.V16HD : (dim >= 8 ? Version.V16 : Version.V13);
+		this.tree = newTree(version);
+	}
+
+	/**
+	 * Create a new tree with the specified number of dimensions.
+	 *
+	 * @param dim number of dimensions
+	 * @return PhTreeAdaptive
+	 * @param <T> the type of the values
+	 */
+	public static <T> PhTreeAdaptive<T> create(int dim) {
+		return new PhTreeAdaptive<>(dim);
+	}
+
+	/**
+	 * Create a new tree with the specified configuration.
+	 *
+	 * @param cfg configuration for all tree versions
+	 * @return PhTreeAdaptive
+	 * @param <T> the type of the values
+	 */
+	public static <T> PhTreeAdaptive<T> create(PhTreeConfig cfg) {
+		return new PhTreeAdaptive<>(cfg);
+	}
+
+	private PhTree<T> newTree(Version version) {
+		switch (version) {
+		case V13: return new PhTree13<>(cfg);
+		case V16: return new PhTree16<>(cfg);
+		case V16HD: return new PhTree16HD<>(cfg);
+		default: throw new IllegalArgumentException("version=" + version);
+		}
+	}
+
+	/**
+	 * @param policy the policy for choosing the tree implementation
+	 * @return this
+	 */
+	public PhTreeAdaptive<T> setPolicy(Policy policy) {
+		this.policy = policy;
+		return this;
+	}
+
+	/**
+	 * @param checkInterval the average number of operations between evaluations
+	 * @return this
+	 */
+	public PhTreeAdaptive<T> setCheckInterval(int checkInterval) {
+		if (checkInterval < 1) {
+			throw new IllegalArgumentException("checkInterval=" + checkInterval);
+		}
+		this.checkInterval = checkInterval;
+		return this;
+	}
+
+	/**
+	 * @param minSize trees with fewer entries are never migrated automatically
+	 * @return this
+	 */
+	public PhTreeAdaptive<T> setMinSize(int minSize) {
+		this.minSize = minSize;
+		return this;
+	}
+
+	/**
+	 * @param autoMigrate whether to evaluate the workload and migrate automatically, the 
+	 * default is {@code false}
+	 * @return this
+	 */
+	public PhTreeAdaptive<T> setAutoMigrate(boolean autoMigrate) {
+		this.autoMigrate = autoMigrate;
+		return this;
+	}
+
+	/**
+	 * @return the version of the current tree
+	 */
+	public Version getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the current tree
+	 */
+	public PhTree<T> getInternalTree() {
+		return tree;
+	}
+
+	/**
+	 * @return the current or last migration
+	 */
+	public CompletableFuture<Void> getMigration() {
+		return migration;
+	}
+
+	/**
+	 * @return the workload since the last evaluation
+	 */
+	public Workload getWorkload() {
+		return new Workload(nPointQueries.sum(), nWindowQueries.sum(), nKnnQueries.sum(),
+				nUpdates.sum());
+	}
+
+	/**
+	 * Evaluate the workload and start a migration if the policy recommends another version.
+	 * @return the migration, or {@code null} if no migration was started or if another 
+	 * evaluation is in progress
+	 */
+	public CompletableFuture<Void> adapt() {
+		if (!isEvaluating.compareAndSet(false, true)) {
+			return null;
+		}
+		return evaluate();
+	}
+
+	/**
+	 * Must only be called after acquiring 'isEvaluating'.
+	 */
+	private CompletableFuture<Void> evaluate() {
+		try {
+			Workload w = new Workload(nPointQueries.sumThenReset(), 
+					nWindowQueries.sumThenReset(), nKnnQueries.sumThenReset(), 
+					nUpdates.sumThenReset());
+			PhTreeStats stats;
+			synchronized (writeLock) {
+				stats = tree.getStatsSample(SAMPLE_SIZE);
+			}
+			Version v = policy.choose(dim, version, w, stats);
+			if (v == version) {
+				return null;
+			}
+			return migrateAsync(v);
+		} finally {
+			isEvaluating.set(false);
+		}
+	}
+
+	/**
+	 * Migrate to another tree implementation in the background.
+	 * @param newVersion the new version
+	 * @return the migration, or {@code null} if another migration is in progress
+	 */
+	public CompletableFuture<Void> migrateAsync(Version newVersion) {
+		if (!isMigrating.compareAndSet(false, true)) {
+			return null;
+		}
+		CompletableFuture<Void> f = CompletableFuture.runAsync(() -> doMigrate(newVersion));
+		migration = f;
+		return f;
+	}
+
+	/**
+	 * Migrate to another tree implementation in the current thread.
+	 * @param newVersion the new version
+	 */
+	public void migrate(Version newVersion) {
+		if (!isMigrating.compareAndSet(false, true)) {
+			throw new IllegalStateException("Migration in progress");
+		}
+		doMigrate(newVersion);
+	}
+
+	private void doMigrate(Version newVersion) {
+		try {
+			if (newVersion == version) {
+				return;
+			}
+			if (newVersion != Version.V16HD && dim > 60) {
+				throw new IllegalArgumentException("version=" + newVersion + " dim=" + dim);
+			}
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			Arrays.fill(min, Long.MIN_VALUE);
+			Arrays.fill(max, Long.MAX_VALUE);
+			synchronized (writeLock) {
+				target = newTree(newVersion);
+				cursor = null;
+			}
+			while (true) {
+				synchronized (writeLock) {
+					PhQuery<T> q = cursor == null ? tree.query(min, max)
+							: tree.query(min, max, cursor);
+					int n = 0;
+					while (n < MIGRATION_BATCH_SIZE && q.hasNext()) {
+						PhEntry<T> e = q.nextEntry();
+						target.put(e.getKey(), e.getValue());
+						cursor = e.getKey();
+						n++;
+					}
+					if (n < MIGRATION_BATCH_SIZE) {
+						tree = target;
+						version = newVersion;
+						target = null;
+						cursor = null;
+						return;
+					}
+				}
+			}
+		} finally {
+			synchronized (writeLock) {
+				target = null;
+				cursor = null;
+			}
+			isMigrating.set(false);
+		}
+	}
+
+	/**
+	 * Apply the state of 'key' to the migration target, if 'key' has already been copied.
+	 * Must be called while holding the write lock.
+	 */
+	private void mirror(long[] key) {
+		if (target != null && cursor != null && PhTreeHelper.compareZOrder(key, cursor) <= 0) {
+			if (tree.contains(key)) {
+				target.put(key, tree.get(key));
+			} else {
+				target.remove(key);
+			}
+		}
+	}
+
+	private void record(LongAdder counter) {
+		counter.increment();
+		if (autoMigrate && ThreadLocalRandom.current().nextInt(checkInterval) == 0
+				&& !isMigrating.get() && tree.size() >= minSize 
+				&& isEvaluating.compareAndSet(false, true)) {
+			CompletableFuture.runAsync(this::evaluate);
+		}
+	}
+
+	@Override
+	public int size() {
+		return tree.size();
+	}
+
+	@Override
+	public PhTreeStats getStats() {
+		return tree.getStats();
+	}
+
+	@Override
+	public PhTreeStats getStatsSample(int maxEntries) {
+		return tree.getStatsSample(maxEntries);
+	}
+
+	@Override
+	public T put(long[] key, T value) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			T ret = tree.put(key, value);
+			mirror(key);
+			return ret;
+		}
+	}
+
+	@Override
+	public boolean contains(long... key) {
+		record(nPointQueries);
+		return tree.contains(key);
+	}
+
+	@Override
+	public T get(long... key) {
+		record(nPointQueries);
+		return tree.get(key);
+	}
+
+	@Override
+	public T remove(long... key) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			T ret = tree.remove(key);
+			mirror(key);
+			return ret;
+		}
+	}
+
+	@Override
+	public T update(long[] oldKey, long[] newKey) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			T ret = tree.update(oldKey, newKey);
+			mirror(oldKey);
+			mirror(newKey);
+			return ret;
+		}
+	}
+
+	@Override
+	public int updateAll(long[][] oldKeys, long[][] newKeys) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			int ret = tree.updateAll(oldKeys, newKeys);
+			if (target != null) {
+				for (int i = 0; i < oldKeys.length; i++) {
+					mirror(oldKeys[i]);
+					mirror(newKeys[i]);
+				}
+			}
+			return ret;
+		}
+	}
+
+	@Override
+	public T compute(long[] key, BiFunction<long[], ? super T, ? extends T> remappingFunction) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			T ret = tree.compute(key, remappingFunction);
+			mirror(key);
+			return ret;
+		}
+	}
+
+	@Override
+	public T computeIfAbsent(long[] key, Function<long[], ? extends T> mappingFunction) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			T ret = tree.computeIfAbsent(key, mappingFunction);
+			mirror(key);
+			return ret;
+		}
+	}
+
+	@Override
+	public T computeIfPresent(long[] key, 
+			BiFunction<long[], ? super T, ? extends T> remappingFunction) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			T ret = tree.computeIfPresent(key, remappingFunction);
+			mirror(key);
+			return ret;
+		}
+	}
+
+	@Override
+	public T putIfAbsent(long[] key, T value) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			T ret = tree.putIfAbsent(key, value);
+			mirror(key);
+			return ret;
+		}
+	}
+
+	@Override
+	public T merge(long[] key, T value, 
+			BiFunction<? super T, ? super T, ? extends T> remappingFunction) {
+		record(nUpdates);
+		synchronized (writeLock) {
+			T ret = tree.merge(key, value, remappingFunction);
+			mirror(key);
+			return ret;
+		}
+	}
+
+	@Override
+	public void clear() {
+		record(nUpdates);
+		synchronized (writeLock) {
+			tree.clear();
+			if (target != null) {
+				target.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toStringPlain() {
+		return tree.toStringPlain();
+	}
+
+	@Override
+	public String toStringTree() {
+		return tree.toStringTree();
+	}
+
+	@Override
+	public PhExtent<T> queryExtent() {
+		record(nWindowQueries);
+		return tree.queryExtent();
+	}
+
+	@Override
+	public PhQuery<T> query(long[] min, long[] max) {
+		record(nWindowQueries);
+		return tree.query(min, max);
+	}
+
+	@Override
+	public PhQuery<T> query(long[] min, long[] max, long[] afterKey) {
+		record(nWindowQueries);
+		return tree.query(min, max, afterKey);
+	}
+
+	@Override
+	public int getDim() {
+		return dim;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return tree.getBitDepth();
+	}
+
+	@Override
+	public PhKnnQuery<T> nearestNeighbour(int nMin, long... key) {
+		record(nKnnQueries);
+		return tree.nearestNeighbour(nMin, key);
+	}
+
+	@Override
+	public PhKnnQuery<T> nearestNeighbour(int nMin, PhDistance dist, PhFilter dims,
+			long... key) {
+		record(nKnnQueries);
+		return tree.nearestNeighbour(nMin, dist, dims, key);
+	}
+
+	@Override
+	public PhKnnQuery<T> nearestNeighbour(int nMin, double maxDist, PhDistance dist,
+			long... center) {
+		record(nKnnQueries);
+		return tree.nearestNeighbour(nMin, maxDist, dist, center);
+	}
+
+	@Override
+	public PhKnnQuery<T> nearestNeighbourIncremental(PhDistance dist, long... center) {
+		record(nKnnQueries);
+		return tree.nearestNeighbourIncremental(dist, center);
+	}
+
+	@Override
+	public PhRangeQuery<T> rangeQuery(double dist, long... center) {
+		record(nWindowQueries);
+		return tree.rangeQuery(dist, center);
+	}
+
+	@Override
+	public PhRangeQuery<T> rangeQuery(double dist, PhDistance optionalDist, long... center) {
+		record(nWindowQueries);
+		return tree.rangeQuery(dist, optionalDist, center);
+	}
+
+	@Override
+	public List<PhEntry<T>> queryAll(long[] min, long[] max) {
+		record(nWindowQueries);
+		return tree.queryAll(min, max);
+	}
+
+	@Override
+	public <R> List<R> queryAll(long[] min, long[] max, int maxResults, PhFilter filter,
+			PhMapper<T, R> mapper) {
+		record(nWindowQueries);
+		return tree.queryAll(min, max, maxResults, filter, mapper);
+	}
+
+	@Override
+	public int count(long[] min, long[] max) {
+		record(nWindowQueries);
+		return tree.count(min, max);
+	}
+
+	@Override
+	public <R> R aggregate(long[] min, long[] max, PhAggregator<T, R> aggregator) {
+		record(nWindowQueries);
+		return tree.aggregate(min, max, aggregator);
+	}
+
+	@Override
+	public List<PhEntryDist<T>> queryTopK(long[] min, long[] max, int k,
+			ToDoubleFunction<? super T> score) {
+		record(nWindowQueries);
+		return tree.queryTopK(min, max, k, score);
+	}
+
+	@Override
+	public String toString() {
+		return "PhTreeAdaptive(" + version + "): " + tree.toString();
+	}
+}
@@ -22,7 +22,18 @@ public class PhTreeConfig {
 	private boolean[] unique; 
 	private int concurrencyType = CONCURRENCY_NONE;
 	private PersistenceProvider persProvider = PersistenceProvider.NONE;
-	
+	private boolean subtreeCounts = false;
+	private int bstMaxLeafN = 0;
+	private int bstMaxInnerN = 0;
+	private int bstInitialLeafN = 0;
+	private boolean bstAutoTune = false;
+	private double ahcLhcBias = -1;
+	private int ntThreshold = 0;
+	private int ntHysteresis = 0;
+	private boolean adaptiveNodeThresholds = false;
+	private boolean compactKeys = false;
+	private int depth = 64;
+
 	public PhTreeConfig(int dim) {
 		this.dimUser = dim;
 		this.dimActual = dim;
@@ -55,7 +66,20 @@ public class PhTreeConfig {
 	 * @return Depth in bits.
 	 */
 	public int getDepth() {
-		return 64;
+		return depth;
+	}
+
+	/**
+	 * Set the bit depth of keys. With a depth smaller than 64, all keys must be in 
+	 * the range [0, 2^depth). The tree can then omit the upper bits, which makes it 
+	 * shallower. Currently only supported by the v13 and v16 PH-trees.
+	 * @param depth the depth in bits, 1 to 64
+	 */
+	public void setDepth(int depth) {
+		if (depth < 1 || depth > 64) {
+			throw new IllegalArgumentException("depth=" + depth);
+		}
+		this.depth = depth;
 	}
 
 	public int[] getDimsToSplit() {
@@ -85,4 +109,118 @@ public class PhTreeConfig {
 	public PersistenceProvider getPersistenceProvider() {
 		return persProvider;
 	}
+
+	/**
+	 * Let nodes maintain the number of entries in their subtree. This speeds up
+	 * {@link PhTree#count(long[], long[])} and {@link PhTree#aggregate(long[], long[], PhAggregator)}
+	 * at the cost of slightly slower updates. Currently only supported by the v16 PH-tree.
+	 * @param subtreeCounts whether to maintain subtree counts
+	 */
+	public void setSubtreeCounts(boolean subtreeCounts) {
+		this.subtreeCounts = subtreeCounts;
+	}
+
+	public boolean isSubtreeCounts() {
+		return subtreeCounts;
+	}
+
+	/**
+	 * Set the page sizes of the node-internal B+trees. This is only used by the v16 and 
+	 * v16HD PH-trees. Larger leaf pages reduce the number of pages but make updates 
+	 * and scans of a page slower. 
+	 * @param maxLeafN maximum number of entries in leaf pages, 0 for the default
+	 * @param maxInnerN maximum number of keys in inner pages, 0 for the default
+	 * @see ch.ethz.globis.phtree.util.BSTPageSizes#forDims(int)
+	 */
+	public void setBstPageSizes(int maxLeafN, int maxInnerN) {
+		this.bstMaxLeafN = maxLeafN;
+		this.bstMaxInnerN = maxInnerN;
+	}
+
+	/**
+	 * @param initialLeafN initial capacity of leaf pages, 0 for the default
+	 */
+	public void setBstInitialLeafN(int initialLeafN) {
+		this.bstInitialLeafN = initialLeafN;
+	}
+
+	/**
+	 * Let the tree adapt the initial capacity of leaf pages to the observed fan-out.
+	 * @param autoTune whether to tune the page sizes
+	 */
+	public void setBstAutoTune(boolean autoTune) {
+		this.bstAutoTune = autoTune;
+	}
+
+	public int getBstMaxLeafN() {
+		return bstMaxLeafN;
+	}
+
+	public int getBstMaxInnerN() {
+		return bstMaxInnerN;
+	}
+
+	public int getBstInitialLeafN() {
+		return bstInitialLeafN;
+	}
+
+	public boolean isBstAutoTune() {
+		return bstAutoTune;
+	}
+
+	/**
+	 * Set the thresholds for switching the node representation between AHC, LHC and NT. 
+	 * This is only used by the v13 PH-tree.
+	 * @param ahcLhcBias bias towards AHC, AHC is used if (sizeLHC*bias) &gt;= sizeAHC. 
+	 * Use -1 for the default.
+	 * @param ntThreshold number of entries at which nodes switch to NT, 0 for the default
+	 * @param ntHysteresis number of entries that have to be removed before an NT node
+	 * switches back, 0 for the default
+	 * @see ch.ethz.globis.phtree.v13.NodeThresholds
+	 */
+	public void setNodeThresholds(double ahcLhcBias, int ntThreshold, int ntHysteresis) {
+		this.ahcLhcBias = ahcLhcBias;
+		this.ntThreshold = ntThreshold;
+		this.ntHysteresis = ntHysteresis;
+	}
+
+	/**
+	 * Let the tree adapt the hysteresis of node representation switches to the 
+	 * read/write ratio and to the observed conversion rate. 
+	 * @param adaptive whether to adapt the thresholds
+	 */
+	public void setAdaptiveNodeThresholds(boolean adaptive) {
+		this.adaptiveNodeThresholds = adaptive;
+	}
+
+	public double getAhcLhcBias() {
+		return ahcLhcBias;
+	}
+
+	public int getNtThreshold() {
+		return ntThreshold;
+	}
+
+	public int getNtHysteresis() {
+		return ntHysteresis;
+	}
+
+	public boolean isAdaptiveNodeThresholds() {
+		return adaptiveNodeThresholds;
+	}
+
+	/**
+	 * Let nodes store only the postfix bits of keys instead of the full keys. This reduces
+	 * the memory consumption of deep nodes at the cost of slower queries, because full 
+	 * keys have to be reconstructed when they are read. 
+	 * Currently only supported by the v16 PH-tree.
+	 * @param compactKeys whether to store compact keys
+	 */
+	public void setCompactKeys(boolean compactKeys) {
+		this.compactKeys = compactKeys;
+	}
+
+	public boolean isCompactKeys() {
+		return compactKeys;
+	}
 }
@@ -6,7 +6,11 @@
  */
 package ch.ethz.globis.phtree;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 import ch.ethz.globis.phtree.PhTree.PhExtent;
 import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
@@ -128,6 +132,89 @@ public class PhTreeF<T> {
 		return pht.remove(lKey);
 	}
 
+	/**
+	 * Emulates {@link java.util.Map#compute(Object, BiFunction)} with a single traversal 
+	 * of the tree.
+	 * @param key the key
+	 * @param remappingFunction the function that computes the new value
+	 * @return the new value or {@code null} if there is none
+	 * @see PhTree#compute(long[], BiFunction)
+	 */
+	public T compute(double[] key, BiFunction<double[], ? super T, ? extends T> remappingFunction) {
+		long[] lKey = new long[key.length];
+		pre.pre(key, lKey);
+		return pht.compute(lKey, (k, v) -> remappingFunction.apply(key, v));
+	}
+
+	/**
+	 * Emulates {@link java.util.Map#computeIfAbsent(Object, Function)} with a single traversal 
+	 * of the tree.
+	 * @param key the key
+	 * @param mappingFunction the function that computes a value if the key does not exist
+	 * @return the current (existing or computed) value or {@code null} if there is none
+	 * @see PhTree#computeIfAbsent(long[], Function)
+	 */
+	public T computeIfAbsent(double[] key, Function<double[], ? extends T> mappingFunction) {
+		long[] lKey = new long[key.length];
+		pre.pre(key, lKey);
+		return pht.computeIfAbsent(lKey, k -> mappingFunction.apply(key));
+	}
+
+	/**
+	 * Emulates {@link java.util.Map#computeIfPresent(Object, BiFunction)} with a single 
+	 * traversal of the tree.
+	 * @param key the key
+	 * @param remappingFunction the function that computes a value if the key exists
+	 * @return the new value or {@code null} if there is none
+	 * @see PhTree#computeIfPresent(long[], BiFunction)
+	 */
+	public T computeIfPresent(double[] key, 
+			BiFunction<double[], ? super T, ? extends T> remappingFunction) {
+		long[] lKey = new long[key.length];
+		pre.pre(key, lKey);
+		return pht.computeIfPresent(lKey, (k, v) -> remappingFunction.apply(key, v));
+	}
+
+	/**
+	 * Emulates {@link java.util.Map#putIfAbsent(Object, Object)} with a single traversal 
+	 * of the tree.
+	 * @param key the key
+	 * @param value the value to insert if the key does not exist
+	 * @return the previous value or {@code null} if there was none
+	 * @see PhTree#putIfAbsent(long[], Object)
+	 */
+	public T putIfAbsent(double[] key, T value) {
+		long[] lKey = new long[key.length];
+		pre.pre(key, lKey);
+		return pht.putIfAbsent(lKey, value);
+	}
+
+	/**
+	 * Emulates {@link java.util.Map#merge(Object, Object, BiFunction)} with a single traversal 
+	 * of the tree.
+	 * @param key the key
+	 * @param value the value to insert or to merge with the current value
+	 * @param remappingFunction the function that merges the values
+	 * @return the new value or {@code null} if there is none
+	 * @see PhTree#merge(long[], Object, BiFunction)
+	 */
+	public T merge(double[] key, T value, 
+			BiFunction<? super T, ? super T, ? extends T> remappingFunction) {
+		long[] lKey = new long[key.length];
+		pre.pre(key, lKey);
+		return pht.merge(lKey, value, remappingFunction);
+	}
+
+	/**
+	 * Create a session for point operations that reuses its conversion buffers.
+	 * A session must not be used by more than one thread at the same time. 
+	 * @return a new session
+	 * @see Session
+	 */
+	public Session session() {
+		return new Session();
+	}
+
 	/**
 	 * @return an iterator over all elements in the tree
 	 */
@@ -151,6 +238,160 @@ public class PhTreeF<T> {
 		return new PhQueryF<>(pht.query(lMin, lMax), pht.getDim(), pre);
 	}
 
+	/**
+	 * Performs a rectangular window query that starts after 'afterKey'. Entries are
+	 * returned in z-order, the key of the last entry of a page can be used as 'afterKey' 
+	 * to resume the query with the next page.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @param afterKey only entries after this key are returned
+	 * @return Result iterator.
+	 * @see PhTree#query(long[], long[], long[])
+	 */
+	public PhQueryF<T> query(double[] min, double[] max, double[] afterKey) {
+		long[] lMin = new long[min.length];
+		long[] lMax = new long[max.length];
+		long[] lAfter = new long[afterKey.length];
+		pre.pre(min, lMin);
+		pre.pre(max, lMax);
+		pre.pre(afterKey, lAfter);
+		return new PhQueryF<>(pht.query(lMin, lMax, lAfter), pht.getDim(), pre);
+	}
+
+	/**
+	 * Count the entries in a rectangular window.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @return the number of entries in the window
+	 * @see PhTree#count(long[], long[])
+	 */
+	public int count(double[] min, double[] max) {
+		long[] lMin = new long[min.length];
+		long[] lMax = new long[max.length];
+		pre.pre(min, lMin);
+		pre.pre(max, lMax);
+		return pht.count(lMin, lMax);
+	}
+
+	/**
+	 * Aggregate the entries in a rectangular window. Keys are passed to the aggregator in
+	 * their internal (preprocessed) representation.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @param aggregator the aggregation function
+	 * @return the result of the aggregator
+	 * @param <R> the result type
+	 * @see PhTree#aggregate(long[], long[], PhAggregator)
+	 */
+	public <R> R aggregate(double[] min, double[] max, PhAggregator<T, R> aggregator) {
+		long[] lMin = new long[min.length];
+		long[] lMax = new long[max.length];
+		pre.pre(min, lMin);
+		pre.pre(max, lMax);
+		return pht.aggregate(lMin, lMax, aggregator);
+	}
+
+	/**
+	 * Find the 'k' entries with the highest score in a rectangular window.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @param k the maximum number of entries to return
+	 * @param score the score function
+	 * @return Up to 'k' entries, ordered by descending score. The score is available
+	 * via {@link PhEntryDistF#dist()}.
+	 * @see PhTree#queryTopK(long[], long[], int, ToDoubleFunction)
+	 */
+	public List<PhEntryDistF<T>> queryTopK(double[] min, double[] max, int k,
+			ToDoubleFunction<? super T> score) {
+		long[] lMin = new long[min.length];
+		long[] lMax = new long[max.length];
+		pre.pre(min, lMin);
+		pre.pre(max, lMax);
+		List<PhEntryDist<T>> list = pht.queryTopK(lMin, lMax, k, score);
+		List<PhEntryDistF<T>> result = new ArrayList<>(list.size());
+		for (PhEntryDist<T> e : list) {
+			double[] d = new double[e.getKey().length];
+			pre.post(e.getKey(), d);
+			result.add(new PhEntryDistF<>(d, e.getValue(), e.dist()));
+		}
+		return result;
+	}
+
+	/**
+	 * Reverse nearest neighbour query: find all entries that have 'center' among their 'k'
+	 * nearest neighbours.
+	 * @param k the 'k'
+	 * @param dist Distance function, can be {@code null}. Note that the distance function 
+	 * should be compatible with the preprocessor of the tree.
+	 * @param center the query point
+	 * @return All entries that have 'center' among their 'k' nearest neighbours.
+	 * @see PhTree#reverseNearestNeighbour(int, PhDistance, long...)
+	 */
+	public List<PhEntryDistF<T>> reverseNearestNeighbour(int k, PhDistance dist, double... center) {
+		long[] lCenter = new long[center.length];
+		pre.pre(center, lCenter);
+		List<PhEntryDist<T>> list = pht.reverseNearestNeighbour(k, checkDist(dist), lCenter);
+		List<PhEntryDistF<T>> result = new ArrayList<>(list.size());
+		for (PhEntryDist<T> e : list) {
+			double[] d = new double[e.getKey().length];
+			pre.post(e.getKey(), d);
+			result.add(new PhEntryDistF<>(d, e.getValue(), e.dist()));
+		}
+		return result;
+	}
+
+	/**
+	 * All-nearest-neighbours query: find the 'k' nearest neighbours of every entry in this
+	 * tree. The entry itself is not reported as its own neighbour.
+	 * @param k number of neighbours per entry
+	 * @param dist Distance function, can be {@code null}. Note that the distance function 
+	 * should be compatible with the preprocessor of the tree.
+	 * @param parallel whether to process the entries with multiple threads. If 'true', the 
+	 * consumer must be thread-safe.
+	 * @param consumer receives each entry with its neighbours, ordered by distance
+	 * @see PhTree#allNearestNeighbours(int, PhDistance, boolean, PhKnnJoin.PhKnnConsumer)
+	 */
+	public void allNearestNeighbours(int k, PhDistance dist, boolean parallel, 
+			PhKnnConsumerF<T, T> consumer) {
+		knnJoin(this, k, dist, parallel, consumer);
+	}
+
+	/**
+	 * kNN-join: find the 'k' nearest neighbours in 'other' for every entry in this tree.
+	 * @param other the tree in which the neighbours are searched
+	 * @param k number of neighbours per entry
+	 * @param dist Distance function, can be {@code null}. Note that the distance function 
+	 * should be compatible with the preprocessor of the tree.
+	 * @param parallel whether to process the entries with multiple threads. If 'true', the 
+	 * consumer must be thread-safe.
+	 * @param consumer receives each entry with its neighbours, ordered by distance
+	 * @param <U> value type of the other tree
+	 * @see PhTree#knnJoin(PhTree, int, PhDistance, boolean, PhKnnJoin.PhKnnConsumer)
+	 */
+	public <U> void knnJoin(PhTreeF<U> other, int k, PhDistance dist, boolean parallel, 
+			PhKnnConsumerF<T, U> consumer) {
+		PhKnnJoin.PhKnnConsumer<T, U> c = (e, list) -> {
+			double[] key = new double[e.getKey().length];
+			pre.post(e.getKey(), key);
+			List<PhEntryDistF<U>> result = new ArrayList<>(list.size());
+			for (PhEntryDist<U> n : list) {
+				double[] d = new double[n.getKey().length];
+				other.pre.post(n.getKey(), d);
+				result.add(new PhEntryDistF<>(d, n.getValue(), n.dist()));
+			}
+			consumer.accept(new PhEntryF<>(key, e.getValue()), result);
+		};
+		PhDistance d = checkDist(dist);
+		if (other == this) {
+			//Safe cast, T==U
+			@SuppressWarnings("unchecked")
+			PhKnnJoin.PhKnnConsumer<T, T> cSelf = (PhKnnJoin.PhKnnConsumer<T, T>)(Object)c;
+			pht.allNearestNeighbours(k, d, parallel, cSelf);
+		} else {
+			pht.knnJoin(other.pht, k, d, parallel, c);
+		}
+	}
+
 	/**
 	 * Find all entries within a given distance from a center point.
 	 * @param dist Maximum distance
@@ -178,10 +419,33 @@ public class PhTreeF<T> {
 		return new PhRangeQueryF<>(iter, pht, pre);
 	}
 
+	/**
+	 * Find all entries within a given distance from a center point, ordered by increasing
+	 * distance.
+	 * @param dist Maximum distance
+	 * @param optionalDist Distance function, optional, can be `null`.
+	 * @param center Center point
+	 * @return All entries with at most distance `dist` from `center`, ordered by distance.
+	 * @see PhTree#rangeQueryOrdered(double, PhDistance, long...)
+	 */
+	public PhKnnQueryF<T> rangeQueryOrdered(double dist, PhDistance optionalDist, double...center) {
+		return nearestNeighbour(Integer.MAX_VALUE, dist, optionalDist, center);
+	}
+
 	public int getDim() {
 		return pht.getDim();
 	}
 
+	/**
+	 * @param dist a distance function or {@code null}
+	 * @return the distance function or the default distance function
+	 */
+	private PhDistance checkDist(PhDistance dist) {
+		PhDistance d = dist == null ? PhDistanceF.THIS : dist;
+		d.checkDims(pht.getDim());
+		return d;
+	}
+
 	/**
 	 * Locate nearest neighbours for a given point in space.
 	 * @param nMin number of entries to be returned. More entries may or may not be returned if 
@@ -208,10 +472,46 @@ public class PhTreeF<T> {
 	public PhKnnQueryF<T> nearestNeighbour(int nMin, PhDistance dist, double... key) {
 		long[] lKey = new long[key.length];
 		pre.pre(key, lKey);
+		if (dist != null) {
+			dist.checkDims(pht.getDim());
+		}
 		PhKnnQuery<T> iter = pht.nearestNeighbour(nMin, dist, null, lKey);
 		return new PhKnnQueryF<>(iter, pht.getDim(), pre);
 	}
 
+	/**
+	 * Locate at most 'nMin' nearest neighbours within a maximum distance of a given point.
+	 * @param nMin maximum number of entries to be returned
+	 * @param maxDist the maximum distance
+	 * @param dist Distance function, can be {@code null}. Note that the distance function 
+	 * should be compatible with the preprocessor of the tree.
+	 * @param key the center point
+	 * @return KNN query iterator.
+	 * @see PhTree#nearestNeighbour(int, double, PhDistance, long...)
+	 */
+	public PhKnnQueryF<T> nearestNeighbour(int nMin, double maxDist, PhDistance dist, double... key) {
+		long[] lKey = new long[key.length];
+		pre.pre(key, lKey);
+		PhKnnQuery<T> iter = pht.nearestNeighbour(nMin, maxDist, checkDist(dist), lKey);
+		return new PhKnnQueryF<>(iter, pht.getDim(), pre);
+	}
+
+	/**
+	 * Locate nearest neighbours for a given point in space without a fixed number of results.
+	 * Entries are returned in order of increasing distance.
+	 * @param dist Distance function, can be {@code null}. Note that the distance function 
+	 * should be compatible with the preprocessor of the tree.
+	 * @param key the center point
+	 * @return KNN query iterator.
+	 * @see PhTree#nearestNeighbourIncremental(PhDistance, long...)
+	 */
+	public PhKnnQueryF<T> nearestNeighbourIncremental(PhDistance dist, double... key) {
+		long[] lKey = new long[key.length];
+		pre.pre(key, lKey);
+		PhKnnQuery<T> iter = pht.nearestNeighbourIncremental(checkDist(dist), lKey);
+		return new PhKnnQueryF<>(iter, pht.getDim(), pre);
+	}
+
 	/**
 	 * Iterator class for floating point keys. 
 	 * @param <T> value type
@@ -368,6 +668,9 @@ public class PhTreeF<T> {
 		 * @return this
 		 */
 		public PhKnnQueryF<T> reset(int nMin, PhDistance dist, double... center) {
+			if (dist != null) {
+				dist.checkDims(dims);
+			}
 			pre.pre(center, lCenter);
 			q.reset(nMin, dist, lCenter);
 			return this;
@@ -468,6 +771,20 @@ public class PhTreeF<T> {
 			return dist;
 		}
 	}
+
+	/**
+	 * Consumer for kNN-join results with floating point keys.
+	 * @param <T> value type of the outer tree
+	 * @param <U> value type of the inner tree
+	 */
+	@FunctionalInterface
+	public interface PhKnnConsumerF<T, U> {
+		/**
+		 * @param entry an entry of the outer tree
+		 * @param neighbours the nearest neighbours of 'entry', ordered by distance
+		 */
+		void accept(PhEntryF<T> entry, List<PhEntryDistF<U>> neighbours);
+	}
 	
 	/**
 	 * Update the key of an entry. Update may fail if the old key does not exist, or if the new
@@ -556,5 +873,73 @@ public class PhTreeF<T> {
 	public PhTreeStats getStats() {
 		return pht.getStats();
 	}
-}
 
+	/**
+	 * A session for point operations with preallocated buffers for the key conversion. 
+	 * Lookups and removals do not allocate any arrays. Insertions and updates
+	 * still allocate the new key because the tree may keep a reference to it.
+	 * <p>
+	 * Sessions are cheap and not thread-safe, typically there is one session per thread.
+	 */
+	public class Session {
+		private final long[] buffer = new long[pht.getDim()];
+
+		protected Session() {
+			//see PhTreeF.session()
+		}
+
+		/**
+		 * @param key the key to store the value to store
+		 * @param value the value
+		 * @return the previously associated value or {@code null} if the key was found
+		 * @see PhTreeF#put(double[], Object)
+		 */
+		public T put(double[] key, T value) {
+			return PhTreeF.this.put(key, value);
+		}
+
+		/**
+		 * @param key key
+		 * @return true if the key exists in the tree
+		 * @see PhTreeF#contains(double...)
+		 */
+		public boolean contains(double ... key) {
+			pre.pre(key, buffer);
+			return pht.contains(buffer);
+		}
+
+		/**
+		 * @param key the key
+		 * @return the value associated with the key or 'null' if the key was not found
+		 * @see PhTreeF#get(double...)
+		 */
+		public T get(double ... key) {
+			pre.pre(key, buffer);
+			return pht.get(buffer);
+		}
+
+		/**
+		 * @param key the key to remove
+		 * @return the associated value or {@code null} if the key was found
+		 * @see PhTreeF#remove(double...)
+		 */
+		public T remove(double... key) {
+			pre.pre(key, buffer);
+			return pht.remove(buffer);
+		}
+
+		/**
+		 * @param oldKey old key
+		 * @param newKey new key
+		 * @return the value (can be {@code null}) associated with the updated key if the key 
+		 * could be updated, otherwise {@code null}.
+		 * @see PhTreeF#update(double[], double[])
+		 */
+		public T update(double[] oldKey, double[] newKey) {
+			long[] newL = new long[newKey.length];
+			pre.pre(oldKey, buffer);
+			pre.pre(newKey, newL);
+			return pht.update(buffer, newL);
+		}
+	}
+}
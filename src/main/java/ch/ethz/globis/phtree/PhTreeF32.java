@@ -0,0 +1,541 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.pre.PreProcessorPointF32;
+import ch.ethz.globis.phtree.util.PhIteratorBase;
+import ch.ethz.globis.phtree.util.PhTreeStats;
+
+/**
+ * k-dimensional index (quad-/oct-/n-tree) for 32 bit 'float' keys.
+ * Supports key/value pairs.
+ * <p>
+ * Compared to {@link PhTreeF}, the keys are stored in a tree with a bit depth of 32, which
+ * results in fewer levels and smaller nodes.
+ *
+ * @param <T> The value type of the tree 
+ */
+public class PhTreeF32<T> {
+
+	/** Bit depth of the internal tree. */
+	public static final int DEPTH = 32;
+
+	private final PhTree<T> pht;
+	private final PreProcessorPointF32 pre;
+	private final PhDistanceF32 dist;
+
+	protected PhTreeF32(PhTree<T> tree, PreProcessorPointF32 pre) {
+		if (tree.getBitDepth() != DEPTH) {
+			throw new IllegalArgumentException("Bit depth must be " + DEPTH + 
+					" but was " + tree.getBitDepth());
+		}
+		this.pht = tree;
+		this.pre = pre;
+		this.dist = new PhDistanceF32(pre);
+	}
+
+	/**
+	 * Create a new tree with the specified number of dimensions.
+	 * 
+	 * @param dim number of dimensions, at most {@link PhTreeI#MAX_DIM}
+	 * @return PhTreeF32
+	 * @param <T> value type of the tree
+	 */
+	public static <T> PhTreeF32<T> create(int dim) {
+		return create(dim, new PreProcessorPointF32.IEEE());
+	}
+
+	/**
+	 * Create a new tree with the specified number of dimensions and
+	 * a custom preprocessor.
+	 * 
+	 * @param dim number of dimensions, at most {@link PhTreeI#MAX_DIM}
+	 * @param pre The preprocessor to be used
+	 * @return PhTreeF32
+	 * @param <T> value type of the tree
+	 */
+	public static <T> PhTreeF32<T> create(int dim, PreProcessorPointF32 pre) {
+		PhTreeI.checkDim(dim);
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setDepth(DEPTH);
+		return new PhTreeF32<>(PhTree.create(cfg), pre);
+	}
+
+	/**
+	 * Create a new PhTreeF32 as a wrapper around an existing PhTree. The tree 
+	 * must have a bit depth of {@link #DEPTH}.
+	 * 
+	 * @param tree another tree
+	 * @return PhTreeF32
+	 * @param <T> value type of the tree
+	 */
+	public static <T> PhTreeF32<T> wrap(PhTree<T> tree) {
+		return new PhTreeF32<>(tree, new PreProcessorPointF32.IEEE());
+	}
+
+	private long[] pre(float[] key) {
+		long[] lKey = new long[key.length];
+		pre.pre(key, lKey);
+		return lKey;
+	}
+
+	/**
+	 * @return the number of entries in the tree
+	 */
+	public int size() {
+		return pht.size();
+	}
+
+	/**
+	 * Insert an entry associated with a k dimensional key.
+	 * @param key the key to store the value to store
+	 * @param value the value
+	 * @return the previously associated value or {@code null} if the key was found
+	 */
+	public T put(float[] key, T value) {
+		return pht.put(pre(key), value);
+	}
+
+	/**
+	 * @param key key
+	 * @return true if the key exists in the tree
+	 */
+	public boolean contains(float ... key) {
+		return pht.contains(pre(key));
+	}
+
+	/**
+	 * @param key the key
+	 * @return the value associated with the key or 'null' if the key was not found
+	 */
+	public T get(float ... key) {
+		return pht.get(pre(key));
+	}
+
+	/**
+	 * Remove the entry associated with a k dimensional key.
+	 * @param key the key to remove
+	 * @return the associated value or {@code null} if the key was found
+	 */
+	public T remove(float... key) {
+		return pht.remove(pre(key));
+	}
+
+	/**
+	 * Update the key of an entry. Update may fail if the old key does not exist, or if the new
+	 * key already exists.
+	 * @param oldKey old key
+	 * @param newKey new key
+	 * @return the value (can be {@code null}) associated with the updated key if the key could be 
+	 * updated, otherwise {@code null}.
+	 */
+	public T update(float[] oldKey, float[] newKey) {
+		return pht.update(pre(oldKey), pre(newKey));
+	}
+
+	/**
+	 * @return an iterator over all elements in the tree
+	 */
+	public PhExtentF32<T> queryExtent() {
+		return new PhExtentF32<>(pht.queryExtent(), pht.getDim(), pre);
+	}
+
+	/**
+	 * Performs a rectangular window query. The parameters are the min and max keys which 
+	 * contain the minimum respectively the maximum keys in every dimension.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @return Result iterator.
+	 */
+	public PhQueryF32<T> query(float[] min, float[] max) {
+		return new PhQueryF32<>(pht.query(pre(min), pre(max)), pht.getDim(), pre);
+	}
+
+	/**
+	 * Same as {@link #query(float[], float[])}, except that it returns a list
+	 * instead of an iterator. This may be faster for small result sets. 
+	 * @param min min values
+	 * @param max max values
+	 * @return List of query results
+	 */
+	public List<PhEntryF32<T>> queryAll(float[] min, float[] max) {
+		List<PhEntry<T>> list = pht.queryAll(pre(min), pre(max));
+		List<PhEntryF32<T>> result = new ArrayList<>(list.size());
+		for (PhEntry<T> e : list) {
+			float[] key = new float[e.getKey().length];
+			pre.post(e.getKey(), key);
+			result.add(new PhEntryF32<>(key, e.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Find all entries within a given distance from a center point.
+	 * @param dist Maximum distance
+	 * @param center Center point
+	 * @return All entries with at most distance `dist` from `center`.
+	 */
+	public PhRangeQueryF32<T> rangeQuery(double dist, float...center) {
+		return rangeQuery(dist, null, center);
+	}
+
+	/**
+	 * Find all entries within a given distance from a center point.
+	 * @param dist Maximum distance
+	 * @param optionalDist Distance function, optional, can be `null`. The default is
+	 * {@link #getDistance()}.
+	 * @param center Center point
+	 * @return All entries with at most distance `dist` from `center`.
+	 */
+	public PhRangeQueryF32<T> rangeQuery(double dist, PhDistance optionalDist, float...center) {
+		if (optionalDist == null) {
+			optionalDist = this.dist; 
+		}
+		PhRangeQuery<T> iter = pht.rangeQuery(dist, optionalDist, pre(center));
+		return new PhRangeQueryF32<>(iter, pht.getDim(), pre);
+	}
+
+	/**
+	 * Locate nearest neighbours for a given point in space.
+	 * @param nMin number of entries to be returned. More entries may or may not be returned if 
+	 * several points have the same distance.
+	 * @param key the center point
+	 * @return KNN query iterator.
+	 */
+	public PhKnnQueryF32<T> nearestNeighbour(int nMin, float... key) {
+		return nearestNeighbour(nMin, null, key);
+	}
+
+	/**
+	 * Locate nearest neighbours for a given point in space.
+	 * @param nMin number of entries to be returned. More entries may or may not be returned if 
+	 * several points have the same distance.
+	 * @param dist Distance function, can be {@code null}. The default is 
+	 * {@link #getDistance()}. Note that the distance function should be compatible with 
+	 * the preprocessor of the tree.
+	 * @param key the center point
+	 * @return KNN query iterator.
+	 */
+	public PhKnnQueryF32<T> nearestNeighbour(int nMin, PhDistance dist, float... key) {
+		PhKnnQuery<T> iter = pht.nearestNeighbour(nMin, 
+				dist == null ? this.dist : dist, null, pre(key));
+		return new PhKnnQueryF32<>(iter, pht.getDim(), pre);
+	}
+
+	public int getDim() {
+		return pht.getDim();
+	}
+
+	/**
+	 * Clear the tree.
+	 */
+	public void clear() {
+		pht.clear();
+	}
+
+	/**
+	 * 
+	 * @return the internal PhTree that backs this PhTreeF32.
+	 */
+	public PhTree<T> getInternalTree() {
+		return pht;
+	}
+
+	/**
+	 * 
+	 * @return the preprocessor of this tree.
+	 */
+	public PreProcessorPointF32 getPreprocessor() {
+		return pre;
+	}
+
+	/**
+	 * 
+	 * @return the euclidean distance function for the preprocessor of this tree.
+	 */
+	public PhDistanceF32 getDistance() {
+		return dist;
+	}
+
+	/**
+	 * @return A string tree view of all entries in the tree.
+	 * @see PhTree#toStringTree()
+	 */
+	public String toStringTree() {
+		return pht.toStringTree();
+	}
+
+	@Override
+	public String toString() {
+		return pht.toString(); 
+	}
+
+	public PhTreeStats getStats() {
+		return pht.getStats();
+	}
+
+	/**
+	 * Iterator class for float keys. 
+	 * @param <T> value type
+	 */
+	public static class PhIteratorF32<T> implements PhIteratorBase<T, PhEntryF32<T>> {
+		private final PhIteratorBase<T, ? extends PhEntry<T>> iter;
+		protected final PreProcessorPointF32 pre;
+		private final int dims;
+		private final PhEntryF32<T> buffer;
+
+		protected PhIteratorF32(PhIteratorBase<T, ? extends PhEntry<T>> iter, 
+				int dims, PreProcessorPointF32 pre) {
+			this.iter = iter;
+			this.pre = pre;
+			this.dims = dims;
+			this.buffer = new PhEntryF32<>(new float[dims], null);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iter.hasNext();
+		}
+
+		@Override
+		public T next() {
+			return nextValue();
+		}
+
+		@Override
+		public PhEntryF32<T> nextEntry() {
+			float[] d = new float[dims];
+			PhEntry<T> e = iter.nextEntryReuse();
+			pre.post(e.getKey(), d);
+			return new PhEntryF32<>(d, e.getValue());
+		}
+
+		@Override
+		public PhEntryF32<T> nextEntryReuse() {
+			PhEntry<T> e = iter.nextEntryReuse();
+			pre.post(e.getKey(), buffer.getKey());
+			buffer.setValue( e.getValue() );
+			return buffer;
+		}
+
+		/**
+		 * @return the key of the next entry
+		 */
+		public float[] nextKey() {
+			float[] d = new float[dims];
+			pre.post(iter.nextEntryReuse().getKey(), d);
+			return d;
+		}
+
+		@Override
+		public T nextValue() {
+			return iter.nextValue();
+		}
+
+		@Override
+		public void remove() {
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Extent iterator class for float keys. 
+	 * @param <T> value type
+	 */
+	public static class PhExtentF32<T> extends PhIteratorF32<T> {
+		private final PhExtent<T> iter;
+		protected PhExtentF32(PhExtent<T> iter, int dims, PreProcessorPointF32 pre) {
+			super(iter, dims, pre);
+			this.iter = iter;
+		}		
+		
+		/**
+		 * Restarts the extent iterator.
+		 * @return this
+		 */
+		public PhExtentF32<T> reset() {
+			iter.reset();
+			return this;
+		}
+	}
+	
+	/**
+	 * Query iterator class for float keys. 
+	 * @param <T> value type
+	 */
+	public static class PhQueryF32<T> extends PhIteratorF32<T> {
+		private final long[] lMin;
+		private final long[] lMax;
+		private final PhQuery<T> q;
+
+		protected PhQueryF32(PhQuery<T> iter, int dims, PreProcessorPointF32 pre) {
+			super(iter, dims, pre);
+			q = iter;
+			lMin = new long[dims];
+			lMax = new long[dims];
+		}
+
+		/**
+		 * Restarts the query with a new query rectangle.
+		 * @param lower minimum values of query rectangle
+		 * @param upper maximum values of query rectangle
+		 */
+		public void reset(float[] lower, float[] upper) {
+			pre.pre(lower, lMin);
+			pre.pre(upper, lMax);
+			q.reset(lMin, lMax);
+		}
+	}
+
+	/**
+	 * Nearest neighbor query iterator class for float keys. 
+	 * @param <T> value type
+	 */
+	public static class PhKnnQueryF32<T> extends PhIteratorF32<T> {
+		private final long[] lCenter;
+		private final PhKnnQuery<T> q;
+		private final PhEntryDistF32<T> buffer;
+		private final int dims;
+
+		protected PhKnnQueryF32(PhKnnQuery<T> iter, int dims, PreProcessorPointF32 pre) {
+			super(iter, dims, pre);
+			this.dims = dims;
+			q = iter;
+			lCenter = new long[dims];
+			buffer = new PhEntryDistF32<>(new float[dims], null, Double.NaN); 
+		}
+
+		@Override
+		public PhEntryDistF32<T> nextEntry() {
+			float[] d = new float[dims];
+			PhEntryDist<T> e = q.nextEntryReuse();
+			pre.post(e.getKey(), d);
+			return new PhEntryDistF32<>(d, e.getValue(), e.dist());
+		}
+
+		@Override
+		public PhEntryDistF32<T> nextEntryReuse() {
+			PhEntryDist<T> e = q.nextEntryReuse();
+			pre.post(e.getKey(), buffer.getKey());
+			buffer.set( e.getValue(), e.dist() );
+			return buffer;
+		}
+
+		/**
+		 * Restarts the query with a new center point.
+		 * @param nMin new minimum result count, often called 'k'
+		 * @param dist new distance function. Using 'null' will result in reusing the previous
+		 * distance function.
+		 * @param center new center point
+		 * @return this
+		 */
+		public PhKnnQueryF32<T> reset(int nMin, PhDistance dist, float... center) {
+			pre.pre(center, lCenter);
+			q.reset(nMin, dist, lCenter);
+			return this;
+		}
+	}
+
+	/**
+	 * Range query iterator class for float keys. 
+	 * @param <T> value type
+	 */
+	public static class PhRangeQueryF32<T> extends PhIteratorF32<T> {
+		private final long[] lCenter;
+		private final PhRangeQuery<T> q;
+
+		protected PhRangeQueryF32(PhRangeQuery<T> iter, int dims, PreProcessorPointF32 pre) {
+			super(iter, dims, pre);
+			this.q = iter;
+			this.lCenter = new long[dims];
+		}
+
+		/**
+		 * Restarts the query with a new center point and range.
+		 * @param range new range
+		 * @param center new center point
+		 * @return this
+		 */
+		public PhRangeQueryF32<T> reset(double range, float... center) {
+			pre.pre(center, lCenter);
+			q.reset(range, lCenter);
+			return this;
+		}
+	}
+
+	/**
+	 * Entry class for float entries.
+	 *
+	 * @param <T> value type of the entries
+	 */
+	public static class PhEntryF32<T> {
+		protected float[] key;
+		protected T value;
+		
+		/**
+		 * @param key the key
+		 * @param value the value
+		 */
+		public PhEntryF32(float[] key, T value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public float[] getKey() {
+			return key;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		public void setValue(T value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Entry class for float entries with distance information for nearest neighbour queries.
+	 *
+	 * @param <T> value type of the entries
+	 */
+	public static class PhEntryDistF32<T> extends PhEntryF32<T> {
+		private double dist;
+
+		/**
+		 * @param key the key
+		 * @param value the value
+		 * @param dist the distance to the center point
+		 */
+		public PhEntryDistF32(float[] key, T value, double dist) {
+			super(key, value);
+			this.dist = dist;
+		}
+
+		/**
+		 * @param value new value
+		 * @param dist new distance
+		 */
+		public void set(T value, double dist) {
+			this.value = value;
+			this.dist = dist;
+		}
+		
+		/**
+		 * @return distance to center point of kNN query
+		 */
+		public double dist() {
+			return dist;
+		}
+	}
+}
@@ -156,17 +156,101 @@ public abstract class PhTreeHelper {
         //Following formula was for inverse ordering of current ordering...
         //pos = sum (i=1..n, len/2^i) = sum (..., 2^(n-i))
 
-    	long valMask = 1l << postLen;
-    	
+        return interleaveBits(valSet, 0, valSet.length, postLen);
+    }
+
+    /**
+     * Collect the bit at 'postLen' of the attributes 'from' to 'to' (exclusive) into a long.
+     * The attribute at 'from' ends up as the highest bit.
+     * <p>
+     * This works on four attributes at a time. This shortens the dependency chain of the
+     * shift/or operations so that the CPU can process several attributes in parallel.
+     * 
+     * @param valSet vector
+     * @param from first attribute
+     * @param to last attribute (exclusive), at most 64 attributes after 'from'
+     * @param postLen the postfix length
+     * @return Encoded HC position
+     */
+    static long interleaveBits(long[] valSet, int from, int to, int postLen) {
         long pos = 0;
-        for (int i = 0; i < valSet.length; i++) {
-        	pos <<= 1;
-        	//set pos-bit if bit is set in value
-        	pos |= (valMask & valSet[i]) >>> postLen;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+        	long b0 = (valSet[i] >>> postLen) & 1L;
+        	long b1 = (valSet[i+1] >>> postLen) & 1L;
+        	long b2 = (valSet[i+2] >>> postLen) & 1L;
+        	long b3 = (valSet[i+3] >>> postLen) & 1L;
+        	pos = (pos << 4) | (b0 << 3) | (b1 << 2) | (b2 << 1) | b3;
+        }
+        for (; i < to; i++) {
+        	pos = (pos << 1) | ((valSet[i] >>> postLen) & 1L);
         }
         return pos;
     }
 
+    /**
+     * Write the lowest 'to-from' bits of 'pos' into bit 'postLen' of the attributes 'from' to
+     * 'to' (exclusive). This is the inverse of {@link #interleaveBits(long[], int, int, int)}.
+     * Every attribute is processed independently, there is no dependency between iterations.
+     * 
+     * @param pos hc-position
+     * @param val vector
+     * @param from first attribute
+     * @param to last attribute (exclusive), at most 64 attributes after 'from'
+     * @param postLen the postfix length
+     */
+    static void deinterleaveBits(long pos, long[] val, int from, int to, int postLen) {
+    	long mask = 1L << postLen;
+    	int shift = to - 1;
+    	for (int d = from; d < to; d++) {
+			val[d] = (val[d] & ~mask) | (((pos >>> (shift - d)) & 1L) << postLen);
+		}
+    }
+
+    /**
+     * Check that all attributes of a key are in the range [0, 2^depth).
+     * @param key the key
+     * @param depth the bit depth of the tree
+     * @throws IllegalArgumentException if the key exceeds the bit depth
+     */
+    public static void checkDepth(long[] key, int depth) {
+    	if (depth == 64) {
+    		return;
+    	}
+    	for (int i = 0; i < key.length; i++) {
+    		if ((key[i] >>> depth) != 0) {
+    			throw new IllegalArgumentException("Key exceeds bit depth " + depth + 
+    					": " + key[i]);
+    		}
+    	}
+    }
+
+    /**
+     * Compare two keys in the order in which they are stored in the tree (z-order). The
+     * most significant bit of each attribute is compared as unsigned bit, i.e. negative values
+     * are ordered after positive values.
+     * @param v1 one vector
+     * @param v2 another vector
+     * @return a negative value, zero or a positive value if 'v1' is ordered before, at the same
+     * position or after 'v2'.
+     */
+    public static int compareZOrder(long[] v1, long[] v2) {
+    	int minLz = Long.SIZE;
+    	int dimOfMin = -1;
+    	for (int i = 0; i < v1.length; i++) {
+    		int lz = Long.numberOfLeadingZeros(v1[i] ^ v2[i]);
+    		if (lz < minLz) {
+    			minLz = lz;
+    			dimOfMin = i;
+    		}
+    	}
+    	if (dimOfMin < 0) {
+    		return 0;
+    	}
+    	long bit = Long.MIN_VALUE >>> minLz;
+    	return (v1[dimOfMin] & bit) != 0 ? 1 : -1;
+    }
+
     /**
      * Transpose the value from long[DIM] to long[DEPTH].
      * Transposition occurs such that high-order bits end up in the first value of 'tv'.
@@ -183,21 +267,8 @@ public abstract class PhTreeHelper {
      */
     public static long[] transposeValue(long[] valSet, int DEPTH) {
     	long[] tv = new long[DEPTH];
-    	long valMask = 1L << (DEPTH-1);
-    	int rightShift = DEPTH-1;
     	for (int j = 0; j < DEPTH; j++) {
-	    	long pos = 0;
-	        for (int i = 0; i < valSet.length; i++) {
-	        	pos <<= 1;
-	        	//set pos-bit if bit is set in value
-//	            if ((valMask & v) != 0) {
-//	                pos |= 1L;
-//	            }
-	        	pos |= (valMask & valSet[i]) >>> rightShift;
-	            }
-	        tv[j] = pos;
-	        valMask >>>= 1;
-    		rightShift--;
+    		tv[j] = interleaveBits(valSet, 0, valSet.length, DEPTH-1-j);
     	}
         return tv;
     }
@@ -211,20 +282,7 @@ public abstract class PhTreeHelper {
      * @param val value
      */
     public static void applyHcPos(long pos, int currentPostLen, long[] val) {
-    	long mask = 1L << currentPostLen;
-    	pos = Long.rotateLeft(pos, currentPostLen); //leftmost bit is at position of mask
-    	for (int d = val.length-1; d >= 0; d--) {
-			//Hack to avoid branching. However, this is faster than rotating 'pos' i.o. posMask
-			val[d] = (val[d] & ~mask) | (mask & pos);
-			pos = Long.rotateRight(pos, 1);
-			
-//			if (x != 0) {
-//				val[d] |= mask;
-//			} else {
-//				val[d] &= ~mask;
-//			}
-		}
+    	deinterleaveBits(pos, val, 0, val.length, currentPostLen);
     }
 
 }
-
@@ -201,29 +201,8 @@ public abstract class PhTreeHelperHD {
         //Following formula was for inverse ordering of current ordering...
         //pos = sum (i=1..n, len/2^i) = sum (..., 2^(n-i))
 
-    	long valMask = 1l << postLen;
-//    	long pos = 0;
-//        for (int i = 0; i < valSet.length; i++) {
-//        	pos <<= 1;
-//        	//set pos-bit if bit is set in value
-//            pos |= (valMask & valSet[i]) >>> postLen;
-//        }
-
     	long[] posHD = newHDPos(valSet.length);
-        //get fraction
-        int bitsPerSlot = BitsHD.mod65x(valSet.length);
-        int valsetPos = 0;
-        //result slot (rs)
-        for (int rs = 0; rs < posHD.length; rs++) {
-        	long pos = 0;
-            for (int i = 0; i < bitsPerSlot; i++) {
-            	pos <<= 1;
-            	//set pos-bit if bit is set in value
-                pos |= (valMask & valSet[valsetPos++]) >>> postLen;
-            }
-            posHD[rs] = pos;
-            bitsPerSlot = 64;
-        }
+    	posInArrayHD(valSet, postLen, posHD);
         
         return posHD;
     }
@@ -246,26 +225,13 @@ public abstract class PhTreeHelperHD {
         //Following formula was for inverse ordering of current ordering...
         //pos = sum (i=1..n, len/2^i) = sum (..., 2^(n-i))
 
-    	long valMask = 1l << postLen;
-//    	long pos = 0;
-//        for (int i = 0; i < valSet.length; i++) {
-//        	pos <<= 1;
-//        	//set pos-bit if bit is set in value
-//            pos |= (valMask & valSet[i]) >>> postLen;
-//        }
-
     	//get fraction
         int bitsPerSlot = BitsHD.mod65x(valSet.length);
         int valsetPos = 0;
         //result slot (rs)
         for (int rs = 0; rs < out.length; rs++) {
-        	long pos = 0;
-            for (int i = 0; i < bitsPerSlot; i++) {
-            	pos <<= 1;
-            	//set pos-bit if bit is set in value
-                pos |= (valMask & valSet[valsetPos++]) >>> postLen;
-            }
-            out[rs] = pos;
+            out[rs] = PhTreeHelper.interleaveBits(valSet, valsetPos, valsetPos + bitsPerSlot, postLen);
+            valsetPos += bitsPerSlot;
             bitsPerSlot = 64;
         }
     }
@@ -287,21 +253,8 @@ public abstract class PhTreeHelperHD {
     @Deprecated
     public static long[] transposeValue(long[] valSet, int DEPTH) {
     	long[] tv = new long[DEPTH];
-    	long valMask = 1L << (DEPTH-1);
-    	int rightShift = DEPTH-1;
     	for (int j = 0; j < DEPTH; j++) {
-	    	long pos = 0;
-	        for (long v: valSet) {
-	        	pos <<= 1;
-	        	//set pos-bit if bit is set in value
-//	            if ((valMask & v) != 0) {
-//	                pos |= 1L;
-//	            }
-	        	pos |= (valMask & v) >>> rightShift;
-	            }
-	        tv[j] = pos;
-	        valMask >>>= 1;
-    		rightShift--;
+    		tv[j] = PhTreeHelper.interleaveBits(valSet, 0, valSet.length, DEPTH-1-j);
     	}
         return tv;
     }
@@ -315,27 +268,13 @@ public abstract class PhTreeHelperHD {
      * @param val value
      */
     public static void applyHcPosHD(long[] posHD, int currentPostLen, long[] val) {
-    	
-    	//TODO: do not reference Bits64 here!
-    	long mask = 1L << currentPostLen;
-    	int bitsToProcess = BitsHD.mod65x(val.length);
-    	int currentDim = val.length - 1;
-    	for (int i = 0; i < posHD.length; i++) {
-        	long pos = Long.rotateLeft(posHD[i], currentPostLen); //leftmost bit is at position of mask
-        	for (int d = bitsToProcess-1; d >= 0; d--) {
-    			//Hack to avoid branching. However, this is faster than rotating 'pos' i.o. posMask
-    			val[currentDim] = (val[currentDim] & ~mask) | (mask & pos);
-    			pos = Long.rotateRight(pos, 1);
-    			
-//    			if (x != 0) {
-//    				val[d] |= mask;
-//    			} else {
-//    				val[d] &= ~mask;
-//    			}
-    			currentDim--;
-    		}
-        	bitsToProcess = 64;
+    	//same slot layout as posInArrayHD(): the first slot contains the first (val.length%64) dims.
+        int bitsPerSlot = BitsHD.mod65x(val.length);
+        int valPos = 0;
+        for (int i = 0; i < posHD.length; i++) {
+        	PhTreeHelper.deinterleaveBits(posHD[i], val, valPos, valPos + bitsPerSlot, currentPostLen);
+        	valPos += bitsPerSlot;
+        	bitsPerSlot = 64;
     	}
     }
 }
-
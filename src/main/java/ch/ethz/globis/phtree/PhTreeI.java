@@ -0,0 +1,479 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.util.PhIteratorBase;
+import ch.ethz.globis.phtree.util.PhTreeStats;
+
+/**
+ * k-dimensional index (quad-/oct-/n-tree) for 'int' keys.
+ * Supports key/value pairs.
+ * <p>
+ * The keys are stored in a tree with a bit depth of 32. They are shifted by 2^31
+ * so that they are positive while their order is maintained.
+ * Since the shift is the same in every dimension, distances are not affected.
+ *
+ * @param <T> The value type of the tree
+ */
+public class PhTreeI<T> {
+
+	/** Bit depth of the internal tree. */
+	public static final int DEPTH = 32;
+	/** 
+	 * Maximum number of dimensions. Trees with more dimensions use the v16HD PH-tree,
+	 * which supports only a bit depth of 64. 
+	 */
+	public static final int MAX_DIM = 60;
+
+	private final PhTree<T> pht;
+
+	protected PhTreeI(PhTree<T> tree) {
+		if (tree.getBitDepth() != DEPTH) {
+			throw new IllegalArgumentException("Bit depth must be " + DEPTH +
+					" but was " + tree.getBitDepth());
+		}
+		this.pht = tree;
+	}
+
+	/**
+	 * Create a new tree with the specified number of dimensions.
+	 *
+	 * @param dim number of dimensions, at most {@link #MAX_DIM}
+	 * @return PhTreeI
+	 * @param <T> value type of the tree
+	 */
+	public static <T> PhTreeI<T> create(int dim) {
+		checkDim(dim);
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setDepth(DEPTH);
+		return new PhTreeI<>(PhTree.create(cfg));
+	}
+
+	/**
+	 * @param dim number of dimensions
+	 * @throws IllegalArgumentException if the dimensionality is not supported
+	 */
+	static void checkDim(int dim) {
+		if (dim > MAX_DIM) {
+			throw new IllegalArgumentException("Trees with a bit depth of " + DEPTH + 
+					" support at most " + MAX_DIM + " dimensions: dim=" + dim);
+		}
+	}
+
+	/**
+	 * Create a new PhTreeI as a wrapper around an existing PhTree. The tree
+	 * must have a bit depth of {@link #DEPTH}.
+	 *
+	 * @param tree another tree
+	 * @return PhTreeI
+	 * @param <T> value type of the tree
+	 */
+	public static <T> PhTreeI<T> wrap(PhTree<T> tree) {
+		return new PhTreeI<>(tree);
+	}
+
+	/**
+	 * @param key an 'int' key
+	 * @param out the internal key
+	 * @return the internal key
+	 */
+	static long[] pre(int[] key, long[] out) {
+		for (int i = 0; i < key.length; i++) {
+			out[i] = (long) key[i] - Integer.MIN_VALUE;
+		}
+		return out;
+	}
+
+	/**
+	 * @param key an internal key
+	 * @param out the 'int' key
+	 * @return the 'int' key
+	 */
+	static int[] post(long[] key, int[] out) {
+		for (int i = 0; i < key.length; i++) {
+			out[i] = (int) (key[i] + Integer.MIN_VALUE);
+		}
+		return out;
+	}
+
+	private static long[] pre(int[] key) {
+		return pre(key, new long[key.length]);
+	}
+
+	/**
+	 * @return the number of entries in the tree
+	 */
+	public int size() {
+		return pht.size();
+	}
+
+	/**
+	 * Insert an entry associated with a k dimensional key.
+	 * @param key the key to store the value to store
+	 * @param value the value
+	 * @return the previously associated value or {@code null} if the key was found
+	 */
+	public T put(int[] key, T value) {
+		return pht.put(pre(key), value);
+	}
+
+	/**
+	 * @param key key
+	 * @return true if the key exists in the tree
+	 */
+	public boolean contains(int ... key) {
+		return pht.contains(pre(key));
+	}
+
+	/**
+	 * @param key the key
+	 * @return the value associated with the key or 'null' if the key was not found
+	 */
+	public T get(int ... key) {
+		return pht.get(pre(key));
+	}
+
+	/**
+	 * Remove the entry associated with a k dimensional key.
+	 * @param key the key to remove
+	 * @return the associated value or {@code null} if the key was found
+	 */
+	public T remove(int... key) {
+		return pht.remove(pre(key));
+	}
+
+	/**
+	 * Update the key of an entry. Update may fail if the old key does not exist, or if the new
+	 * key already exists.
+	 * @param oldKey old key
+	 * @param newKey new key
+	 * @return the value (can be {@code null}) associated with the updated key if the key could be
+	 * updated, otherwise {@code null}.
+	 */
+	public T update(int[] oldKey, int[] newKey) {
+		return pht.update(pre(oldKey), pre(newKey));
+	}
+
+	/**
+	 * @return an iterator over all elements in the tree
+	 */
+	public PhExtentI<T> queryExtent() {
+		return new PhExtentI<>(pht.queryExtent(), pht.getDim());
+	}
+
+	/**
+	 * Performs a rectangular window query. The parameters are the min and max keys which
+	 * contain the minimum respectively the maximum keys in every dimension.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @return Result iterator.
+	 */
+	public PhQueryI<T> query(int[] min, int[] max) {
+		return new PhQueryI<>(pht.query(pre(min), pre(max)), pht.getDim());
+	}
+
+	/**
+	 * Same as {@link #query(int[], int[])}, except that it returns a list
+	 * instead of an iterator. This may be faster for small result sets.
+	 * @param min min values
+	 * @param max max values
+	 * @return List of query results
+	 */
+	public List<PhEntryI<T>> queryAll(int[] min, int[] max) {
+		List<PhEntry<T>> list = pht.queryAll(pre(min), pre(max));
+		List<PhEntryI<T>> result = new ArrayList<>(list.size());
+		for (PhEntry<T> e : list) {
+			result.add(new PhEntryI<>(post(e.getKey(), new int[e.getKey().length]),
+					e.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Locate nearest neighbours for a given point in space.
+	 * @param nMin number of entries to be returned. More entries may or may not be returned if
+	 * several points have the same distance.
+	 * @param key the center point
+	 * @return KNN query iterator.
+	 */
+	public PhKnnQueryI<T> nearestNeighbour(int nMin, int... key) {
+		return nearestNeighbour(nMin, PhDistanceL.THIS, key);
+	}
+
+	/**
+	 * Locate nearest neighbours for a given point in space.
+	 * @param nMin number of entries to be returned. More entries may or may not be returned if
+	 * several points have the same distance.
+	 * @param dist Distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param key the center point
+	 * @return KNN query iterator.
+	 */
+	public PhKnnQueryI<T> nearestNeighbour(int nMin, PhDistance dist, int... key) {
+		PhKnnQuery<T> iter = pht.nearestNeighbour(nMin,
+				dist == null ? PhDistanceL.THIS : dist, null, pre(key));
+		return new PhKnnQueryI<>(iter, pht.getDim());
+	}
+
+	public int getDim() {
+		return pht.getDim();
+	}
+
+	/**
+	 * Clear the tree.
+	 */
+	public void clear() {
+		pht.clear();
+	}
+
+	/**
+	 *
+	 * @return the internal PhTree that backs this PhTreeI.
+	 */
+	public PhTree<T> getInternalTree() {
+		return pht;
+	}
+
+	/**
+	 * @return A string tree view of all entries in the tree.
+	 * @see PhTree#toStringTree()
+	 */
+	public String toStringTree() {
+		return pht.toStringTree();
+	}
+
+	@Override
+	public String toString() {
+		return pht.toString();
+	}
+
+	public PhTreeStats getStats() {
+		return pht.getStats();
+	}
+
+	/**
+	 * Iterator class for integer keys.
+	 * @param <T> value type
+	 */
+	public static class PhIteratorI<T> implements PhIteratorBase<T, PhEntryI<T>> {
+		private final PhIteratorBase<T, ? extends PhEntry<T>> iter;
+		private final int dims;
+		private final PhEntryI<T> buffer;
+
+		protected PhIteratorI(PhIteratorBase<T, ? extends PhEntry<T>> iter, int dims) {
+			this.iter = iter;
+			this.dims = dims;
+			this.buffer = new PhEntryI<>(new int[dims], null);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iter.hasNext();
+		}
+
+		@Override
+		public T next() {
+			return nextValue();
+		}
+
+		@Override
+		public PhEntryI<T> nextEntry() {
+			PhEntry<T> e = iter.nextEntryReuse();
+			return new PhEntryI<>(post(e.getKey(), new int[dims]), e.getValue());
+		}
+
+		@Override
+		public PhEntryI<T> nextEntryReuse() {
+			PhEntry<T> e = iter.nextEntryReuse();
+			post(e.getKey(), buffer.getKey());
+			buffer.setValue(e.getValue());
+			return buffer;
+		}
+
+		/**
+		 * @return the key of the next entry
+		 */
+		public int[] nextKey() {
+			return post(iter.nextEntryReuse().getKey(), new int[dims]);
+		}
+
+		@Override
+		public T nextValue() {
+			return iter.nextValue();
+		}
+
+		@Override
+		public void remove() {
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Extent iterator class for integer keys.
+	 * @param <T> value type
+	 */
+	public static class PhExtentI<T> extends PhIteratorI<T> {
+		private final PhExtent<T> iter;
+		protected PhExtentI(PhExtent<T> iter, int dims) {
+			super(iter, dims);
+			this.iter = iter;
+		}
+
+		/**
+		 * Restarts the extent iterator.
+		 * @return this
+		 */
+		public PhExtentI<T> reset() {
+			iter.reset();
+			return this;
+		}
+	}
+
+	/**
+	 * Query iterator class for integer keys.
+	 * @param <T> value type
+	 */
+	public static class PhQueryI<T> extends PhIteratorI<T> {
+		private final long[] lMin;
+		private final long[] lMax;
+		private final PhQuery<T> q;
+
+		protected PhQueryI(PhQuery<T> iter, int dims) {
+			super(iter, dims);
+			q = iter;
+			lMin = new long[dims];
+			lMax = new long[dims];
+		}
+
+		/**
+		 * Restarts the query with a new query rectangle.
+		 * @param lower minimum values of query rectangle
+		 * @param upper maximum values of query rectangle
+		 */
+		public void reset(int[] lower, int[] upper) {
+			q.reset(pre(lower, lMin), pre(upper, lMax));
+		}
+	}
+
+	/**
+	 * Nearest neighbor query iterator class for integer keys.
+	 * @param <T> value type
+	 */
+	public static class PhKnnQueryI<T> extends PhIteratorI<T> {
+		private final long[] lCenter;
+		private final PhKnnQuery<T> q;
+		private final PhEntryDistI<T> buffer;
+		private final int dims;
+
+		protected PhKnnQueryI(PhKnnQuery<T> iter, int dims) {
+			super(iter, dims);
+			this.dims = dims;
+			q = iter;
+			lCenter = new long[dims];
+			buffer = new PhEntryDistI<>(new int[dims], null, Double.NaN);
+		}
+
+		@Override
+		public PhEntryDistI<T> nextEntry() {
+			PhEntryDist<T> e = q.nextEntryReuse();
+			return new PhEntryDistI<>(post(e.getKey(), new int[dims]), e.getValue(), e.dist());
+		}
+
+		@Override
+		public PhEntryDistI<T> nextEntryReuse() {
+			PhEntryDist<T> e = q.nextEntryReuse();
+			post(e.getKey(), buffer.getKey());
+			buffer.set(e.getValue(), e.dist());
+			return buffer;
+		}
+
+		/**
+		 * Restarts the query with a new center point.
+		 * @param nMin new minimum result count, often called 'k'
+		 * @param dist new distance function. Using 'null' will result in reusing the previous
+		 * distance function.
+		 * @param center new center point
+		 * @return this
+		 */
+		public PhKnnQueryI<T> reset(int nMin, PhDistance dist, int... center) {
+			q.reset(nMin, dist, pre(center, lCenter));
+			return this;
+		}
+	}
+
+	/**
+	 * Entry class for integer entries.
+	 *
+	 * @param <T> value type of the entries
+	 */
+	public static class PhEntryI<T> {
+		protected int[] key;
+		protected T value;
+
+		/**
+		 * @param key the key
+		 * @param value the value
+		 */
+		public PhEntryI(int[] key, T value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public int[] getKey() {
+			return key;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		public void setValue(T value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Entry class for integer entries with distance information for nearest neighbour queries.
+	 *
+	 * @param <T> value type of the entries
+	 */
+	public static class PhEntryDistI<T> extends PhEntryI<T> {
+		private double dist;
+
+		/**
+		 * @param key the key
+		 * @param value the value
+		 * @param dist the distance
+		 */
+		public PhEntryDistI(int[] key, T value, double dist) {
+			super(key, value);
+			this.dist = dist;
+		}
+
+		/**
+		 * Set new value and distance.
+		 * @param value new value
+		 * @param dist new distance
+		 */
+		public void set(T value, double dist) {
+			this.value = value;
+			this.dist = dist;
+		}
+
+		/**
+		 * @return distance
+		 */
+		public double dist() {
+			return dist;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree;
+
+import java.util.Arrays;
+
+import ch.ethz.globis.phtree.util.LongHashMap;
+import ch.ethz.globis.phtree.v13.PhTree13;
+import ch.ethz.globis.phtree.v16.PhTree16;
+import ch.ethz.globis.phtree.v16.PhTree16.UpdateStatus;
+import ch.ethz.globis.phtree.v16hd.PhTree16HD;
+
+/**
+ * Index for moving objects that are identified by a 'long' id. Objects can be moved 
+ * by their id, without knowing their previous position.
+ * <p>
+ * The current position of each object is kept in a primitive hash map. Memory is only 
+ * saved for v16 (and v16HD) trees without compact keys, see 
+ * {@link PhTreeConfig#setCompactKeys(boolean)}: these trees store the same position array
+ * as the map. v13 trees and trees with compact keys store the key bits separately, so every 
+ * position is duplicated in the map.
+ * <p>
+ * Moves use {@link PhTree#update(long[], long[])}, which updates entries in place if the 
+ * move is small. For v16 trees, the check whether the new position is occupied is done 
+ * during the same traversal, see {@link PhTree16#updateIfAbsent(long[], long[])}.
+ * For v13, v16 and v16HD, moves do not allocate: the array of the previous position is 
+ * reused for the next move, because these trees do not reference it after the update.
+ * <p>
+ * The PH-tree does not allow two entries with the same key, so two objects cannot have 
+ * the same position.
+ * <p>
+ * Queries can be executed on the tree returned by {@link #getInternalTree()}, but
+ * the tree must not be modified directly. Like the PH-tree, this class is not thread-safe
+ * for writes.
+ * 
+ * @param <T> value type
+ */
+public class PhTreeMovingObjects<T> {
+
+	private final PhTree<T> tree;
+	private final LongHashMap<long[]> positions = new LongHashMap<>();
+	//array for the next position, this is not referenced by the tree or the map
+	private long[] spare;
+	private final boolean reuseKeys;
+	
+	protected PhTreeMovingObjects(PhTree<T> tree) {
+		if (tree.size() != 0) {
+			throw new IllegalArgumentException("The tree must be empty");
+		}
+		this.tree = tree;
+		this.spare = new long[tree.getDim()];
+		this.reuseKeys = tree instanceof PhTree13 || tree instanceof PhTree16 
+				|| tree instanceof PhTree16HD;
+	}
+
+	/**
+	 * @param dim number of dimensions
+	 * @return a new index
+	 * @param <T> value type
+	 */
+	public static <T> PhTreeMovingObjects<T> create(int dim) {
+		return new PhTreeMovingObjects<>(PhTree.create(dim));
+	}
+	
+	/**
+	 * @param cfg tree configuration
+	 * @return a new index
+	 * @param <T> value type
+	 */
+	public static <T> PhTreeMovingObjects<T> create(PhTreeConfig cfg) {
+		return new PhTreeMovingObjects<>(PhTree.create(cfg));
+	}
+	
+	/**
+	 * Insert an object or replace it if the id already exists.
+	 * @param id the object id
+	 * @param key the position of the object
+	 * @param value the value
+	 * @return the previous value of the object or {@code null} if it did not exist
+	 * @throws IllegalArgumentException if another object exists at the position
+	 */
+	public T put(long id, long[] key, T value) {
+		long[] pos = positions.get(id);
+		if (pos != null && Arrays.equals(pos, key)) {
+			return tree.put(pos, value);
+		}
+		if (tree.contains(key)) {
+			throw new IllegalArgumentException("Position is occupied by another object");
+		}
+		T prev = null;
+		if (pos != null) {
+			prev = tree.remove(pos);
+		}
+		long[] newPos = key.clone();
+		tree.put(newPos, value);
+		positions.put(id, newPos);
+		return prev;
+	}
+	
+	/**
+	 * Move an object to a new position.
+	 * @param id the object id
+	 * @param newKey the new position
+	 * @return 'false' if the object does not exist or if another object exists at the new
+	 * position.
+	 */
+	public boolean move(long id, long[] newKey) {
+		long[] pos = positions.get(id);
+		if (pos == null) {
+			return false;
+		}
+		if (Arrays.equals(pos, newKey)) {
+			return true;
+		}
+		if (newKey.length != spare.length) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + 
+					newKey.length + "  DIM=" + spare.length);
+		}
+		long[] newPos = reuseKeys ? spare : new long[spare.length];
+		System.arraycopy(newKey, 0, newPos, 0, newPos.length);
+		if (tree instanceof PhTree16) {
+			if (((PhTree16<T>) tree).updateIfAbsent(pos, newPos) != UpdateStatus.UPDATED) {
+				return false;
+			}
+		} else {
+			if (tree.contains(newPos)) {
+				return false;
+			}
+			tree.update(pos, newPos);
+		}
+		positions.put(id, newPos);
+		if (reuseKeys) {
+			//the tree does not reference the previous position anymore
+			spare = pos;
+		}
+		return true;
+	}
+	
+	/**
+	 * @param id the object id
+	 * @return the value of the object or {@code null} if the object does not exist
+	 */
+	public T get(long id) {
+		long[] pos = positions.get(id);
+		return pos == null ? null : tree.get(pos);
+	}
+	
+	/**
+	 * @param id the object id
+	 * @return a copy of the position of the object or {@code null} if the object does not exist
+	 */
+	public long[] getPosition(long id) {
+		long[] pos = positions.get(id);
+		return pos == null ? null : pos.clone();
+	}
+	
+	/**
+	 * @param id the object id
+	 * @return 'true' if the object exists
+	 */
+	public boolean contains(long id) {
+		return positions.containsKey(id);
+	}
+	
+	/**
+	 * @param id the object id
+	 * @return the value of the removed object or {@code null} if the object did not exist
+	 */
+	public T remove(long id) {
+		long[] pos = positions.remove(id);
+		return pos == null ? null : tree.remove(pos);
+	}
+	
+	/**
+	 * @return the number of objects
+	 */
+	public int size() {
+		return positions.size();
+	}
+	
+	public void clear() {
+		tree.clear();
+		positions.clear();
+	}
+	
+	/**
+	 * @return the tree, for queries only
+	 */
+	public PhTree<T> getInternalTree() {
+		return tree;
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " n=" + size() + " " + tree;
+	}
+}
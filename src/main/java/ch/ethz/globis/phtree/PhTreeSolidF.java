@@ -8,6 +8,9 @@ package ch.ethz.globis.phtree;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
 import ch.ethz.globis.phtree.PhTree.PhQuery;
@@ -125,6 +128,91 @@ public class PhTreeSolidF<T> implements Iterable<T> {
 		return pht.remove(lVal);
 	}
 	
+	/**
+	 * Emulates {@link java.util.Map#compute(Object, BiFunction)} with a single traversal 
+	 * of the tree. Unlike in {@link java.util.Map}, the function is only called with the 
+	 * current value.
+	 * @param lower lower left corner
+	 * @param upper upper right corner
+	 * @param remappingFunction the function that computes the new value
+	 * @return the new value or {@code null} if there is none
+	 * 
+	 * @see PhTree#compute(long[], BiFunction)
+	 */
+	public T compute(double[] lower, double[] upper, 
+			Function<? super T, ? extends T> remappingFunction) {
+		long[] lVal = new long[lower.length*2];
+		pre.pre(lower, upper, lVal);
+		return pht.compute(lVal, (k, v) -> remappingFunction.apply(v));
+	}
+	
+	/**
+	 * Emulates {@link java.util.Map#computeIfAbsent(Object, Function)} with a single 
+	 * traversal of the tree.
+	 * @param lower lower left corner
+	 * @param upper upper right corner
+	 * @param supplier the function that computes a value if the entry does not exist
+	 * @return the current (existing or computed) value or {@code null} if there is none
+	 * 
+	 * @see PhTree#computeIfAbsent(long[], Function)
+	 */
+	public T computeIfAbsent(double[] lower, double[] upper, Supplier<? extends T> supplier) {
+		long[] lVal = new long[lower.length*2];
+		pre.pre(lower, upper, lVal);
+		return pht.computeIfAbsent(lVal, k -> supplier.get());
+	}
+	
+	/**
+	 * Emulates {@link java.util.Map#computeIfPresent(Object, BiFunction)} with a single 
+	 * traversal of the tree.
+	 * @param lower lower left corner
+	 * @param upper upper right corner
+	 * @param remappingFunction the function that computes a value if the entry exists
+	 * @return the new value or {@code null} if there is none
+	 * 
+	 * @see PhTree#computeIfPresent(long[], BiFunction)
+	 */
+	public T computeIfPresent(double[] lower, double[] upper, 
+			Function<? super T, ? extends T> remappingFunction) {
+		long[] lVal = new long[lower.length*2];
+		pre.pre(lower, upper, lVal);
+		return pht.computeIfPresent(lVal, (k, v) -> remappingFunction.apply(v));
+	}
+	
+	/**
+	 * Emulates {@link java.util.Map#putIfAbsent(Object, Object)} with a single traversal 
+	 * of the tree.
+	 * @param lower lower left corner
+	 * @param upper upper right corner
+	 * @param value the value to insert if the entry does not exist
+	 * @return the previous value or {@code null} if there was none
+	 * 
+	 * @see PhTree#putIfAbsent(long[], Object)
+	 */
+	public T putIfAbsent(double[] lower, double[] upper, T value) {
+		long[] lVal = new long[lower.length*2];
+		pre.pre(lower, upper, lVal);
+		return pht.putIfAbsent(lVal, value);
+	}
+	
+	/**
+	 * Emulates {@link java.util.Map#merge(Object, Object, BiFunction)} with a single 
+	 * traversal of the tree.
+	 * @param lower lower left corner
+	 * @param upper upper right corner
+	 * @param value the value to insert or to merge with the current value
+	 * @param remappingFunction the function that merges the values
+	 * @return the new value or {@code null} if there is none
+	 * 
+	 * @see PhTree#merge(long[], Object, BiFunction)
+	 */
+	public T merge(double[] lower, double[] upper, T value, 
+			BiFunction<? super T, ? super T, ? extends T> remappingFunction) {
+		long[] lVal = new long[lower.length*2];
+		pre.pre(lower, upper, lVal);
+		return pht.merge(lVal, value, remappingFunction);
+	}
+	
 	/**
 	 * Check whether an entry with the specified coordinates exists in the tree.
 	 * @param lower lower left corner
@@ -139,6 +227,16 @@ public class PhTreeSolidF<T> implements Iterable<T> {
 		return pht.contains(lVal);
 	}
 	
+	/**
+	 * Create a session for point operations that reuses its conversion buffers.
+	 * A session must not be used by more than one thread at the same time. 
+	 * @return a new session
+	 * @see Session
+	 */
+	public Session session() {
+		return new Session();
+	}
+	
 	/**
 	 * @param e the entry
 	 * @return any previous value for the key
@@ -229,6 +327,23 @@ public class PhTreeSolidF<T> implements Iterable<T> {
 		return new PhKnnQuerySF<>(pht.nearestNeighbour(nMin, df, null, lCenter), dims, pre);
 	}
 
+	/**
+	 * Locate nearest neighbours for a given point in space without a fixed number of results.
+	 * Entries are returned in order of increasing distance.
+	 * @param distanceFunction A distance function for rectangle data. This parameter is optional,
+	 * passing a {@code null} will use the default distance function.
+	 * @param center the center point
+	 * @return The query iterator.
+	 * @see PhTree#nearestNeighbourIncremental(PhDistance, long...)
+	 */
+	public PhKnnQuerySF<T> nearestNeighbourIncremental(PhDistanceSF distanceFunction,
+			double ... center) {
+		long[] lCenter = new long[2*dims];
+		pre.pre(center, center, lCenter);
+		PhDistanceSF df = distanceFunction == null ? dist : distanceFunction;
+		return new PhKnnQuerySF<>(pht.nearestNeighbourIncremental(df, lCenter), dims, pre);
+	}
+
 	/**
 	 * Resetable query result iterator.
 	 * @param <T> value type
@@ -604,4 +719,78 @@ public class PhTreeSolidF<T> implements Iterable<T> {
 	public int getDims() {
 		return dims;
 	}
+
+	/**
+	 * A session for point operations with a preallocated buffer for the key conversion. 
+	 * Lookups and removals do not allocate any arrays. Insertions and updates
+	 * still allocate the new key because the tree may keep a reference to it.
+	 * <p>
+	 * Sessions are cheap and not thread-safe, typically there is one session per thread.
+	 */
+	public class Session {
+		private final long[] buffer = new long[dims*2];
+
+		protected Session() {
+			//see PhTreeSolidF.session()
+		}
+
+		/**
+		 * @param lower lower left corner
+		 * @param upper upper right corner
+		 * @param value the value
+		 * @return the previous value or {@code null} if no entry existed
+		 * @see PhTreeSolidF#put(double[], double[], Object)
+		 */
+		public T put(double[] lower, double[] upper, T value) {
+			return PhTreeSolidF.this.put(lower, upper, value);
+		}
+
+		/**
+		 * @param lower lower left corner
+		 * @param upper upper right corner
+		 * @return the value or {@code null} if no entry existed
+		 * @see PhTreeSolidF#remove(double[], double[])
+		 */
+		public T remove(double[] lower, double[] upper) {
+			pre.pre(lower, upper, buffer);
+			return pht.remove(buffer);
+		}
+
+		/**
+		 * @param lower lower left corner
+		 * @param upper upper right corner
+		 * @return true if the entry was found 
+		 * @see PhTreeSolidF#contains(double[], double[])
+		 */
+		public boolean contains(double[] lower, double[] upper) {
+			pre.pre(lower, upper, buffer);
+			return pht.contains(buffer);
+		}
+
+		/**
+		 * @param lower min value
+		 * @param upper max value
+		 * @return the element that has 'upper' and 'lower' as key. 
+		 * @see PhTreeSolidF#get(double[], double[])
+		 */
+		public T get(double[] lower, double[] upper) {
+			pre.pre(lower, upper, buffer);
+			return pht.get(buffer);
+		}
+
+		/**
+		 * @param lo1 old min value
+		 * @param up1 old max value
+		 * @param lo2 new min value
+		 * @param up2 new max value
+		 * @return the value, if the entry could be updated, otherwise {@code null}.
+		 * @see PhTreeSolidF#update(double[], double[], double[], double[])
+		 */
+		public T update(double[] lo1, double[] up1, double[] lo2, double[] up2) {
+			long[] pNew = new long[dims*2];
+			pre.pre(lo1, up1, buffer);
+			pre.pre(lo2, up2, pNew);
+			return pht.update(buffer, pNew);
+		}
+	}
 }
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.cluster;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhRangeQuery;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.v16.PhTree16;
+
+/**
+ * DBSCAN clustering for the entries of a PH-tree.
+ * <p>
+ * The algorithm works in three phases:
+ * <ol>
+ * <li> Core points are identified with bounded window counts, if available, or with 
+ * count-only range queries that stop as soon as 'minPts' neighbours have been found. </li>
+ * <li> Core points that are neighbours of each other are merged with a lock-free 
+ * union-find. </li>
+ * <li> Border points are assigned to the cluster of a neighbouring core point. </li>
+ * </ol>
+ * Entries are processed in z-order, in chunks of consecutive entries. Each chunk reuses 
+ * a single range query object. With 'parallel=true', the chunks are processed in parallel 
+ * and the union-find merges clusters across chunk boundaries.
+ * <p>
+ * Core points and noise are identical to classic DBSCAN. Border points that are reachable
+ * from several clusters are assigned to the cluster of the neighbouring core point that
+ * comes first in z-order, so the result does not depend on 'parallel'.
+ * <p>
+ * Keys are copied in z-order into a flat array, a hash table maps keys to their position.
+ * Neighbours are found with range queries on the source tree, which must not be modified 
+ * during clustering. If the source tree is a {@link PhTree16} with subtree counts, the 
+ * core test first counts the entries in the bounding box of the 'eps' range, and for 
+ * {@link PhDistanceL} also in the largest box inside the range. Range queries are only 
+ * required if these counts do not decide the test.
+ * 
+ * @param <T> value type of the tree
+ */
+public class PhDbscan<T> {
+
+	/** Cluster id of noise points. */
+	public static final int NOISE = -1;
+
+	/** Minimum number of entries per chunk. */
+	private static final int MIN_CHUNK_SIZE = 256;
+	/** Number of chunks per thread, for load balancing. */
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	private final PhTree<T> tree;
+	private final PhDistance dist;
+	private final double eps;
+	private final int minPts;
+	private boolean parallel = false;
+
+	/**
+	 * @param tree the tree with the entries to cluster
+	 * @param eps the maximum distance between neighbours
+	 * @param minPts the minimum number of neighbours of core points, including the point itself
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 */
+	public PhDbscan(PhTree<T> tree, double eps, int minPts, PhDistance dist) {
+		if (eps < 0) {
+			throw new IllegalArgumentException("eps=" + eps);
+		}
+		if (minPts < 1) {
+			throw new IllegalArgumentException("minPts=" + minPts);
+		}
+		this.tree = tree;
+		this.eps = eps;
+		this.minPts = minPts;
+		this.dist = dist == null ? PhDistanceL.THIS : dist;
+	}
+
+	/**
+	 * @param parallel whether to process the entries with multiple threads
+	 * @return this
+	 */
+	public PhDbscan<T> setParallel(boolean parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	/**
+	 * Run the clustering.
+	 * @return the clustering result
+	 * @throws IllegalArgumentException if size()*dim of the tree exceeds 
+	 * {@link Integer#MAX_VALUE}
+	 */
+	public Result<T> run() {
+		//copy the keys in z-order
+		int dim = tree.getDim();
+		int n = tree.size();
+		if ((long) n * dim > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many entries: " + n + " * dim=" + dim + 
+					" exceeds the limit of " + Integer.MAX_VALUE + " key values");
+		}
+		long[] keys = new long[n * dim];
+		PhExtent<T> it = tree.queryExtent();
+		for (int pos = 0; it.hasNext(); pos += dim) {
+			System.arraycopy(it.nextEntryReuse().getKey(), 0, keys, pos, dim);
+		}
+		KeyIndex index = new KeyIndex(keys, dim, n);
+
+		int nThreads = parallel ? Runtime.getRuntime().availableProcessors() : 1;
+		int chunkSize = Math.max(MIN_CHUNK_SIZE,
+				(n + nThreads*CHUNKS_PER_THREAD - 1) / (nThreads*CHUNKS_PER_THREAD));
+		int nChunks = (n + chunkSize - 1) / chunkSize;
+
+		//Window counts are only cheap if they can use subtree counts
+		boolean useCounts = tree instanceof PhTree16 && ((PhTree16<T>) tree).isSubtreeCounts();
+		long innerDist = useCounts && dist.getClass() == PhDistanceL.class ? 
+				innerDist(eps, dim) : -1;
+
+		//phase 1: core points
+		boolean[] isCore = new boolean[n];
+		chunks(nChunks).forEach(c -> {
+			PhRangeQuery<T> q = null;
+			long[] key = new long[dim];
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			for (int i = c*chunkSize, end = Math.min(n, (c+1)*chunkSize); i < end; i++) {
+				System.arraycopy(keys, i*dim, key, 0, dim);
+				if (useCounts) {
+					//upper bound: all neighbours are inside the bounding box
+					dist.toMBB(eps, key, min, max);
+					if (tree.count(min, max) < minPts) {
+						continue;
+					}
+					//lower bound: all entries inside the inner box are neighbours
+					if (innerDist >= 0) {
+						box(key, innerDist, min, max);
+						if (tree.count(min, max) >= minPts) {
+							isCore[i] = true;
+							continue;
+						}
+					}
+				}
+				q = query(q, key);
+				int nNeighbours = 0;
+				while (nNeighbours < minPts && q.hasNext()) {
+					q.nextEntryReuse();
+					nNeighbours++;
+				}
+				isCore[i] = nNeighbours >= minPts;
+			}
+		});
+
+		//phase 2: merge core points
+		AtomicIntegerArray parent = new AtomicIntegerArray(n);
+		for (int i = 0; i < n; i++) {
+			parent.set(i, i);
+		}
+		chunks(nChunks).forEach(c -> {
+			PhRangeQuery<T> q = null;
+			long[] key = new long[dim];
+			for (int i = c*chunkSize, end = Math.min(n, (c+1)*chunkSize); i < end; i++) {
+				if (!isCore[i]) {
+					continue;
+				}
+				System.arraycopy(keys, i*dim, key, 0, dim);
+				q = query(q, key);
+				while (q.hasNext()) {
+					int j = index.get(q.nextEntryReuse().getKey());
+					if (j < i && isCore[j]) {
+						union(parent, i, j);
+					}
+				}
+			}
+		});
+
+		//phase 3: border points and noise
+		int[] labels = new int[n];
+		chunks(nChunks).forEach(c -> {
+			PhRangeQuery<T> q = null;
+			long[] key = new long[dim];
+			for (int i = c*chunkSize, end = Math.min(n, (c+1)*chunkSize); i < end; i++) {
+				if (isCore[i]) {
+					labels[i] = find(parent, i);
+					continue;
+				}
+				int core = Integer.MAX_VALUE;
+				System.arraycopy(keys, i*dim, key, 0, dim);
+				q = query(q, key);
+				while (q.hasNext()) {
+					int j = index.get(q.nextEntryReuse().getKey());
+					if (isCore[j] && j < core) {
+						core = j;
+					}
+				}
+				labels[i] = core == Integer.MAX_VALUE ? NOISE : find(parent, core);
+			}
+		});
+
+		//assign consecutive cluster ids, ordered by the first core point in z-order
+		int[] ids = new int[n];
+		Arrays.fill(ids, NOISE);
+		int nClusters = 0;
+		for (int i = 0; i < n; i++) {
+			if (isCore[i] && parent.get(i) == i) {
+				ids[i] = nClusters++;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			labels[i] = labels[i] == NOISE ? NOISE : ids[labels[i]];
+		}
+		return new Result<>(tree, keys, labels, isCore, nClusters);
+	}
+
+	private IntStream chunks(int nChunks) {
+		IntStream s = IntStream.range(0, nChunks);
+		return parallel ? s.parallel() : s;
+	}
+
+	private PhRangeQuery<T> query(PhRangeQuery<T> q, long[] key) {
+		if (q == null) {
+			return tree.rangeQuery(eps, dist, key);
+		}
+		return q.reset(eps, key);
+	}
+
+	/**
+	 * @return the largest per-dimension distance 'w' such that all points in the box 
+	 * 'center +/- w' are within 'eps' of the center (Euclidean distance), or -1.
+	 */
+	private static long innerDist(double eps, int dim) {
+		//leave some slack for rounding errors in the distance calculation
+		double w = Math.floor(eps / Math.sqrt(dim) * (1 - 1e-9));
+		return w >= 1 && w < Long.MAX_VALUE / 2 ? (long) w : -1;
+	}
+
+	private static void box(long[] center, long w, long[] outMin, long[] outMax) {
+		for (int i = 0; i < center.length; i++) {
+			long c = center[i];
+			outMin[i] = c - w > c ? Long.MIN_VALUE : c - w;
+			outMax[i] = c + w < c ? Long.MAX_VALUE : c + w;
+		}
+	}
+
+	private static int find(AtomicIntegerArray parent, int i) {
+		int p;
+		while ((p = parent.get(i)) != i) {
+			//path halving, a failed CAS is harmless
+			int pp = parent.get(p);
+			parent.compareAndSet(i, p, pp);
+			i = pp;
+		}
+		return i;
+	}
+
+	/**
+	 * Lock-free union. The root with the higher index is always linked to the root with 
+	 * the lower index, so every cluster ends up with its first core point as root.
+	 */
+	private static void union(AtomicIntegerArray parent, int i, int j) {
+		while (true) {
+			int ri = find(parent, i);
+			int rj = find(parent, j);
+			if (ri == rj) {
+				return;
+			}
+			int lo = Math.min(ri, rj);
+			int hi = Math.max(ri, rj);
+			if (parent.compareAndSet(hi, hi, lo)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Open addressing hash table that maps keys to their position in the key array.
+	 */
+	private static final class KeyIndex {
+		private final long[] keys;
+		private final int dim;
+		//position + 1, 0 means empty
+		private final int[] slots;
+		private final int mask;
+
+		KeyIndex(long[] keys, int dim, int n) {
+			this.keys = keys;
+			this.dim = dim;
+			//load factor between 1/4 and 1/2
+			this.slots = new int[Integer.highestOneBit(Math.max(n, 1)) << 2];
+			this.mask = slots.length - 1;
+			for (int i = 0; i < n; i++) {
+				int s = hash(keys, i*dim);
+				while (slots[s] != 0) {
+					s = (s + 1) & mask;
+				}
+				slots[s] = i + 1;
+			}
+		}
+
+		private int hash(long[] key, int offs) {
+			long h = 0;
+			for (int d = 0; d < dim; d++) {
+				h = (h + key[offs + d]) * 0x9E3779B97F4A7C15L;
+			}
+			h ^= h >>> 32;
+			return (int) h & mask;
+		}
+
+		/**
+		 * @param key the key
+		 * @return the position of the key
+		 */
+		int get(long[] key) {
+			for (int s = hash(key, 0); slots[s] != 0; s = (s + 1) & mask) {
+				int pos = (slots[s] - 1) * dim;
+				int d = 0;
+				while (d < dim && keys[pos + d] == key[d]) {
+					d++;
+				}
+				if (d == dim) {
+					return slots[s] - 1;
+				}
+			}
+			throw new IllegalStateException("The tree has been modified during clustering.");
+		}
+	}
+
+	/**
+	 * Result of a DBSCAN run. Entries are numbered in z-order.
+	 *
+	 * @param <T> value type of the tree
+	 */
+	public static class Result<T> {
+		private final PhTree<T> tree;
+		private final long[] keys;
+		private final int[] labels;
+		private final boolean[] isCore;
+		private final int nClusters;
+
+		Result(PhTree<T> tree, long[] keys, int[] labels, boolean[] isCore, int nClusters) {
+			this.tree = tree;
+			this.keys = keys;
+			this.labels = labels;
+			this.isCore = isCore;
+			this.nClusters = nClusters;
+		}
+
+		/**
+		 * @return number of entries
+		 */
+		public int size() {
+			return labels.length;
+		}
+
+		/**
+		 * @return number of clusters
+		 */
+		public int getClusterCount() {
+			return nClusters;
+		}
+
+		/**
+		 * @param i entry number
+		 * @return the key of the entry
+		 */
+		public long[] getKey(int i) {
+			int dim = tree.getDim();
+			return Arrays.copyOfRange(keys, i*dim, (i+1)*dim);
+		}
+
+		/**
+		 * The value is read from the tree, so it reflects later modifications of the tree.
+		 * @param i entry number
+		 * @return the entry
+		 */
+		public PhEntry<T> getEntry(int i) {
+			long[] key = getKey(i);
+			return new PhEntry<>(key, tree.get(key));
+		}
+
+		/**
+		 * @param i entry number
+		 * @return the cluster id in [0, {@link #getClusterCount()}) or {@link PhDbscan#NOISE}
+		 */
+		public int getCluster(int i) {
+			return labels[i];
+		}
+
+		/**
+		 * @param i entry number
+		 * @return whether the entry is a core point
+		 */
+		public boolean isCore(int i) {
+			return isCore[i];
+		}
+	}
+}
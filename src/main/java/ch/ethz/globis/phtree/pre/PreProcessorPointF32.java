@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.pre;
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+/**
+ * Interface for preprocessors for point data in 32 bit floating point format.
+ * The pre-processed values must be in the range [0, 2^32).
+ */
+public interface PreProcessorPointF32 {
+	
+	/**
+	 * 
+	 * @param raw raw data (input)
+	 * @param pre pre-processed data (output, must be non-null and same size as input array)
+	 */
+	public void pre(float[] raw, long[] pre);
+	
+	
+	/**
+	 * @param pre pre-processed data (input)
+	 * @param post post-processed data (output, must be non-null and same size as input array)
+	 */
+	public void post(long[] pre, float[] post);
+	
+	
+	/**
+	 * 
+	 * @param raw raw data (input)
+	 * @return pre-processed data
+	 */
+	public long pre(float raw);
+	
+	
+	/**
+	 * @param pre pre-processed data (input)
+	 * @return post-processed data
+	 */
+	public float post(long pre);
+	
+	
+	/**
+	 * Preprocessor with IEEE conversion. This maintains full precision including infinity.
+	 */
+	public class IEEE implements PreProcessorPointF32 {
+		@Override
+		public void pre(float[] raw, long[] pre) {
+			for (int d=0; d<raw.length; d++) {
+				pre[d] = BitTools.toSortableUInt32(raw[d]);
+			}
+		}
+
+		@Override
+		public void post(long[] pre, float[] post) {
+			for (int d=0; d<pre.length; d++) {
+				post[d] = BitTools.fromSortableUInt32(pre[d]);
+			}
+		}
+
+		@Override
+		public long pre(float raw) {
+			return BitTools.toSortableUInt32(raw);
+		}
+
+		@Override
+		public float post(long pre) {
+			return BitTools.fromSortableUInt32(pre);
+		}
+	}
+
+	
+	/**
+	 * Preprocessing by multiplication with constant. Scaled values are rounded to the nearest
+	 * integer, because 'float' post-processed values often cannot represent the exact scaled
+	 * value. Scaled values must be in the range of 'int'.
+	 */
+	public class Multiply implements PreProcessorPointF32 {
+
+		private final double preMult;
+		private final double postMult;
+		
+		public Multiply(double multiplyer) {
+			preMult = multiplyer;
+			postMult = 1./multiplyer;
+		}
+		
+		@Override
+		public void pre(float[] raw, long[] pre) {
+			for (int d=0; d<raw.length; d++) {
+				pre[d] = pre(raw[d]);
+			}
+		}
+
+		@Override
+		public void post(long[] pre, float[] post) {
+			for (int d=0; d<pre.length; d++) {
+				post[d] = post(pre[d]);
+			}
+		}
+
+		@Override
+		public long pre(float raw) {
+			double v = raw * preMult;
+			if (!(v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)) {
+				throw new IllegalArgumentException("Value out of range: " + raw);
+			}
+			return Math.round(v) - (long) Integer.MIN_VALUE;
+		}
+
+		@Override
+		public float post(long pre) {
+			return (float) ((pre + Integer.MIN_VALUE) * postMult);
+		}
+	}
+
+}
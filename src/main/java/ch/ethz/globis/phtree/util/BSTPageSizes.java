@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.util;
+
+import ch.ethz.globis.phtree.PhTreeConfig;
+
+/**
+ * Page sizes of the node-internal B+trees of the v16 and v16HD PH-trees.
+ * One instance is shared by all nodes of a tree.
+ * <p>
+ * In auto-tune mode, the initial size of leaf pages adapts to the observed fan-out:
+ * if more than half of the new leaf pages had to be expanded, the initial size is doubled.
+ * If hardly any leaf pages are expanded, it is halved again, down to the default.
+ * This is not thread-safe, but neither are updates of the tree.
+ */
+public final class BSTPageSizes {
+
+	/** Maximum size of pages, limited by the 'short' entry count of pages. */
+	public static final int MAX_PAGE_SIZE = 1 << 14;
+
+	/** Number of leaf page creations between auto-tune evaluations. */
+	private static final int TUNE_INTERVAL = 1024;
+
+	private final int maxLeafN;
+	private final int maxInnerN;
+	private final int defaultInitialLeafN;
+	private final boolean autoTune;
+	private int initialLeafN;
+	private int nCreated;
+	private int nExpanded;
+
+	/**
+	 * @param maxLeafN maximum number of entries in leaf pages
+	 * @param maxInnerN maximum number of keys in inner pages
+	 * @param initialLeafN initial capacity of leaf pages, 0 for the default
+	 * @param autoTune whether to adapt the initial capacity of leaf pages
+	 */
+	public BSTPageSizes(int maxLeafN, int maxInnerN, int initialLeafN, boolean autoTune) {
+		if (maxLeafN < 2 || maxLeafN > MAX_PAGE_SIZE) {
+			throw new IllegalArgumentException("maxLeafN=" + maxLeafN);
+		}
+		if (maxInnerN < 3 || maxInnerN > MAX_PAGE_SIZE) {
+			throw new IllegalArgumentException("maxInnerN=" + maxInnerN);
+		}
+		if (initialLeafN < 0 || initialLeafN > maxLeafN) {
+			throw new IllegalArgumentException("initialLeafN=" + initialLeafN);
+		}
+		this.maxLeafN = maxLeafN;
+		this.maxInnerN = maxInnerN;
+		this.defaultInitialLeafN = initialLeafN > 0 ? initialLeafN : (maxLeafN <= 8 ? 2 : 4);
+		this.initialLeafN = defaultInitialLeafN;
+		this.autoTune = autoTune;
+	}
+
+	/**
+	 * The idea is to have at most one level of inner pages for d&lt;=12.
+	 * The inner pages are all slightly larger the strictly necessary because the fill rate
+	 * of leaves is &lt; 100%.
+	 * @param dims number of dimensions
+	 * @return the default page sizes
+	 */
+	public static BSTPageSizes forDims(int dims) {
+		switch (dims) {
+		case 1: return new BSTPageSizes(2, 3, 0, false);
+		case 2: return new BSTPageSizes(4, 3, 0, false);
+		case 3: return new BSTPageSizes(8, 3, 0, false);
+		case 4: return new BSTPageSizes(16, 3, 0, false);
+		case 5: return new BSTPageSizes(16, 4+1, 0, false);
+		case 6: return new BSTPageSizes(16, 6+1, 0, false);
+		case 7: return new BSTPageSizes(16, 10+1, 0, false);
+		case 8: return new BSTPageSizes(16, 20+1, 0, false);
+		case 9: return new BSTPageSizes(32, 20+1, 0, false);
+		case 10: return new BSTPageSizes(32, 35+1, 0, false);
+		case 11: return new BSTPageSizes(32, 70+1, 0, false);
+		case 12: return new BSTPageSizes(64, 70+1, 0, false);
+		default: return new BSTPageSizes(100, 100, 0, false);
+		}
+	}
+
+	/**
+	 * @param cfg the tree configuration
+	 * @return the page sizes from the configuration, using the defaults for unset values
+	 */
+	public static BSTPageSizes create(PhTreeConfig cfg) {
+		BSTPageSizes def = forDims(cfg.getDimActual());
+		int maxLeafN = cfg.getBstMaxLeafN() > 0 ? cfg.getBstMaxLeafN() : def.maxLeafN;
+		int maxInnerN = cfg.getBstMaxInnerN() > 0 ? cfg.getBstMaxInnerN() : def.maxInnerN;
+		return new BSTPageSizes(maxLeafN, maxInnerN, cfg.getBstInitialLeafN(),
+				cfg.isBstAutoTune());
+	}
+
+	public int maxLeafN() {
+		return maxLeafN;
+	}
+
+	public int maxInnerN() {
+		return maxInnerN;
+	}
+
+	public int initialLeafN() {
+		return initialLeafN;
+	}
+
+	public boolean isAutoTune() {
+		return autoTune;
+	}
+
+	/**
+	 * Called when a leaf page is created.
+	 */
+	public void onLeafCreated() {
+		if (autoTune && ++nCreated >= TUNE_INTERVAL) {
+			if (nExpanded * 2 > nCreated) {
+				initialLeafN = Math.min(maxLeafN, initialLeafN * 2);
+			} else if (nExpanded * 16 < nCreated) {
+				initialLeafN = Math.max(defaultInitialLeafN, initialLeafN / 2);
+			}
+			nCreated = 0;
+			nExpanded = 0;
+		}
+	}
+
+	/**
+	 * Called when a leaf page is expanded because it is full.
+	 */
+	public void onLeafExpanded() {
+		if (autoTune) {
+			nExpanded++;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return maxInnerN + "/" + maxLeafN + (autoTune ? "/auto" : "");
+	}
+}
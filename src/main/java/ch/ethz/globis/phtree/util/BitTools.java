@@ -42,6 +42,22 @@ public class BitTools {
 		return (r >= 0) ? r : r ^ 0x7FFFFFFF;
 	}
 
+	/**
+	 * @param value value to convert
+	 * @return sortable long in the range [0, 2^32), for use in trees with a bit depth of 32.
+	 */
+	public static long toSortableUInt32(float value) {
+		return toSortableLong(value) - Integer.MIN_VALUE;
+	}
+
+	/**
+	 * @param value value created with {@link #toSortableUInt32(float)}
+	 * @return the float value
+	 */
+	public static float fromSortableUInt32(long value) {
+		return toFloat(value + Integer.MIN_VALUE);
+	}
+
 	public static double toDouble(long value) {
 		return Double.longBitsToDouble(value >= 0.0 ? value : value ^ 0x7FFFFFFFFFFFFFFFL);
 	}
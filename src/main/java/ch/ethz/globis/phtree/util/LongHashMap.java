@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map with primitive 'long' keys, using open addressing with linear probing.
+ * Removal shifts subsequent entries back, so there are no tombstones.
+ * <p>
+ * Values must not be {@code null}, a {@code null} value marks an empty slot.
+ * 
+ * @param <V> value type
+ */
+public class LongHashMap<V> {
+
+	private static final int MIN_CAPACITY = 16;
+	
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	public LongHashMap() {
+		this(MIN_CAPACITY);
+	}
+	
+	/**
+	 * @param expectedSize expected number of entries
+	 */
+	public LongHashMap(int expectedSize) {
+		int cap = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+		init(cap);
+	}
+	
+	private void init(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+	
+	private int slot(long key) {
+		//mix the bits, ids are often sequential
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+	
+	private int find(long key) {
+		int i = slot(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -(i + 1);
+	}
+	
+	/**
+	 * @param key the key
+	 * @return the value or {@code null} if the key does not exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int i = find(key);
+		return i >= 0 ? (V) values[i] : null;
+	}
+	
+	/**
+	 * @param key the key
+	 * @return 'true' if the key exists
+	 */
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+	
+	/**
+	 * @param key the key
+	 * @param value the value, must not be {@code null}
+	 * @return the previous value or {@code null} if the key did not exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Value must not be null");
+		}
+		int i = find(key);
+		if (i >= 0) {
+			V prev = (V) values[i];
+			values[i] = value;
+			return prev;
+		}
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+			i = find(key);
+		}
+		i = -(i + 1);
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		return null;
+	}
+	
+	/**
+	 * @param key the key
+	 * @return the removed value or {@code null} if the key did not exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int i = find(key);
+		if (i < 0) {
+			return null;
+		}
+		V prev = (V) values[i];
+		//shift back entries until the next empty slot
+		int gap = i;
+		int j = (i + 1) & mask;
+		while (values[j] != null) {
+			int home = slot(keys[j]);
+			//move the entry if its home slot is not between the gap and j (cyclic)
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+			j = (j + 1) & mask;
+		}
+		values[gap] = null;
+		size--;
+		return prev;
+	}
+	
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		init(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int j = -(find(oldKeys[i]) + 1);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+	
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+}
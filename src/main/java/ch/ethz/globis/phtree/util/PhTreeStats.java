@@ -24,6 +24,10 @@ public final class PhTreeStats {
 	public int[] infixHist = new int[64];  //prefix len
 	public int[] nodeDepthHist = new int[64];  //prefix len
 	public int[] nodeSizeLogHist = new int[32];  //log (nEntries)
+	public long nLhcToAhc; //conversions of nodes from LHC to AHC
+	public long nAhcToLhc; //conversions of nodes from AHC to LHC
+	public long nToNt; //conversions of nodes to NT
+	public long nFromNt; //conversions of nodes from NT to AHC/LHC
 	
 	public PhTreeStats() {
 		this(64);
@@ -41,6 +45,8 @@ public final class PhTreeStats {
 		r.appendLn("  avgNodeDepth = " + (double)q_totalDepth/(double)nNodes); 
 		//            "  noPostChildren=" + q_nPostFix1 + "\n" +
 		r.appendLn("  AHC=" + nAHC + "  NI=" + nNT + "  nNtNodes=" + nNtNodes);
+		r.appendLn("  conversions: LHC->AHC=" + nLhcToAhc + "  AHC->LHC=" + nAhcToLhc + 
+				"  ->NT=" + nToNt + "  NT->=" + nFromNt);
 		double apl = getAvgPostlen(r);
 		r.appendLn("  avgPostLen = " + apl + " (" + (bitWidth-apl) + ")");
 
@@ -90,6 +96,34 @@ public final class PhTreeStats {
 		return nNT;
 	}
 
+	/**
+	 * @return number of node conversions from LHC to AHC representation
+	 */
+	public long getLhcToAhcCount() {
+		return nLhcToAhc;
+	}
+
+	/**
+	 * @return number of node conversions from AHC to LHC representation
+	 */
+	public long getAhcToLhcCount() {
+		return nAhcToLhc;
+	}
+
+	/**
+	 * @return number of node conversions to NT representation
+	 */
+	public long getToNtCount() {
+		return nToNt;
+	}
+
+	/**
+	 * @return number of node conversions from NT to AHC or LHC representation
+	 */
+	public long getFromNtCount() {
+		return nFromNt;
+	}
+
 	public long getCalculatedMemSize() {
 		return size;
 	}
@@ -10,6 +10,8 @@ package ch.ethz.globis.phtree.v13;
 
 import static ch.ethz.globis.phtree.PhTreeHelper.posInArray;
 
+import java.util.function.BiFunction;
+
 import ch.ethz.globis.pht64kd.MaxKTreeI.NtEntry;
 import ch.ethz.globis.pht64kd.MaxKTreeI.PhIterator64;
 import ch.ethz.globis.phtree.PhEntry;
@@ -34,8 +36,9 @@ public class Node {
 	private static final int REF_BITS = 4*8;
 	private static final int HC_BITS = 0;  //number of bits required for storing current (HC)-representation
 	private static final int INN_HC_WIDTH = 0; //Index-NotNull: width of not-null flag for post/infix-hc
-	/** Bias towards using AHC. AHC is used if (sizeLHC*AHC_LHC_BIAS) greater than (sizeAHC)  */
+	/** Default bias towards using AHC. AHC is used if (sizeLHC*AHC_LHC_BIAS) greater than (sizeAHC)  */
 	public static final double AHC_LHC_BIAS = 2.0; 
+	/** Default number of entries at which nodes switch to NT representation. */
 	public static final int NT_THRESHOLD = 150; 
 
 	private Object[] values;
@@ -78,13 +81,13 @@ public class Node {
 	/**
 	 * @return true if NI should be used. 
 	 */
-	private static final boolean shouldSwitchToNT(int entryCount) {
+	private static final boolean shouldSwitchToNT(int entryCount, NodeThresholds th) {
 		//Maybe just provide a switching threshold? 5-10?
-		return entryCount >= NT_THRESHOLD;
+		return entryCount >= th.ntThreshold();
 	}
 
-	private static final boolean shouldSwitchFromNtToHC(int entryCount) {
-		return entryCount <= NT_THRESHOLD-30;
+	private static final boolean shouldSwitchFromNtToHC(int entryCount, NodeThresholds th) {
+		return entryCount <= th.ntThreshold() - th.ntHysteresis();
 	}
 
 	static final int IK_WIDTH(int dims) { return dims; }; //post index key width 
@@ -201,6 +204,7 @@ public class Node {
 		long hcPos = posInArray(keyToMatch, getPostLen());
 
 		if (isNT()) {
+			tree.getNodeThresholds().onWrite();
 			//ntPut will also increase the node-entry count
 			Object v = ntPut(hcPos, keyToMatch, newValueToInsert);
 			//null means: Did not exist, or we had to do a split...
@@ -214,7 +218,7 @@ public class Node {
 		//check whether hcPos is valid
 		if (pin < 0) {
 			tree.increaseNrEntries();
-			addPostPIN(hcPos, pin, keyToMatch, newValueToInsert);
+			addPostPIN(hcPos, pin, keyToMatch, newValueToInsert, tree.getNodeThresholds());
 			return null;
 		}
 		
@@ -267,12 +271,20 @@ public class Node {
 			if (getOnly) {
 				return ntGetEntryIfMatches(hcPos, keyToMatch);
 			}			
+			int bufEntryCnt = getEntryCount();
 			Object v = ntRemoveEntry(hcPos, keyToMatch, newKey, insertRequired);
 			if (v != null && !(v instanceof Node)) {
 				//Found and removed entry.
 				tree.decreaseNrEntries();
 				if (getEntryCount() == 1) {
 					mergeIntoParentNt(keyToMatch, parent);
+				} else if (getEntryCount() < bufEntryCnt) {
+					NodeThresholds th = tree.getNodeThresholds();
+					th.onWrite();
+					if (shouldSwitchFromNtToHC(bufEntryCnt, th)) {
+						th.onFromNt();
+						ntDeconstruct(keyToMatch.length, 0, false, th);
+					}
 				}
 			}
 			return v;
@@ -322,6 +334,36 @@ public class Node {
 		}
 	}
 	
+	/**
+	 * Computes the new value of the entry with the given key, see 
+	 * {@link ch.ethz.globis.phtree.PhTree#compute(long[], BiFunction)}.
+	 * The entry is inserted, replaced or removed in this node.
+	 * @param keyToMatch The key of the entry
+	 * @param mappingFunction the function that computes the new value
+	 * @param parent the parent node
+	 * @param tree the tree
+	 * @return The sub node to traverse or the new value.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Object doComputeIfMatching(long[] keyToMatch, 
+			BiFunction<long[], ? super T, ? extends T> mappingFunction, Node parent, PhTree13<T> tree) {
+		Object v = doIfMatching(keyToMatch, true, parent, null, null, tree);
+		if (v instanceof Node) {
+			return v;
+		}
+		T oldValue = v == PhTreeHelper.NULL ? null : (T) v;
+		T newValue = mappingFunction.apply(keyToMatch, oldValue);
+		if (newValue == null) {
+			if (oldValue != null) {
+				doIfMatching(keyToMatch, false, parent, null, null, tree);
+			}
+		} else if (newValue != oldValue) {
+			//This inserts or replaces the entry in this node, it never returns a sub node
+			doInsertIfMatching(keyToMatch, newValue, tree);
+		}
+		return newValue;
+	}
+	
 	private boolean readAndCheckKdKey(int offs, long[] keyToMatch, long mask) {
 		for (int i = 0; i < keyToMatch.length; i++) {
 			long k = Bits.readArray(ba, offs, postLenStored());
@@ -483,7 +525,7 @@ public class Node {
 		if (parent == null || getEntryCount() > 2) {
 			//no merging required
 			//value exists --> remove it
-			return removeEntry(hcPos, pinToDelete, dims);
+			return removeEntry(hcPos, pinToDelete, dims, tree.getNodeThresholds());
 		}
 
 		//okay, at his point we have a post that matches and (since it matches) we need to remove
@@ -634,22 +676,22 @@ public class Node {
 		return o;
 	}
 
-	private boolean shouldSwitchToAHC(int entryCount, int dims) {
-		return useAHC(entryCount, dims);
+	private boolean shouldSwitchToAHC(int entryCount, int dims, NodeThresholds th) {
+		return useAHC(entryCount, dims, th);
 	}
 	
-	private boolean shouldSwitchToLHC(int entryCount, int dims) {
-		return !useAHC(entryCount+2, dims);
+	private boolean shouldSwitchToLHC(int entryCount, int dims, NodeThresholds th) {
+		return !useAHC(entryCount + th.ahcHysteresis(), dims, th);
 	}
 	
-	private boolean useAHC(int entryCount, int dims) {
+	private boolean useAHC(int entryCount, int dims, NodeThresholds th) {
 		//calc post mode.
 		//+1 bit for null/not-null flag
 		long sizeAHC = (dims * postLenStored() + INN_HC_WIDTH + REF_BITS) * (1L << dims); 
 		//+DIM because every index entry needs DIM bits
 		long sizeLHC = (dims * postLenStored() + IK_WIDTH(dims) + REF_BITS) * (long)entryCount;
 		//Already 1.1 i.o. 1.0 has significant bad impact on perf.
-		return PhTree13.AHC_ENABLED && (dims<=31) && (sizeLHC*AHC_LHC_BIAS >= sizeAHC);
+		return PhTree13.AHC_ENABLED && (dims<=31) && (sizeLHC*th.ahcLhcBias() >= sizeAHC);
 	}
 
 	/**
@@ -870,7 +912,7 @@ public class Node {
 	 * @param pin position in node: ==hcPos for AHC or pos in array for LHC
 	 * @param key
 	 */
-	void addPostPIN(long hcPos, int pin, long[] key, Object value) {
+	void addPostPIN(long hcPos, int pin, long[] key, Object value, NodeThresholds th) {
 		final int dims = key.length;
 		final int bufEntryCnt = getEntryCount();
 		//decide here whether to use hyper-cube or linear representation
@@ -879,8 +921,10 @@ public class Node {
 		//    For one dimension, both need one additional bit to indicate either
 		//    null/not-null (hypercube, actually two bit) or to indicate the index. 
 
-		if (!isNT() && shouldSwitchToNT(bufEntryCnt)) {
+		th.onWrite();
+		if (!isNT() && shouldSwitchToNT(bufEntryCnt, th)) {
 			ntBuild(bufEntryCnt, dims, key);
+			th.onToNt();
 		}
 		if (isNT()) {
 			ntPut(hcPos, key, value);
@@ -888,8 +932,9 @@ public class Node {
 		}
 
 		//switch representation (HC <-> Linear)?
-		if (!isAHC() && shouldSwitchToAHC(bufEntryCnt + 1, dims)) {
+		if (!isAHC() && shouldSwitchToAHC(bufEntryCnt + 1, dims, th)) {
 			switchLhcToAhcAndGrow(bufEntryCnt, dims);
+			th.onLhcToAhc();
 			//no need to update pin now, we are in HC now.
 		}
 
@@ -1011,26 +1056,33 @@ public class Node {
 	 * @param bufPostCnt
 	 * @param dims
 	 * @param posToRemove
-	 * @param removeSub Remove sub or post?
+	 * @param remove Whether the entry at 'posToRemove' should be removed
+	 * @param th thresholds
 	 * @return Previous value if post was removed
 	 */
-	private Object ntDeconstruct(int dims, long posToRemove) {
+	private Object ntDeconstruct(int dims, long posToRemove, boolean remove, NodeThresholds th) {
 		//Migrate node to node-index representation
 		if (ind == null || !isNT()) {
 			throw new IllegalStateException();
 		}
 
-		int entryCountNew = ntGetSize() - 1;
-		decEntryCount();
+		int entryCountNew = ntGetSize();
+		if (remove) {
+			entryCountNew--;
+			decEntryCount();
+		}
 
 		//calc node mode.
-		boolean shouldBeAHC = useAHC(entryCountNew, dims);
+		boolean shouldBeAHC = useAHC(entryCountNew, dims, th);
 		setAHC(shouldBeAHC);
 
 
 		Object oldValue = null;
 		int offsIndex = getBitPosIndex();
-		long[] bia2 = Bits.arrayCreate(calcArraySizeTotalBits(entryCountNew, dims));
+		//calcArraySizeTotalBits() cannot be used for LHC while the node is still in NT mode
+		int sizeBits = shouldBeAHC ? calcArraySizeTotalBits(entryCountNew, dims) 
+				: offsIndex + entryCountNew * (IK_WIDTH(dims) + dims * postLenStored());
+		long[] bia2 = Bits.arrayCreate(sizeBits);
 		//Copy only bits that are relevant. Otherwise we might mess up the not-null table!
 		Bits.copyBitsLeft(ba, 0, bia2, 0, offsIndex);
 		int postLenTotal = dims*postLenStored();
@@ -1042,7 +1094,7 @@ public class Node {
 			while (it.hasNext()) {
 				NtEntry<Object> e = it.nextEntryReuse();
 				long pos = e.key();
-				if (pos == posToRemove) {
+				if (remove && pos == posToRemove) {
 					//skip the item that should be deleted.
 					oldValue = e.value();
 					v2[(int) pos] = null;
@@ -1070,7 +1122,7 @@ public class Node {
 			while (it.hasNext()) {
 				NtEntry<Object> e = it.nextEntryReuse();
 				long pos = e.key();
-				if (pos == posToRemove) {
+				if (remove && pos == posToRemove) {
 					//skip the item that should be deleted.
 					oldValue = e.value();
 					continue;
@@ -1291,11 +1343,13 @@ public class Node {
 	}
 
 
-	Object removeEntry(long hcPos, int posInNode, final int dims) {
+	Object removeEntry(long hcPos, int posInNode, final int dims, NodeThresholds th) {
 		final int bufEntryCnt = getEntryCount();
+		th.onWrite();
 		if (isNT()) {
-			if (shouldSwitchFromNtToHC(bufEntryCnt)) {
-				return ntDeconstruct(dims, hcPos);
+			if (shouldSwitchFromNtToHC(bufEntryCnt, th)) {
+				th.onFromNt();
+				return ntDeconstruct(dims, hcPos, true, th);
 			}
 			Object o = ntRemoveAnything(hcPos, dims);
 			decEntryCount();
@@ -1303,8 +1357,9 @@ public class Node {
 		}
 		
 		//switch representation (HC <-> Linear)?
-		if (isAHC() && shouldSwitchToLHC(bufEntryCnt, dims)) {
+		if (isAHC() && shouldSwitchToLHC(bufEntryCnt, dims, th)) {
 			//revert to linearized representation, if applicable
+			th.onAhcToLhc();
 			Object oldVal = switchAhcToLhcAndShrink(bufEntryCnt, dims, hcPos);
 			decEntryCount();
 			return oldVal;
@@ -11,6 +11,7 @@ package ch.ethz.globis.phtree.v13;
 import ch.ethz.globis.pht64kd.MaxKTreeI.NtEntry;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterAfterKey;
 import ch.ethz.globis.phtree.v13.nt.NtIteratorMask;
 
 
@@ -441,6 +442,32 @@ public class NodeIteratorNoGC<T> {
 		this.node = node; //for calcLimits
 		calcLimits(rangeMin, rangeMax);
 		reinit(node, rangeMin, rangeMax, checker);
+		//resumed queries can skip all entries before the resume point
+		if (checker instanceof PhFilterAfterKey) {
+			long startPos = ((PhFilterAfterKey) checker).startPos(valTemplate, node.getPostLen());
+			if (startPos > maskLower) {
+				skipTo(startPos);
+			}
+		}
+	}
+
+	/**
+	 * Skip all entries before 'startPos'. This is only done for AHC and LHC nodes 
+	 * that are iterated in order, the other modes iterate as usual.
+	 * @param startPos the HC-Pos of the first entry to be returned
+	 */
+	private void skipTo(long startPos) {
+		if (isNI || useHcIncrementer) {
+			return;
+		}
+		if (isHC) {
+			next = startPos - 1;
+		} else {
+			int pin = node.getPosition(startPos, dims);
+			pin = pin >= 0 ? pin : -(pin+1);
+			currentOffsetKey = node.pinToOffsBitsLHC(pin, node.getBitPosIndex(), dims);
+			nFound = pin;
+		}
 	}
 
 	boolean verifyMinMax() {
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.v13;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.ethz.globis.phtree.PhTreeConfig;
+
+/**
+ * Thresholds for switching the representation of v13 nodes between AHC, LHC and NT.
+ * One instance is shared by all nodes of a tree. It also counts the conversions
+ * between representations.
+ * <p>
+ * Switching back from AHC to LHC and from NT to AHC/LHC uses a hysteresis, i.e. a node
+ * switches back only after a number of entries have been removed. This avoids that
+ * nodes flip representation when entries are repeatedly added and removed.
+ * <p>
+ * In adaptive mode, the hysteresis is scaled by the observed workload: if nodes convert
+ * frequently and the workload is dominated by writes, the hysteresis is doubled (up
+ * to {@link #MAX_SCALE}). If the workload is dominated by reads, it is halved again, 
+ * so that nodes use the representation that is best for queries.
+ * This is not thread-safe for writes, but neither are updates of the tree.
+ */
+public final class NodeThresholds {
+
+	/** Default hysteresis for switching from AHC to LHC, in entries. */
+	public static final int DEFAULT_AHC_HYSTERESIS = 2;
+	/** Default hysteresis for switching from NT to AHC/LHC, in entries. */
+	public static final int DEFAULT_NT_HYSTERESIS = 30;
+	/** Minimum entry count for NT nodes. */
+	public static final int MIN_NT_THRESHOLD = 8;
+	/** Maximum scaling factor of the hysteresis in adaptive mode. */
+	public static final int MAX_SCALE = 16;
+
+	/** Number of writes between evaluations of the adaptive policy. */
+	private static final int TUNE_INTERVAL = 1024;
+
+	private final double ahcLhcBias;
+	private final int ntThreshold;
+	private final int ntHysteresis;
+	private final boolean adaptive;
+	private int scale = 1;
+
+	private final LongAdder nReads = new LongAdder();
+	private int nWrites;
+	private int nConversionsInInterval;
+
+	private long nLhcToAhc;
+	private long nAhcToLhc;
+	private long nToNt;
+	private long nFromNt;
+
+	/**
+	 * @param ahcLhcBias bias towards AHC, AHC is used if (sizeLHC*bias) &gt;= sizeAHC.
+	 * 0 disables AHC.
+	 * @param ntThreshold number of entries at which nodes switch to NT representation
+	 * @param ntHysteresis number of entries that have to be removed before an NT node switches
+	 * back to AHC/LHC
+	 * @param adaptive whether to adapt the hysteresis to the workload
+	 */
+	public NodeThresholds(double ahcLhcBias, int ntThreshold, int ntHysteresis, boolean adaptive) {
+		if (!(ahcLhcBias >= 0)) {
+			throw new IllegalArgumentException("ahcLhcBias=" + ahcLhcBias);
+		}
+		if (ntThreshold < MIN_NT_THRESHOLD) {
+			throw new IllegalArgumentException("ntThreshold=" + ntThreshold);
+		}
+		if (ntHysteresis < 1 || ntHysteresis > ntThreshold/2) {
+			throw new IllegalArgumentException("ntHysteresis=" + ntHysteresis);
+		}
+		this.ahcLhcBias = ahcLhcBias;
+		this.ntThreshold = ntThreshold;
+		this.ntHysteresis = ntHysteresis;
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * @return the default thresholds
+	 */
+	public static NodeThresholds createDefault() {
+		return new NodeThresholds(Node.AHC_LHC_BIAS, Node.NT_THRESHOLD, DEFAULT_NT_HYSTERESIS,
+				false);
+	}
+
+	/**
+	 * @param cfg the tree configuration
+	 * @return the thresholds from the configuration, using the defaults for unset values
+	 */
+	public static NodeThresholds create(PhTreeConfig cfg) {
+		double bias = cfg.getAhcLhcBias() >= 0 ? cfg.getAhcLhcBias() : Node.AHC_LHC_BIAS;
+		int nt = cfg.getNtThreshold() > 0 ? cfg.getNtThreshold() : Node.NT_THRESHOLD;
+		int hyst = cfg.getNtHysteresis() > 0 ? cfg.getNtHysteresis()
+				: Math.min(DEFAULT_NT_HYSTERESIS, nt/2);
+		return new NodeThresholds(bias, nt, hyst, cfg.isAdaptiveNodeThresholds());
+	}
+
+	public double ahcLhcBias() {
+		return ahcLhcBias;
+	}
+
+	public int ntThreshold() {
+		return ntThreshold;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @return the current scaling factor of the hysteresis
+	 */
+	public int scale() {
+		return scale;
+	}
+
+	/**
+	 * @return the current hysteresis for switching from AHC to LHC
+	 */
+	int ahcHysteresis() {
+		return DEFAULT_AHC_HYSTERESIS * scale;
+	}
+
+	/**
+	 * @return the current hysteresis for switching from NT to AHC/LHC
+	 */
+	int ntHysteresis() {
+		return Math.min(ntHysteresis * scale, ntThreshold/2);
+	}
+
+	/**
+	 * Called for read operations. Reads are only counted in adaptive mode.
+	 */
+	void onRead() {
+		if (adaptive) {
+			nReads.increment();
+		}
+	}
+
+	/**
+	 * Called when an entry is added to or removed from a node.
+	 */
+	void onWrite() {
+		if (adaptive && ++nWrites >= TUNE_INTERVAL) {
+			long reads = nReads.sumThenReset();
+			boolean writeHeavy = nWrites >= reads;
+			boolean readHeavy = reads >= 8L * nWrites;
+			if (writeHeavy && nConversionsInInterval * 32 > nWrites) {
+				scale = Math.min(MAX_SCALE, scale * 2);
+			} else if (readHeavy) {
+				scale = Math.max(1, scale / 2);
+			}
+			nWrites = 0;
+			nConversionsInInterval = 0;
+		}
+	}
+
+	void onLhcToAhc() {
+		nLhcToAhc++;
+		nConversionsInInterval++;
+	}
+
+	void onAhcToLhc() {
+		nAhcToLhc++;
+		nConversionsInInterval++;
+	}
+
+	void onToNt() {
+		nToNt++;
+		nConversionsInInterval++;
+	}
+
+	void onFromNt() {
+		nFromNt++;
+		nConversionsInInterval++;
+	}
+
+	public long getLhcToAhcCount() {
+		return nLhcToAhc;
+	}
+
+	public long getAhcToLhcCount() {
+		return nAhcToLhc;
+	}
+
+	public long getToNtCount() {
+		return nToNt;
+	}
+
+	public long getFromNtCount() {
+		return nFromNt;
+	}
+
+	@Override
+	public String toString() {
+		return "AHC/LHC=" + ahcLhcBias + " NtLimit=" + ntThreshold +
+				" NtHyst=" + ntHysteresis + (adaptive ? "/auto(x" + scale + ")" : "");
+	}
+}
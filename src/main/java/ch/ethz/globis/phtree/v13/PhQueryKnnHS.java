@@ -9,9 +9,8 @@
 package ch.ethz.globis.phtree.v13;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 
 import ch.ethz.globis.phtree.PhDistance;
@@ -25,6 +24,9 @@ import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
  * Implementation after Hjaltason and Samet (with some deviations: no MinDist or MaxDist used).
  * G. R. Hjaltason and H. Samet., "Distance browsing in spatial databases.", ACM TODS 24(2):265--318. 1999
  *
+ * Results are calculated lazily, i.e. the queue is kept between calls to next() and nodes are 
+ * only expanded when required. 
+ *
  * @param <T> value type
  */
 public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
@@ -35,11 +37,15 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 	private PhTree13<T> pht;
 	private PhDistance distance;
 	private long[] center;
-	private final ArrayList<PhEntryDist<T>> results = new ArrayList<>(); 
+	private double maxDist = Double.POSITIVE_INFINITY;
+	//buffer for calculating node distances
+	private final long[] nodeBuf;
+	/** Number of results that may still be returned. */
+	private int remaining;
+	private PhEntryDist<T> nextResult;
 	private final ArrayList<PhEntryDist<T>> pool = new ArrayList<>(); 
 	private final PriorityQueue<PhEntryDist<T>> queue = new PriorityQueue<>(COMP);
 	private final NodeIteratorFullToList<T> iterNode;
-	private Iterator<PhEntryDist<T>> iterResult;
 	private final KnnResultList<T> candidateBuffer;
 	
 
@@ -50,6 +56,7 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 	 */
 	public PhQueryKnnHS(PhTree13<T> pht) {
 		this.dims = pht.getDim();
+		this.nodeBuf = new long[dims];
 		this.pht = pht;
 		//this.iterNode = new NodeIteratorFullNoGC<>(dims, new long[dims]);
 		this.candidateBuffer = new KnnResultList<>(dims, pool);
@@ -68,18 +75,23 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 
 	@Override
 	public PhEntryDist<T> nextEntry() {
-		return iterResult.next();
+		return nextEntryReuse();
 	} 
 
 	@Override
 	public PhEntryDist<T> nextEntryReuse() {
 		//Reusing happens only via pooling
-		return iterResult.next();
+		if (nextResult == null) {
+			throw new NoSuchElementException();
+		}
+		PhEntryDist<T> ret = nextResult;
+		findNextResult();
+		return ret;
 	}
 
 	@Override
 	public boolean hasNext() {
-		return iterResult.hasNext();
+		return nextResult != null;
 	}
 
 	@Override
@@ -89,16 +101,29 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 
 	@Override
 	public PhKnnQuery<T> reset(int nMin, PhDistance dist, long... center) {
+		return reset(nMin, Double.POSITIVE_INFINITY, dist, center);
+	}
+
+	/**
+	 * Reset the query for a new search that returns at most 'nMin' entries with a distance
+	 * of at most 'maxDist'. Nodes and entries that are further away are never expanded.
+	 * @param nMin maximum number of entries to return
+	 * @param maxDist maximum distance, {@link Double#POSITIVE_INFINITY} for no limit
+	 * @param dist distance function
+	 * @param center the center point
+	 * @return this query
+	 */
+	public PhKnnQuery<T> reset(int nMin, double maxDist, PhDistance dist, long... center) {
 		this.distance = dist == null ? this.distance : dist;
 		this.center = center;
+		this.maxDist = maxDist;
 		
 		//TODO pool entries??/
 		this.queue.clear();
-		this.results.clear();
-		
+		this.nextResult = null;
+		this.remaining = nMin;
 		
 		if (nMin <= 0 || pht.size() == 0) {
-			iterResult = Collections.<PhEntryDist<T>>emptyList().iterator();
 			return this;
 		}
 		
@@ -108,22 +133,24 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 		rootE.setNodeInternal(pht.getRoot());
 		this.queue.add(rootE);
 		
-		search(nMin);
-		iterResult = results.iterator();
+		findNextResult();
 		
 		return this;
 	}
 
 	
-	private void search(int k) {
+	private void findNextResult() {
+		nextResult = null;
+		if (remaining <= 0) {
+			return;
+		}
 		while (!queue.isEmpty()) {
 			PhEntryDist<T> candidate = queue.poll();
 			if (!candidate.hasNodeInternal()) {
 				//data entry
-				results.add(candidate);
-				if (results.size() >= k) {
-					return;
-				}
+				nextResult = candidate;
+				remaining--;
+				return;
 			} else {
 				//inner node
 				Node node = (Node) candidate.getNodeInternal();
@@ -131,15 +158,19 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 				iterNode.init(node, candidateBuffer, candidate.getKey());
 				for (int i = 0; i < candidateBuffer.size(); i++) {
 					PhEntryDist<T> e2 = candidateBuffer.get(i);
+					double d;
 					if (e2.hasNodeInternal()) {
 						Node sub = (Node) e2.getNodeInternal();
-						double d = distToNode(e2.getKey(), sub.getPostLen() + 1);
-						e2.setDist(d);
+						d = distToNode(e2.getKey(), sub.getPostLen() + 1);
 					} else {
-						double d = distance.dist(center, e2.getKey());
+						d = distance.dist(center, e2.getKey());
+					}
+					if (d <= maxDist) {
 						e2.setDist(d);
+						queue.add(e2);
+					} else {
+						pool.add(e2);
 					}
-					queue.add(e2);
 				}
 				pool.add(candidate);
 			}				
@@ -160,18 +191,7 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 
 
 	private double distToNode(long[] prefix, int bitsToIgnore) {
-		long maskMin = (-1L) << bitsToIgnore;
-		long maskMax = ~maskMin;
-		long[] buf = new long[prefix.length];
-		for (int i = 0; i < buf.length; i++) {
-			//if v is outside the node, return distance to closest edge,
-			//otherwise return v itself (assume possible distance=0)
-			long min = prefix[i] & maskMin;
-			long max = prefix[i] | maskMax;
-			buf[i] = min > center[i] ? min : (max < center[i] ? max : center[i]); 
-		}
-
-		return distance.dist(center, buf);
+		return distance.distToNode(center, prefix, bitsToIgnore, nodeBuf);
 	}
 
 	
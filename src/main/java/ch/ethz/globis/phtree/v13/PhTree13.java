@@ -12,14 +12,18 @@ import static ch.ethz.globis.phtree.PhTreeHelper.align8;
 import static ch.ethz.globis.phtree.PhTreeHelper.debugCheck;
 import static ch.ethz.globis.phtree.PhTreeHelper.posInArray;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 
 import ch.ethz.globis.phtree.PhDistance;
 import ch.ethz.globis.phtree.PhDistanceL;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterAfterKey;
 import ch.ethz.globis.phtree.PhFilterDistance;
 import ch.ethz.globis.phtree.PhRangeQuery;
 import ch.ethz.globis.phtree.PhTree;
@@ -96,11 +100,18 @@ public class PhTree13<T> implements PhTree<T> {
 
 	//Dimension. This is the number of attributes of an entity.
 	private final int dims;
+	//Bit depth of keys
+	private final int depth;
 
 	private final AtomicInteger nEntries = new AtomicInteger();
 
 	private Node root = null;
 
+	private final NodeThresholds nodeThresholds;
+	//Buffers for update()
+	private final Node[] updateStack = new Node[DEPTH_64];
+	private final int[] insertRequired = new int[1];
+
 	Node getRoot() {
 		return root;
 	}
@@ -111,11 +122,15 @@ public class PhTree13<T> implements PhTree<T> {
 
 	public PhTree13(int dim) {
 		dims = dim;
+		depth = DEPTH_64;
+		nodeThresholds = NodeThresholds.createDefault();
 		debugCheck();
 	}
 
 	public PhTree13(PhTreeConfig cnf) {
 		dims = cnf.getDimActual();
+		depth = cnf.getDepth();
+		nodeThresholds = NodeThresholds.create(cnf);
 		debugCheck();
 		switch (cnf.getConcurrencyType()) {
 		case PhTreeConfig.CONCURRENCY_NONE: break;
@@ -124,6 +139,13 @@ public class PhTree13<T> implements PhTree<T> {
 		}
 	}
 
+	/**
+	 * @return the thresholds for switching the representation of nodes
+	 */
+	public NodeThresholds getNodeThresholds() {
+		return nodeThresholds;
+	}
+
 	void increaseNrEntries() {
 		nEntries.incrementAndGet();
 	}
@@ -139,7 +161,48 @@ public class PhTree13<T> implements PhTree<T> {
 
 	@Override
 	public PhTreeStats getStats() {
-		return getStats(0, getRoot(), new PhTreeStats(DEPTH_64));
+		PhTreeStats stats = new PhTreeStats(depth);
+		stats.nLhcToAhc = nodeThresholds.getLhcToAhcCount();
+		stats.nAhcToLhc = nodeThresholds.getAhcToLhcCount();
+		stats.nToNt = nodeThresholds.getToNtCount();
+		stats.nFromNt = nodeThresholds.getFromNtCount();
+		if (getRoot() == null) {
+			return stats;
+		}
+		return getStats(0, getRoot(), stats);
+	}
+
+	@Override
+	public PhTreeStats getStatsSample(int maxEntries) {
+		PhTreeStats stats = new PhTreeStats(depth);
+		if (getRoot() == null) {
+			return stats;
+		}
+		ArrayDeque<Node> queue = new ArrayDeque<>();
+		queue.add(getRoot());
+		int nVisited = 0;
+		List<Object> entries = new ArrayList<>();
+		while (!queue.isEmpty() && nVisited < maxEntries) {
+			Node node = queue.poll();
+			int size = node.getEntryCount();
+			stats.nNodes++;
+			stats.nTotalChildren += size;
+			stats.nodeSizeLogHist[32-Integer.numberOfLeadingZeros(size)]++;
+			nVisited += size;
+			Object[] values = node.values();
+			if (values == null) {
+				//the NT statistics are not part of the sample
+				entries.clear();
+				NodeTreeV13.getStats(node.ind(), new PhTreeStats(depth), dims, entries);
+				values = entries.toArray();
+			}
+			for (Object child: values) {
+				if (child instanceof Node) {
+					queue.add((Node) child);
+				}
+			}
+		}
+		return stats;
 	}
 
 	private PhTreeStats getStats(int currentDepth, Node node, PhTreeStats stats) {
@@ -216,6 +279,7 @@ public class PhTree13<T> implements PhTree<T> {
 	@SuppressWarnings("unchecked")
 	@Override
 	public T put(long[] key, T value) {
+		PhTreeHelper.checkDepth(key, depth);
 		Object nonNullValue = value == null ? PhTreeHelper.NULL : value;
 		if (getRoot() == null) {
 			insertRoot(key, nonNullValue);
@@ -231,15 +295,37 @@ public class PhTree13<T> implements PhTree<T> {
     }
 
     void insertRoot(long[] key, Object value) {
-        root = Node.createNode(dims, 0, DEPTH_64-1);
+        root = Node.createNode(dims, 0, depth-1);
         long pos = posInArray(key, root.getPostLen());
-        root.addPostPIN(pos, -1, key, value);
+        root.addPostPIN(pos, -1, key, value, nodeThresholds);
         increaseNrEntries();
     }
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public T compute(long[] key, BiFunction<long[], ? super T, ? extends T> remappingFunction) {
+		PhTreeHelper.checkDepth(key, depth);
+		if (getRoot() == null) {
+			T value = remappingFunction.apply(key, null);
+			if (value != null) {
+				insertRoot(key, value);
+			}
+			return value;
+		}
+		Object o = getRoot();
+		Node parentNode = null;
+		while (o instanceof Node) {
+			Node currentNode = (Node) o;
+			o = currentNode.doComputeIfMatching(key, remappingFunction, parentNode, this);
+			parentNode = currentNode;
+		}
+		return (T) o;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public boolean contains(long... key) {
+		nodeThresholds.onRead();
 		Object o = getRoot();
 		while (o instanceof Node) {
 			Node currentNode = (Node) o;
@@ -252,6 +338,7 @@ public class PhTree13<T> implements PhTree<T> {
 	@SuppressWarnings("unchecked")
 	@Override
 	public T get(long... key) {
+		nodeThresholds.onRead();
 		Object o = getRoot();
 		while (o instanceof Node) {
 			Node currentNode = (Node) o;
@@ -282,18 +369,20 @@ public class PhTree13<T> implements PhTree<T> {
 	@SuppressWarnings("unchecked")
 	@Override
 	public T update(long[] oldKey, long[] newKey) {
-		Node[] stack = new Node[64];
+		PhTreeHelper.checkDepth(newKey, depth);
+		final Node[] stack = updateStack;
 		int stackSize = 0;
 		
 		Object o = getRoot();
 		Node parentNode = null;
-		final int[] insertRequired = new int[]{NO_INSERT_REQUIRED};
+		insertRequired[0] = NO_INSERT_REQUIRED;
 		while (o instanceof Node) {
 			Node currentNode = (Node) o;
 			stack[stackSize++] = currentNode;
 			o = currentNode.doIfMatching(oldKey, false, parentNode, newKey, insertRequired, this);
 			parentNode = currentNode;
 		}
+		final int stackSizeMax = stackSize;
 		
 		Object value = o == PhTreeHelper.NULL ? null : o;
 
@@ -318,16 +407,17 @@ public class PhTree13<T> implements PhTree<T> {
 			}
 		}		
 		
+		//do not keep references to removed nodes
+		Arrays.fill(stack, 0, stackSizeMax, null);
 		return (T) value;
 	}
 
 	@Override
 	public String toString() {
 		return this.getClass().getSimpleName() + 
-				" AHC/LHC=" + Node.AHC_LHC_BIAS +  
+				" " + nodeThresholds +  
 				" AHC-on=" + AHC_ENABLED +  
 				" HCI-on=" + HCI_ENABLED +  
-				" NtLimit=" + Node.NT_THRESHOLD +  
 				" NtMaxDim=" + NtNode.MAX_DIM +  
 				" DEBUG=" + PhTreeHelper.DEBUG;
 	}
@@ -429,11 +519,24 @@ public class PhTree13<T> implements PhTree<T> {
 			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
 					" / " + max.length + "  DIM=" + dims);
 		}
+		nodeThresholds.onRead();
 		PhQuery<T> q = new PhIteratorNoGC<>(this, null);
 		q.reset(min, max);
 		return q;
 	}
 
+	@Override
+	public PhQuery<T> query(long[] min, long[] max, long[] afterKey) {
+		if (min.length != dims || max.length != dims || afterKey.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + " / " + afterKey.length + "  DIM=" + dims);
+		}
+		nodeThresholds.onRead();
+		PhQuery<T> q = new PhIteratorNoGC<>(this, new PhFilterAfterKey(afterKey));
+		q.reset(min, max);
+		return q;
+	}
+
 	/**
 	 * Performs a rectangular window query. The parameters are the min and max keys which 
 	 * contain the minimum respectively the maximum keys in every dimension.
@@ -461,6 +564,7 @@ public class PhTree13<T> implements PhTree<T> {
 					" / " + max.length + "  DIM=" + dims);
 		}
 		
+		nodeThresholds.onRead();
 		if (getRoot() == null) {
 			return new ArrayList<>();
 		}
@@ -469,7 +573,7 @@ public class PhTree13<T> implements PhTree<T> {
 //			mapper = (PhMapper<T, R>) PhMapper.PVENTRY();
 //		}
 		
-		PhResultList<T, R> list = new PhResultList.MappingResultList<>(null, mapper,
+		PhResultList<T, R> list = new PhResultList.MappingResultList<>(filter, mapper,
 				() -> new PhEntry<T>(new long[dims], null));
 		
 		NodeIteratorListReuse<T, R> it = new NodeIteratorListReuse<>(dims, list);
@@ -483,7 +587,7 @@ public class PhTree13<T> implements PhTree<T> {
 
 	@Override
 	public int getBitDepth() {
-		return PhTree13.DEPTH_64;
+		return depth;
 	}
 
 	/**
@@ -497,6 +601,7 @@ public class PhTree13<T> implements PhTree<T> {
 	public PhKnnQuery<T> nearestNeighbour(int nMin, long... v) {
 		//return new PhQueryKnnMbbPP<T>(this).reset(nMin, PhDistanceL.THIS, v);
 		//return new PhQueryKnnMbbPPList<T>(this).reset(nMin, PhDistanceL.THIS, v);
+		nodeThresholds.onRead();
 		return new PhQueryKnnHS<>(this).reset(nMin, PhDistanceL.THIS, v);
 	}
 
@@ -505,9 +610,18 @@ public class PhTree13<T> implements PhTree<T> {
 			PhFilter dimsFilter, long... center) {
 		//return new PhQueryKnnMbbPP<T>(this).reset(nMin, dist, center);
 		//return new PhQueryKnnMbbPPList<T>(this).reset(nMin, dist, center);
+		nodeThresholds.onRead();
 		return new PhQueryKnnHS<>(this).reset(nMin, dist, center);
 	}
 
+	@Override
+	public PhKnnQuery<T> nearestNeighbour(int nMin, double maxDist, PhDistance dist, 
+			long... center) {
+		nodeThresholds.onRead();
+		return new PhQueryKnnHS<T>(this).reset(
+				nMin, maxDist, dist == null ? PhDistanceL.THIS : dist, center);
+	}
+
 	@Override
 	public PhRangeQuery<T> rangeQuery(double dist, long... center) {
 		return rangeQuery(dist, null, center);
@@ -520,6 +634,7 @@ public class PhTree13<T> implements PhTree<T> {
 			optionalDist = PhDistanceL.THIS;
 		}
 		filter.set(center, optionalDist, dist);
+		nodeThresholds.onRead();
 		PhQuery<T> q = new PhIteratorNoGC<>(this, filter);
 		PhRangeQuery<T> qr = new PhRangeQuery<>(q, this, optionalDist, filter);
 		qr.reset(dist, center);
@@ -12,9 +12,11 @@ import static ch.ethz.globis.phtree.PhTreeHelper.posInArray;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiFunction;
 
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.util.BSTPageSizes;
 import ch.ethz.globis.phtree.util.BitsLong;
 import ch.ethz.globis.phtree.util.PhTreeStats;
 import ch.ethz.globis.phtree.util.StringBuilderLn;
@@ -31,11 +33,12 @@ import ch.ethz.globis.phtree.v16.bst.BSTreePage;
  */
 public class Node {
 
-	public byte maxLeafN;// = 100;//10;//340;
-	/** Max number of keys in inner page (there can be max+1 page-refs) */
-	public byte maxInnerN;// = 100;//11;//509;
+	/** Page sizes of the B+tree, shared by all nodes of a tree */
+	private BSTPageSizes pageSizes;
 
 	private int entryCnt = 0;
+	/** Number of entries in this node and all sub-nodes, only maintained if enabled in the tree. */
+	private int subtreeCnt = 0;
 
 	/**
 	 * postLenStored: Stored bits, including the hc address.
@@ -45,8 +48,14 @@ public class Node {
 	private byte postLenStored = 0;
 	private byte infixLenStored = 0; //prefix size
 
+	//Compact mode: the prefix of this node, only the bits above postLen are valid.
+	//This is 'null' if the entries store the full kdKeys.
+	private long[] prefix;
+
 	//Nested tree index
 	private BSTreePage root;
+	//Incremented when BST pages are split or merged, this invalidates cached subtree counts
+	private int bstStructureStamp = 0;
 
 	
     private Node() {
@@ -57,33 +66,24 @@ public class Node {
 		return new Node();
 	}
 
-	private void initNode(int infixLenClassic, int postLenClassic, int dims) {
+	private void initNode(int infixLenClassic, int postLenClassic, BSTPageSizes pageSizes) {
 		this.infixLenStored = (byte) (infixLenClassic + 1);
 		this.postLenStored = (byte) (postLenClassic + 1);
 		this.entryCnt = 0;
-		//The idea is to have at most one level of inner pages for d<=12
-		//The inner pages are all slightly larger the strictly necessary because the fill rate of leaves is < 100%
-		switch (dims) {
-		case 1: maxLeafN = 2; maxInnerN = 3; break;
-		case 2: maxLeafN = 4; maxInnerN = 3; break;
-		case 3: maxLeafN = 8; maxInnerN = 3; break;
-		case 4: maxLeafN = 16; maxInnerN = 3; break;
-		case 5: maxLeafN = 16; maxInnerN = 4+1; break;
-		case 6: maxLeafN = 16; maxInnerN = 6+1; break;
-		case 7: maxLeafN = 16; maxInnerN = 10+1; break;
-		case 8: maxLeafN = 16; maxInnerN = 20+1; break;
-		case 9: maxLeafN = 32; maxInnerN = 20+1; break;
-		case 10: maxLeafN = 32; maxInnerN = 35+1; break;
-		case 11: maxLeafN = 32; maxInnerN = 70+1; break;
-		case 12: maxLeafN = 64; maxInnerN = 70+1; break;
-		default: maxLeafN = 100; maxInnerN = 100; break;
-		}
+		this.subtreeCnt = 0;
+		this.pageSizes = pageSizes;
+		this.prefix = null;
 		this.root = bstCreateRoot();
 	}
 
 	public static Node createNode(int dims, int infixLenClassic, int postLenClassic) {
+		return createNode(BSTPageSizes.forDims(dims), infixLenClassic, postLenClassic);
+	}
+
+	public static Node createNode(BSTPageSizes pageSizes, int infixLenClassic, 
+			int postLenClassic) {
 		Node n = NodePool.getNode();
-		n.initNode(infixLenClassic, postLenClassic, dims);
+		n.initNode(infixLenClassic, postLenClassic, pageSizes);
 		return n;
 	}
 
@@ -137,6 +137,10 @@ public class Node {
 			return e != null ? e.getValue() : null;
 		}			
 		Object v = removeEntry(hcPos, keyToMatch, insertRequired);
+		if (insertRequired != null && insertRequired.inPlace) {
+			//The entry was updated in place
+			return v;
+		}
 		if (v != null && !(v instanceof Node)) {
 			//Found and removed entry.
 			tree.decreaseNrEntries();
@@ -147,6 +151,51 @@ public class Node {
 		return v;
 	}
 	
+	/**
+	 * Computes the new value of the entry with the given key, see 
+	 * {@link ch.ethz.globis.phtree.PhTree#compute(long[], BiFunction)}.
+	 * The entry is inserted, replaced or removed in place.
+	 * @param keyToMatch The key of the entry
+	 * @param mappingFunction the function that computes the new value
+	 * @param parent the parent node
+	 * @param tree the tree
+	 * @return The sub node to traverse or the new value.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Object doComputeIfMatching(long[] keyToMatch, 
+			BiFunction<long[], ? super T, ? extends T> mappingFunction, Node parent, PhTree16<T> tree) {
+		long hcPos = posInArray(keyToMatch, getPostLen());
+		BSTEntry e = getEntry(hcPos, keyToMatch);
+		if (e != null) {
+			Object v = e.getValue();
+			if (v instanceof Node) {
+				return v;
+			}
+			T oldValue = v == PhTreeHelper.NULL ? null : (T) v;
+			T newValue = mappingFunction.apply(keyToMatch, oldValue);
+			if (newValue == null) {
+				if (oldValue != null) {
+					removeEntry(hcPos, keyToMatch, null);
+					tree.decreaseNrEntries();
+					if (getEntryCount() == 1) {
+						mergeIntoParentNt(keyToMatch, parent);
+					}
+				}
+			} else if (newValue != oldValue) {
+				e.setValue(newValue);
+			}
+			return newValue;
+		}
+		
+		//No matching entry, insert new entry or split the conflicting entry
+		T newValue = mappingFunction.apply(keyToMatch, null);
+		if (newValue != null) {
+			addEntry(hcPos, keyToMatch, newValue);
+			tree.increaseNrEntries();
+		}
+		return newValue;
+	}
+	
 	private long calcInfixMask(int subPostLen) {
 		//We use a simplified mask, because the prefix is always present
 		//long mask = ~((-1L)<<(getPostLen()-subPostLen-1));
@@ -167,7 +216,10 @@ public class Node {
         //determine length of infix
         int newLocalInfLen = getPostLen() - mcb;
         int newPostLen = mcb-1;
-        Node newNode = createNode(key1.length, newLocalInfLen, newPostLen);
+        Node newNode = createNode(pageSizes, newLocalInfLen, newPostLen);
+        if (prefix != null) {
+        	newNode.prefix = key1.clone();
+        }
 
         long posSub1 = posInArray(key1, newPostLen);
         long posSub2 = posInArray(key2, newPostLen);
@@ -178,6 +230,7 @@ public class Node {
         	newNode.writeEntry(0, posSub2, key2, val2);
         	newNode.writeEntry(1, posSub1, key1, val1);
         }
+        newNode.subtreeCnt = getSubtreeWeight(val1) + getSubtreeWeight(val2);
         return newNode;
     }
 
@@ -314,16 +367,18 @@ public class Node {
 	@SuppressWarnings("unchecked")
 	<T> boolean checkAndGetEntry(BSTEntry candidate, PhEntry<T> result, long[] rangeMin, long[] rangeMax) {
 		Object value = candidate.getValue();
+		//With compact keys, every call to getKdKey() creates a new key
+		long[] kdKey = candidate.getKdKey();
 		if (value instanceof Node) {
 			Node sub = (Node) value;
-			if (!checkInfix(sub.getInfixLen(), candidate.getKdKey(), rangeMin, rangeMax)) {
+			if (!checkInfix(sub.getInfixLen(), kdKey, rangeMin, rangeMax)) {
 				return false;
 			}
-			result.setKeyInternal(candidate.getKdKey());
+			result.setKeyInternal(kdKey);
 			result.setNodeInternal(sub);
 			return true;
-		} else if (BitsLong.checkRange(candidate.getKdKey(), rangeMin, rangeMax)) {
-			result.setKeyInternal(candidate.getKdKey());
+		} else if (BitsLong.checkRange(kdKey, rangeMin, rangeMax)) {
+			result.setKeyInternal(kdKey);
 			result.setValueInternal((T) value);
 			return true;
 		} else {
@@ -345,6 +400,34 @@ public class Node {
 	}
 
 
+	/**
+	 * @return number of entries in this node and all sub-nodes. This is only valid if the
+	 * tree maintains subtree counts.
+	 */
+	public int getSubtreeCount() {
+		return subtreeCnt;
+	}
+
+
+	void incSubtreeCount() {
+		++subtreeCnt;
+	}
+
+
+	void decSubtreeCount() {
+		--subtreeCnt;
+	}
+
+
+	/**
+	 * @param value value of an entry
+	 * @return 1 for values, the subtree count for nodes
+	 */
+	public static int getSubtreeWeight(Object value) {
+		return value instanceof Node ? ((Node) value).subtreeCnt : 1;
+	}
+
+
 	public void incEntryCount() {
 		++entryCnt;
 	}
@@ -391,7 +474,7 @@ public class Node {
 		BSTreePage page = getRoot();
 		if (page.isLeaf()) {
 			BSTEntry e = page.getOrCreate(key, null, -1, this);
-			if (e.getKdKey() == null && e.getValue() instanceof BSTreePage) {
+			if (!e.hasKdKey() && e.getValue() instanceof BSTreePage) {
     			BSTreePage newPage = (BSTreePage) e.getValue();
 				root = BSTreePage.create(this, null, page, newPage);
 				e.setValue(null);
@@ -418,7 +501,7 @@ public class Node {
 		
 		BSTEntry result = rootPage.findAndRemove(key, kdKey, this, ui);
 		if (rootPage.getNKeys() == 0) { 
-			root = rootPage.getFirstSubPage();
+			root = rootPage.pullUpFirstSubPage();
 			BSTPool.reportFreeNode(rootPage);
 		}
 		return result;
@@ -436,6 +519,42 @@ public class Node {
 		return page.getValueFromLeaf(key);
 	}
 
+	public int bstStructureStamp() {
+		return bstStructureStamp;
+	}
+
+	public void bstStructureChanged() {
+		bstStructureStamp++;
+	}
+
+	/**
+	 * Invalidate cached subtree counts on all pages that contain the given hc pos.
+	 * @param key hc pos
+	 */
+	void bstInvalidateCounts(long key) {
+		BSTreePage page = getRoot();
+		while (page != null && !page.isLeaf()) {
+			page.invalidateSubtreeCount();
+			page = page.findSubPage(key);
+		}
+	}
+
+	/**
+	 * @param key hc pos
+	 * @return the number of PH-tree entries below all entries with a smaller hc pos than 'key'.
+	 */
+	int bstCountBefore(long key) {
+		return getEntryCount() == 0 ? 0 : getRoot().getSubtreeCountBefore(key, this);
+	}
+
+	/**
+	 * @param index position of a PH-tree entry below this node
+	 * @return the entry that contains the PH-tree entry at the given position. 
+	 */
+	BSTEntry bstSelect(int index) {
+		return getEntryCount() == 0 ? null : getRoot().selectEntry(index, this);
+	}
+
 	public BSTreePage bstCreatePage(BSTreePage parent, boolean isLeaf, BSTreePage leftPredecessor) {
 		return BSTreePage.create(this, parent, isLeaf, leftPredecessor);
 	}
@@ -497,14 +616,115 @@ public class Node {
 
 	
 	public int maxLeafN() {
-		return maxLeafN;
+		return pageSizes.maxLeafN();
 	}
 
 	public int maxInnerN() {
-		return maxInnerN;
+		return pageSizes.maxInnerN();
+	}
+
+	public BSTPageSizes getPageSizes() {
+		return pageSizes;
 	}
 
 	
+	/**
+	 * Let this node store only the postfix bits of keys. This must be called before
+	 * entries are added. Sub-nodes inherit this setting.
+	 * @param dims number of dimensions
+	 */
+	void setCompactKeys(int dims) {
+		this.prefix = new long[dims];
+	}
+
+	/**
+	 * @return 'true' if this node stores only the postfix bits of keys
+	 */
+	public boolean isCompactKeys() {
+		return prefix != null;
+	}
+
+	/**
+	 * @param key hc-position
+	 * @return A new entry for the B+tree
+	 */
+	public BSTEntry createEntry(long key) {
+		return prefix == null ? new BSTEntry(key, null, null) : new BSTEntryCompact(key, this);
+	}
+
+	/**
+	 * Store the postfix bits of the kdKey, i.e. the 'postLen' lowest bits in every dimension. 
+	 * @param kdKey the full key
+	 * @param packed the previous packed key, may be null
+	 * @return the packed key, this may be 'packed' 
+	 */
+	private long[] packKdKey(long[] kdKey, long[] packed) {
+		int postLen = getPostLen();
+		int nLongs = (kdKey.length * postLen + 63) >>> 6;
+		if (packed == null || packed.length != nLongs) {
+			packed = new long[nLongs];
+		}
+		int offs = 0;
+		for (int i = 0; i < kdKey.length; i++) {
+			BitsLong.writeArray(packed, offs, postLen, kdKey[i]);
+			offs += postLen;
+		}
+		return packed;
+	}
+
+	/**
+	 * Reconstruct a full kdKey from the node prefix, the hc-position and the postfix bits.
+	 * @param hcPos the hc-position
+	 * @param packed the packed postfix bits
+	 * @return a new kdKey
+	 */
+	private long[] unpackKdKey(long hcPos, long[] packed) {
+		int dims = prefix.length;
+		int postLen = getPostLen();
+		long maskPre = postLen + 1 == 64 ? 0 : (-1L) << (postLen + 1);
+		long[] kdKey = new long[dims];
+		int offs = 0;
+		for (int i = 0; i < dims; i++) {
+			long hcBit = (hcPos >>> (dims - 1 - i)) & 1L;
+			kdKey[i] = (prefix[i] & maskPre) | (hcBit << postLen) 
+					| BitsLong.readArray(packed, offs, postLen);
+			offs += postLen;
+		}
+		return kdKey;
+	}
+
+	/**
+	 * Compare the postfix bits of a packed key. The higher bits are not compared, they
+	 * are matched by the traversal.
+	 */
+	private boolean checkPackedKdKey(long[] packed, long[] keyToMatch, long mask) {
+		int postLen = getPostLen();
+		long maskPost = mask & ~((-1L) << postLen);
+		int offs = 0;
+		for (int i = 0; i < keyToMatch.length; i++) {
+			if (((BitsLong.readArray(packed, offs, postLen) ^ keyToMatch[i]) & maskPost) != 0) {
+				return false;
+			}
+			offs += postLen;
+		}
+		return true;
+	}
+
+	/**
+	 * Same as {@link #calcConflictingBits(long[], long[], long)} for a packed key. Only the 
+	 * postfix bits are compared, the higher bits are matched by the traversal.
+	 */
+	private int calcConflictingBitsPacked(long[] packed, long[] key, long mask) {
+		int postLen = getPostLen();
+		long diff = 0;
+		int offs = 0;
+		for (int i = 0; i < key.length; i++) {
+			diff |= BitsLong.readArray(packed, offs, postLen) ^ key[i];
+			offs += postLen;
+		}
+		return Long.SIZE - Long.numberOfLeadingZeros(diff & mask & ~((-1L) << postLen));
+	}
+
 	// *****************************************
 	// BST handler
 	// *****************************************
@@ -529,7 +749,7 @@ public class Node {
 		//- if value==null -> new entry, just set key,value
 		//- if not null: decide to replacePos (exact match) or replaceWithSub 
 		BSTEntry be = bstGetOrCreate(hcPos);
-		if (be.getKdKey() == null) {
+		if (!be.hasKdKey()) {
 			//new!
 			be.set(hcPos, kdKey, value);
 			return null;
@@ -572,9 +792,14 @@ public class Node {
 			//There won't be any split, no need to check.
 			return currentEntry.getValue();
 		}
-		long[] localKdKey = currentEntry.getKdKey();
 		Object currentValue = currentEntry.getValue();
-		int maxConflictingBits = Node.calcConflictingBits(newKey, localKdKey, mask);
+		int maxConflictingBits;
+		if (prefix != null) {
+			//Avoid unpacking the key unless we have to split
+			maxConflictingBits = calcConflictingBitsPacked(currentEntry.kdKey, newKey, mask);
+		} else {
+			maxConflictingBits = Node.calcConflictingBits(newKey, currentEntry.getKdKey(), mask);
+		}
 		if (maxConflictingBits == 0) {
 			if (!(currentValue instanceof Node)) {
 				//replace value
@@ -584,10 +809,12 @@ public class Node {
 			return currentValue;
 		}
 		
+		long[] localKdKey = currentEntry.getKdKey();
 		Node newNode = createNode(newKey, newValue, localKdKey, currentValue, maxConflictingBits);
 
-		//replace value
-		currentEntry.set(currentEntry.getKey(), BitsLong.arrayClone(localKdKey), newNode);
+		//replace value, compact entries copy the key anyway
+		currentEntry.set(currentEntry.getKey(), 
+				prefix != null ? localKdKey : BitsLong.arrayClone(localKdKey), newNode);
 		//entry did not exist
         return null;
 	}
@@ -643,9 +870,13 @@ public class Node {
 					//simply replace kdKey!!
 					//Replacing the long[] should be correct (and fastest, and avoiding GC)
 					currentEntry.set(currentEntry.getKey(), ui.newKey, currentEntry.getValue());
+					ui.setInPlace();
 					return REMOVE_OP.KEEP_RETURN;
-				} else {
-					ui.insertRequired = bitPosOfDiff;
+				} 
+				ui.insertRequired = bitPosOfDiff;
+				if (bitPosOfDiff == getPostLen() + 1) {
+					//Only the hcPos differs, try to move the entry inside the BST page
+					return REMOVE_OP.MOVE_RETURN;
 				}
 			}
 			return REMOVE_OP.REMOVE_RETURN;
@@ -672,11 +903,17 @@ public class Node {
 			Node sub = (Node) be.getValue();
 			if (sub.getInfixLen() > 0) {
 				final long mask = calcInfixMask(sub.getPostLen());
+				if (prefix != null) {
+					return checkPackedKdKey(be.kdKey, keyToMatch, mask);
+				}
 				return checkKdKey(be.getKdKey(), keyToMatch, mask);
 			}
 			return true;
 		} 
 		
+		if (prefix != null) {
+			return checkPackedKdKey(be.kdKey, keyToMatch, -1L);
+		}
 		return checkKdKey(be.getKdKey(), keyToMatch);
 	}
 	
@@ -718,7 +955,9 @@ public class Node {
 	public enum REMOVE_OP {
 		REMOVE_RETURN,
 		KEEP_RETURN,
-		KEEP_RETURN_NULL;
+		KEEP_RETURN_NULL,
+		/** Move the entry to the hcPos of the new key if possible, otherwise remove it. */
+		MOVE_RETURN;
 	}
 
 	public static class BSTEntry {
@@ -736,6 +975,13 @@ public class Node {
 		public long[] getKdKey() {
 			return kdKey;
 		}
+		/**
+		 * @return 'true' if a kdKey is set. Unlike {@code getKdKey() != null}, this never
+		 * unpacks compact keys.
+		 */
+		public final boolean hasKdKey() {
+			return kdKey != null;
+		}
 		public Object getValue() {
 			return value;
 		}
@@ -753,4 +999,31 @@ public class Node {
 		}
 	}
 
+	/**
+	 * An entry that stores only the postfix bits of the kdKey. The full kdKey is
+	 * reconstructed on every call to {@link #getKdKey()}.
+	 */
+	static final class BSTEntryCompact extends BSTEntry {
+		private final Node node;
+		BSTEntryCompact(long key, Node node) {
+			super(key, null, null);
+			this.node = node;
+		}
+		@Override
+		public long[] getKdKey() {
+			long[] packed = super.getKdKey();
+			return packed == null ? null : node.unpackKdKey(getKey(), packed);
+		}
+		@Override
+		public void set(long key, long[] kdKey, Object value) {
+			long[] packed = kdKey == null ? null : node.packKdKey(kdKey, super.getKdKey());
+			super.set(key, packed, value);
+		}
+		@Override
+		public String toString() {
+			return (hasKdKey() ? Arrays.toString(getKdKey()) : null) + "->" + 
+					getValue();
+		}
+	}
+
 }
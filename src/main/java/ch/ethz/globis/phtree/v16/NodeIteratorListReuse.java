@@ -194,12 +194,13 @@ public class NodeIteratorListReuse<T, R> {
 		this.pool = new PhIteratorStack();
 	}
 
-	List<R> resetAndRun(Node node, long[] rangeMin, long[] rangeMax, int maxResults) {
+	List<R> resetAndRun(Node node, long[] prefix, long[] rangeMin, long[] rangeMax, 
+			int maxResults) {
 		results.clear();
 		this.rangeMin = rangeMin;
 		this.rangeMax = rangeMax;
 		this.maxResults = maxResults;
-		run(node, null);
+		run(node, prefix);
 		return results;
 	}
 	
@@ -10,6 +10,7 @@ package ch.ethz.globis.phtree.v16;
 
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterAfterKey;
 import ch.ethz.globis.phtree.v16.Node.BSTEntry;
 import ch.ethz.globis.phtree.v16.bst.BSTIteratorMask;
 
@@ -50,13 +51,16 @@ public class NodeIteratorNoGC<T> {
 	 * @param lower The minimum HC-Pos that a value should have.
 	 * @param upper
 	 * @param checker result verifier, can be null.
+	 * @param startPos entries at lower HC-Pos are skipped.
 	 */
-	private void reinit(Node node, long[] rangeMin, long[] rangeMax, PhFilter checker) {
+	private void reinit(Node node, long[] rangeMin, long[] rangeMax, PhFilter checker, 
+			long startPos) {
 		this.rangeMin = rangeMin;
 		this.rangeMax = rangeMax;
 		this.checker = checker;
 		this.node = node;
-		this.niIterator.reset(node.getRoot(), maskLower, maskUpper, node.getEntryCount());
+		this.niIterator.reset(node.getRoot(), maskLower, maskUpper, node.getEntryCount(), 
+				startPos);
 	}
 
 	
@@ -166,6 +170,11 @@ public class NodeIteratorNoGC<T> {
 	void init(long[] rangeMin, long[] rangeMax, Node node, PhFilter checker, long[] prefix) {
 		this.node = node; //for calcLimits
 		calcLimits(rangeMin, rangeMax, prefix);
-		reinit(node, rangeMin, rangeMax, checker);
+		//resumed queries can skip all entries before the resume point
+		long startPos = 0;
+		if (checker instanceof PhFilterAfterKey) {
+			startPos = ((PhFilterAfterKey) checker).startPos(prefix, node.getPostLen());
+		}
+		reinit(node, rangeMin, rangeMax, checker, startPos);
 	}
 }
@@ -94,7 +94,7 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
 			return;
 		}
 		
-		stack.prepareAndPush(pht.getRoot(), null);
+		stack.prepareAndPush(pht.getRoot(), pht.getRootPrefix());
 		findNextElement();
 	}
 
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.v16;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceF_L1;
+import ch.ethz.globis.phtree.PhDistanceF_LInf;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhKnnJoin;
+import ch.ethz.globis.phtree.v16.Node.BSTEntry;
+import ch.ethz.globis.phtree.v16.bst.BSTIteratorAll;
+
+/**
+ * kNN search for a group of nearby centers in a single traversal of the tree, this is used
+ * by {@link PhKnnJoin}.
+ * <p>
+ * The group is represented by the bounding box of its centers. The tree is traversed
+ * depth-first and each node is compared with the group as a whole: a sub-node is only
+ * visited if the distance between its region and the bounding box is not larger than the
+ * current k-th distance of at least one center. Sub-nodes are visited in order of increasing
+ * distance, so the k-th distances shrink quickly. Each sub-node is searched only for the
+ * centers that are closer to its region than their current k-th distance, and entries are
+ * only compared with these centers if they are close enough to the bounding box.
+ * <p>
+ * The distance between two boxes is calculated as the distance between their closest points.
+ * This is only correct for distance functions that grow monotonically with the difference
+ * in every dimension, see {@link #isSupported(PhDistance)}.
+ *
+ * @param <T> value type
+ */
+public class PhQueryKnnGroup<T> {
+
+	private static final Comparator<NodeDist> COMP =
+			(a, b) -> Double.compare(a.dist, b.dist);
+
+	private final PhTree16<T> pht;
+	private final int dims;
+	private PhDistance dist;
+	private int k;
+	private boolean excludeCenters;
+	private long[][] centers;
+	private int nCenters;
+	//bounding box of the centers
+	private final long[] groupMin;
+	private final long[] groupMax;
+	//closest points for box distances
+	private final long[] bufGroup;
+	private final long[] bufNode;
+	//largest k-th distance of all centers
+	private double maxDist;
+	//per center: max-heap of the nearest entries
+	private double[][] heapDist = new double[0][];
+	private long[][][] heapKey = new long[0][][];
+	private Object[][] heapValue = new Object[0][];
+	private int[] heapSize = new int[0];
+	private int heapCapacity = 0;
+	//sub-nodes of the nodes on the current path, per depth
+	private final NodeDist[][] subNodes = new NodeDist[PhTree16.DEPTH_64][];
+	//active centers per depth
+	private int[][] activeCenters;
+	private final BSTIteratorAll iterNode = new BSTIteratorAll();
+	private final ArrayList<PhEntryDist<T>> results = new ArrayList<>();
+
+	/**
+	 * Create a new group kNN search instance.
+	 * @param pht the parent tree
+	 */
+	public PhQueryKnnGroup(PhTree16<T> pht) {
+		this.pht = pht;
+		this.dims = pht.getDim();
+		this.groupMin = new long[dims];
+		this.groupMax = new long[dims];
+		this.bufGroup = new long[dims];
+		this.bufNode = new long[dims];
+	}
+
+	/**
+	 * @param dist a distance function
+	 * @return whether the distance function can be used for group queries
+	 */
+	public static boolean isSupported(PhDistance dist) {
+		Class<?> c = dist.getClass();
+		return c == PhDistanceL.class || c == PhDistanceF.class
+				|| c == PhDistanceF_L1.class || c == PhDistanceF_LInf.class;
+	}
+
+	/**
+	 * Find the 'k' nearest neighbours for every center. The results can be read with
+	 * {@link #getResult(int, List)}.
+	 * @param k number of neighbours per center
+	 * @param dist the distance function, see {@link #isSupported(PhDistance)}
+	 * @param excludeCenters whether entries with the same key as the center are ignored
+	 * @param centers the centers, they should be close to each other
+	 * @param nCenters the number of centers
+	 * @return this query
+	 */
+	public PhQueryKnnGroup<T> reset(int k, PhDistance dist, boolean excludeCenters,
+			long[][] centers, int nCenters) {
+		if (!isSupported(dist)) {
+			throw new IllegalArgumentException("Unsupported distance: " + dist);
+		}
+		this.k = k;
+		this.dist = dist;
+		this.excludeCenters = excludeCenters;
+		this.centers = centers;
+		this.nCenters = nCenters;
+		if (heapSize.length < nCenters || heapCapacity < k) {
+			int n = Math.max(nCenters, heapSize.length);
+			heapCapacity = Math.max(k, heapCapacity);
+			heapDist = new double[n][heapCapacity];
+			heapKey = new long[n][heapCapacity][];
+			heapValue = new Object[n][heapCapacity];
+			heapSize = new int[n];
+			activeCenters = new int[PhTree16.DEPTH_64 + 1][n];
+		}
+		Arrays.fill(heapSize, 0);
+		maxDist = Double.POSITIVE_INFINITY;
+
+		if (k <= 0 || nCenters == 0 || pht.size() == 0) {
+			return this;
+		}
+		Arrays.fill(groupMin, Long.MAX_VALUE);
+		Arrays.fill(groupMax, Long.MIN_VALUE);
+		for (int c = 0; c < nCenters; c++) {
+			long[] center = centers[c];
+			for (int i = 0; i < dims; i++) {
+				groupMin[i] = Math.min(groupMin[i], center[i]);
+				groupMax[i] = Math.max(groupMax[i], center[i]);
+			}
+		}
+		int[] active = activeCenters[0];
+		for (int c = 0; c < nCenters; c++) {
+			active[c] = c;
+		}
+		search(pht.getRoot(), 0, active, nCenters);
+		return this;
+	}
+
+	/**
+	 * This can be called only once per center and search.
+	 * @param c index of the center
+	 * @param out receives the nearest neighbours, ordered by distance. The entries are
+	 * reused by the next call.
+	 */
+	@SuppressWarnings("unchecked")
+	public void getResult(int c, List<PhEntryDist<T>> out) {
+		out.clear();
+		int n = heapSize[c];
+		while (results.size() < n) {
+			results.add(new PhEntryDist<>(null, null, 0));
+		}
+		double[] hd = heapDist[c];
+		long[][] hk = heapKey[c];
+		Object[] hv = heapValue[c];
+		for (int i = n - 1; i >= 0; i--) {
+			PhEntryDist<T> e = results.get(i);
+			e.setKeyInternal(hk[0]);
+			e.set((T) hv[0], hd[0]);
+			heapSize[c] = i;
+			siftDown(c, hd[i], hk[i], hv[i]);
+		}
+		for (int i = 0; i < n; i++) {
+			out.add(results.get(i));
+		}
+	}
+
+	/**
+	 * @param node the node
+	 * @param depth the depth of the node
+	 * @param active indexes of the centers that may have neighbours in the node
+	 * @param nActive number of active centers
+	 */
+	private void search(Node node, int depth, int[] active, int nActive) {
+		NodeDist[] subs = subNodes[depth];
+		int nSubs = 0;
+		iterNode.reset(node.getRoot());
+		while (iterNode.hasNextEntry()) {
+			BSTEntry e = iterNode.nextEntry();
+			//compact keys are unpacked by every call to getKdKey()
+			long[] kdKey = e.getKdKey();
+			if (e.getValue() instanceof Node) {
+				Node sub = (Node) e.getValue();
+				double d = distToNode(kdKey, sub.getPostLen() + 1);
+				if (d > maxDist) {
+					continue;
+				}
+				if (subs == null || nSubs == subs.length) {
+					subs = subs == null ? new NodeDist[8] : Arrays.copyOf(subs, subs.length * 2);
+					subNodes[depth] = subs;
+				}
+				if (subs[nSubs] == null) {
+					subs[nSubs] = new NodeDist();
+				}
+				subs[nSubs].set(sub, kdKey, d);
+				nSubs++;
+			} else {
+				addEntry(kdKey, e.getValue(), active, nActive);
+			}
+		}
+		if (nSubs > 1) {
+			Arrays.sort(subs, 0, nSubs, COMP);
+		}
+		int[] subActive = activeCenters[depth + 1];
+		for (int i = 0; i < nSubs; i++) {
+			NodeDist sub = subs[i];
+			if (sub.dist > maxDist) {
+				break;
+			}
+			//only centers that are close enough to the sub-node remain active
+			int bitsToIgnore = sub.node.getPostLen() + 1;
+			int nSubActive = 0;
+			for (int j = 0; j < nActive; j++) {
+				int c = active[j];
+				if (heapSize[c] < k || !(dist.distToNode(
+						centers[c], sub.prefix, bitsToIgnore, bufNode) > heapDist[c][0])) {
+					subActive[nSubActive++] = c;
+				}
+			}
+			if (nSubActive > 0) {
+				search(sub.node, depth + 1, subActive, nSubActive);
+			}
+		}
+	}
+
+	private void addEntry(long[] key, Object value, int[] active, int nActive) {
+		for (int i = 0; i < dims; i++) {
+			bufGroup[i] = key[i] < groupMin[i] ? groupMin[i] :
+				(key[i] > groupMax[i] ? groupMax[i] : key[i]);
+		}
+		if (dist.dist(bufGroup, key) > maxDist) {
+			return;
+		}
+		boolean changed = false;
+		for (int j = 0; j < nActive; j++) {
+			int c = active[j];
+			double d = dist.dist(centers[c], key);
+			if (heapSize[c] == k && !(d < heapDist[c][0])) {
+				continue;
+			}
+			if (excludeCenters && d == 0 && Arrays.equals(centers[c], key)) {
+				continue;
+			}
+			insert(c, d, key, value);
+			changed = true;
+		}
+		if (changed) {
+			double max = 0;
+			for (int c = 0; c < nCenters; c++) {
+				if (heapSize[c] < k) {
+					return;
+				}
+				max = Math.max(max, heapDist[c][0]);
+			}
+			maxDist = max;
+		}
+	}
+
+	/**
+	 * Distance between the group and the region of a sub-node.
+	 */
+	private double distToNode(long[] prefix, int bitsToIgnore) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		for (int i = 0; i < dims; i++) {
+			long min = prefix[i] & maskMin;
+			long max = prefix[i] | maskMax;
+			if (max < groupMin[i]) {
+				bufGroup[i] = groupMin[i];
+				bufNode[i] = max;
+			} else if (min > groupMax[i]) {
+				bufGroup[i] = groupMax[i];
+				bufNode[i] = min;
+			} else {
+				bufGroup[i] = groupMin[i];
+				bufNode[i] = groupMin[i];
+			}
+		}
+		return dist.dist(bufGroup, bufNode);
+	}
+
+	private void insert(int c, double d, long[] key, Object value) {
+		double[] hd = heapDist[c];
+		long[][] hk = heapKey[c];
+		Object[] hv = heapValue[c];
+		if (heapSize[c] == k) {
+			//replace the furthest entry
+			siftDown(c, d, key, value);
+			return;
+		}
+		int i = heapSize[c]++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (hd[parent] >= d) {
+				break;
+			}
+			hd[i] = hd[parent];
+			hk[i] = hk[parent];
+			hv[i] = hv[parent];
+			i = parent;
+		}
+		hd[i] = d;
+		hk[i] = key;
+		hv[i] = value;
+	}
+
+	/**
+	 * Replace the root of the heap and restore the heap order.
+	 */
+	private void siftDown(int c, double d, long[] key, Object value) {
+		double[] hd = heapDist[c];
+		long[][] hk = heapKey[c];
+		Object[] hv = heapValue[c];
+		int n = heapSize[c];
+		int i = 0;
+		while (true) {
+			int child = 2*i + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n && hd[child + 1] > hd[child]) {
+				child++;
+			}
+			if (hd[child] <= d) {
+				break;
+			}
+			hd[i] = hd[child];
+			hk[i] = hk[child];
+			hv[i] = hv[child];
+			i = child;
+		}
+		if (n > 0) {
+			hd[i] = d;
+			hk[i] = key;
+			hv[i] = value;
+		}
+	}
+
+	private static class NodeDist {
+		Node node;
+		long[] prefix;
+		double dist;
+
+		void set(Node node, long[] prefix, double dist) {
+			this.node = node;
+			this.prefix = prefix;
+			this.dist = dist;
+		}
+	}
+}
@@ -41,6 +41,9 @@ public class PhQueryKnnHSZ<T> implements PhKnnQuery<T> {
 	private PhTree16<T> pht;
 	private PhDistance distance;
 	private long[] center;
+	private double maxDist = Double.POSITIVE_INFINITY;
+	//buffer for calculating node distances
+	private final long[] nodeBuf;
 	private final ArrayList<PhEntryDist<T>> results = new ArrayList<>(); 
 	private final ArrayList<PhEntryDist<Object>> pool = new ArrayList<>(); 
 	private final PriorityQueue<PhEntryDist<Object>> queueEst = new PriorityQueue<>(COMP);
@@ -55,6 +58,7 @@ public class PhQueryKnnHSZ<T> implements PhKnnQuery<T> {
 	 */
 	public PhQueryKnnHSZ(PhTree16<T> pht) {
 		this.dims = pht.getDim();
+		this.nodeBuf = new long[dims];
 		this.pht = pht;
 	}
 
@@ -91,8 +95,22 @@ public class PhQueryKnnHSZ<T> implements PhKnnQuery<T> {
 
 	@Override
 	public PhKnnQuery<T> reset(int nMin, PhDistance dist, long... center) {
+		return reset(nMin, Double.POSITIVE_INFINITY, dist, center);
+	}
+
+	/**
+	 * Reset the query for a new search that returns at most 'nMin' entries with a distance
+	 * of at most 'maxDist'. Nodes and entries that are further away are never expanded.
+	 * @param nMin maximum number of entries to return
+	 * @param maxDist maximum distance, {@link Double#POSITIVE_INFINITY} for no limit
+	 * @param dist distance function
+	 * @param center the center point
+	 * @return this query
+	 */
+	public PhKnnQuery<T> reset(int nMin, double maxDist, PhDistance dist, long... center) {
 		this.distance = dist == null ? this.distance : dist;
 		this.center = center;
+		this.maxDist = maxDist;
 		
 		//TODO pool entries??/
 		this.queueEst.clear();
@@ -150,6 +168,10 @@ public class PhQueryKnnHSZ<T> implements PhKnnQuery<T> {
 
 			//process 1st entry
 			PhEntryDist<Object> candidate = queueLx.poll();
+			if (candidate.dist() > maxDist) {
+				//all remaining candidates are further away
+				return;
+			}
 			
 			Object val = candidate.getValue();
 			if (!(val instanceof Node)) {
@@ -183,6 +205,10 @@ public class PhQueryKnnHSZ<T> implements PhKnnQuery<T> {
 						BSTEntry e2 = iterNode.nextEntry();
 						double d = estimateDist(e2, relativeQuadrantOfCenter, distances);
 
+						if (d > maxDist) {
+							//estimate is a lower bound
+							continue;
+						}
 						if (d <= currentMin) {
 							//add directly to Lx queue
 							PhEntryDist<Object> newLx = createLxEntry(e2);
@@ -220,15 +246,16 @@ public class PhQueryKnnHSZ<T> implements PhKnnQuery<T> {
 	private PhEntryDist<Object> createLxEntry(BSTEntry e) {
 		//calculate distance
 		double d;
+		long[] kdKey = e.getKdKey();
 		if (e.getValue() instanceof Node) {
 			Node sub = (Node) e.getValue();
-			d = distToNode(e.getKdKey(), sub.getPostLen() + 1);
+			d = distToNode(kdKey, sub.getPostLen() + 1);
 		} else {
-			d = distance.dist(center, e.getKdKey());
+			d = distance.dist(center, kdKey);
 		}
 
 		//create and return entry
-		return createEntry(e.getKdKey(), e.getValue(), d);
+		return createEntry(kdKey, e.getValue(), d);
 	}
 	
 	
@@ -268,18 +295,7 @@ public class PhQueryKnnHSZ<T> implements PhKnnQuery<T> {
 
 
 	private double distToNode(long[] prefix, int bitsToIgnore) {
-		long maskMin = (-1L) << bitsToIgnore;
-		long maskMax = ~maskMin;
-		long[] buf = new long[prefix.length];
-		for (int i = 0; i < buf.length; i++) {
-			//if v is outside the node, return distance to closest edge,
-			//otherwise return v itself (assume possible distance=0)
-			long min = prefix[i] & maskMin;
-			long max = prefix[i] | maskMax;
-			buf[i] = min > center[i] ? min : (max < center[i] ? max : center[i]); 
-		}
-
-		return distance.dist(center, buf);
+		return distance.distToNode(center, prefix, bitsToIgnore, nodeBuf);
 	}
 
 	
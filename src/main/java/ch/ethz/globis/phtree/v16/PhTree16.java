@@ -12,20 +12,30 @@ import static ch.ethz.globis.phtree.PhTreeHelper.align8;
 import static ch.ethz.globis.phtree.PhTreeHelper.debugCheck;
 import static ch.ethz.globis.phtree.PhTreeHelper.posInArray;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 
+import ch.ethz.globis.phtree.PhAggregator;
 import ch.ethz.globis.phtree.PhDistance;
 import ch.ethz.globis.phtree.PhDistanceL;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterAfterKey;
 import ch.ethz.globis.phtree.PhFilterDistance;
 import ch.ethz.globis.phtree.PhFilterWindow;
 import ch.ethz.globis.phtree.PhRangeQuery;
 import ch.ethz.globis.phtree.PhTree;
 import ch.ethz.globis.phtree.PhTreeConfig;
 import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.util.BSTPageSizes;
+import ch.ethz.globis.phtree.util.BitsLong;
 import ch.ethz.globis.phtree.util.PhMapper;
 import ch.ethz.globis.phtree.util.PhTreeStats;
 import ch.ethz.globis.phtree.util.StringBuilderLn;
@@ -93,49 +103,69 @@ public class PhTree16<T> implements PhTree<T> {
 	static final int DEPTH_64 = 64;
 	
 	private static final int NO_INSERT_REQUIRED = Integer.MAX_VALUE;
+	/** Returned by updates that fail because the new key exists. */
+	private static final Object OCCUPIED = new Object();
 
-	private final int maxLeafN;// = 100;//10;//340;
-	/** Max number of keys in inner page (there can be max+1 page-refs) */
-	private final int maxInnerN;// = 100;//11;//509;
+	/** Number of node levels that are traversed by estimateCount(). */
+	private static final int ESTIMATE_DEPTH = 3;
+
+	/** Page sizes of the node-internal B+trees */
+	private final BSTPageSizes pageSizes;
 
 	//Dimension. This is the number of attributes of an entity.
 	private final int dims;
+	//Bit depth of keys
+	private final int depth;
 
 	private final AtomicInteger nEntries = new AtomicInteger();
 
 	private Node root = null;
 
+	//Maintain subtree counts in nodes
+	private final boolean subtreeCounts;
+	//Path buffer for maintaining subtree counts
+	private final Node[] path;
+	//Buffers for update()
+	private final Node[] updateStack = new Node[DEPTH_64];
+	private final UpdateInfo updateInfo = new UpdateInfo(null);
+
+	//Store only the postfix bits of keys in node entries
+	private final boolean compactKeys;
+
 	Node getRoot() {
 		return root;
 	}
 
+	/**
+	 * @return the prefix of the root node. This is 'null' for 64 bit trees because
+	 * the root has no prefix bits.
+	 */
+	long[] getRootPrefix() {
+		return depth == 64 ? null : new long[dims];
+	}
+
     void changeRoot(Node newRoot) {
         this.root = newRoot;
     }
 
 	public PhTree16(int dim) {
+		this(dim, DEPTH_64, false, BSTPageSizes.forDims(dim), false);
+	}
+
+	private PhTree16(int dim, int depth, boolean subtreeCounts, BSTPageSizes pageSizes, 
+			boolean compactKeys) {
 		dims = dim;
+		this.depth = depth;
 		debugCheck();
-
-		switch (dims) {
-		case 1: maxLeafN = 2; maxInnerN = 2; break;
-		case 2: maxLeafN = 4; maxInnerN = 2; break;
-		case 3: maxLeafN = 8; maxInnerN = 2; break;
-		case 4: maxLeafN = 16; maxInnerN = 2; break;
-		case 5: maxLeafN = 16; maxInnerN = 2+1; break;
-		case 6: maxLeafN = 16; maxInnerN = 4+1; break;
-		case 7: maxLeafN = 16; maxInnerN = 8+1; break;
-		case 8: maxLeafN = 16; maxInnerN = 16+1; break;
-		case 9: maxLeafN = 32; maxInnerN = 16+1; break;
-		case 10: maxLeafN = 32; maxInnerN = 32+1; break;
-		case 11: maxLeafN = 32; maxInnerN = 64+1; break;
-		case 12: maxLeafN = 64; maxInnerN = 64+1; break;
-		default: maxLeafN = 100; maxInnerN = 100; break;
-		}
+		this.subtreeCounts = subtreeCounts;
+		this.path = subtreeCounts ? new Node[DEPTH_64] : null;
+		this.pageSizes = pageSizes;
+		this.compactKeys = compactKeys;
 	}
 
 	public PhTree16(PhTreeConfig cnf) {
-		this(cnf.getDimActual());
+		this(cnf.getDimActual(), cnf.getDepth(), cnf.isSubtreeCounts(), 
+				BSTPageSizes.create(cnf), cnf.isCompactKeys());
 		switch (cnf.getConcurrencyType()) {
 		case PhTreeConfig.CONCURRENCY_NONE: break;
 		default:
@@ -143,6 +173,27 @@ public class PhTree16<T> implements PhTree<T> {
 		}
 	}
 
+	/**
+	 * @return 'true' if nodes store only the postfix bits of keys
+	 */
+	public boolean isCompactKeys() {
+		return compactKeys;
+	}
+
+	/**
+	 * @return 'true' if nodes maintain the number of entries in their subtrees
+	 */
+	public boolean isSubtreeCounts() {
+		return subtreeCounts;
+	}
+
+	/**
+	 * @return the page sizes of the node-internal B+trees
+	 */
+	public BSTPageSizes getPageSizes() {
+		return pageSizes;
+	}
+
 	void increaseNrEntries() {
 		nEntries.incrementAndGet();
 	}
@@ -158,7 +209,34 @@ public class PhTree16<T> implements PhTree<T> {
 
 	@Override
 	public PhTreeStats getStats() {
-		return getStats(0, getRoot(), new PhTreeStats(DEPTH_64));
+		return getStats(0, getRoot(), new PhTreeStats(depth));
+	}
+
+	@Override
+	public PhTreeStats getStatsSample(int maxEntries) {
+		PhTreeStats stats = new PhTreeStats(depth);
+		if (getRoot() == null) {
+			return stats;
+		}
+		ArrayDeque<Node> queue = new ArrayDeque<>();
+		queue.add(getRoot());
+		int nVisited = 0;
+		while (!queue.isEmpty() && nVisited < maxEntries) {
+			Node node = queue.poll();
+			int size = node.getEntryCount();
+			stats.nNodes++;
+			stats.nTotalChildren += size;
+			stats.nodeSizeLogHist[32-Integer.numberOfLeadingZeros(size)]++;
+			nVisited += size;
+			BSTIteratorAll iter = node.iterator();
+			while (iter.hasNextEntry()) {
+				Object v = iter.nextEntry().getValue();
+				if (v instanceof Node) {
+					queue.add((Node) v);
+				}
+			}
+		}
+		return stats;
 	}
 
 	private PhTreeStats getStats(int currentDepth, Node node, PhTreeStats stats) {
@@ -215,11 +293,15 @@ public class PhTree16<T> implements PhTree<T> {
 	@SuppressWarnings("unchecked")
 	@Override
 	public T put(long[] key, T value) {
+		PhTreeHelper.checkDepth(key, depth);
 		Object nonNullValue = value == null ? PhTreeHelper.NULL : value;
 		if (getRoot() == null) {
 			insertRoot(key, nonNullValue);
 			return null;
 		}
+		if (subtreeCounts) {
+			return (T) putCounting(key, nonNullValue);
+		}
 
 		Object o = getRoot();
 		while (o instanceof Node) {
@@ -230,21 +312,84 @@ public class PhTree16<T> implements PhTree<T> {
     }
 
     void insertRoot(long[] key, Object value) {
-        root = Node.createNode(dims, 0, DEPTH_64-1);
+        root = Node.createNode(pageSizes, 0, depth-1);
+        if (compactKeys) {
+        	root.setCompactKeys(dims);
+        }
         long pos = posInArray(key, root.getPostLen());
         root.addEntry(pos, key, value);
+        root.incSubtreeCount();
         increaseNrEntries();
     }
 
+	private Object putCounting(long[] key, Object value) {
+		int pathSize = 0;
+		Object o = getRoot();
+		while (o instanceof Node) {
+			Node currentNode = (Node) o;
+			currentNode.bstInvalidateCounts(posInArray(key, currentNode.getPostLen()));
+			path[pathSize++] = currentNode;
+			o = currentNode.doInsertIfMatching(key, value, this);
+		}
+		if (o == null) {
+			//new entry, new sub-nodes from splits are already counted
+			for (int i = 0; i < pathSize; i++) {
+				path[i].incSubtreeCount();
+			}
+		}
+		return o;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
-	public boolean contains(long... key) {
+	public T compute(long[] key, BiFunction<long[], ? super T, ? extends T> remappingFunction) {
+		PhTreeHelper.checkDepth(key, depth);
+		if (getRoot() == null) {
+			T value = remappingFunction.apply(key, null);
+			if (value != null) {
+				insertRoot(key, value);
+			}
+			return value;
+		}
+		int sizeBefore = size();
+		int pathSize = 0;
 		Object o = getRoot();
+		Node parentNode = null;
+		while (o instanceof Node) {
+			Node currentNode = (Node) o;
+			if (subtreeCounts) {
+				currentNode.bstInvalidateCounts(posInArray(key, currentNode.getPostLen()));
+				path[pathSize++] = currentNode;
+			}
+			o = currentNode.doComputeIfMatching(key, remappingFunction, parentNode, this);
+			parentNode = currentNode;
+		}
+		if (size() > sizeBefore) {
+			//new entry, new sub-nodes from splits are already counted
+			for (int i = 0; i < pathSize; i++) {
+				path[i].incSubtreeCount();
+			}
+		} else if (size() < sizeBefore) {
+			//nodes that were discarded by merging are reinitialized when they are reused
+			for (int i = 0; i < pathSize; i++) {
+				path[i].decSubtreeCount();
+			}
+		}
+		return (T) o;
+	}
+
+	@Override
+	public boolean contains(long... key) {
+		return contains(getRoot(), key);
+	}
+
+	private boolean contains(Node node, long[] key) {
+		Object o = node;
 		while (o instanceof Node) {
 			Node currentNode = (Node) o;
 			o = currentNode.doIfMatching(key, true, null, null, this);
 		}
-		return (T) o != null;
+		return o != null;
 	}
 
 
@@ -268,6 +413,9 @@ public class PhTree16<T> implements PhTree<T> {
 	@SuppressWarnings("unchecked")
 	@Override
 	public T remove(long... key) {
+		if (subtreeCounts) {
+			return (T) removeCounting(key);
+		}
 		Object o = getRoot();
 		Node parentNode = null;
 		while (o instanceof Node) {
@@ -278,33 +426,144 @@ public class PhTree16<T> implements PhTree<T> {
 		return (T) o;
 	}
 
-	//TODO create pool?
+	private Object removeCounting(long[] key) {
+		//Nodes may be discarded during removal, so we decrement the counts in advance and
+		//revert if the key does not exist.
+		int pathSize = 0;
+		Object o = getRoot();
+		Node parentNode = null;
+		while (o instanceof Node) {
+			Node currentNode = (Node) o;
+			currentNode.decSubtreeCount();
+			currentNode.bstInvalidateCounts(posInArray(key, currentNode.getPostLen()));
+			path[pathSize++] = currentNode;
+			o = currentNode.doIfMatching(key, false, parentNode, null, this);
+			parentNode = currentNode;
+		}
+		if (o == null) {
+			for (int i = 0; i < pathSize; i++) {
+				path[i].incSubtreeCount();
+			}
+		}
+		return o;
+	}
+
+	/**
+	 * State of an update operation. One instance is reused by all updates of a tree.
+	 */
 	public static class UpdateInfo {
-		final long[] newKey;
+		long[] newKey;
 		int insertRequired = NO_INSERT_REQUIRED;
+		//true if the entry was updated in place, i.e. it was not removed
+		boolean inPlace;
 		public UpdateInfo(long[] newKey) {
+			init(newKey);
+		}
+		
+		UpdateInfo init(long[] newKey) {
 			this.newKey = newKey;
+			this.insertRequired = NO_INSERT_REQUIRED;
+			this.inPlace = false;
+			return this;
+		}
+		
+		/**
+		 * Report that the entry was updated in place and requires no insertion.
+		 */
+		public void setInPlace() {
+			this.insertRequired = NO_INSERT_REQUIRED;
+			this.inPlace = true;
+		}
+		
+		public long[] getNewKey() {
+			return newKey;
 		}
 	}
 	
+	/**
+	 * Result of {@link PhTree16#updateIfAbsent(long[], long[])}.
+	 */
+	public enum UpdateStatus {
+		/** The entry was moved to the new key. */
+		UPDATED,
+		/** No entry exists at the old key. */
+		NOT_FOUND,
+		/** Another entry exists at the new key, the tree was not modified. */
+		OCCUPIED;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public T update(long[] oldKey, long[] newKey) {
-		Node[] stack = new Node[64];
+		Object o = updateInternal(oldKey, newKey, false);
+		return o == PhTreeHelper.NULL ? null : (T) o;
+	}
+
+	/**
+	 * Move an entry to a new key, unless another entry exists at the new key.
+	 * The new key is checked during the same traversal: it is looked up only in the node
+	 * where the paths of the old and the new key diverge, and below that node.
+	 * @param oldKey old key
+	 * @param newKey new key
+	 * @return the status of the update
+	 */
+	public UpdateStatus updateIfAbsent(long[] oldKey, long[] newKey) {
+		Object o = updateInternal(oldKey, newKey, true);
+		if (o == null) {
+			return UpdateStatus.NOT_FOUND;
+		}
+		return o == OCCUPIED ? UpdateStatus.OCCUPIED : UpdateStatus.UPDATED;
+	}
+
+	/**
+	 * Update an entry without allocating any objects.
+	 * @param oldKey old key
+	 * @param newKey new key
+	 * @param failIfOccupied whether to fail if another entry exists at 'newKey'
+	 * @return the value or {@link PhTreeHelper#NULL}, {@code null} if the key was not found,
+	 * or {@link #OCCUPIED} if 'failIfOccupied' is set and another entry exists at 'newKey'
+	 */
+	private Object updateInternal(long[] oldKey, long[] newKey, boolean failIfOccupied) {
+		PhTreeHelper.checkDepth(newKey, depth);
+		//bit position of the leading difference of the keys, only used with 'failIfOccupied'
+		int bitPosOfDiff = failIfOccupied ? Node.calcConflictingBits(oldKey, newKey, -1L) : 0;
+		if (subtreeCounts) {
+			if (bitPosOfDiff > 0 && contains(newKey)) {
+				return OCCUPIED;
+			}
+			Object o = removeCounting(oldKey);
+			if (o != null) {
+				putCounting(newKey, o);
+			}
+			return o;
+		}
+		final Node[] stack = updateStack;
 		int stackSize = 0;
 		
 		Object o = getRoot();
 		Node parentNode = null;
-		final UpdateInfo ui = new UpdateInfo(newKey);
+		final UpdateInfo ui = updateInfo.init(newKey);
 		
 		while (o instanceof Node) {
 			Node currentNode = (Node) o;
+			if (bitPosOfDiff > currentNode.getPostLen()) {
+				//The paths of the keys diverge at this node. If they diverge in the infix, 
+				//'newKey' cannot exist.
+				if (bitPosOfDiff == currentNode.getPostLen() + 1 
+						&& contains(currentNode, newKey)) {
+					Arrays.fill(stack, 0, stackSize, null);
+					ui.newKey = null;
+					return OCCUPIED;
+				}
+				bitPosOfDiff = 0;
+			}
 			stack[stackSize++] = currentNode;
 			o = currentNode.doIfMatching(oldKey, false, parentNode, ui, this);
 			parentNode = currentNode;
 		}
+		final int stackSizeMax = stackSize;
 		
-		Object value = o == PhTreeHelper.NULL ? null : o;
+		Object value = o;
 
 		//traverse the tree from bottom to top
 		//this avoids extracting and checking infixes.
@@ -327,14 +586,81 @@ public class PhTree16<T> implements PhTree<T> {
 			}
 		}		
 		
-		return (T) value;
+		//do not keep references to removed nodes or keys
+		Arrays.fill(stack, 0, stackSizeMax, null);
+		ui.newKey = null;
+		return value;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The updates are executed in approximate z-order of the old keys, so that consecutive 
+	 * updates traverse mostly the same nodes. 
+	 */
+	@Override
+	public int updateAll(long[][] oldKeys, long[][] newKeys) {
+		if (oldKeys.length != newKeys.length) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + oldKeys.length +  
+					" / " + newKeys.length);
+		}
+		long[] order = zOrder(oldKeys);
+		long maskIndex = order.length == 0 ? 0 : 
+			(-1L) >>> Long.numberOfLeadingZeros(Math.max(1, order.length - 1));
+		int n = 0;
+		for (long x : order) {
+			int i = (int) (x & maskIndex);
+			if (updateInternal(oldKeys[i], newKeys[i], false) != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Sort the keys by the leading bits of their z-order. This avoids comparing the full keys.
+	 * @param keys the keys
+	 * @return the sorted positions of the keys in the lower bits, combined with their 
+	 * z-order in the upper bits
+	 */
+	private long[] zOrder(long[][] keys) {
+		int n = keys.length;
+		long[] order = new long[n];
+		int bitsIndex = 64 - Long.numberOfLeadingZeros(Math.max(1, n - 1));
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		//find the highest bit that differs between keys
+		long diff = 0;
+		for (int i = 1; i < n; i++) {
+			for (int d = 0; d < dims; d++) {
+				diff |= keys[i][d] ^ keys[0][d];
+			}
+		}
+		int levels = Math.min((64 - bitsIndex) / dims, 64 - Long.numberOfLeadingZeros(diff));
+		if (levels == 0) {
+			return order;
+		}
+		int topBit = 63 - Long.numberOfLeadingZeros(diff);
+		for (int i = 0; i < n; i++) {
+			long z = 0;
+			for (int bit = topBit; bit > topBit - levels; bit--) {
+				z = (z << dims) | posInArray(keys[i], bit);
+			}
+			//shift to the top and flip the sign bit for unsigned sorting
+			z <<= 64 - levels * dims;
+			order[i] = (z | i) ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(order);
+		return order;
 	}
 
 	@Override
 	public String toString() {
 		return this.getClass().getSimpleName() + 
 				" HCI-on=" + HCI_ENABLED +  
-				" BstSize=" + maxInnerN + "/" + maxLeafN +  
+				" BstSize=" + pageSizes +  
+				" CompactKeys=" + compactKeys +  
 				" DEBUG=" + PhTreeHelper.DEBUG;
 	}
 
@@ -435,6 +761,17 @@ public class PhTree16<T> implements PhTree<T> {
 		return q;
 	}
 
+	@Override
+	public PhQuery<T> query(long[] min, long[] max, long[] afterKey) {
+		if (min.length != dims || max.length != dims || afterKey.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + " / " + afterKey.length + "  DIM=" + dims);
+		}
+		PhQuery<T> q = new PhIteratorNoGC<>(this, new PhFilterAfterKey(afterKey));
+		q.reset(min, max);
+		return q;
+	}
+
 	/**
 	 * Performs a rectangular window query. The parameters are the min and max keys which 
 	 * contain the minimum respectively the maximum keys in every dimension.
@@ -480,7 +817,288 @@ public class PhTree16<T> implements PhTree<T> {
 				() -> new PhEntry<T>(new long[dims], null));
 		
 		NodeIteratorListReuse<T, R> it = new NodeIteratorListReuse<>(list);
-		return it.resetAndRun(getRoot(), min, max, maxResults);
+		return it.resetAndRun(getRoot(), getRootPrefix(), min, max, maxResults);
+	}
+
+	@Override
+	public <R> R aggregate(long[] min, long[] max, PhAggregator<T, R> aggregator) {
+		if (!subtreeCounts) {
+			return PhTree.super.aggregate(min, max, aggregator);
+		}
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + "  DIM=" + dims);
+		}
+		if (getRoot() != null) {
+			NodeIteratorNoGC<T>[] stack = newIteratorStack(DEPTH_64);
+			PhEntry<T> buffer = new PhEntry<>(new long[dims], null);
+			aggregate(getRoot(), getRootPrefix(), 0, min, max, aggregator, stack, buffer);
+		}
+		return aggregator.result();
+	}
+
+	private <R> void aggregate(Node node, long[] prefix, int depth, long[] min, long[] max, 
+			PhAggregator<T, R> aggregator, NodeIteratorNoGC<T>[] stack, PhEntry<T> buffer) {
+		NodeIteratorNoGC<T> ni = stack[depth];
+		if (ni == null) {
+			ni = new NodeIteratorNoGC<>(dims);
+			stack[depth] = ni;
+		}
+		ni.init(min, max, node, null, prefix);
+		while (ni.increment(buffer)) {
+			if (buffer.hasNodeInternal()) {
+				Node sub = (Node) buffer.getNodeInternal();
+				long[] subPrefix = buffer.getKey();
+				if (!isInside(subPrefix, sub.getPostLen(), min, max) || 
+						!aggregator.addSubtree(sub.getSubtreeCount())) {
+					aggregate(sub, subPrefix, depth + 1, min, max, aggregator, stack, buffer);
+				}
+			} else {
+				aggregator.add(buffer.getKey(), buffer.getValue());
+			}
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T> NodeIteratorNoGC<T>[] newIteratorStack(int size) {
+		return new NodeIteratorNoGC[size];
+	}
+
+	/**
+	 * @return true if the whole region of a sub-node is inside the query window. 
+	 */
+	private static boolean isInside(long[] prefix, int postLen, long[] min, long[] max) {
+		//Sub-nodes always have postLen < 63, so the sign bit is part of the prefix
+		long mask = (-1L) << (postLen + 1);
+		for (int i = 0; i < prefix.length; i++) {
+			if ((prefix[i] & mask) < min[i] || (prefix[i] | ~mask) > max[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void checkSubtreeCounts() {
+		if (!subtreeCounts) {
+			throw new UnsupportedOperationException("Subtree counts are not enabled.");
+		}
+	}
+
+	/**
+	 * Requires subtree counts, see {@link PhTreeConfig#setSubtreeCounts(boolean)}.
+	 * @param key the key
+	 * @return the number of entries that are ordered before the key (in z-order, which is
+	 * the order used by all iterators). 
+	 */
+	public int rank(long... key) {
+		checkSubtreeCounts();
+		int rank = 0;
+		Node node = getRoot();
+		while (node != null) {
+			long hcPos = posInArray(key, node.getPostLen());
+			rank += node.bstCountBefore(hcPos);
+			BSTEntry e = node.bstGet(hcPos);
+			if (e == null) {
+				break;
+			}
+			if (e.getValue() instanceof Node) {
+				Node sub = (Node) e.getValue();
+				if (PhTreeHelper.getMaxConflictingBits(key, e.getKdKey(), DEPTH_64) 
+						<= sub.getPostLen() + 1) {
+					//key is inside the sub-node
+					node = sub;
+					continue;
+				}
+				if (PhTreeHelper.compareZOrder(key, e.getKdKey()) > 0) {
+					rank += sub.getSubtreeCount();
+				}
+			} else if (PhTreeHelper.compareZOrder(key, e.getKdKey()) > 0) {
+				rank++;
+			}
+			break;
+		}
+		return rank;
+	}
+
+	/**
+	 * Requires subtree counts, see {@link PhTreeConfig#setSubtreeCounts(boolean)}.
+	 * @param index position of the entry in z-order
+	 * @return the entry at the given position.
+	 */
+	public PhEntry<T> select(int index) {
+		checkSubtreeCounts();
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("index=" + index + " size=" + size());
+		}
+		return select(getRoot(), index);
+	}
+
+	@SuppressWarnings("unchecked")
+	private PhEntry<T> select(Node node, int index) {
+		while (true) {
+			BSTEntry e = node.bstSelect(index);
+			if (e.getValue() instanceof Node) {
+				index -= node.bstCountBefore(e.getKey());
+				node = (Node) e.getValue();
+				continue;
+			}
+			return new PhEntry<>(BitsLong.arrayClone(e.getKdKey()), (T) e.getValue());
+		}
+	}
+
+	/**
+	 * Uniform random sampling of entries in a rectangular window. Sub-nodes that lie
+	 * completely inside the window are not traversed, instead entries are selected via the 
+	 * subtree counts.
+	 * Requires subtree counts, see {@link PhTreeConfig#setSubtreeCounts(boolean)}.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @param k maximum number of entries to return
+	 * @param random random number generator
+	 * @return Up to 'k' distinct entries, ordered in z-order.
+	 */
+	public List<PhEntry<T>> sample(long[] min, long[] max, int k, Random random) {
+		checkSubtreeCounts();
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + "  DIM=" + dims);
+		}
+		//Candidates are either sub-nodes (inside the window) or single entries.
+		List<Object> candidates = new ArrayList<>();
+		int n = 0;
+		if (getRoot() != null) {
+			NodeIteratorNoGC<T>[] stack = newIteratorStack(DEPTH_64);
+			PhEntry<T> buffer = new PhEntry<>(new long[dims], null);
+			n = collectCandidates(getRoot(), getRootPrefix(), 0, min, max, candidates, stack, buffer);
+		}
+
+		//Floyd's algorithm for selecting k distinct positions
+		k = Math.min(k, n);
+		TreeSet<Integer> positions = new TreeSet<>();
+		for (int j = n - k; j < n; j++) {
+			int t = random.nextInt(j + 1);
+			if (!positions.add(t)) {
+				positions.add(j);
+			}
+		}
+
+		List<PhEntry<T>> result = new ArrayList<>(k);
+		Iterator<Object> cIter = candidates.iterator();
+		Object c = null;
+		int cStart = 0;
+		int cEnd = 0;
+		for (int pos : positions) {
+			while (pos >= cEnd) {
+				c = cIter.next();
+				cStart = cEnd;
+				cEnd += c instanceof Node ? ((Node) c).getSubtreeCount() : 1;
+			}
+			if (c instanceof Node) {
+				result.add(select((Node) c, pos - cStart));
+			} else {
+				@SuppressWarnings("unchecked")
+				PhEntry<T> e = (PhEntry<T>) c;
+				result.add(new PhEntry<>(BitsLong.arrayClone(e.getKey()), e.getValue()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of entries in the collected candidates
+	 */
+	private int collectCandidates(Node node, long[] prefix, int depth, long[] min, long[] max, 
+			List<Object> candidates, NodeIteratorNoGC<T>[] stack, PhEntry<T> buffer) {
+		NodeIteratorNoGC<T> ni = stack[depth];
+		if (ni == null) {
+			ni = new NodeIteratorNoGC<>(dims);
+			stack[depth] = ni;
+		}
+		ni.init(min, max, node, null, prefix);
+		int n = 0;
+		while (ni.increment(buffer)) {
+			if (buffer.hasNodeInternal()) {
+				Node sub = (Node) buffer.getNodeInternal();
+				long[] subPrefix = buffer.getKey();
+				if (isInside(subPrefix, sub.getPostLen(), min, max)) {
+					candidates.add(sub);
+					n += sub.getSubtreeCount();
+				} else {
+					n += collectCandidates(sub, subPrefix, depth + 1, min, max, candidates, 
+							stack, buffer);
+				}
+			} else {
+				//The key array is not a copy, but it is stable until the tree is modified 
+				candidates.add(new PhEntry<>(buffer.getKey(), buffer.getValue()));
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Estimate the number of entries in a rectangular window. Only the top levels of the tree
+	 * are traversed, sub-nodes below that which overlap partially with the window are 
+	 * estimated assuming that their entries are uniformly distributed.
+	 * Requires subtree counts, see {@link PhTreeConfig#setSubtreeCounts(boolean)}.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @return the estimated number of entries in the window
+	 */
+	public double estimateCount(long[] min, long[] max) {
+		checkSubtreeCounts();
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + "  DIM=" + dims);
+		}
+		if (getRoot() == null) {
+			return 0;
+		}
+		NodeIteratorNoGC<T>[] stack = newIteratorStack(ESTIMATE_DEPTH);
+		PhEntry<T> buffer = new PhEntry<>(new long[dims], null);
+		return estimateCount(getRoot(), getRootPrefix(), 0, min, max, stack, buffer);
+	}
+
+	private double estimateCount(Node node, long[] prefix, int depth, long[] min, long[] max, 
+			NodeIteratorNoGC<T>[] stack, PhEntry<T> buffer) {
+		NodeIteratorNoGC<T> ni = stack[depth];
+		if (ni == null) {
+			ni = new NodeIteratorNoGC<>(dims);
+			stack[depth] = ni;
+		}
+		ni.init(min, max, node, null, prefix);
+		double n = 0;
+		while (ni.increment(buffer)) {
+			if (buffer.hasNodeInternal()) {
+				Node sub = (Node) buffer.getNodeInternal();
+				long[] subPrefix = buffer.getKey();
+				if (isInside(subPrefix, sub.getPostLen(), min, max)) {
+					n += sub.getSubtreeCount();
+				} else if (depth + 1 < ESTIMATE_DEPTH) {
+					n += estimateCount(sub, subPrefix, depth + 1, min, max, stack, buffer);
+				} else {
+					n += sub.getSubtreeCount() * overlap(subPrefix, sub.getPostLen(), min, max);
+				}
+			} else {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return The fraction of the region of a sub-node that overlaps with the query window. 
+	 */
+	private static double overlap(long[] prefix, int postLen, long[] min, long[] max) {
+		long mask = (-1L) << (postLen + 1);
+		double width = Math.pow(2, postLen + 1);
+		double f = 1;
+		for (int i = 0; i < prefix.length; i++) {
+			long lo = Math.max(prefix[i] & mask, min[i]);
+			long hi = Math.min(prefix[i] | ~mask, max[i]);
+			f *= ((double) hi - (double) lo + 1) / width;
+		}
+		return f;
 	}
 
 	@Override
@@ -490,7 +1108,7 @@ public class PhTree16<T> implements PhTree<T> {
 
 	@Override
 	public int getBitDepth() {
-		return PhTree16.DEPTH_64;
+		return depth;
 	}
 
 	/**
@@ -513,6 +1131,31 @@ public class PhTree16<T> implements PhTree<T> {
 		//return new PhQueryKnnHSZ<T>(this).reset(nMin, dist, center);
 	}
 
+	@Override
+	public PhKnnQuery<T> nearestNeighbour(int nMin, double maxDist, PhDistance dist, 
+			long... center) {
+		return new PhQueryKnnHS<T>(this).reset(
+				nMin, maxDist, dist == null ? PhDistanceL.THIS : dist, center);
+	}
+
+	/**
+	 * Locate approximate nearest neighbours for a given point in space.
+	 * @param nMin number of entries to be returned
+	 * @param epsilon approximation factor, the distance of the i-th result is at most 
+	 * (1+epsilon) times the distance of the exact i-th nearest neighbour
+	 * @param maxNodesVisited maximum number of nodes to traverse, this may reduce the 
+	 * number of returned entries
+	 * @param dist the distance function, can be {@code null}
+	 * @param center the center point
+	 * @return Result iterator.
+	 * @see PhQueryKnnHS#setApproximation(double, int)
+	 */
+	public PhKnnQuery<T> nearestNeighbourApprox(int nMin, double epsilon, int maxNodesVisited,
+			PhDistance dist, long... center) {
+		return new PhQueryKnnHS<T>(this).setApproximation(epsilon, maxNodesVisited).reset(
+				nMin, dist == null ? PhDistanceL.THIS : dist, center);
+	}
+
 	@Override
 	public PhRangeQuery<T> rangeQuery(double dist, long... center) {
 		return rangeQuery(dist, null, center);
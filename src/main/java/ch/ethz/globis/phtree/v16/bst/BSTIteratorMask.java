@@ -28,6 +28,20 @@ public class BSTIteratorMask {
 	}
 
 	public BSTIteratorMask reset(BSTreePage root, long minMask, long maxMask, int nEntries) {
+		return reset(root, minMask, maxMask, nEntries, 0);
+	}
+
+	/**
+	 * 
+	 * @param root root page
+	 * @param minMask lower hypercube mask
+	 * @param maxMask upper hypercube mask
+	 * @param nEntries number of entries in the node
+	 * @param startKey entries with lower keys are skipped
+	 * @return this iterator
+	 */
+	public BSTIteratorMask reset(BSTreePage root, long minMask, long maxMask, int nEntries,
+			long startKey) {
 		this.minMask = minMask;
 		this.maxMask = maxMask;
 		this.currentPage = root;
@@ -56,13 +70,26 @@ public class BSTIteratorMask {
 			return this;
 		}
 		
-		if (findFirstLeafPage()) {
+		if (startKey > minMask ? findLeafPage(startKey) : findFirstLeafPage()) {
 			findNext();
 		}
 
 		return this;
 	}
 
+	private boolean findLeafPage(long key) {
+		while (!currentPage.isLeaf()) {
+	    	if (currentPage.getNKeys() == -1) {
+	    		currentPage = null;
+				return false;
+	    	}
+	    	currentPage = currentPage.findSubPage(key);
+		}
+		int pos = currentPage.binarySearch(key);
+		currentPos = pos >= 0 ? pos : -(pos+1);
+		return true;
+	}
+
 
 	private boolean findFirstLeafPage() {
 		while (!currentPage.isLeaf()) {
@@ -8,6 +8,7 @@ package ch.ethz.globis.phtree.v16.bst;
 
 import java.util.Arrays;
 
+import ch.ethz.globis.phtree.PhTreeHelper;
 import ch.ethz.globis.phtree.util.StringBuilderLn;
 import ch.ethz.globis.phtree.v16.Node;
 import ch.ethz.globis.phtree.v16.Node.BSTEntry;
@@ -18,8 +19,6 @@ import ch.ethz.globis.phtree.v16.PhTree16;
 
 public class BSTreePage {
 
-	private static final int INITIAL_PAGE_SIZE = 4;
-	
 	private BSTreePage parent;
 	private long[] keys;
 	private BSTEntry[] values;
@@ -30,6 +29,10 @@ public class BSTreePage {
 	private BSTreePage[] subPages;
 	private BSTreePage prevLeaf;
 	private BSTreePage nextLeaf;
+	/** Cached number of PH-tree entries below this inner page, -1 if invalid. */
+	private int subtreeCnt;
+	/** Structure stamp of the Node at the time the subtreeCnt was calculated. */
+	private int subtreeCntStamp;
 
 
 	BSTreePage(Node ind, BSTreePage parent, boolean isLeaf, BSTreePage leftPredecessor) {
@@ -40,9 +43,11 @@ public class BSTreePage {
 		nextLeaf = null;
 		prevLeaf = null;
 		this.parent = parent;
+		this.subtreeCnt = -1;
 		if (isLeaf) {
 			nEntries = 0;
-			int initialPageSize = ind.maxLeafN() <= 8 ? 2 : INITIAL_PAGE_SIZE;
+			int initialPageSize = ind.getPageSizes().initialLeafN();
+			ind.getPageSizes().onLeafCreated();
 			keys = BSTPool.arrayCreateLong(initialPageSize);
 			values = BSTPool.arrayCreateEntries(initialPageSize);
 			subPages = null;
@@ -128,7 +133,7 @@ public class BSTreePage {
             checkUnderflowSubpageLeaf(pos, node);
         } else {
         	result = page.findAndRemove(key, kdKey, node, ui);
-        	handleUnderflowSubInner(pos);
+        	handleUnderflowSubInner(pos, node);
         }
         return result;
 	}
@@ -147,7 +152,7 @@ public class BSTreePage {
         BSTreePage page = getPageByPos(pos);
         if (page.isLeaf()) {
     		BSTEntry o = page.getOrCreate(key, this, pos, ind);
-    		if (o.getKdKey() == null && o.getValue() instanceof BSTreePage) {
+    		if (!o.hasKdKey() && o.getValue() instanceof BSTreePage) {
     			//add page
     			BSTreePage newPage = (BSTreePage) o.getValue();
     			addSubPage(newPage, newPage.getMinKey(), pos, ind);
@@ -230,6 +235,7 @@ public class BSTreePage {
 	private void ensureSizePlusOne(Node ind) {
 		if (nEntries + 1 > keys.length) {
 			int newLen = keys.length*2 > ind.maxLeafN() ? ind.maxLeafN() : keys.length*2;
+			ind.getPageSizes().onLeafExpanded();
 			keys = BSTPool.arrayExpand(keys, newLen);
 			values = BSTPool.arrayExpand(values, newLen);
 		}
@@ -254,7 +260,7 @@ public class BSTreePage {
         	return values[pos];
         } 
         
-        BSTEntry value = new BSTEntry(key, null, null);
+        BSTEntry value = ind.createEntry(key);
         
         if (nEntries < ind.maxLeafN()) {
         	//okay so we add it locally
@@ -429,6 +435,7 @@ public class BSTreePage {
 			return;
 		} else {
 			//treat page overflow
+			ind.bstStructureChanged();
 			BSTreePage newInner = ind.bstCreatePage(parent, false, null);
 			
 			//TODO use optimized fill ratio for unique values, just like for leaves?.
@@ -542,11 +549,19 @@ public class BSTreePage {
         BSTEntry prevValue = values[i];
         REMOVE_OP op = node.bstInternalRemoveCallback(prevValue, kdKey, ui);
         switch (op) {
+		case MOVE_RETURN:
+			long newKey = PhTreeHelper.posInArray(ui.getNewKey(), node.getPostLen());
+			if (canMove(i, newKey, node)) {
+				keys[i] = newKey;
+				prevValue.set(newKey, ui.getNewKey(), prevValue.getValue());
+				ui.setInPlace();
+				return prevValue;
+			}
+			//remove and reinsert
+        	removeAt(i, node);
+        	return prevValue;
 		case REMOVE_RETURN:
-        	System.arraycopy(keys, i+1, keys, i, nEntries-i-1);
-        	System.arraycopy(values, i+1, values, i, nEntries-i-1);
-        	nEntries--;
-        	node.decEntryCount();
+        	removeAt(i, node);
         	return prevValue;
 		case KEEP_RETURN:
 			return prevValue;
@@ -558,6 +573,33 @@ public class BSTreePage {
 	}
 	
 	
+	private void removeAt(int i, Node node) {
+    	System.arraycopy(keys, i+1, keys, i, nEntries-i-1);
+    	System.arraycopy(values, i+1, values, i, nEntries-i-1);
+    	nEntries--;
+    	node.decEntryCount();
+	}
+	
+	/**
+	 * Check whether the entry at position 'i' can be moved to 'newKey' without changing the
+	 * order of entries or the minimum key of the page. The minimum key is used by the parent
+	 * page to find this page, so it can only change if this is the root page.
+	 * @param i position of the entry
+	 * @param newKey the new key
+	 * @param node the owning node
+	 * @return 'true' if the key of the entry can be replaced
+	 */
+	private boolean canMove(int i, long newKey, Node node) {
+		boolean isRoot = node.getRoot() == this;
+		if (newKey < keys[i]) {
+			return i > 0 ? keys[i-1] < newKey : isRoot;
+		}
+		if (i == 0 && !isRoot) {
+			return false;
+		}
+		return i < nEntries-1 ? newKey < keys[i+1] : isRoot;
+	}
+	
 	private void checkUnderflowSubpageLeaf(int pos, Node ind) {
 		BSTreePage subPage = getPageByPos(pos);
         if (subPage.nEntries == 0) {
@@ -599,7 +641,7 @@ public class BSTreePage {
 		}
 	}
 	
-	private void handleUnderflowSubInner(int pos) {
+	private void handleUnderflowSubInner(int pos, Node ind) {
 		BSTreePage sub = getPageByPos(pos);
 		if (sub.nEntries < maxInnerN()>>1) {
 			if (sub.nEntries >= 0) {
@@ -607,6 +649,7 @@ public class BSTreePage {
 				if (prev != null && !prev.isLeaf) {
 					// this is only good for merging inside the same parent.
 					if ((sub.nEntries % 2 == 0) && (prev.nEntries + sub.nEntries < maxInnerN())) {
+						ind.bstStructureChanged();
 						System.arraycopy(sub.keys, 0, prev.keys, prev.nEntries+1, sub.nEntries);
 						System.arraycopy(sub.subPages, 0, prev.subPages, prev.nEntries+1, sub.nEntries+1);
 						//find key for the first appended page -> go up or go down????? Up!
@@ -614,8 +657,10 @@ public class BSTreePage {
 						prev.nEntries += sub.nEntries + 1;  //for the additional key
 						prev.assignThisAsParentToLeaves();
 						removePage(pos);
+						return;
 					}
-					return;
+					//No merge: we still have to pull up a single sub-page, otherwise removing
+					//it later would leave an inner page without sub-pages.
 				}
 		
 				if (sub.nEntries == 0) {
@@ -819,12 +864,99 @@ public class BSTreePage {
 		}
 	}
 
+	/**
+	 * Invalidate the cached subtree count.
+	 */
+	public void invalidateSubtreeCount() {
+		subtreeCnt = -1;
+	}
+
+	/**
+	 * Requires subtree counts to be enabled in the tree.
+	 * @param ind the owning node
+	 * @return the number of PH-tree entries in this page, including entries in sub-nodes.
+	 */
+	public int getSubtreeCount(Node ind) {
+		if (isLeaf) {
+			int n = 0;
+			for (int i = 0; i < nEntries; i++) {
+				n += Node.getSubtreeWeight(values[i].getValue());
+			}
+			return n;
+		}
+		if (subtreeCnt < 0 || subtreeCntStamp != ind.bstStructureStamp()) {
+			int n = 0;
+			for (int i = 0; i <= nEntries; i++) {
+				n += subPages[i].getSubtreeCount(ind);
+			}
+			subtreeCnt = n;
+			subtreeCntStamp = ind.bstStructureStamp();
+		}
+		return subtreeCnt;
+	}
+
+	/**
+	 * Requires subtree counts to be enabled in the tree.
+	 * @param key hc pos
+	 * @param ind the owning node
+	 * @return the number of PH-tree entries in all entries with a smaller hc pos than 'key'.
+	 */
+	public int getSubtreeCountBefore(long key, Node ind) {
+		int n = 0;
+		if (isLeaf) {
+			for (int i = 0; i < nEntries && keys[i] < key; i++) {
+				n += Node.getSubtreeWeight(values[i].getValue());
+			}
+			return n;
+		}
+		int pos = binarySearch(key);
+		pos = pos >= 0 ? pos + 1 : -(pos+1);
+		for (int i = 0; i < pos; i++) {
+			n += subPages[i].getSubtreeCount(ind);
+		}
+		return n + subPages[pos].getSubtreeCountBefore(key, ind);
+	}
+
+	/**
+	 * Requires subtree counts to be enabled in the tree.
+	 * @param index position of a PH-tree entry in this page
+	 * @param ind the owning node
+	 * @return the entry that contains the PH-tree entry at the given position, or 'null' 
+	 * if the position is out of range.
+	 */
+	public BSTEntry selectEntry(int index, Node ind) {
+		if (isLeaf) {
+			for (int i = 0; i < nEntries; i++) {
+				int w = Node.getSubtreeWeight(values[i].getValue());
+				if (index < w) {
+					return values[i];
+				}
+				index -= w;
+			}
+			return null;
+		}
+		for (int i = 0; i <= nEntries; i++) {
+			int n = subPages[i].getSubtreeCount(ind);
+			if (index < n) {
+				return subPages[i].selectEntry(index, ind);
+			}
+			index -= n;
+		}
+		return null;
+	}
+
 	public BSTEntry getFirstValue() {
 		return values[0];
 	}
 
-	public BSTreePage getFirstSubPage() {
-		return subPages[0];
+	/**
+	 * Detach the only sub-page of this root page, so that it can become the new root.
+	 * @return the new root page
+	 */
+	public BSTreePage pullUpFirstSubPage() {
+		BSTreePage p = subPages[0];
+		p.setParent(null);
+		return p;
 	}
 
 	BSTreePage[] getSubPages() {
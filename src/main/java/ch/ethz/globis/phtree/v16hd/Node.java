@@ -10,9 +10,12 @@ package ch.ethz.globis.phtree.v16hd;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiFunction;
 
 import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTreeHelper;
 import ch.ethz.globis.phtree.PhTreeHelperHD;
+import ch.ethz.globis.phtree.util.BSTPageSizes;
 import ch.ethz.globis.phtree.util.BitsLong;
 import ch.ethz.globis.phtree.util.PhTreeStats;
 import ch.ethz.globis.phtree.util.StringBuilderLn;
@@ -29,9 +32,8 @@ import ch.ethz.globis.phtree.v16hd.bst.BSTreePage;
  */
 public class Node {
 
-	public byte maxLeafN;// = 100;//10;//340;
-	/** Max number of keys in inner page (there can be max+1 page-refs) */
-	public byte maxInnerN;// = 100;//11;//509;
+	/** Page sizes of the B+tree, shared by all nodes of a tree */
+	private BSTPageSizes pageSizes;
 
 	private int entryCnt = 0;
 
@@ -55,33 +57,22 @@ public class Node {
 		return new Node();
 	}
 
-	private void initNode(int infixLenClassic, int postLenClassic, int dims) {
+	private void initNode(int infixLenClassic, int postLenClassic, BSTPageSizes pageSizes) {
 		this.infixLenStored = (byte) (infixLenClassic + 1);
 		this.postLenStored = (byte) (postLenClassic + 1);
 		this.entryCnt = 0;
-		//The idea is to have at most one level of inner pages for d<=12
-		//The inner pages are all slightly larger the strictly necessary because the fill rate of leaves is < 100%
-		switch (dims) {
-		case 1: maxLeafN = 2; maxInnerN = 3; break;
-		case 2: maxLeafN = 4; maxInnerN = 3; break;
-		case 3: maxLeafN = 8; maxInnerN = 3; break;
-		case 4: maxLeafN = 16; maxInnerN = 3; break;
-		case 5: maxLeafN = 16; maxInnerN = 4+1; break;
-		case 6: maxLeafN = 16; maxInnerN = 6+1; break;
-		case 7: maxLeafN = 16; maxInnerN = 10+1; break;
-		case 8: maxLeafN = 16; maxInnerN = 20+1; break;
-		case 9: maxLeafN = 32; maxInnerN = 20+1; break;
-		case 10: maxLeafN = 32; maxInnerN = 35+1; break;
-		case 11: maxLeafN = 32; maxInnerN = 70+1; break;
-		case 12: maxLeafN = 64; maxInnerN = 70+1; break;
-		default: maxLeafN = 100; maxInnerN = 100; break;
-		}
+		this.pageSizes = pageSizes;
 		this.root = bstCreateRoot();
 	}
 
 	public static Node createNode(int dims, int infixLenClassic, int postLenClassic) {
+		return createNode(BSTPageSizes.forDims(dims), infixLenClassic, postLenClassic);
+	}
+
+	public static Node createNode(BSTPageSizes pageSizes, int infixLenClassic, 
+			int postLenClassic) {
 		Node n = NodePool.getNode();
-		n.initNode(infixLenClassic, postLenClassic, dims);
+		n.initNode(infixLenClassic, postLenClassic, pageSizes);
 		return n;
 	}
 
@@ -136,6 +127,10 @@ public class Node {
 			return e != null ? e.getValue() : null;
 		}			
 		Object v = removeEntry(hcBuf, keyToMatch, insertRequired);
+		if (insertRequired != null && insertRequired.inPlace) {
+			//The entry was updated in place
+			return v;
+		}
 		if (v != null && !(v instanceof Node)) {
 			//Found and removed entry.
 			tree.decreaseNrEntries();
@@ -146,6 +141,53 @@ public class Node {
 		return v;
 	}
 	
+	/**
+	 * Computes the new value of the entry with the given key, see 
+	 * {@link ch.ethz.globis.phtree.PhTree#compute(long[], BiFunction)}.
+	 * The entry is inserted, replaced or removed in place.
+	 * @param keyToMatch The key of the entry
+	 * @param mappingFunction the function that computes the new value
+	 * @param parent the parent node
+	 * @param tree the tree
+	 * @param hcBuf buffer for the hc position
+	 * @return The sub node to traverse or the new value.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Object doComputeIfMatching(long[] keyToMatch, 
+			BiFunction<long[], ? super T, ? extends T> mappingFunction, Node parent, 
+			PhTree16HD<T> tree, long[] hcBuf) {
+		PhTreeHelperHD.posInArrayHD(keyToMatch, getPostLen(), hcBuf);
+		BSTEntry e = getEntry(hcBuf, keyToMatch);
+		if (e != null) {
+			Object v = e.getValue();
+			if (v instanceof Node) {
+				return v;
+			}
+			T oldValue = v == PhTreeHelper.NULL ? null : (T) v;
+			T newValue = mappingFunction.apply(keyToMatch, oldValue);
+			if (newValue == null) {
+				if (oldValue != null) {
+					removeEntry(hcBuf, keyToMatch, null);
+					tree.decreaseNrEntries();
+					if (getEntryCount() == 1) {
+						mergeIntoParentNt(keyToMatch, parent);
+					}
+				}
+			} else if (newValue != oldValue) {
+				e.setValue(newValue);
+			}
+			return newValue;
+		}
+		
+		//No matching entry, insert new entry or split the conflicting entry
+		T newValue = mappingFunction.apply(keyToMatch, null);
+		if (newValue != null) {
+			addEntry(hcBuf, keyToMatch, newValue);
+			tree.increaseNrEntries();
+		}
+		return newValue;
+	}
+	
 	private long calcInfixMask(int subPostLen) {
 		//We use a simplified mask, because the prefix is always present
 		//long mask = ~((-1L)<<(getPostLen()-subPostLen-1));
@@ -166,7 +208,7 @@ public class Node {
         //determine length of infix
         int newLocalInfLen = getPostLen() - mcb;
         int newPostLen = mcb-1;
-        Node newNode = createNode(key1.length, newLocalInfLen, newPostLen);
+        Node newNode = createNode(pageSizes, newLocalInfLen, newPostLen);
 
         long[] posSub1 = BitsHD.newArray(key1.length);
         PhTreeHelperHD.posInArrayHD(key1, newPostLen, posSub1);
@@ -422,7 +464,7 @@ public class Node {
 		
 		BSTEntry result = rootPage.findAndRemove(key, kdKey, this, ui);
 		if (rootPage.getNKeys() == 0) { 
-			root = rootPage.getFirstSubPage();
+			root = rootPage.pullUpFirstSubPage();
 			BSTPool.reportFreeNode(rootPage);
 		}
 		return result;
@@ -501,11 +543,15 @@ public class Node {
 
 	
 	public int maxLeafN() {
-		return maxLeafN;
+		return pageSizes.maxLeafN();
 	}
 
 	public int maxInnerN() {
-		return maxInnerN;
+		return pageSizes.maxInnerN();
+	}
+
+	public BSTPageSizes getPageSizes() {
+		return pageSizes;
 	}
 
 	
@@ -647,6 +693,7 @@ public class Node {
 					//simply replace kdKey!!
 					//Replacing the long[] should be correct (and fastest, and avoiding GC)
 					currentEntry.set(currentEntry.getKey(), ui.newKey, currentEntry.getValue());
+					ui.inPlace = true;
 					return REMOVE_OP.KEEP_RETURN;
 				} else {
 					ui.insertRequired = bitPosOfDiff;
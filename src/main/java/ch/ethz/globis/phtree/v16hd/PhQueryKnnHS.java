@@ -9,9 +9,8 @@
 package ch.ethz.globis.phtree.v16hd;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 
 import ch.ethz.globis.phtree.PhDistance;
@@ -26,6 +25,12 @@ import ch.ethz.globis.phtree.v16hd.bst.BSTIteratorAll;
  * Implementation after Hjaltason and Samet (with some deviations: no MinDist or MaxDist used).
  * G. R. Hjaltason and H. Samet., "Distance browsing in spatial databases.", ACM TODS 24(2):265--318. 1999
  *
+ * Results are calculated lazily, i.e. the queue is kept between calls to next() and nodes are 
+ * only expanded when required. 
+ * 
+ * Optionally, the query can return approximate results, see 
+ * {@link #setApproximation(double, int)}.
+ *
  * @param <T> value type
  */
 public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
@@ -36,11 +41,19 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 	private PhTree16HD<T> pht;
 	private PhDistance distance;
 	private long[] center;
-	private final ArrayList<PhEntryDist<T>> results = new ArrayList<>(); 
+	private double maxDist = Double.POSITIVE_INFINITY;
+	//buffer for calculating node distances
+	private final long[] nodeBuf;
+	/** Number of results that may still be returned. */
+	private int remaining;
+	private PhEntryDist<T> nextResult;
+	/** Factor for node distances, (1 + epsilon). */
+	private double nodeDistFactor = 1;
+	private int maxNodesVisited = Integer.MAX_VALUE;
+	private int nNodesVisited;
 	private final ArrayList<PhEntryDist<Object>> pool = new ArrayList<>(); 
 	private final PriorityQueue<PhEntryDist<Object>> queue = new PriorityQueue<>(COMP);
 	private final BSTIteratorAll iterNode = new BSTIteratorAll();
-	private Iterator<PhEntryDist<T>> iterResult;
 
 
 	/**
@@ -49,9 +62,39 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 	 */
 	public PhQueryKnnHS(PhTree16HD<T> pht) {
 		this.dims = pht.getDim();
+		this.nodeBuf = new long[dims];
 		this.pht = pht;
 	}
 
+	/**
+	 * Enable approximate nearest neighbour search. The distance of the i-th result is
+	 * at most (1+epsilon) times the distance of the exact i-th nearest neighbour. 
+	 * Additionally, the number of nodes that are traversed can be limited. When the limit
+	 * is reached, only entries that have already been encountered are returned, i.e.
+	 * the query may return fewer results than requested.
+	 * The settings apply to subsequent calls to {@link #reset(int, PhDistance, long...)}.
+	 * @param epsilon the approximation factor, 0 for exact results
+	 * @param maxNodesVisited the maximum number of nodes to be traversed per query, 
+	 * {@link Integer#MAX_VALUE} for no limit 
+	 * @return this query
+	 */
+	public PhQueryKnnHS<T> setApproximation(double epsilon, int maxNodesVisited) {
+		if (epsilon < 0 || maxNodesVisited < 1) {
+			throw new IllegalArgumentException("epsilon=" + epsilon + 
+					" maxNodesVisited=" + maxNodesVisited);
+		}
+		this.nodeDistFactor = 1 + epsilon;
+		this.maxNodesVisited = maxNodesVisited;
+		return this;
+	}
+
+	/**
+	 * @return the number of nodes traversed during the current query.
+	 */
+	public int getNodesVisited() {
+		return nNodesVisited;
+	}
+
 	@Override
 	public long[] nextKey() {
 		return nextEntryReuse().getKey();
@@ -64,18 +107,23 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 
 	@Override
 	public PhEntryDist<T> nextEntry() {
-		return iterResult.next();
+		return nextEntryReuse();
 	} 
 
 	@Override
 	public PhEntryDist<T> nextEntryReuse() {
 		//Reusing happens only via pooling
-		return iterResult.next();
+		if (nextResult == null) {
+			throw new NoSuchElementException();
+		}
+		PhEntryDist<T> ret = nextResult;
+		findNextResult();
+		return ret;
 	}
 
 	@Override
 	public boolean hasNext() {
-		return iterResult.hasNext();
+		return nextResult != null;
 	}
 
 	@Override
@@ -85,16 +133,30 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 
 	@Override
 	public PhKnnQuery<T> reset(int nMin, PhDistance dist, long... center) {
+		return reset(nMin, Double.POSITIVE_INFINITY, dist, center);
+	}
+
+	/**
+	 * Reset the query for a new search that returns at most 'nMin' entries with a distance
+	 * of at most 'maxDist'. Nodes and entries that are further away are never expanded.
+	 * @param nMin maximum number of entries to return
+	 * @param maxDist maximum distance, {@link Double#POSITIVE_INFINITY} for no limit
+	 * @param dist distance function
+	 * @param center the center point
+	 * @return this query
+	 */
+	public PhKnnQuery<T> reset(int nMin, double maxDist, PhDistance dist, long... center) {
 		this.distance = dist == null ? this.distance : dist;
 		this.center = center;
+		this.maxDist = maxDist;
 		
 		//TODO pool entries??/
 		this.queue.clear();
-		this.results.clear();
-		
+		this.nextResult = null;
+		this.remaining = nMin;
+		this.nNodesVisited = 0;
 		
 		if (nMin <= 0 || pht.size() == 0) {
-			iterResult = Collections.<PhEntryDist<T>>emptyList().iterator();
 			return this;
 		}
 		
@@ -103,37 +165,50 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 		PhEntryDist<Object> rootE = createEntry(new long[dims], pht.getRoot(), 0);
 		this.queue.add(rootE);
 		
-		search(nMin);
-		iterResult = results.iterator();
+		findNextResult();
 		
 		return this;
 	}
 
 	
 	@SuppressWarnings("unchecked")
-	private void search(int k) {
+	private void findNextResult() {
+		nextResult = null;
+		if (remaining <= 0) {
+			return;
+		}
 		while (!queue.isEmpty()) {
 			PhEntryDist<Object> candidate = queue.poll();
 			Object o = candidate.getValue();
 			if (!(o instanceof Node)) {
 				//data entry
-				results.add((PhEntryDist<T>) candidate);
-				if (results.size() >= k) {
-					return;
-				}
+				nextResult = (PhEntryDist<T>) candidate;
+				remaining--;
+				return;
+			} else if (nNodesVisited >= maxNodesVisited) {
+				//node budget exhausted, only return entries that are already in the queue
+				pool.add(candidate);
 			} else {
 				//inner node
+				nNodesVisited++;
 				Node node = (Node)o;
 				iterNode.reset(node.getRoot());
 				while (iterNode.hasNextEntry()) {
 					BSTEntry e2 = iterNode.nextEntry();
+					long[] kdKey = e2.getKdKey();
 					if (e2.getValue() instanceof Node) {
 						Node sub = (Node) e2.getValue();
-						double d = distToNode(e2.getKdKey(), sub.getPostLen() + 1);
-						queue.add(createEntry(e2.getKdKey(), e2.getValue(), d));
+						//For approximate queries, nodes are pushed back in the queue so that 
+						//entries up to (1+epsilon) times further away are returned first.
+						double d = distToNode(kdKey, sub.getPostLen() + 1);
+						if (d <= maxDist) {
+							queue.add(createEntry(kdKey, e2.getValue(), d * nodeDistFactor));
+						}
 					} else {
-						double d = distance.dist(center, e2.getKdKey());
-						queue.add(createEntry(e2.getKdKey(), e2.getValue(), d));
+						double d = distance.dist(center, kdKey);
+						if (d <= maxDist) {
+							queue.add(createEntry(kdKey, e2.getValue(), d));
+						}
 					}
 				}
 				pool.add(candidate);
@@ -154,18 +229,7 @@ public class PhQueryKnnHS<T> implements PhKnnQuery<T> {
 
 
 	private double distToNode(long[] prefix, int bitsToIgnore) {
-		long maskMin = (-1L) << bitsToIgnore;
-		long maskMax = ~maskMin;
-		long[] buf = new long[prefix.length];
-		for (int i = 0; i < buf.length; i++) {
-			//if v is outside the node, return distance to closest edge,
-			//otherwise return v itself (assume possible distance=0)
-			long min = prefix[i] & maskMin;
-			long max = prefix[i] | maskMax;
-			buf[i] = min > center[i] ? min : (max < center[i] ? max : center[i]); 
-		}
-
-		return distance.dist(center, buf);
+		return distance.distToNode(center, prefix, bitsToIgnore, nodeBuf);
 	}
 
 	
@@ -12,21 +12,25 @@ import static ch.ethz.globis.phtree.PhTreeHelper.align8;
 import static ch.ethz.globis.phtree.PhTreeHelper.debugCheck;
 import static ch.ethz.globis.phtree.PhTreeHelperHD.posInArrayHD;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 
 import ch.ethz.globis.phtree.PhDistance;
 import ch.ethz.globis.phtree.PhDistanceL;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterAfterKey;
 import ch.ethz.globis.phtree.PhFilterDistance;
 import ch.ethz.globis.phtree.PhFilterWindow;
 import ch.ethz.globis.phtree.PhRangeQuery;
 import ch.ethz.globis.phtree.PhTree;
 import ch.ethz.globis.phtree.PhTreeConfig;
 import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.util.BSTPageSizes;
 import ch.ethz.globis.phtree.util.PhMapper;
 import ch.ethz.globis.phtree.util.PhTreeStats;
 import ch.ethz.globis.phtree.util.StringBuilderLn;
@@ -95,9 +99,8 @@ public class PhTree16HD<T> implements PhTree<T> {
 	
 	private static final int NO_INSERT_REQUIRED = Integer.MAX_VALUE;
 
-	private final int maxLeafN;// = 100;//10;//340;
-	/** Max number of keys in inner page (there can be max+1 page-refs) */
-	private final int maxInnerN;// = 100;//11;//509;
+	/** Page sizes of the node-internal B+trees */
+	private final BSTPageSizes pageSizes;
 
 	//Dimension. This is the number of attributes of an entity.
 	private final int dims;
@@ -115,33 +118,32 @@ public class PhTree16HD<T> implements PhTree<T> {
     }
 
 	public PhTree16HD(int dim) {
+		this(dim, BSTPageSizes.forDims(dim));
+	}
+
+	private PhTree16HD(int dim, BSTPageSizes pageSizes) {
 		dims = dim;
 		debugCheck();
-
-		switch (dims) {
-		case 1: maxLeafN = 2; maxInnerN = 2; break;
-		case 2: maxLeafN = 4; maxInnerN = 2; break;
-		case 3: maxLeafN = 8; maxInnerN = 2; break;
-		case 4: maxLeafN = 16; maxInnerN = 2; break;
-		case 5: maxLeafN = 16; maxInnerN = 2+1; break;
-		case 6: maxLeafN = 16; maxInnerN = 4+1; break;
-		case 7: maxLeafN = 16; maxInnerN = 8+1; break;
-		case 8: maxLeafN = 16; maxInnerN = 16+1; break;
-		case 9: maxLeafN = 32; maxInnerN = 16+1; break;
-		case 10: maxLeafN = 32; maxInnerN = 32+1; break;
-		case 11: maxLeafN = 32; maxInnerN = 64+1; break;
-		case 12: maxLeafN = 64; maxInnerN = 64+1; break;
-		default: maxLeafN = 100; maxInnerN = 100; break;
-		}
+		this.pageSizes = pageSizes;
 	}
 
 	public PhTree16HD(PhTreeConfig cnf) {
-		this(cnf.getDimActual());
+		this(cnf.getDimActual(), BSTPageSizes.create(cnf));
 		switch (cnf.getConcurrencyType()) {
 		case PhTreeConfig.CONCURRENCY_NONE: break;
 		default:
 			throw new UnsupportedOperationException("type= " + cnf.getConcurrencyType());
 		}
+		if (cnf.getDepth() != DEPTH_64) {
+			throw new UnsupportedOperationException("depth= " + cnf.getDepth());
+		}
+	}
+
+	/**
+	 * @return the page sizes of the node-internal B+trees
+	 */
+	public BSTPageSizes getPageSizes() {
+		return pageSizes;
 	}
 
 	void increaseNrEntries() {
@@ -162,6 +164,33 @@ public class PhTree16HD<T> implements PhTree<T> {
 		return getStats(0, getRoot(), new PhTreeStats(DEPTH_64));
 	}
 
+	@Override
+	public PhTreeStats getStatsSample(int maxEntries) {
+		PhTreeStats stats = new PhTreeStats(DEPTH_64);
+		if (getRoot() == null) {
+			return stats;
+		}
+		ArrayDeque<Node> queue = new ArrayDeque<>();
+		queue.add(getRoot());
+		int nVisited = 0;
+		while (!queue.isEmpty() && nVisited < maxEntries) {
+			Node node = queue.poll();
+			int size = node.getEntryCount();
+			stats.nNodes++;
+			stats.nTotalChildren += size;
+			stats.nodeSizeLogHist[32-Integer.numberOfLeadingZeros(size)]++;
+			nVisited += size;
+			BSTIteratorAll iter = node.iterator();
+			while (iter.hasNextEntry()) {
+				Object v = iter.nextEntry().getValue();
+				if (v instanceof Node) {
+					queue.add((Node) v);
+				}
+			}
+		}
+		return stats;
+	}
+
 	private PhTreeStats getStats(int currentDepth, Node node, PhTreeStats stats) {
 		stats.nNodes++;
 		stats.infixHist[node.getInfixLen()]++;
@@ -232,12 +261,33 @@ public class PhTree16HD<T> implements PhTree<T> {
     }
 
     private void insertRoot(long[] key, Object value, long[] hcBuf) {
-        root = Node.createNode(dims, 0, DEPTH_64-1);
+        root = Node.createNode(pageSizes, 0, DEPTH_64-1);
         posInArrayHD(key, root.getPostLen(), hcBuf);
         root.addEntry(hcBuf, key, value);
         increaseNrEntries();
     }
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public T compute(long[] key, BiFunction<long[], ? super T, ? extends T> remappingFunction) {
+		long[] hcBuf = BitsHD.newArray(dims);
+		if (getRoot() == null) {
+			T value = remappingFunction.apply(key, null);
+			if (value != null) {
+				insertRoot(key, value, hcBuf);
+			}
+			return value;
+		}
+		Object o = getRoot();
+		Node parentNode = null;
+		while (o instanceof Node) {
+			Node currentNode = (Node) o;
+			o = currentNode.doComputeIfMatching(key, remappingFunction, parentNode, this, hcBuf);
+			parentNode = currentNode;
+		}
+		return (T) o;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public boolean contains(long... key) {
@@ -287,6 +337,8 @@ public class PhTree16HD<T> implements PhTree<T> {
 	public static class UpdateInfo {
 		final long[] newKey;
 		int insertRequired = NO_INSERT_REQUIRED;
+		//true if the entry was updated in place, i.e. it was not removed
+		boolean inPlace;
 		public UpdateInfo(long[] newKey) {
 			this.newKey = newKey;
 		}
@@ -340,7 +392,7 @@ public class PhTree16HD<T> implements PhTree<T> {
 	public String toString() {
 		return this.getClass().getSimpleName() + 
 				" HCI-on=" + HCI_ENABLED +  
-				" BstSize=" + maxInnerN + "/" + maxLeafN +  
+				" BstSize=" + pageSizes +  
 				" DEBUG=" + PhTreeHelper.DEBUG;
 	}
 
@@ -441,6 +493,17 @@ public class PhTree16HD<T> implements PhTree<T> {
 		return q;
 	}
 
+	@Override
+	public PhQuery<T> query(long[] min, long[] max, long[] afterKey) {
+		if (min.length != dims || max.length != dims || afterKey.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + " / " + afterKey.length + "  DIM=" + dims);
+		}
+		PhQuery<T> q = new PhIteratorNoGC<>(this, new PhFilterAfterKey(afterKey));
+		q.reset(min, max);
+		return q;
+	}
+
 	/**
 	 * Performs a rectangular window query. The parameters are the min and max keys which 
 	 * contain the minimum respectively the maximum keys in every dimension.
@@ -519,6 +582,31 @@ public class PhTree16HD<T> implements PhTree<T> {
 		//return new PhQueryKnnHSZ<T>(this).reset(nMin, dist, center);
 	}
 
+	@Override
+	public PhKnnQuery<T> nearestNeighbour(int nMin, double maxDist, PhDistance dist, 
+			long... center) {
+		return new PhQueryKnnHS<T>(this).reset(
+				nMin, maxDist, dist == null ? PhDistanceL.THIS : dist, center);
+	}
+
+	/**
+	 * Locate approximate nearest neighbours for a given point in space.
+	 * @param nMin number of entries to be returned
+	 * @param epsilon approximation factor, the distance of the i-th result is at most 
+	 * (1+epsilon) times the distance of the exact i-th nearest neighbour
+	 * @param maxNodesVisited maximum number of nodes to traverse, this may reduce the 
+	 * number of returned entries
+	 * @param dist the distance function, can be {@code null}
+	 * @param center the center point
+	 * @return Result iterator.
+	 * @see PhQueryKnnHS#setApproximation(double, int)
+	 */
+	public PhKnnQuery<T> nearestNeighbourApprox(int nMin, double epsilon, int maxNodesVisited,
+			PhDistance dist, long... center) {
+		return new PhQueryKnnHS<T>(this).setApproximation(epsilon, maxNodesVisited).reset(
+				nMin, dist == null ? PhDistanceL.THIS : dist, center);
+	}
+
 	@Override
 	public PhRangeQuery<T> rangeQuery(double dist, long... center) {
 		return rangeQuery(dist, null, center);
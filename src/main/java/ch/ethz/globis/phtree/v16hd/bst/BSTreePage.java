@@ -19,8 +19,6 @@ import ch.ethz.globis.phtree.v16hd.PhTree16HD;
 
 public class BSTreePage {
 
-	private static final int INITIAL_PAGE_SIZE = 4;
-	
 	private BSTreePage parent;
 	private long[][] keys;
 	private BSTEntry[] values;
@@ -43,7 +41,8 @@ public class BSTreePage {
 		this.parent = parent;
 		if (isLeaf) {
 			nEntries = 0;
-			int initialPageSize = ind.maxLeafN() <= 8 ? 2 : INITIAL_PAGE_SIZE;
+			int initialPageSize = ind.getPageSizes().initialLeafN();
+			ind.getPageSizes().onLeafCreated();
 			keys = BSTPool.arrayCreateLong(initialPageSize);
 			values = BSTPool.arrayCreateEntries(initialPageSize);
 			subPages = null;
@@ -201,6 +200,7 @@ public class BSTreePage {
 	private void ensureSizePlusOne(Node ind) {
 		if (nEntries + 1 > keys.length) {
 			int newLen = keys.length*2 > ind.maxLeafN() ? ind.maxLeafN() : keys.length*2;
+			ind.getPageSizes().onLeafExpanded();
 			keys = BSTPool.arrayExpand(keys, newLen);
 			values = BSTPool.arrayExpand(values, newLen);
 		}
@@ -585,8 +585,10 @@ public class BSTreePage {
 						prev.nEntries += sub.nEntries + 1;  //for the additional key
 						prev.assignThisAsParentToLeaves();
 						removePage(pos);
+						return;
 					}
-					return;
+					//No merge: we still have to pull up a single sub-page, otherwise removing
+					//it later would leave an inner page without sub-pages.
 				}
 		
 				if (sub.nEntries == 0) {
@@ -794,8 +796,14 @@ public class BSTreePage {
 		return values[0];
 	}
 
-	public BSTreePage getFirstSubPage() {
-		return subPages[0];
+	/**
+	 * Detach the only sub-page of this root page, so that it can become the new root.
+	 * @return the new root page
+	 */
+	public BSTreePage pullUpFirstSubPage() {
+		BSTreePage p = subPages[0];
+		p.setParent(null);
+		return p;
 	}
 
 	BSTreePage[] getSubPages() {
@@ -11,6 +11,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
+
 import org.junit.Test;
 
 import ch.ethz.globis.phtree.PhTreeHelperHD;
@@ -135,6 +137,30 @@ public class TestBitsHD {
 		checkPosHD(new long[] {0, 7}, new long[]{0b10}, new long[] {2, 5});
 	}
 
+	@Test
+	public void testApplyHcPosHDLarge() {
+		Random R = new Random(0);
+		for (int dim : new int[]{63, 64, 65, 128, 130, 200}) {
+			long[] v = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				v[d] = R.nextLong();
+			}
+			int postLen = R.nextInt(64);
+			long[] posHD = PhTreeHelperHD.newHDPos(dim);
+			PhTreeHelperHD.posInArrayHD(v, postLen, posHD);
+			//the first dimension is the highest bit of the first slot
+			assertEquals((v[0] >>> postLen) & 1L,
+					posHD[0] >>> (BitsHD.mod65x(dim) - 1));
+			assertEquals((v[dim-1] >>> postLen) & 1L, posHD[posHD.length-1] & 1L);
+
+			long[] v2 = new long[dim];
+			PhTreeHelperHD.applyHcPosHD(posHD, postLen, v2);
+			for (int d = 0; d < dim; d++) {
+				assertEquals((v[d] >>> postLen) & 1L, v2[d] >>> postLen);
+			}
+		}
+	}
+
 	private static void checkPosHD(long[] valTempIn, long[] posHD, long[] valTempOut) {
 		long[] temp = valTempIn.clone();
 		PhTreeHelperHD.applyHcPosHD(posHD, 1, temp);
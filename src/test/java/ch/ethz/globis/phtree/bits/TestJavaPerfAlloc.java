@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.bits;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeSolidF;
+
+/**
+ * Allocation benchmark for point operations of PhTreeF and PhTreeSolidF, with and without
+ * sessions, and for update() of PhTree. This uses the HotSpot specific ThreadMXBean to measure allocated bytes.
+ */
+public class TestJavaPerfAlloc {
+
+	private static final int N = 100_000;
+	private static final int N_ROUNDS = 5;
+
+	private static final com.sun.management.ThreadMXBean MX = 
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) {
+		for (int dim : new int[]{3, 10}) {
+			runF(dim);
+			runSF(dim);
+			runUpdate(dim);
+		}
+	}
+
+	private static long allocated() {
+		return MX.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void print(String name, int dim, long bytes, long nanos) {
+		System.out.println(name + " dim=" + dim + ": " + (bytes / (double) N) + " bytes/op  " + 
+				(nanos / N) + " ns/op");
+	}
+
+	private static void runF(int dim) {
+		Random R = new Random(0);
+		double[][] keys = new double[N][dim];
+		for (double[] key : keys) {
+			for (int d = 0; d < dim; d++) {
+				key[d] = R.nextDouble();
+			}
+		}
+		PhTreeF<Integer> tree = PhTreeF.create(dim);
+		for (int i = 0; i < N; i++) {
+			tree.put(keys[i], i);
+		}
+		PhTreeF<Integer>.Session s = tree.session();
+		for (int round = 0; round < N_ROUNDS; round++) {
+			long b0 = allocated();
+			long t0 = System.nanoTime();
+			for (int i = 0; i < N; i++) {
+				tree.get(keys[i]);
+			}
+			long t1 = System.nanoTime();
+			long b1 = allocated();
+			for (int i = 0; i < N; i++) {
+				s.get(keys[i]);
+			}
+			long t2 = System.nanoTime();
+			long b2 = allocated();
+			if (round == N_ROUNDS - 1) {
+				print("PhTreeF.get()        ", dim, b1 - b0, t1 - t0);
+				print("PhTreeF.Session.get()", dim, b2 - b1, t2 - t1);
+			}
+		}
+	}
+
+	private static void runSF(int dim) {
+		Random R = new Random(0);
+		double[][] lower = new double[N][dim];
+		double[][] upper = new double[N][dim];
+		for (int i = 0; i < N; i++) {
+			for (int d = 0; d < dim; d++) {
+				lower[i][d] = R.nextDouble();
+				upper[i][d] = lower[i][d] + R.nextDouble() * 0.01;
+			}
+		}
+		PhTreeSolidF<Integer> tree = PhTreeSolidF.create(dim);
+		for (int i = 0; i < N; i++) {
+			tree.put(lower[i], upper[i], i);
+		}
+		PhTreeSolidF<Integer>.Session s = tree.session();
+		for (int round = 0; round < N_ROUNDS; round++) {
+			long b0 = allocated();
+			long t0 = System.nanoTime();
+			for (int i = 0; i < N; i++) {
+				tree.contains(lower[i], upper[i]);
+			}
+			long t1 = System.nanoTime();
+			long b1 = allocated();
+			for (int i = 0; i < N; i++) {
+				s.contains(lower[i], upper[i]);
+			}
+			long t2 = System.nanoTime();
+			long b2 = allocated();
+			if (round == N_ROUNDS - 1) {
+				print("PhTreeSolidF.contains()        ", dim, b1 - b0, t1 - t0);
+				print("PhTreeSolidF.Session.contains()", dim, b2 - b1, t2 - t1);
+			}
+		}
+	}
+
+	private static void runUpdate(int dim) {
+		Random R = new Random(0);
+		long[][] keys = new long[N][dim];
+		long[][] keys2 = new long[N][];
+		for (int i = 0; i < N; i++) {
+			for (int d = 0; d < dim; d++) {
+				keys[i][d] = R.nextInt(1 << 20);
+			}
+			keys2[i] = keys[i].clone();
+			keys2[i][0] ^= 1;
+		}
+		PhTree<Integer> tree = PhTree.create(dim);
+		for (int i = 0; i < N; i++) {
+			tree.put(keys[i], i);
+		}
+		for (int round = 0; round < N_ROUNDS; round++) {
+			long b0 = allocated();
+			long t0 = System.nanoTime();
+			for (int i = 0; i < N; i++) {
+				tree.update(keys[i], keys2[i]);
+			}
+			long t1 = System.nanoTime();
+			long b1 = allocated();
+			tree.updateAll(keys2, keys);
+			long t2 = System.nanoTime();
+			long b2 = allocated();
+			if (round == N_ROUNDS - 1) {
+				print(tree.getClass().getSimpleName() + ".update()   ", dim, b1 - b0, t1 - t0);
+				print(tree.getClass().getSimpleName() + ".updateAll()", dim, b2 - b1, t2 - t1);
+			}
+		}
+	}
+}
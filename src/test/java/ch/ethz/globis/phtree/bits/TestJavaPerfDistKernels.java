@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.bits;
+
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceF_L1;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.util.BitTools;
+
+/**
+ * Compares the distance kernels of PhDistanceL/F/F_L1 with straight-forward
+ * single-accumulator loops, for point distances and for node distances.
+ */
+public class TestJavaPerfDistKernels {
+
+	private static final int N_VEC = 1_000;
+	private static final long N_OPS = 50_000_000L;
+
+	public static void main(String[] args) {
+		for (int dim : new int[]{2, 3, 4, 8, 16, 32, 64, 128, 256, 512}) {
+			new TestJavaPerfDistKernels().run(dim);
+		}
+	}
+
+	private void run(int dim) {
+		Random R = new Random(0);
+		long[][] v1 = new long[N_VEC][dim];
+		long[][] v2 = new long[N_VEC][dim];
+		for (int i = 0; i < N_VEC; i++) {
+			for (int d = 0; d < dim; d++) {
+				v1[i][d] = BitTools.toSortableLong(R.nextDouble());
+				v2[i][d] = BitTools.toSortableLong(R.nextDouble());
+			}
+		}
+		int n = (int) (N_OPS / dim);
+		System.out.println("dim=" + dim);
+		for (PhDistance dist : new PhDistance[]{
+				PhDistanceF.THIS, PhDistanceF_L1.THIS, new Scalar(PhDistanceF.THIS)}) {
+			//first round is warm-up
+			time(dist, v1, v2, n / 10);
+			long t = time(dist, v1, v2, n);
+			long tNode = timeNode(dist, v1, v2, n);
+			System.out.println("  " + name(dist) + ": dist=" + (t / (double) n) +
+					" ns  distToNode=" + (tNode / (double) n) + " ns");
+		}
+		long[][] i1 = new long[N_VEC][dim];
+		long[][] i2 = new long[N_VEC][dim];
+		for (int i = 0; i < N_VEC; i++) {
+			for (int d = 0; d < dim; d++) {
+				i1[i][d] = R.nextInt(1_000_000);
+				i2[i][d] = R.nextInt(1_000_000);
+			}
+		}
+		for (PhDistance dist : new PhDistance[]{PhDistanceL.THIS, new Scalar(PhDistanceL.THIS)}) {
+			time(dist, i1, i2, n / 10);
+			long t = time(dist, i1, i2, n);
+			long tNode = timeNode(dist, i1, i2, n);
+			System.out.println("  " + name(dist) + ": dist=" + (t / (double) n) +
+					" ns  distToNode=" + (tNode / (double) n) + " ns");
+		}
+	}
+
+	private static long time(PhDistance dist, long[][] v1, long[][] v2, int n) {
+		double sum = 0;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			int pos = i % v1.length;
+			sum += dist.dist(v1[pos], v2[pos]);
+		}
+		long t = System.nanoTime() - t0;
+		if (sum == -1) {
+			System.out.println("x");
+		}
+		return t;
+	}
+
+	private static long timeNode(PhDistance dist, long[][] v1, long[][] v2, int n) {
+		long[] buf = new long[v1[0].length];
+		double sum = 0;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			int pos = i % v1.length;
+			sum += dist.distToNode(v1[pos], v2[pos], 20 + (i & 31), buf);
+		}
+		long t = System.nanoTime() - t0;
+		if (sum == -1) {
+			System.out.println("x");
+		}
+		return t;
+	}
+
+	private static String name(PhDistance dist) {
+		return dist instanceof Scalar ? dist.toString() : dist.getClass().getSimpleName();
+	}
+
+	/**
+	 * Single accumulator reference implementation that uses the default node distance.
+	 */
+	private static class Scalar implements PhDistance {
+		private final PhDistance d;
+
+		Scalar(PhDistance d) {
+			this.d = d;
+		}
+
+		@Override
+		public double dist(long[] v1, long[] v2) {
+			double s = 0;
+			if (d instanceof PhDistanceL) {
+				for (int i = 0; i < v1.length; i++) {
+					long dl = Math.subtractExact(v1[i], v2[i]);
+					s += Math.multiplyExact(dl, dl);
+				}
+			} else {
+				for (int i = 0; i < v1.length; i++) {
+					double dl = BitTools.toDouble(v1[i]) - BitTools.toDouble(v2[i]);
+					s += dl*dl;
+				}
+			}
+			return Math.sqrt(s);
+		}
+
+		@Override
+		public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+			d.toMBB(distance, center, outMin, outMax);
+		}
+
+		@Override
+		public String toString() {
+			return "Scalar(" + d.getClass().getSimpleName() + ")";
+		}
+	}
+}
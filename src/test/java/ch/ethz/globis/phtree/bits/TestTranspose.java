@@ -6,8 +6,11 @@
  */
 package ch.ethz.globis.phtree.bits;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Random;
+
 import org.junit.Test;
 
 import ch.ethz.globis.phtree.PhTreeHelper;
@@ -43,6 +46,34 @@ public class TestTranspose {
 		check(tv, 0L, 0L, 0L, 0L, 1L, 5L, 11L, 31L);
 	}
 
+	@Test
+	public void testPosInArrayApplyHcPos() {
+		Random R = new Random(0);
+		for (int dim = 1; dim <= 64; dim++) {
+			for (int r = 0; r < 100; r++) {
+				long[] v = new long[dim];
+				for (int d = 0; d < dim; d++) {
+					v[d] = R.nextLong();
+				}
+				int postLen = R.nextInt(64);
+				//bit-by-bit reference
+				long expected = 0;
+				for (int d = 0; d < dim; d++) {
+					expected = (expected << 1) | ((v[d] >>> postLen) & 1L);
+				}
+				long pos = PhTreeHelper.posInArray(v, postLen);
+				assertEquals(expected, pos);
+
+				long[] v2 = v.clone();
+				for (int d = 0; d < dim; d++) {
+					v2[d] ^= 1L << postLen;
+				}
+				PhTreeHelper.applyHcPos(pos, postLen, v2);
+				assertArrayEquals(v, v2);
+			}
+		}
+	}
+
 	private void check(long[] tv, long... v) {
 		int DEPTH = tv.length;
 		for (int i = 0; i < v.length; i++) {
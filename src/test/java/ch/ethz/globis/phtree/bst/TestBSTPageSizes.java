@@ -0,0 +1,235 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.bst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.util.BSTPageSizes;
+import ch.ethz.globis.phtree.v16.PhTree16;
+import ch.ethz.globis.phtree.v16hd.PhTree16HD;
+
+public class TestBSTPageSizes {
+
+	private static final int N = 20_000;
+
+	@Test
+	public void testPageSizes() {
+		int[][] sizes = {{2, 3}, {3, 4}, {4, 3}, {8, 3}, {7, 5}, {1000, 1000}, 
+				{BSTPageSizes.MAX_PAGE_SIZE, 3}};
+		for (int dim : new int[]{1, 3, 6, 10}) {
+			for (int[] s : sizes) {
+				PhTreeConfig cfg = new PhTreeConfig(dim);
+				cfg.setBstPageSizes(s[0], s[1]);
+				PhTree16<Integer> tree = new PhTree16<>(cfg);
+				assertEquals(s[0], tree.getPageSizes().maxLeafN());
+				assertEquals(s[1], tree.getPageSizes().maxInnerN());
+				check(tree, dim);
+			}
+		}
+		for (int[] s : sizes) {
+			PhTreeConfig cfg = new PhTreeConfig(70);
+			cfg.setBstPageSizes(s[0], s[1]);
+			check(new PhTree16HD<>(cfg), 70);
+		}
+	}
+
+	@Test
+	public void testPageSizesUpdates() {
+		int[][] sizes = {{2, 3}, {3, 4}, {4, 3}, {8, 3}, {7, 5}, {4, 4}, {4, 8}};
+		for (int[] s : sizes) {
+			for (int dim : new int[]{1, 3, 5, 6, 10}) {
+				PhTreeConfig cfg = new PhTreeConfig(dim);
+				cfg.setBstPageSizes(s[0], s[1]);
+				checkUpdates(new PhTree16<>(cfg), dim, dim <= 3 ? 8 : (dim <= 6 ? 4 : 2));
+			}
+			PhTreeConfig cfg = new PhTreeConfig(70);
+			cfg.setBstPageSizes(s[0], s[1]);
+			checkUpdates(new PhTree16HD<>(cfg), 70, 2);
+		}
+	}
+
+	@Test
+	public void testAutoTune() {
+		int dim = 3;
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setBstPageSizes(512, 0);
+		cfg.setBstAutoTune(true);
+		PhTree16<Integer> tree = new PhTree16<>(cfg);
+		int initial = tree.getPageSizes().initialLeafN();
+		//dense data: nodes have many entries and pages are expanded often
+		int n = 0;
+		for (int x = 0; x < 40; x++) {
+			for (int y = 0; y < 40; y++) {
+				for (int z = 0; z < 40; z++) {
+					tree.put(new long[]{x, y, z}, n++);
+				}
+			}
+		}
+		assertTrue(tree.getPageSizes().initialLeafN() > initial);
+		assertEquals(n, tree.size());
+		n = 0;
+		for (int x = 0; x < 40; x++) {
+			for (int y = 0; y < 40; y++) {
+				for (int z = 0; z < 40; z++) {
+					assertEquals(n++, (int) tree.remove(new long[]{x, y, z}));
+				}
+			}
+		}
+		assertEquals(0, tree.size());
+	}
+
+	@Test
+	public void testDefault() {
+		PhTree16<Integer> tree = new PhTree16<>(new PhTreeConfig(10));
+		assertEquals(BSTPageSizes.forDims(10).maxLeafN(), tree.getPageSizes().maxLeafN());
+		assertEquals(BSTPageSizes.forDims(10).maxInnerN(), tree.getPageSizes().maxInnerN());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalLeafSize() {
+		PhTreeConfig cfg = new PhTreeConfig(3);
+		cfg.setBstPageSizes(1, 0);
+		new PhTree16<>(cfg);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalInnerSize() {
+		PhTreeConfig cfg = new PhTreeConfig(3);
+		cfg.setBstPageSizes(0, BSTPageSizes.MAX_PAGE_SIZE + 1);
+		new PhTree16<>(cfg);
+	}
+
+	/**
+	 * Interleaved put/remove/update on a small key range, so that pages are split and 
+	 * merged all the time.
+	 */
+	private static void checkUpdates(PhTree<Integer> tree, int dim, int range) {
+		Random R = new Random(dim * 31 + range);
+		Map<List<Long>, Integer> ref = new HashMap<>();
+		//phase 0: mostly inserts, 1: mixed, 2: mostly removals
+		for (int phase = 0; phase < 3; phase++) {
+			for (int i = 0; i < 10_000; i++) {
+				long[] k = randomKey(R, dim, range);
+				int op = R.nextInt(10);
+				if (phase == 0 ? op < 7 : (phase == 1 ? op < 4 : op < 1)) {
+					assertEquals(ref.put(toList(k), i), tree.put(k, i));
+				} else if (phase == 1 && op < 7) {
+					long[] k2 = randomKey(R, dim, range);
+					Integer v = ref.get(toList(k));
+					if (v != null && !ref.containsKey(toList(k2))) {
+						ref.remove(toList(k));
+						ref.put(toList(k2), v);
+						assertEquals(v, tree.update(k, k2));
+					}
+				} else {
+					assertEquals(ref.remove(toList(k)), tree.remove(k));
+				}
+			}
+			assertEquals(ref.size(), tree.size());
+			for (Map.Entry<List<Long>, Integer> e : ref.entrySet()) {
+				long[] k = toArray(e.getKey());
+				assertTrue(tree.contains(k));
+				assertEquals(e.getValue(), tree.get(k));
+			}
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			Arrays.fill(max, range);
+			assertEquals(ref.size(), tree.queryAll(min, max).size());
+		}
+	}
+
+	private static long[] randomKey(Random R, int dim, int range) {
+		long[] k = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			k[d] = R.nextInt(range);
+		}
+		return k;
+	}
+
+	private static List<Long> toList(long[] k) {
+		List<Long> list = new ArrayList<>(k.length);
+		for (long x : k) {
+			list.add(x);
+		}
+		return list;
+	}
+
+	private static long[] toArray(List<Long> list) {
+		long[] k = new long[list.size()];
+		for (int i = 0; i < k.length; i++) {
+			k[i] = list.get(i);
+		}
+		return k;
+	}
+
+	private static void check(PhTree<Integer> tree, int dim) {
+		Random R = new Random(dim);
+		long[][] data = new long[N][dim];
+		for (int i = 0; i < N; i++) {
+			for (int d = 0; d < dim; d++) {
+				data[i][d] = R.nextInt(1 << 16);
+			}
+			Integer prev = tree.put(data[i], i);
+			if (prev != null) {
+				data[prev] = null;
+			}
+		}
+		int n = 0;
+		for (int i = 0; i < N; i++) {
+			if (data[i] != null) {
+				assertEquals(i, (int) tree.get(data[i]));
+				n++;
+			}
+		}
+		assertEquals(n, tree.size());
+
+		long[] min = new long[dim];
+		long[] max = new long[dim];
+		Arrays.fill(max, Long.MAX_VALUE);
+		PhQuery<Integer> q = tree.query(min, max);
+		int nQ = 0;
+		while (q.hasNext()) {
+			q.next();
+			nQ++;
+		}
+		assertEquals(n, nQ);
+
+		PhKnnQuery<Integer> knn = tree.nearestNeighbour(10, data[N - 1] != null ? data[N - 1] : min);
+		int nKnn = 0;
+		double prev = 0;
+		while (knn.hasNext()) {
+			double d = knn.nextEntry().dist();
+			assertTrue(d >= prev);
+			prev = d;
+			nKnn++;
+		}
+		assertEquals(Math.min(10, n), nKnn);
+
+		for (int i = 0; i < N; i++) {
+			if (data[i] != null) {
+				assertEquals(i, (int) tree.remove(data[i]));
+				assertNull(tree.get(data[i]));
+			}
+		}
+		assertEquals(0, tree.size());
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.bst;
+
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v16.PhTree16;
+import ch.ethz.globis.phtree.v16hd.PhTree16HD;
+
+/**
+ * Benchmark for the page sizes of the node-internal B+trees of the v16 and v16HD PH-trees.
+ * 
+ * Measures insert, full scan and kNN queries for the default page sizes, several fixed page
+ * sizes and the auto-tune mode.
+ */
+public class TestBSTPageSizesPerf {
+
+	private static final int N = 1_000_000;
+	private static final int N_QUERY = 10_000;
+	private static final int K = 10;
+
+	/** {maxLeafN, maxInnerN}, 0 means default. */
+	private static final int[][] SIZES = {{0, 0}, {8, 8}, {32, 32}, {128, 64}, {512, 128}};
+
+	/**
+	 * @param args optional: number of entries
+	 */
+	public static void main(String[] args) {
+		int nEntries = args.length > 0 ? Integer.parseInt(args[0]) : N;
+		for (int dim : new int[]{3, 10, 128}) {
+			int n = dim > 60 ? nEntries / 10 : nEntries;
+			for (int[] s : SIZES) {
+				run(dim, n, s[0], s[1], false);
+			}
+			run(dim, n, 0, 0, true);
+		}
+	}
+
+	private static void run(int dim, int n, int maxLeafN, int maxInnerN, boolean autoTune) {
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setBstPageSizes(maxLeafN, maxInnerN);
+		cfg.setBstAutoTune(autoTune);
+		long[][] data = createData(dim, n);
+		long tInsert = 0, tScan = 0, tKnn = 0;
+		PhTree<Integer> tree = null;
+		//the first round is for warm-up
+		for (int round = 0; round < 2; round++) {
+			tree = dim > 60 ? new PhTree16HD<>(cfg) : new PhTree16<>(cfg);
+			long t0 = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				tree.put(data[i], i);
+			}
+			long t1 = System.nanoTime();
+			long sum = 0;
+			PhExtent<Integer> it = tree.queryExtent();
+			while (it.hasNext()) {
+				sum += it.nextValue();
+			}
+			long t2 = System.nanoTime();
+			PhKnnQuery<Integer> q = tree.nearestNeighbour(K, data[0]);
+			for (int i = 0; i < N_QUERY; i++) {
+				q.reset(K, null, data[(i * 7919) % n]);
+				while (q.hasNext()) {
+					sum += q.nextValue();
+				}
+			}
+			long t3 = System.nanoTime();
+			tInsert = t1 - t0;
+			tScan = t2 - t1;
+			tKnn = t3 - t2;
+			if (sum == 42) {
+				System.out.println();
+			}
+		}
+		System.out.println("dim=" + dim + "  N=" + n + "  " + tree.toString() + 
+				"  insert=" + (tInsert / n) + " ns/entry" +
+				"  scan=" + (tScan / n) + " ns/entry" +
+				"  knn=" + (tKnn / N_QUERY / 1000) + " us/query");
+	}
+
+	private static long[][] createData(int dim, int n) {
+		Random R = new Random(0);
+		long[][] data = new long[n][dim];
+		for (int i = 0; i < n; i++) {
+			for (int d = 0; d < dim; d++) {
+				data[i][d] = R.nextInt(1 << 20);
+			}
+		}
+		return data;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.hd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.pre.PreProcessorPointF;
+import ch.ethz.globis.phtree.v16hd.PhQueryKnnHS;
+import ch.ethz.globis.phtree.v16hd.PhTree16HD;
+
+public class TestKnnApprox {
+
+	private static final int DIM = 64;
+	private static final int K = 10;
+
+	private final PreProcessorPointF pre = new PreProcessorPointF.IEEE();
+
+	private PhTree16HD<Integer> createTree(Random R, int n) {
+		PhTree16HD<Integer> tree = new PhTree16HD<>(DIM);
+		for (int i = 0; i < n; i++) {
+			tree.put(toKey(randomPoint(R)), i);
+		}
+		return tree;
+	}
+
+	private static double[] randomPoint(Random R) {
+		double[] p = new double[DIM];
+		for (int d = 0; d < DIM; d++) {
+			p[d] = R.nextGaussian();
+		}
+		return p;
+	}
+
+	private long[] toKey(double[] p) {
+		long[] key = new long[p.length];
+		pre.pre(p, key);
+		return key;
+	}
+
+	private static List<Double> distances(PhKnnQuery<?> q) {
+		List<Double> list = new ArrayList<>();
+		while (q.hasNext()) {
+			list.add(q.nextEntryReuse().dist());
+		}
+		return list;
+	}
+
+	@Test
+	public void testEpsilonZeroIsExact() {
+		Random R = new Random(0);
+		PhTree16HD<Integer> tree = createTree(R, 2000);
+		for (int i = 0; i < 20; i++) {
+			long[] center = toKey(randomPoint(R));
+			List<Double> exact = distances(tree.nearestNeighbour(K, PhDistanceF.THIS, null, center));
+			List<Double> approx = distances(
+					tree.nearestNeighbourApprox(K, 0, Integer.MAX_VALUE, PhDistanceF.THIS, center));
+			assertEquals(exact, approx);
+		}
+	}
+
+	@Test
+	public void testEpsilonBound() {
+		Random R = new Random(1);
+		PhTree16HD<Integer> tree = createTree(R, 2000);
+		for (double eps : new double[]{0.1, 0.5, 2}) {
+			for (int i = 0; i < 20; i++) {
+				long[] center = toKey(randomPoint(R));
+				List<Double> exact =
+						distances(tree.nearestNeighbour(K, PhDistanceF.THIS, null, center));
+				List<Double> approx = distances(tree.nearestNeighbourApprox(
+						K, eps, Integer.MAX_VALUE, PhDistanceF.THIS, center));
+				assertEquals(K, approx.size());
+				for (int j = 0; j < K; j++) {
+					assertTrue(approx.get(j) <= exact.get(j) * (1 + eps));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNodeBudget() {
+		Random R = new Random(2);
+		PhTree16HD<Integer> tree = createTree(R, 2000);
+		PhQueryKnnHS<Integer> q = new PhQueryKnnHS<>(tree);
+		q.setApproximation(0, 5);
+		q.reset(K, PhDistanceF.THIS, toKey(randomPoint(R)));
+		int n = distances(q).size();
+		assertTrue(n <= K);
+		assertTrue(q.getNodesVisited() <= 5);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidEpsilon() {
+		new PhQueryKnnHS<>(new PhTree16HD<Integer>(DIM)).setApproximation(-1, 10);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.hd;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.pre.PreProcessorPointF;
+import ch.ethz.globis.phtree.v16hd.PhQueryKnnHS;
+import ch.ethz.globis.phtree.v16hd.PhTree16HD;
+
+/**
+ * Recall/latency benchmark for approximate kNN queries compared to exact kNN queries.
+ *
+ * The data consists of gaussian clusters, which roughly resembles embedding vectors.
+ * Other datasets can be used by replacing createData().
+ */
+public class TestKnnApproxPerf {
+
+	private static final int N = 100_000;
+	private static final int N_QUERY = 1_000;
+	private static final int K = 10;
+	private static final int N_CLUSTERS = 100;
+
+	private static final double[] EPSILON = {0, 0.1, 0.25, 0.5, 1, 2};
+	private static final int[] MAX_NODES = {Integer.MAX_VALUE, 1000, 100};
+
+	private final PreProcessorPointF pre = new PreProcessorPointF.IEEE();
+
+	public static void main(String[] args) {
+		for (int dim : new int[]{32, 64, 128}) {
+			new TestKnnApproxPerf().run(dim);
+		}
+	}
+
+	private void run(int dim) {
+		Random R = new Random(0);
+		double[][] centers = new double[N_CLUSTERS][dim];
+		for (double[] c : centers) {
+			for (int d = 0; d < dim; d++) {
+				c[d] = R.nextDouble() * 10;
+			}
+		}
+		PhTree16HD<Integer> tree = new PhTree16HD<>(dim);
+		for (int i = 0; i < N; i++) {
+			tree.put(createPoint(R, centers), i);
+		}
+		long[][] queries = new long[N_QUERY][];
+		for (int i = 0; i < N_QUERY; i++) {
+			queries[i] = createPoint(R, centers);
+		}
+
+		//exact results, the first round is for warm-up
+		PhQueryKnnHS<Integer> q = new PhQueryKnnHS<>(tree);
+		List<Set<Integer>> exact = new ArrayList<>();
+		long tExact = 0;
+		for (int round = 0; round < 2; round++) {
+			exact.clear();
+			long t0 = System.nanoTime();
+			for (int i = 0; i < N_QUERY; i++) {
+				exact.add(new HashSet<>());
+				q.reset(K, PhDistanceF.THIS, queries[i]);
+				while (q.hasNext()) {
+					exact.get(i).add(q.nextValue());
+				}
+			}
+			tExact = System.nanoTime() - t0;
+		}
+		System.out.println("dim=" + dim + "  N=" + N + "  exact: " +
+				(tExact / N_QUERY / 1000) + " us/query");
+
+		for (int maxNodes : MAX_NODES) {
+			for (double eps : EPSILON) {
+				q.setApproximation(eps, maxNodes);
+				long nFound = 0;
+				long nNodes = 0;
+				long t1 = System.nanoTime();
+				for (int i = 0; i < N_QUERY; i++) {
+					q.reset(K, PhDistanceF.THIS, queries[i]);
+					while (q.hasNext()) {
+						if (exact.get(i).contains(q.nextValue())) {
+							nFound++;
+						}
+					}
+					nNodes += q.getNodesVisited();
+				}
+				long t = System.nanoTime() - t1;
+				System.out.println("  eps=" + eps +
+						"  maxNodes=" + (maxNodes == Integer.MAX_VALUE ? "-" : maxNodes) +
+						"  recall=" + (nFound / (double) (N_QUERY * K)) +
+						"  nodes/query=" + (nNodes / N_QUERY) +
+						"  " + (t / N_QUERY / 1000) + " us/query" +
+						"  speedup=" + ((double) tExact / t));
+			}
+		}
+	}
+
+	private long[] createPoint(Random R, double[][] centers) {
+		double[] c = centers[R.nextInt(centers.length)];
+		double[] p = new double[c.length];
+		for (int d = 0; d < p.length; d++) {
+			p[d] = c[d] + R.nextGaussian();
+		}
+		long[] key = new long[p.length];
+		pre.pre(p, key);
+		return key;
+	}
+}
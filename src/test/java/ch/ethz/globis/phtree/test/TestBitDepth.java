@@ -0,0 +1,281 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhAggregator;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeI;
+import ch.ethz.globis.phtree.PhTreeI.PhEntryDistI;
+import ch.ethz.globis.phtree.PhTreeI.PhEntryI;
+import ch.ethz.globis.phtree.PhTreeI.PhKnnQueryI;
+import ch.ethz.globis.phtree.PhTreeI.PhQueryI;
+import ch.ethz.globis.phtree.v16hd.PhTree16HD;
+
+public class TestBitDepth {
+
+	private static <T> PhTree<T> newTree(int dim, int depth) {
+		return newTree(dim, depth, false);
+	}
+
+	private static <T> PhTree<T> newTree(int dim, int depth, boolean subtreeCounts) {
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setDepth(depth);
+		cfg.setSubtreeCounts(subtreeCounts);
+		return PhTree.create(cfg);
+	}
+
+	@Test
+	public void testDepth() {
+		for (int dim : new int[]{1, 3, 8, 10}) {
+			for (int depth : new int[]{1, 8, 16, 32, 63}) {
+				check(dim, depth, 2000, false);
+			}
+		}
+	}
+
+	@Test
+	public void testDepthSubtreeCounts() {
+		for (int dim : new int[]{8, 10}) {
+			for (int depth : new int[]{8, 32}) {
+				check(dim, depth, 2000, true);
+			}
+		}
+	}
+
+	@Test
+	public void testBitDepth() {
+		assertEquals(64, newTree(3, 64).getBitDepth());
+		assertEquals(16, newTree(3, 16).getBitDepth());
+		assertEquals(32, newTree(10, 32).getBitDepth());
+		assertEquals(32, PhTreeI.create(3).getInternalTree().getBitDepth());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeyTooLarge() {
+		newTree(3, 16).put(new long[]{1, 1 << 16, 1}, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeyNegative() {
+		newTree(10, 16).put(new long[]{1, 1, 1, 1, 1, -1, 1, 1, 1, 1}, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUpdateKeyTooLarge() {
+		PhTree<Object> tree = newTree(3, 16);
+		tree.put(new long[]{1, 1, 1}, null);
+		tree.update(new long[]{1, 1, 1}, new long[]{1, 1, 1 << 16});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPhTreeITooManyDims() {
+		PhTreeI.create(PhTreeI.MAX_DIM + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidDepth0() {
+		new PhTreeConfig(3).setDepth(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidDepth65() {
+		new PhTreeConfig(3).setDepth(65);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testHdUnsupported() {
+		PhTreeConfig cfg = new PhTreeConfig(100);
+		cfg.setDepth(32);
+		new PhTree16HD<>(cfg);
+	}
+
+	private static long randomValue(Random R, int depth) {
+		return depth == 64 ? R.nextLong() : R.nextLong() >>> (64 - depth);
+	}
+
+	private static void check(int dim, int depth, int n, boolean subtreeCounts) {
+		Random R = new Random(dim * 100 + depth);
+		PhTree<Integer> tree = newTree(dim, depth, subtreeCounts);
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				key[d] = randomValue(R, depth);
+			}
+			if (tree.contains(key)) {
+				continue;
+			}
+			assertNull(tree.put(key, i));
+			keys.add(key);
+			assertEquals(keys.size(), tree.size());
+		}
+		for (long[] key : keys) {
+			assertTrue(tree.contains(key));
+		}
+
+		for (int r = 0; r < 50; r++) {
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				//include windows that exceed the valid range
+				long a = r % 5 == 0 ? R.nextLong() : randomValue(R, depth);
+				long b = r % 7 == 0 ? R.nextLong() : randomValue(R, depth);
+				min[d] = Math.min(a, b);
+				max[d] = Math.max(a, b);
+			}
+			int nExp = 0;
+			for (long[] key : keys) {
+				boolean match = true;
+				for (int d = 0; d < dim; d++) {
+					match &= key[d] >= min[d] && key[d] <= max[d];
+				}
+				nExp += match ? 1 : 0;
+			}
+			List<PhEntry<Integer>> res = tree.queryAll(min, max);
+			assertEquals(nExp, res.size());
+			int nQuery = 0;
+			PhTree.PhQuery<Integer> q = tree.query(min, max);
+			while (q.hasNext()) {
+				q.next();
+				nQuery++;
+			}
+			assertEquals(nExp, nQuery);
+			assertEquals(nExp, (int) tree.aggregate(min, max, PhAggregator.count()));
+		}
+
+		int i = 0;
+		for (long[] key : keys) {
+			if (i++ % 2 == 0) {
+				assertTrue(tree.remove(key) != null);
+			}
+		}
+		assertEquals(keys.size() / 2, tree.size());
+	}
+
+	@Test
+	public void testPhTreeI() {
+		for (int dim : new int[]{1, 3, 9}) {
+			checkI(dim, 2000);
+		}
+	}
+
+	private static int[] randomKeyI(Random R, int dim) {
+		int[] key = new int[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt();
+		}
+		return key;
+	}
+
+	private static void checkI(int dim, int n) {
+		Random R = new Random(dim);
+		PhTreeI<Integer> tree = PhTreeI.create(dim);
+		List<int[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			int[] key = randomKeyI(R, dim);
+			if (i == 0) {
+				Arrays.fill(key, Integer.MIN_VALUE);
+			} else if (i == 1) {
+				Arrays.fill(key, Integer.MAX_VALUE);
+			}
+			assertNull(tree.put(key, i));
+			keys.add(key);
+			assertEquals(i, (int) tree.get(key));
+		}
+		assertEquals(n, tree.size());
+
+		//window queries
+		for (int r = 0; r < 20; r++) {
+			int[] a = randomKeyI(R, dim);
+			int[] b = randomKeyI(R, dim);
+			int[] min = new int[dim];
+			int[] max = new int[dim];
+			for (int d = 0; d < dim; d++) {
+				min[d] = Math.min(a[d], b[d]);
+				max[d] = Math.max(a[d], b[d]);
+			}
+			int nExp = 0;
+			for (int[] key : keys) {
+				boolean match = true;
+				for (int d = 0; d < dim; d++) {
+					match &= key[d] >= min[d] && key[d] <= max[d];
+				}
+				nExp += match ? 1 : 0;
+			}
+			List<PhEntryI<Integer>> res = tree.queryAll(min, max);
+			assertEquals(nExp, res.size());
+			for (PhEntryI<Integer> e : res) {
+				assertArrayEquals(keys.get(e.getValue()), e.getKey());
+			}
+			PhQueryI<Integer> q = tree.query(min, max);
+			int nQuery = 0;
+			while (q.hasNext()) {
+				PhEntryI<Integer> e = q.nextEntryReuse();
+				assertArrayEquals(keys.get(e.getValue()), e.getKey());
+				nQuery++;
+			}
+			assertEquals(nExp, nQuery);
+		}
+		int[] all = new int[dim];
+		Arrays.fill(all, Integer.MAX_VALUE);
+		int[] allMin = new int[dim];
+		Arrays.fill(allMin, Integer.MIN_VALUE);
+		assertEquals(n, tree.queryAll(allMin, all).size());
+
+		//kNN: compare distances with brute force
+		for (int r = 0; r < 10; r++) {
+			int[] center = randomKeyI(R, dim);
+			double[] dists = new double[n];
+			for (int i = 0; i < n; i++) {
+				double sum = 0;
+				for (int d = 0; d < dim; d++) {
+					double x = (double) keys.get(i)[d] - center[d];
+					sum += x * x;
+				}
+				dists[i] = Math.sqrt(sum);
+			}
+			Arrays.sort(dists);
+			PhKnnQueryI<Integer> knn = tree.nearestNeighbour(3, center);
+			for (int i = 0; i < 3; i++) {
+				assertTrue(knn.hasNext());
+				PhEntryDistI<Integer> e = knn.nextEntryReuse();
+				assertEquals(dists[i], e.dist(), dists[i] * 1e-9);
+			}
+		}
+
+		//update and remove
+		for (int i = 0; i < n; i += 2) {
+			int[] newKey = keys.get(i).clone();
+			newKey[0] = ~newKey[0];
+			if (tree.contains(newKey)) {
+				continue;
+			}
+			assertEquals(i, (int) tree.update(keys.get(i), newKey));
+			assertFalse(tree.contains(keys.get(i)));
+			keys.set(i, newKey);
+		}
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, (int) tree.remove(keys.get(i)));
+		}
+		assertFalse(tree.queryExtent().hasNext());
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree.PhIterator;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v16.PhTree16;
+
+public class TestCompactKeys {
+
+	private static PhTree16<Integer> newTree(int dim, boolean compact) {
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setCompactKeys(compact);
+		return new PhTree16<>(cfg);
+	}
+
+	@Test
+	public void testConfig() {
+		assertTrue(newTree(3, true).isCompactKeys());
+		assertFalse(newTree(3, false).isCompactKeys());
+		assertFalse(new PhTree16<>(3).isCompactKeys());
+	}
+
+	@Test
+	public void testCompareSmall() {
+		for (int dim : new int[]{1, 2, 3, 8}) {
+			check(dim, 16, 5000);
+		}
+	}
+
+	@Test
+	public void testCompare48bit() {
+		for (int dim : new int[]{2, 8, 12}) {
+			check(dim, 48, 5000);
+		}
+	}
+
+	@Test
+	public void testCompare64bit() {
+		for (int dim : new int[]{3, 8}) {
+			check(dim, 64, 5000);
+		}
+	}
+
+	private static long[] randomKey(Random R, int dim, int bits) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = bits == 64 ? R.nextLong() : R.nextLong() >> (64 - bits);
+		}
+		return key;
+	}
+
+	private static void check(int dim, int bits, int n) {
+		Random R = new Random(dim * 100 + bits);
+		PhTree16<Integer> ref = newTree(dim, false);
+		PhTree16<Integer> tree = newTree(dim, true);
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = randomKey(R, dim, bits);
+			assertEquals(ref.put(key.clone(), i), tree.put(key.clone(), i));
+			keys.add(key);
+			assertEquals(ref.size(), tree.size());
+		}
+		checkEqual(ref, tree, dim, bits, R);
+
+		//updates
+		for (int i = 0; i < n; i += 3) {
+			long[] oldKey = keys.get(i);
+			long[] newKey = oldKey.clone();
+			if (i % 2 == 0) {
+				//small move
+				newKey[0] ^= 1;
+			} else {
+				newKey = randomKey(R, dim, bits);
+			}
+			assertEquals(ref.update(oldKey.clone(), newKey.clone()),
+					tree.update(oldKey.clone(), newKey.clone()));
+			keys.set(i, newKey);
+			assertEquals(ref.size(), tree.size());
+		}
+		checkEqual(ref, tree, dim, bits, R);
+
+		//removal
+		for (int i = 0; i < n; i += 2) {
+			long[] key = keys.get(i);
+			assertEquals(ref.remove(key.clone()), tree.remove(key.clone()));
+			assertEquals(ref.size(), tree.size());
+		}
+		checkEqual(ref, tree, dim, bits, R);
+		for (long[] key : keys) {
+			assertEquals(ref.remove(key.clone()), tree.remove(key.clone()));
+		}
+		assertEquals(ref.size(), tree.size());
+		assertFalse(tree.queryExtent().hasNext());
+	}
+
+	private static void checkEqual(PhTree16<Integer> ref, PhTree16<Integer> tree, int dim,
+			int bits, Random R) {
+		List<PhEntry<Integer>> l1 = toList(ref.queryExtent());
+		List<PhEntry<Integer>> l2 = toList(tree.queryExtent());
+		assertEquals(l1.size(), l2.size());
+		for (int i = 0; i < l1.size(); i++) {
+			assertArrayEquals(l1.get(i).getKey(), l2.get(i).getKey());
+			assertEquals(l1.get(i).getValue(), l2.get(i).getValue());
+			assertEquals(l1.get(i).getValue(), tree.get(l1.get(i).getKey()));
+			assertTrue(tree.contains(l1.get(i).getKey()));
+		}
+		assertEquals(ref.getStats().getNodeCount(), tree.getStats().getNodeCount());
+
+		for (int r = 0; r < 20; r++) {
+			long[] a = randomKey(R, dim, 64);
+			long[] b = randomKey(R, dim, 64);
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				min[d] = Math.min(a[d], b[d]);
+				max[d] = Math.max(a[d], b[d]);
+			}
+			List<PhEntry<Integer>> q1 = ref.queryAll(min, max);
+			List<PhEntry<Integer>> q2 = tree.queryAll(min, max);
+			assertEquals(q1.size(), q2.size());
+			for (int i = 0; i < q1.size(); i++) {
+				assertArrayEquals(q1.get(i).getKey(), q2.get(i).getKey());
+			}
+			assertEquals(toList(ref.query(min, max)).size(), toList(tree.query(min, max)).size());
+
+			//avoid overflow of distances
+			if (bits <= 16 && !l1.isEmpty()) {
+				long[] center = l1.get(R.nextInt(l1.size())).getKey();
+				PhKnnQuery<Integer> k1 = ref.nearestNeighbour(5, center);
+				PhKnnQuery<Integer> k2 = tree.nearestNeighbour(5, center);
+				while (k1.hasNext()) {
+					assertTrue(k2.hasNext());
+					assertEquals(k1.nextEntryReuse().dist(), k2.nextEntryReuse().dist(), 0.0);
+				}
+				assertFalse(k2.hasNext());
+			}
+		}
+	}
+
+	private static List<PhEntry<Integer>> toList(PhIterator<Integer> it) {
+		List<PhEntry<Integer>> list = new ArrayList<>();
+		while (it.hasNext()) {
+			list.add(it.nextEntry());
+		}
+		return list;
+	}
+}
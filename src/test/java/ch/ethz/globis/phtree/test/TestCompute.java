@@ -0,0 +1,204 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeSolidF;
+import ch.ethz.globis.phtree.v16.PhTree16;
+
+public class TestCompute {
+
+	@Test
+	public void testV13() {
+		for (int dim : new int[]{1, 3, 6}) {
+			check(PhTree.create(dim), dim, 16);
+			check(PhTree.create(dim), dim, 64);
+		}
+	}
+
+	@Test
+	public void testV16() {
+		for (int dim : new int[]{8, 10}) {
+			check(PhTree.create(dim), dim, 16);
+			check(PhTree.create(dim), dim, 64);
+		}
+		PhTreeConfig cfg = new PhTreeConfig(3);
+		cfg.setCompactKeys(true);
+		check(new PhTree16<>(cfg), 3, 16);
+	}
+
+	@Test
+	public void testV16HD() {
+		check(PhTree.create(100), 100, 4);
+	}
+
+	@Test
+	public void testSubtreeCounts() {
+		int dim = 4;
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setSubtreeCounts(true);
+		PhTree16<Integer> tree = new PhTree16<>(cfg);
+		check(tree, dim, 8);
+		long[] min = new long[dim];
+		long[] max = new long[dim];
+		Arrays.fill(min, Long.MIN_VALUE);
+		Arrays.fill(max, Long.MAX_VALUE);
+		assertEquals(tree.size(), tree.count(min, max));
+		Arrays.fill(min, 0);
+		Arrays.fill(max, 3);
+		assertEquals(tree.queryAll(min, max).size(), tree.count(min, max));
+	}
+
+	@Test
+	public void testMapSemantics() {
+		for (int dim : new int[]{3, 10, 100}) {
+			PhTree<Integer> tree = PhTree.create(dim);
+			long[] k = new long[dim];
+			assertNull(tree.computeIfPresent(k, (key, v) -> 1));
+			assertEquals(0, tree.size());
+			assertNull(tree.compute(k, (key, v) -> null));
+			assertEquals(0, tree.size());
+			assertEquals(1, (int) tree.computeIfAbsent(k, key -> 1));
+			assertEquals(1, (int) tree.computeIfAbsent(k, key -> 2));
+			assertEquals(1, (int) tree.putIfAbsent(k, 3));
+			assertEquals(5, (int) tree.merge(k, 4, Integer::sum));
+			assertEquals(6, (int) tree.computeIfPresent(k, (key, v) -> v + 1));
+			assertEquals(1, tree.size());
+			assertNull(tree.merge(k, 4, (v1, v2) -> null));
+			assertEquals(0, tree.size());
+			assertNull(tree.putIfAbsent(k, 7));
+			assertEquals(7, (int) tree.get(k));
+
+			//null values are treated as absent, but are not removed by the function
+			long[] k2 = new long[dim];
+			k2[0] = 1;
+			tree.put(k2, null);
+			assertNull(tree.computeIfAbsent(k2, key -> null));
+			assertTrue(tree.contains(k2));
+			assertNull(tree.computeIfPresent(k2, (key, v) -> 1));
+			assertTrue(tree.contains(k2));
+			assertNull(tree.putIfAbsent(k2, 2));
+			assertEquals(2, (int) tree.get(k2));
+			assertEquals(2, tree.size());
+		}
+	}
+
+	@Test
+	public void testPhTreeF() {
+		PhTreeF<Integer> tree = PhTreeF.create(3);
+		double[] k = {1.5, -2, 3};
+		assertEquals(1, (int) tree.computeIfAbsent(k, key -> 1));
+		assertEquals(1, (int) tree.putIfAbsent(k, 2));
+		assertEquals(3, (int) tree.merge(k, 2, Integer::sum));
+		assertEquals(4, (int) tree.compute(k, (key, v) -> v + 1));
+		assertEquals(4, (int) tree.get(k));
+		assertNull(tree.computeIfPresent(k, (key, v) -> null));
+		assertFalse(tree.contains(k));
+		assertEquals(0, tree.size());
+	}
+
+	@Test
+	public void testPhTreeSolidF() {
+		PhTreeSolidF<Integer> tree = PhTreeSolidF.create(2);
+		double[] lo = {1, 2};
+		double[] up = {3, 4.5};
+		assertEquals(1, (int) tree.computeIfAbsent(lo, up, () -> 1));
+		assertEquals(1, (int) tree.putIfAbsent(lo, up, 2));
+		assertEquals(3, (int) tree.merge(lo, up, 2, Integer::sum));
+		assertEquals(4, (int) tree.compute(lo, up, v -> v + 1));
+		assertEquals(4, (int) tree.get(lo, up));
+		assertNull(tree.computeIfPresent(lo, up, v -> null));
+		assertFalse(tree.contains(lo, up));
+		assertEquals(0, tree.size());
+	}
+
+	private static void check(PhTree<Integer> tree, int dim, int bits) {
+		Random R = new Random(dim * 100 + bits);
+		Map<List<Long>, Integer> ref = new HashMap<>();
+		long[][] keys = new long[2000][dim];
+		for (long[] key : keys) {
+			for (int d = 0; d < dim; d++) {
+				key[d] = bits == 64 ? R.nextLong() : R.nextInt(1 << bits);
+			}
+		}
+		for (int i = 0; i < 20000; i++) {
+			long[] key = keys[R.nextInt(keys.length)].clone();
+			Long[] boxed = new Long[dim];
+			for (int d = 0; d < dim; d++) {
+				boxed[d] = key[d];
+			}
+			List<Long> refKey = Arrays.asList(boxed);
+			int x = R.nextInt(10);
+			switch (R.nextInt(6)) {
+			case 0:
+				assertEquals(ref.computeIfAbsent(refKey, k -> x),
+						tree.computeIfAbsent(key, k -> x));
+				break;
+			case 1:
+				assertEquals(ref.computeIfPresent(refKey, (k, v) -> v + x > 12 ? null : v + x),
+						tree.computeIfPresent(key, (k, v) -> v + x > 12 ? null : v + x));
+				break;
+			case 2:
+				assertEquals(ref.compute(refKey, (k, v) -> x == 0 ? null : x),
+						tree.compute(key, (k, v) -> x == 0 ? null : x));
+				break;
+			case 3:
+				assertEquals(ref.putIfAbsent(refKey, x), tree.putIfAbsent(key, x));
+				break;
+			case 4:
+				assertEquals(ref.merge(refKey, x, (v1, v2) -> v1 + v2 > 12 ? null : v1 + v2),
+						tree.merge(key, x, (v1, v2) -> v1 + v2 > 12 ? null : v1 + v2));
+				break;
+			default:
+				assertEquals(ref.remove(refKey), tree.remove(key));
+			}
+			assertEquals(ref.size(), tree.size());
+		}
+
+		for (Map.Entry<List<Long>, Integer> e : ref.entrySet()) {
+			long[] key = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				key[d] = e.getKey().get(d);
+			}
+			assertEquals(e.getValue(), tree.get(key));
+		}
+		int nEntries = 0;
+		for (PhEntry<Integer> e : tree.queryAll(min(dim), max(dim))) {
+			assertTrue(e.getValue() != null);
+			nEntries++;
+		}
+		assertEquals(ref.size(), nEntries);
+	}
+
+	private static long[] min(int dim) {
+		long[] min = new long[dim];
+		Arrays.fill(min, Long.MIN_VALUE);
+		return min;
+	}
+
+	private static long[] max(int dim) {
+		long[] max = new long[dim];
+		Arrays.fill(max, Long.MAX_VALUE);
+		return max;
+	}
+}
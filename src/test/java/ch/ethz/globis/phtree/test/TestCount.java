@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhAggregator;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+
+public class TestCount {
+
+	private static PhTree<Integer> newCountingTree(int dim) {
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setSubtreeCounts(true);
+		return PhTree.create(cfg);
+	}
+
+	@Test
+	public void testCountPlain() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			check(TestUtil.newTree(dim), dim, 0);
+		}
+	}
+
+	@Test
+	public void testCountSubtree() {
+		for (int dim : new int[]{8, 10, 15}) {
+			check(newCountingTree(dim), dim, 1);
+			check(newCountingTree(dim), dim, 2);
+		}
+	}
+
+	private void check(PhTree<Integer> tree, int dim, int seed) {
+		Random R = new Random(seed);
+		int N = 5000;
+		long[][] keys = new long[N][];
+		for (int i = 0; i < N; i++) {
+			keys[i] = randomKey(R, dim);
+			tree.put(keys[i], i);
+		}
+		checkWindows(tree, R, dim);
+
+		//remove and update some entries
+		for (int i = 0; i < N; i += 3) {
+			tree.remove(keys[i]);
+		}
+		for (int i = 1; i < N; i += 3) {
+			long[] newKey = randomKey(R, dim);
+			tree.update(keys[i], newKey);
+			keys[i] = newKey;
+		}
+		//remove non-existing keys
+		for (int i = 0; i < 100; i++) {
+			tree.remove(randomKey(R, dim));
+		}
+		checkWindows(tree, R, dim);
+
+		long[] min = new long[dim];
+		long[] max = new long[dim];
+		for (int i = 0; i < dim; i++) {
+			min[i] = Long.MIN_VALUE;
+			max[i] = Long.MAX_VALUE;
+		}
+		assertEquals(tree.size(), tree.count(min, max));
+	}
+
+	private static long[] randomKey(Random R, int dim) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt(2000) - 1000;
+		}
+		return key;
+	}
+
+	private void checkWindows(PhTree<Integer> tree, Random R, int dim) {
+		for (int i = 0; i < 200; i++) {
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				long a = R.nextInt(2200) - 1100;
+				long b = R.nextInt(2200) - 1100;
+				min[d] = Math.min(a, b);
+				max[d] = Math.max(a, b) + (i % 2 == 0 ? 2000 : 0);
+			}
+			int n = 0;
+			long sum = 0;
+			PhQuery<Integer> q = tree.query(min, max);
+			while (q.hasNext()) {
+				sum += q.nextValue();
+				n++;
+			}
+			assertEquals(n, tree.count(min, max));
+			assertEquals(sum, tree.aggregate(min, max, PhAggregator.sum(v -> v)), 0.0);
+		}
+	}
+
+	@Test
+	public void testMinMax() {
+		PhTree<Integer> tree = newCountingTree(8);
+		long[] min = new long[8];
+		long[] max = new long[8];
+		assertEquals(null, tree.aggregate(min, max, PhAggregator.min(v -> v)));
+		for (int i = 1; i <= 10; i++) {
+			long[] key = new long[8];
+			key[0] = i;
+			tree.put(key, i * 10);
+		}
+		max[0] = 5;
+		assertEquals(10.0, tree.aggregate(min, max, PhAggregator.min(v -> v)), 0.0);
+		assertEquals(50.0, tree.aggregate(min, max, PhAggregator.max(v -> v)), 0.0);
+		assertEquals(5, tree.count(min, max));
+	}
+
+	@Test
+	public void testCountF() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		for (int i = 0; i < 100; i++) {
+			tree.put(new double[]{i * 0.5, -i}, i);
+		}
+		assertEquals(11, tree.count(new double[]{0, -100}, new double[]{5, 0}));
+		assertEquals(55.0, tree.aggregate(new double[]{0, -100}, new double[]{5, 0},
+				PhAggregator.sum(v -> v)), 0.0);
+	}
+}
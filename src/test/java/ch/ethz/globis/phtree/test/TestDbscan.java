@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.cluster.PhDbscan;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+import ch.ethz.globis.phtree.v16.PhTree16;
+
+public class TestDbscan {
+
+	@Test
+	public void testDbscan() {
+		for (int dim : new int[]{2, 3, 8}) {
+			PhTree<Integer> tree = TestUtil.newTree(dim);
+			fill(tree, dim, 3000);
+			PhDbscan.Result<Integer> r1 = new PhDbscan<>(tree, 60, 5, null).run();
+			PhDbscan.Result<Integer> r2 = new PhDbscan<>(tree, 60, 5, null).setParallel(true).run();
+			check(r1, 60, 5, PhDistanceL.THIS);
+			assertTrue(r1.getClusterCount() > 1);
+			assertEquals(r1.size(), r2.size());
+			assertEquals(r1.getClusterCount(), r2.getClusterCount());
+			for (int i = 0; i < r1.size(); i++) {
+				assertEquals(r1.getCluster(i), r2.getCluster(i));
+			}
+		}
+	}
+
+	@Test
+	public void testSubtreeCounts() {
+		for (int dim : new int[]{2, 3}) {
+			PhTreeConfig cfg = new PhTreeConfig(dim);
+			cfg.setSubtreeCounts(true);
+			PhTree<Integer> tree = new PhTree16<>(cfg);
+			fill(tree, dim, 3000);
+			PhTree<Integer> ref = TestUtil.newTree(dim);
+			fill(ref, dim, 3000);
+			PhDbscan.Result<Integer> r1 = new PhDbscan<>(tree, 60, 5, null).run();
+			PhDbscan.Result<Integer> r2 = new PhDbscan<>(ref, 60, 5, null).run();
+			check(r1, 60, 5, PhDistanceL.THIS);
+			assertEquals(r2.getClusterCount(), r1.getClusterCount());
+			for (int i = 0; i < r1.size(); i++) {
+				assertArrayEquals(r2.getKey(i), r1.getKey(i));
+				assertEquals(r2.getCluster(i), r1.getCluster(i));
+				assertEquals(r2.isCore(i), r1.isCore(i));
+				PhEntry<Integer> e = r1.getEntry(i);
+				assertEquals(tree.get(e.getKey()), e.getValue());
+			}
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		PhDbscan.Result<Integer> r = new PhDbscan<>(TestUtil.<Integer>newTree(2), 1, 1, null).run();
+		assertEquals(0, r.size());
+		assertEquals(0, r.getClusterCount());
+	}
+
+	@Test
+	public void testMinPtsOne() {
+		PhTree<Integer> tree = TestUtil.newTree(2);
+		tree.put(new long[]{0, 0}, 0);
+		tree.put(new long[]{1, 0}, 1);
+		tree.put(new long[]{10, 0}, 2);
+		PhDbscan.Result<Integer> r = new PhDbscan<>(tree, 1, 1, null).run();
+		assertEquals(2, r.getClusterCount());
+		for (int i = 0; i < r.size(); i++) {
+			assertTrue(r.isCore(i));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalMinPts() {
+		new PhDbscan<>(TestUtil.<Integer>newTree(2), 1, 0, null);
+	}
+
+	private static void check(PhDbscan.Result<Integer> r, double eps, int minPts, 
+			PhDistance dist) {
+		int n = r.size();
+		//brute force core points
+		boolean[] isCore = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			int nNeighbours = 0;
+			for (int j = 0; j < n; j++) {
+				if (dist.dist(key(r, i), key(r, j)) <= eps) {
+					nNeighbours++;
+				}
+			}
+			isCore[i] = nNeighbours >= minPts;
+			assertEquals(isCore[i], r.isCore(i));
+		}
+		//brute force clusters of core points
+		int[] cluster = new int[n];
+		Arrays.fill(cluster, -1);
+		int nClusters = 0;
+		for (int i = 0; i < n; i++) {
+			if (!isCore[i] || cluster[i] >= 0) {
+				continue;
+			}
+			ArrayDeque<Integer> queue = new ArrayDeque<>();
+			queue.add(i);
+			cluster[i] = nClusters;
+			while (!queue.isEmpty()) {
+				int c = queue.poll();
+				for (int j = 0; j < n; j++) {
+					if (isCore[j] && cluster[j] < 0 && dist.dist(key(r, c), key(r, j)) <= eps) {
+						cluster[j] = nClusters;
+						queue.add(j);
+					}
+				}
+			}
+			nClusters++;
+		}
+		assertEquals(nClusters, r.getClusterCount());
+		for (int i = 0; i < n; i++) {
+			if (isCore[i]) {
+				//clusters are numbered by their first core point, same as brute force
+				assertEquals(cluster[i], r.getCluster(i));
+				continue;
+			}
+			boolean found = false;
+			for (int j = 0; j < n; j++) {
+				if (isCore[j] && dist.dist(key(r, i), key(r, j)) <= eps) {
+					assertEquals(cluster[j], r.getCluster(i));
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				assertEquals(PhDbscan.NOISE, r.getCluster(i));
+			}
+		}
+	}
+
+	private static long[] key(PhDbscan.Result<Integer> r, int i) {
+		return r.getKey(i);
+	}
+
+	private static void fill(PhTree<Integer> tree, int dim, int n) {
+		Random R = new Random(dim);
+		//some gaussian blobs and uniform noise
+		long[][] centers = new long[8][dim];
+		for (long[] c : centers) {
+			for (int d = 0; d < dim; d++) {
+				c[d] = R.nextInt(10000);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[dim];
+			if (i % 5 == 0) {
+				for (int d = 0; d < dim; d++) {
+					key[d] = R.nextInt(10000);
+				}
+			} else {
+				long[] c = centers[R.nextInt(centers.length)];
+				for (int d = 0; d < dim; d++) {
+					key[d] = c[d] + (long) (R.nextGaussian() * 50);
+				}
+			}
+			tree.put(key, i);
+		}
+	}
+}
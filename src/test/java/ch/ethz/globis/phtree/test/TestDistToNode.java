@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceF_L1;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.util.BitTools;
+
+public class TestDistToNode {
+
+	@Test
+	public void testDistL() {
+		Random R = new Random(0);
+		for (int dim = 1; dim <= 13; dim++) {
+			for (int r = 0; r < 1000; r++) {
+				long[] v1 = new long[dim];
+				long[] v2 = new long[dim];
+				double d = 0;
+				for (int i = 0; i < dim; i++) {
+					v1[i] = R.nextInt(2000) - 1000;
+					v2[i] = R.nextInt(2000) - 1000;
+					d += (v1[i] - v2[i]) * (double) (v1[i] - v2[i]);
+				}
+				assertEquals(Math.sqrt(d), PhDistanceL.THIS.dist(v1, v2), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testDistToNodeL() {
+		check(PhDistanceL.THIS, false);
+	}
+
+	@Test
+	public void testDistToNodeF() {
+		check(PhDistanceF.THIS, true);
+	}
+
+	@Test
+	public void testDistToNodeF_L1() {
+		check(PhDistanceF_L1.THIS, true);
+	}
+
+	private static void check(PhDistance dist, boolean isFloat) {
+		Random R = new Random(0);
+		for (int dim = 1; dim <= 13; dim++) {
+			long[] buf = new long[dim];
+			for (int r = 0; r < 1000; r++) {
+				long[] center = new long[dim];
+				long[] prefix = new long[dim];
+				for (int i = 0; i < dim; i++) {
+					center[i] = isFloat ? BitTools.toSortableLong(R.nextDouble()*100 - 50) : R.nextInt(2000);
+					prefix[i] = isFloat ? BitTools.toSortableLong(R.nextDouble()*100 - 50) : R.nextInt(2000);
+				}
+				int bitsToIgnore = isFloat ? 40 + R.nextInt(20) : R.nextInt(12);
+				double dNode = dist.distToNode(center, prefix, bitsToIgnore, buf);
+
+				//compare to clamping + dist()
+				long maskMin = (-1L) << bitsToIgnore;
+				long[] closest = new long[dim];
+				for (int i = 0; i < dim; i++) {
+					long min = prefix[i] & maskMin;
+					long max = prefix[i] | ~maskMin;
+					closest[i] = Math.max(min, Math.min(max, center[i]));
+				}
+				assertEquals(dist.dist(center, closest), dNode, 0.0);
+
+				//lower bound for points in the node
+				for (int j = 0; j < 10; j++) {
+					long[] p = new long[dim];
+					for (int i = 0; i < dim; i++) {
+						p[i] = (prefix[i] & maskMin) | (R.nextLong() & ~maskMin);
+					}
+					assertTrue(dNode <= dist.dist(center, p));
+				}
+			}
+		}
+	}
+}
@@ -20,6 +20,8 @@ import java.util.Random;
 
 import org.junit.Test;
 
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhFilter;
 import ch.ethz.globis.phtree.PhTree;
 import ch.ethz.globis.phtree.PhTree.PhIterator;
 import ch.ethz.globis.phtree.test.util.TestSuper;
@@ -1081,4 +1083,34 @@ public class TestIndexQueries extends TestSuper {
 		assertFalse(it.hasNext());
 	}
 	
+	@Test
+	public void testQueryAllFilter() {
+		for (int dim : new int[]{2, 8}) {
+			PhTree<Integer> ind = TestUtil.newTree(dim);
+			for (int i = 0; i < 100; i++) {
+				long[] key = new long[dim];
+				key[0] = i;
+				ind.put(key, i);
+			}
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			max[0] = 1000;
+			PhFilter filter = new PhFilter() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public boolean isValid(long[] key) {
+					return key[0] % 2 == 0;
+				}
+
+				@Override
+				public boolean isValid(int bitsToIgnore, long[] prefix) {
+					return true;
+				}
+			};
+			List<PhEntry<Integer>> list = ind.queryAll(min, max, Integer.MAX_VALUE, filter, e -> e);
+			assertEquals(50, list.size());
+		}
+	}
+	
 }
@@ -257,4 +257,124 @@ public class TestIndexUpdate extends TestSuper {
         assertEquals(5, (int)phTree.get(key2b));
         assertNull(phTree.get(key2a));
     }
+
+	@Test
+	public void testSmallMoves() {
+		//v13 and v16
+		for (int dim : new int[]{3, 10}) {
+			for (int bits : new int[]{2, 8, 64}) {
+				checkSmallMoves(dim, bits);
+			}
+		}
+	}
+
+	private static long[] randomKey(Random R, int dim, int bits) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = bits == 64 ? R.nextLong() : R.nextInt(1 << bits);
+		}
+		return key;
+	}
+
+	private void checkSmallMoves(int dim, int bits) {
+		Random R = new Random(dim * 100 + bits);
+		PhTree<Integer> tree = create(dim);
+		int n = 2000;
+		long[][] keys = new long[n][];
+		for (int i = 0; i < n; i++) {
+			long[] key = randomKey(R, dim, bits);
+			if (!tree.contains(key)) {
+				tree.put(key, i);
+				keys[i] = key;
+			}
+		}
+		int size = tree.size();
+		for (int r = 0; r < 10; r++) {
+			for (int i = 0; i < n; i++) {
+				if (keys[i] == null) {
+					continue;
+				}
+				//move by one of the lowest bits, i.e. inside a node or to a neighbouring node
+				long[] newKey = keys[i].clone();
+				newKey[R.nextInt(dim)] ^= 1L << R.nextInt(2);
+				if (tree.contains(newKey)) {
+					continue;
+				}
+				assertEquals(i, (int) tree.update(keys[i], newKey));
+				assertFalse(tree.contains(keys[i]));
+				keys[i] = newKey;
+				assertEquals(size, tree.size());
+			}
+		}
+		int nFound = 0;
+		PhTree.PhExtent<Integer> it = tree.queryExtent();
+		while (it.hasNext()) {
+			it.next();
+			nFound++;
+		}
+		assertEquals(size, nFound);
+		for (int i = 0; i < n; i++) {
+			if (keys[i] != null) {
+				assertEquals(i, (int) tree.get(keys[i]));
+			}
+		}
+	}
+
+	@Test
+	public void testUpdateAll() {
+		for (int dim : new int[]{3, 10}) {
+			Random R = new Random(dim);
+			PhTree<Integer> tree = create(dim);
+			PhTree<Integer> ref = create(dim);
+			int n = 5000;
+			long[][] keys = new long[n][];
+			for (int i = 0; i < n; i++) {
+				keys[i] = randomKey(R, dim, 16);
+				tree.put(keys[i].clone(), i);
+				ref.put(keys[i].clone(), i);
+			}
+			int size = tree.size();
+			for (int r = 0; r < 5; r++) {
+				//unique old keys and new keys that do not exist yet
+				long[][] oldKeys = new long[n][];
+				long[][] newKeys = new long[n][];
+				int nMoves = 0;
+				for (int i = 0; i < n; i++) {
+					long[] newKey = keys[i].clone();
+					newKey[0] += R.nextInt(3) - 1;
+					newKey[0] &= 0xFFFF;
+					if (ref.contains(newKey)) {
+						continue;
+					}
+					oldKeys[nMoves] = keys[i];
+					newKeys[nMoves++] = newKey;
+					//apply to reference tree
+					ref.update(keys[i], newKey);
+					keys[i] = newKey;
+				}
+				//add a missing key
+				oldKeys[nMoves] = new long[dim];
+				Arrays.fill(oldKeys[nMoves], -1);
+				newKeys[nMoves++] = new long[dim];
+				assertEquals(nMoves - 1, tree.updateAll(Arrays.copyOf(oldKeys, nMoves), 
+						Arrays.copyOf(newKeys, nMoves)));
+				assertEquals(size, tree.size());
+			}
+			PhTree.PhExtent<Integer> it1 = ref.queryExtent();
+			PhTree.PhExtent<Integer> it2 = tree.queryExtent();
+			while (it1.hasNext()) {
+				assertTrue(it2.hasNext());
+				assertTrue(Arrays.equals(it1.nextKey(), it2.nextKey()));
+			}
+			assertFalse(it2.hasNext());
+			for (int i = 0; i < n; i++) {
+				assertEquals(ref.get(keys[i]), tree.get(keys[i]));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUpdateAllInvalid() {
+		create(3).updateAll(new long[2][3], new long[1][3]);
+	}
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceF_L1;
+import ch.ethz.globis.phtree.PhDistanceF_LInf;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+import ch.ethz.globis.phtree.util.BitTools;
+import ch.ethz.globis.phtree.v16.PhTree16;
+
+public class TestKnnJoin {
+
+	private static final int N = 2000;
+
+	@Test
+	public void testAllNN() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			for (boolean parallel : new boolean[]{false, true}) {
+				PhTree<Integer> tree = TestUtil.newTree(dim);
+				fill(tree, dim, N, dim);
+				checkAllNN(tree, 5, parallel);
+			}
+		}
+		PhTree<Integer> tree = TestUtil.newTreeHD(70);
+		fill(tree, 70, N, 70);
+		checkAllNN(tree, 5, true);
+	}
+
+	private static void checkAllNN(PhTree<Integer> tree, int k, boolean parallel) {
+		ConcurrentHashMap<Integer, double[]> results = new ConcurrentHashMap<>();
+		tree.allNearestNeighbours(k, null, parallel, (e, list) -> {
+			double[] dists = new double[list.size()];
+			for (int i = 0; i < list.size(); i++) {
+				PhEntryDist<Integer> n = list.get(i);
+				assertEquals(PhDistanceL.THIS.dist(e.getKey(), n.getKey()), n.dist(), 0.0);
+				assertEquals(false, Arrays.equals(e.getKey(), n.getKey()));
+				dists[i] = n.dist();
+			}
+			results.put(e.getValue(), dists);
+		});
+		assertEquals(tree.size(), results.size());
+		PhTree.PhExtent<Integer> it = tree.queryExtent();
+		while (it.hasNext()) {
+			PhEntryDist<Integer> e = new PhEntryDist<>(it.nextEntry(), 0);
+			double[] expected = expected(tree, e.getKey(), k + 1, true);
+			assertEquals(Arrays.toString(expected), 
+					Arrays.toString(results.get(e.getValue())));
+		}
+	}
+
+	@Test
+	public void testKnnJoin() {
+		for (int dim : new int[]{2, 3, 8}) {
+			for (boolean parallel : new boolean[]{false, true}) {
+				PhTree<Integer> outer = TestUtil.newTree(dim);
+				PhTree<Integer> inner = TestUtil.newTree(dim);
+				fill(outer, dim, N, 0);
+				fill(inner, dim, N / 2, 1);
+				ConcurrentHashMap<Integer, double[]> results = new ConcurrentHashMap<>();
+				outer.knnJoin(inner, 3, null, parallel, (e, list) -> {
+					double[] dists = new double[list.size()];
+					for (int i = 0; i < list.size(); i++) {
+						dists[i] = list.get(i).dist();
+					}
+					results.put(e.getValue(), dists);
+				});
+				assertEquals(outer.size(), results.size());
+				PhTree.PhExtent<Integer> it = outer.queryExtent();
+				while (it.hasNext()) {
+					PhEntryDist<Integer> e = new PhEntryDist<>(it.nextEntry(), 0);
+					double[] expected = expected(inner, e.getKey(), 3, false);
+					assertEquals(Arrays.toString(expected), 
+							Arrays.toString(results.get(e.getValue())));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testGroupQuery() {
+		for (int dim : new int[]{2, 3, 5}) {
+			for (boolean compact : new boolean[]{false, true}) {
+				PhTreeConfig cfg = new PhTreeConfig(dim);
+				cfg.setCompactKeys(compact);
+				PhTree16<Integer> tree = new PhTree16<>(cfg);
+				fill(tree, dim, N, dim);
+				checkAllNN(tree, 5, compact);
+				checkAllNN(tree, 1, false);
+			}
+		}
+	}
+
+	@Test
+	public void testGroupQueryF() {
+		for (PhDistance dist : new PhDistance[]{
+				PhDistanceF.THIS, PhDistanceF_L1.THIS, PhDistanceF_LInf.THIS}) {
+			PhTree16<Integer> outer = new PhTree16<>(new PhTreeConfig(3));
+			PhTree16<Integer> inner = new PhTree16<>(new PhTreeConfig(3));
+			Random R = new Random(0);
+			for (int i = 0; i < N; i++) {
+				outer.put(randomKeyF(R, 3), i);
+				inner.put(randomKeyF(R, 3), i);
+			}
+			ConcurrentHashMap<Integer, double[]> results = new ConcurrentHashMap<>();
+			outer.knnJoin(inner, 4, dist, false, (e, list) -> {
+				double[] dists = new double[list.size()];
+				for (int i = 0; i < list.size(); i++) {
+					assertEquals(dist.dist(e.getKey(), list.get(i).getKey()), list.get(i).dist(), 0.0);
+					dists[i] = list.get(i).dist();
+				}
+				results.put(e.getValue(), dists);
+			});
+			assertEquals(outer.size(), results.size());
+			PhTree.PhExtent<Integer> it = outer.queryExtent();
+			while (it.hasNext()) {
+				PhEntryDist<Integer> e = new PhEntryDist<>(it.nextEntry(), 0);
+				PhKnnQuery<Integer> q = inner.nearestNeighbour(4, dist, null, e.getKey());
+				double[] expected = new double[4];
+				for (int i = 0; i < expected.length; i++) {
+					expected[i] = q.nextEntry().dist();
+				}
+				assertEquals(Arrays.toString(expected), 
+						Arrays.toString(results.get(e.getValue())));
+			}
+		}
+	}
+
+	@Test
+	public void testKnnJoinEmpty() {
+		PhTree<Integer> outer = TestUtil.newTree(2);
+		PhTree<Integer> inner = TestUtil.newTree(2);
+		outer.put(new long[]{1, 2}, 1);
+		AtomicInteger n = new AtomicInteger();
+		outer.knnJoin(inner, 3, null, false, (e, list) -> {
+			assertEquals(0, list.size());
+			n.incrementAndGet();
+		});
+		assertEquals(1, n.get());
+		outer.allNearestNeighbours(3, null, true, (e, list) -> {
+			assertEquals(0, list.size());
+			n.incrementAndGet();
+		});
+		assertEquals(2, n.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKnnJoinDimMismatch() {
+		TestUtil.newTree(2).knnJoin(TestUtil.newTree(3), 1, null, false, (e, list) -> {});
+	}
+
+	@Test
+	public void testAllNNF() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		for (int i = 0; i < 100; i++) {
+			tree.put(new double[]{i * 0.5, 0}, i);
+		}
+		AtomicInteger n = new AtomicInteger();
+		tree.allNearestNeighbours(2, null, true, (e, list) -> {
+			assertEquals(2, list.size());
+			//the end points have only one neighbour at distance 0.5
+			boolean isEnd = e.getValue() == 0 || e.getValue() == 99;
+			assertEquals(0.5, list.get(0).dist(), 0.0);
+			assertEquals(isEnd ? 1.0 : 0.5, list.get(1).dist(), 0.0);
+			for (int i = 0; i < list.size(); i++) {
+				assertEquals(list.get(i).dist(), 
+						Math.abs(e.getKey()[0] - list.get(i).getKey()[0]), 0.0);
+			}
+			n.incrementAndGet();
+		});
+		assertEquals(100, n.get());
+	}
+
+	private static double[] expected(PhTree<Integer> tree, long[] key, int k, boolean self) {
+		List<Double> list = new ArrayList<>();
+		PhKnnQuery<Integer> q = tree.nearestNeighbour(k, key);
+		while (q.hasNext()) {
+			PhEntryDist<Integer> e = q.nextEntry();
+			if (!self || !Arrays.equals(key, e.getKey())) {
+				list.add(e.dist());
+			}
+		}
+		double[] ret = new double[Math.min(list.size(), self ? k - 1 : k)];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = list.get(i);
+		}
+		return ret;
+	}
+
+	private static long[] randomKeyF(Random R, int dim) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = BitTools.toSortableLong(R.nextDouble() * 100 - 50);
+		}
+		return key;
+	}
+
+	private static void fill(PhTree<Integer> tree, int dim, int n, long seed) {
+		Random R = new Random(seed);
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				key[d] = R.nextInt(10000) - 5000;
+			}
+			tree.put(key, i);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeMovingObjects;
+import ch.ethz.globis.phtree.util.LongHashMap;
+import ch.ethz.globis.phtree.v16.PhTree16;
+import ch.ethz.globis.phtree.v16.PhTree16.UpdateStatus;
+
+public class TestMovingObjects {
+
+	@Test
+	public void testLongHashMap() {
+		Random R = new Random(0);
+		LongHashMap<Long> map = new LongHashMap<>();
+		Map<Long, Long> ref = new HashMap<>();
+		for (int i = 0; i < 200000; i++) {
+			//small key range for many collisions and removals
+			long key = R.nextInt(5000) * (R.nextBoolean() ? 1L : -1L);
+			switch (R.nextInt(4)) {
+			case 0:
+				assertEquals(ref.remove(key), map.remove(key));
+				break;
+			case 1:
+				assertEquals(ref.get(key), map.get(key));
+				assertEquals(ref.containsKey(key), map.containsKey(key));
+				break;
+			default:
+				assertEquals(ref.put(key, (long) i), map.put(key, (long) i));
+			}
+			assertEquals(ref.size(), map.size());
+		}
+		for (Map.Entry<Long, Long> e : ref.entrySet()) {
+			assertEquals(e.getValue(), map.get(e.getKey()));
+		}
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(ref.keySet().iterator().next()));
+	}
+
+	@Test
+	public void testMovingObjects() {
+		for (int dim : new int[]{2, 3, 10, 70}) {
+			check(PhTreeMovingObjects.create(dim), dim);
+		}
+		PhTreeConfig cfg = new PhTreeConfig(10);
+		cfg.setCompactKeys(true);
+		check(PhTreeMovingObjects.create(cfg), 10);
+	}
+
+	@Test
+	public void testUpdateIfAbsent() {
+		for (int dim : new int[]{2, 3, 10}) {
+			PhTreeConfig cfg = new PhTreeConfig(dim);
+			checkUpdateIfAbsent(new PhTree16<>(cfg), dim);
+			cfg.setCompactKeys(true);
+			checkUpdateIfAbsent(new PhTree16<>(cfg), dim);
+			cfg = new PhTreeConfig(dim);
+			cfg.setSubtreeCounts(true);
+			checkUpdateIfAbsent(new PhTree16<>(cfg), dim);
+		}
+	}
+
+	private static void checkUpdateIfAbsent(PhTree16<Integer> tree, int dim) {
+		Random R = new Random(dim);
+		Map<List<Long>, Integer> ref = new HashMap<>();
+		for (int i = 0; i < 20000; i++) {
+			//dense keys for many collisions
+			long[] k1 = randomKey(R, dim, 8);
+			long[] k2 = R.nextInt(10) == 0 ? k1.clone() : randomKey(R, dim, 8);
+			if (R.nextBoolean()) {
+				assertEquals(ref.put(toList(k1), i), tree.put(k1, i));
+				continue;
+			}
+			UpdateStatus expected;
+			if (!ref.containsKey(toList(k1))) {
+				expected = ref.containsKey(toList(k2)) && !Arrays.equals(k1, k2) ? 
+						UpdateStatus.OCCUPIED : UpdateStatus.NOT_FOUND;
+			} else if (ref.containsKey(toList(k2)) && !Arrays.equals(k1, k2)) {
+				expected = UpdateStatus.OCCUPIED;
+			} else {
+				expected = UpdateStatus.UPDATED;
+				ref.put(toList(k2), ref.remove(toList(k1)));
+			}
+			UpdateStatus status = tree.updateIfAbsent(k1, k2);
+			if (expected != UpdateStatus.OCCUPIED) {
+				assertEquals(expected, status);
+			} else {
+				//the old key is not checked if the new key exists
+				assertTrue(status != UpdateStatus.UPDATED);
+			}
+			assertEquals(ref.size(), tree.size());
+		}
+		for (Map.Entry<List<Long>, Integer> e : ref.entrySet()) {
+			long[] k = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				k[d] = e.getKey().get(d);
+			}
+			assertEquals(e.getValue(), tree.get(k));
+		}
+	}
+
+	private static List<Long> toList(long[] key) {
+		List<Long> list = new ArrayList<>();
+		for (long l : key) {
+			list.add(l);
+		}
+		return list;
+	}
+
+	private static long[] randomKey(Random R, int dim, int range) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt(range);
+		}
+		return key;
+	}
+
+	private static long[] randomKey(Random R, int dim) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt(1000);
+		}
+		return key;
+	}
+
+	private static void check(PhTreeMovingObjects<Long> index, int dim) {
+		Random R = new Random(dim);
+		PhTree<Long> tree = index.getInternalTree();
+		Map<Long, long[]> ref = new HashMap<>();
+		int nIds = 2000;
+		for (int i = 0; i < 50000; i++) {
+			long id = R.nextInt(nIds);
+			long[] pos = ref.get(id);
+			switch (R.nextInt(10)) {
+			case 0:
+				assertEquals(pos == null ? null : id, index.remove(id));
+				ref.remove(id);
+				break;
+			case 1: {
+				long[] key = randomKey(R, dim);
+				if (tree.contains(key) && (pos == null || !Arrays.equals(pos, key))) {
+					continue;
+				}
+				assertEquals(pos == null ? null : id, index.put(id, key, id));
+				ref.put(id, key);
+				break;
+			}
+			default: {
+				//small move
+				long[] key = pos == null ? randomKey(R, dim) : pos.clone();
+				key[R.nextInt(dim)] += R.nextInt(5) - 2;
+				boolean occupied = tree.contains(key) && (pos == null || !Arrays.equals(pos, key));
+				assertEquals(pos != null && !occupied, index.move(id, key));
+				if (pos != null && !occupied) {
+					ref.put(id, key);
+				}
+			}
+			}
+			assertEquals(ref.size(), index.size());
+			assertEquals(ref.size(), tree.size());
+		}
+		for (Map.Entry<Long, long[]> e : ref.entrySet()) {
+			assertTrue(index.contains(e.getKey()));
+			assertEquals(e.getKey(), index.get(e.getKey()));
+			assertArrayEquals(e.getValue(), index.getPosition(e.getKey()));
+			assertEquals(e.getKey(), tree.get(e.getValue()));
+		}
+		index.clear();
+		assertEquals(0, index.size());
+		assertFalse(tree.queryExtent().hasNext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutOccupied() {
+		PhTreeMovingObjects<Long> index = PhTreeMovingObjects.create(2);
+		index.put(1, new long[]{1, 2}, 1L);
+		index.put(2, new long[]{1, 2}, 2L);
+	}
+
+	@Test
+	public void testMoveOccupied() {
+		PhTreeMovingObjects<Long> index = PhTreeMovingObjects.create(2);
+		index.put(1, new long[]{1, 2}, 1L);
+		index.put(2, new long[]{3, 4}, 2L);
+		assertFalse(index.move(2, new long[]{1, 2}));
+		assertFalse(index.move(3, new long[]{5, 5}));
+		assertTrue(index.move(2, new long[]{3, 4}));
+		assertTrue(index.move(2, new long[]{3, 5}));
+		assertEquals(2L, (long) index.get(2));
+		assertArrayEquals(new long[]{3, 5}, index.getPosition(2));
+	}
+}
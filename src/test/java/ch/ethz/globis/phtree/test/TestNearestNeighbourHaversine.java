@@ -0,0 +1,143 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistanceF_Haversine;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeF.PhEntryDistF;
+import ch.ethz.globis.phtree.PhTreeF.PhKnnQueryF;
+import ch.ethz.globis.phtree.PhTreeF.PhRangeQueryF;
+import ch.ethz.globis.phtree.util.BitTools;
+
+public class TestNearestNeighbourHaversine {
+
+	private static final PhDistanceF_Haversine DIST = PhDistanceF_Haversine.EARTH;
+	private static final int N = 5000;
+
+	@Test
+	public void testDistance() {
+		//Zurich -> New York, roughly 6320km
+		double d = DIST.dist(toLong(47.3769, 8.5417), toLong(40.7128, -74.0060));
+		assertEquals(6_320_000, d, 20_000);
+		//across the antimeridian
+		d = DIST.dist(toLong(0, 179.5), toLong(0, -179.5));
+		assertEquals(Math.toRadians(1) * PhDistanceF_Haversine.EARTH_RADIUS_M, d, 1e-6);
+		//pole to pole
+		d = DIST.dist(toLong(90, 0), toLong(-90, 123));
+		assertEquals(Math.PI * PhDistanceF_Haversine.EARTH_RADIUS_M, d, 1e-6);
+	}
+
+	@Test
+	public void testKnnAndRange() {
+		Random R = new Random(0);
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		double[][] data = new double[N][];
+		for (int i = 0; i < N; i++) {
+			data[i] = randomPoint(R);
+			tree.put(data[i], i);
+		}
+		double[][] centers = {
+				{89.9, 10}, {-89.5, -170}, {10, 179.9}, {-20, -179.99}, {0, 0}, {60, 180}};
+		for (int r = 0; r < 40; r++) {
+			double[] center = r < centers.length ? centers[r] : randomPoint(R);
+			double[] dists = new double[N];
+			for (int i = 0; i < N; i++) {
+				dists[i] = DIST.dist(toLong(center), toLong(data[i]));
+			}
+			Arrays.sort(dists);
+
+			int k = 10;
+			PhKnnQueryF<Integer> q = tree.nearestNeighbour(k, DIST, center);
+			int n = 0;
+			while (q.hasNext()) {
+				PhEntryDistF<Integer> e = q.nextEntry();
+				assertEquals(dists[n], e.dist(), 0.0);
+				n++;
+			}
+			assertEquals(k, n);
+
+			double range = dists[50];
+			int nExpected = 0;
+			while (dists[nExpected] <= range) {
+				nExpected++;
+			}
+			int nRange = 0;
+			for (PhRangeQueryF<Integer> rq = tree.rangeQuery(range, DIST, center); rq.hasNext(); ) {
+				double[] p = rq.nextKey();
+				assertTrue(DIST.dist(toLong(center), toLong(p)) <= range);
+				nRange++;
+			}
+			assertEquals(nExpected, nRange);
+		}
+	}
+
+	@Test
+	public void testMBB() {
+		Random R = new Random(1);
+		long[] min = new long[2];
+		long[] max = new long[2];
+		for (int r = 0; r < 1000; r++) {
+			double[] center = randomPoint(R);
+			double dist = R.nextDouble() * 3_000_000;
+			DIST.toMBB(dist, toLong(center), min, max);
+			for (int i = 0; i < 100; i++) {
+				double[] p = randomPoint(R);
+				if (DIST.dist(toLong(center), toLong(p)) <= dist) {
+					assertTrue(BitTools.toDouble(min[0]) <= p[0] && p[0] <= BitTools.toDouble(max[0]));
+					assertTrue(BitTools.toDouble(min[1]) <= p[1] && p[1] <= BitTools.toDouble(max[1]));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNodeLowerBound() {
+		Random R = new Random(2);
+		long[] buf = new long[2];
+		for (int r = 0; r < 2000; r++) {
+			long[] center = toLong(randomPoint(R));
+			long[] prefix = toLong(randomPoint(R));
+			int bitsToIgnore = 40 + R.nextInt(12);
+			double dNode = DIST.distToNode(center, prefix, bitsToIgnore, buf);
+			long maskMin = (-1L) << bitsToIgnore;
+			for (int i = 0; i < 50; i++) {
+				long[] p = new long[2];
+				for (int d = 0; d < 2; d++) {
+					p[d] = (prefix[d] & maskMin) | (R.nextLong() & ~maskMin);
+				}
+				double lat = BitTools.toDouble(p[0]);
+				double lon = BitTools.toDouble(p[1]);
+				if (Math.abs(lat) <= 90 && Math.abs(lon) <= 180) {
+					assertTrue(dNode <= DIST.dist(center, p));
+				}
+			}
+		}
+	}
+
+	private static double[] randomPoint(Random R) {
+		//uniform on the sphere
+		double lat = Math.toDegrees(Math.asin(R.nextDouble() * 2 - 1));
+		double lon = R.nextDouble() * 360 - 180;
+		return new double[]{lat, lon};
+	}
+
+	private static long[] toLong(double... p) {
+		long[] l = new long[p.length];
+		for (int d = 0; d < p.length; d++) {
+			l[d] = BitTools.toSortableLong(p[d]);
+		}
+		return l;
+	}
+}
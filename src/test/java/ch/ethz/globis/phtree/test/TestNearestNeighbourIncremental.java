@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeF.PhEntryDistF;
+import ch.ethz.globis.phtree.PhTreeF.PhKnnQueryF;
+import ch.ethz.globis.phtree.PhTreeSolidF;
+import ch.ethz.globis.phtree.PhTreeSolidF.PhEntryDistSF;
+import ch.ethz.globis.phtree.PhTreeSolidF.PhKnnQuerySF;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+
+public class TestNearestNeighbourIncremental {
+
+	@Test
+	public void testIncremental() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			check(TestUtil.newTree(dim), dim);
+		}
+		check(TestUtil.newTreeHD(70), 70);
+	}
+
+	private void check(PhTree<Integer> tree, int dim) {
+		Random R = new Random(dim);
+		int N = 2000;
+		long[][] data = new long[N][];
+		for (int i = 0; i < N; i++) {
+			data[i] = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				data[i][d] = R.nextInt(10000) - 5000;
+			}
+			tree.put(data[i], i);
+		}
+		for (int r = 0; r < 20; r++) {
+			long[] center = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				center[d] = R.nextInt(10000) - 5000;
+			}
+			double[] dists = new double[N];
+			for (int i = 0; i < N; i++) {
+				dists[i] = PhDistanceL.THIS.dist(center, data[i]);
+			}
+			Arrays.sort(dists);
+
+			PhKnnQuery<Integer> q = tree.nearestNeighbourIncremental(null, center);
+			int n = r % 2 == 0 ? N : 50;
+			for (int i = 0; i < n; i++) {
+				PhEntryDist<Integer> e = q.nextEntry();
+				assertEquals(dists[i], e.dist(), 0.0);
+				assertEquals(dists[i], PhDistanceL.THIS.dist(center, data[e.getValue()]), 0.0);
+			}
+			if (n == N) {
+				assertFalse(q.hasNext());
+			}
+		}
+	}
+
+	@Test
+	public void testIncrementalF() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		for (int i = 0; i < 100; i++) {
+			tree.put(new double[]{i, 0}, i);
+		}
+		PhKnnQueryF<Integer> q = tree.nearestNeighbourIncremental(null, 10.2, 0);
+		int[] expected = {10, 11, 9, 12, 8};
+		for (int i = 0; i < expected.length; i++) {
+			PhEntryDistF<Integer> e = q.nextEntry();
+			assertEquals(expected[i], (int) e.getValue());
+			assertEquals(Math.abs(10.2 - expected[i]), e.dist(), 1e-10);
+		}
+	}
+
+	@Test
+	public void testIncrementalSF() {
+		PhTreeSolidF<Integer> tree = PhTreeSolidF.create(2);
+		for (int i = 0; i < 100; i++) {
+			tree.put(new double[]{i, 0}, new double[]{i + 0.5, 1}, i);
+		}
+		PhKnnQuerySF<Integer> q = tree.nearestNeighbourIncremental(null, 10.1, 0.5);
+		PhEntryDistSF<Integer> e = q.nextEntry();
+		assertEquals(10, (int) e.value());
+		int n = 1;
+		while (q.hasNext()) {
+			q.nextEntry();
+			n++;
+		}
+		assertEquals(100, n);
+	}
+}
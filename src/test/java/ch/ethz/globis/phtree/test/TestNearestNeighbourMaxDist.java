@@ -0,0 +1,134 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeF.PhKnnQueryF;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+import ch.ethz.globis.phtree.v11.PhTree11;
+import ch.ethz.globis.phtree.v16.PhQueryKnnHSZ;
+import ch.ethz.globis.phtree.v16.PhTree16;
+import ch.ethz.globis.phtree.v8.PhTree8;
+
+public class TestNearestNeighbourMaxDist {
+
+	private static final int N = 2000;
+
+	@Test
+	public void testMaxDist() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			check(TestUtil.newTree(dim), dim, 1000);
+		}
+		check(TestUtil.newTreeHD(70), 70, 20000);
+	}
+
+	@Test
+	public void testMaxDistDefault() {
+		//trees without native support
+		check(new PhTree8<>(3), 3, 1000);
+		check(new PhTree11<>(5), 5, 1000);
+	}
+
+	@Test
+	public void testHSZ() {
+		int dim = 8;
+		PhTree16<Integer> tree = new PhTree16<>(dim);
+		long[][] data = fill(tree, dim);
+		Random R = new Random(1);
+		PhQueryKnnHSZ<Integer> q = new PhQueryKnnHSZ<>(tree);
+		for (int r = 0; r < 20; r++) {
+			long[] center = randomKey(R, dim);
+			double[] dists = distances(data, center);
+			double maxDist = 3000;
+			q.reset(10, maxDist, PhDistanceL.THIS, center);
+			checkResult(q, dists, 10, maxDist);
+		}
+	}
+
+	private static void check(PhTree<Integer> tree, int dim, double maxDist) {
+		long[][] data = fill(tree, dim);
+		Random R = new Random(dim + 1);
+		for (int r = 0; r < 20; r++) {
+			long[] center = randomKey(R, dim);
+			double[] dists = distances(data, center);
+			for (int k : new int[]{1, 10, 100}) {
+				checkResult(tree.nearestNeighbour(k, maxDist, null, center), dists, k, maxDist);
+			}
+			//without limit
+			checkResult(tree.nearestNeighbour(10, Double.POSITIVE_INFINITY, null, center),
+					dists, 10, Double.POSITIVE_INFINITY);
+			checkResult(tree.nearestNeighbour(10, 0, null, center), dists, 10, 0);
+		}
+	}
+
+	private static void checkResult(PhKnnQuery<Integer> q, double[] dists, int k, double maxDist) {
+		int n = 0;
+		while (q.hasNext()) {
+			PhEntryDist<Integer> e = q.nextEntry();
+			assertEquals(dists[n], e.dist(), 0.0);
+			n++;
+		}
+		int nExpected = 0;
+		while (nExpected < k && nExpected < dists.length && dists[nExpected] <= maxDist) {
+			nExpected++;
+		}
+		assertEquals(nExpected, n);
+	}
+
+	private static long[][] fill(PhTree<Integer> tree, int dim) {
+		Random R = new Random(dim);
+		long[][] data = new long[N][];
+		for (int i = 0; i < N; i++) {
+			data[i] = randomKey(R, dim);
+			tree.put(data[i], i);
+		}
+		return data;
+	}
+
+	private static long[] randomKey(Random R, int dim) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt(10000) - 5000;
+		}
+		return key;
+	}
+
+	private static double[] distances(long[][] data, long[] center) {
+		double[] dists = new double[data.length];
+		for (int i = 0; i < data.length; i++) {
+			dists[i] = PhDistanceL.THIS.dist(center, data[i]);
+		}
+		Arrays.sort(dists);
+		return dists;
+	}
+
+	@Test
+	public void testMaxDistF() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		for (int i = 0; i < 100; i++) {
+			tree.put(new double[]{i, 0}, i);
+		}
+		PhKnnQueryF<Integer> q = tree.nearestNeighbour(10, 2.5, null, 50.2, 0);
+		int[] expected = {50, 51, 49, 52, 48};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], (int) q.nextEntry().getValue());
+		}
+		assertFalse(q.hasNext());
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF_Cosine;
+import ch.ethz.globis.phtree.PhDistanceF_LInf;
+import ch.ethz.globis.phtree.PhDistanceF_Lp;
+import ch.ethz.globis.phtree.PhDistanceF_WeightedL2;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeF.PhEntryDistF;
+import ch.ethz.globis.phtree.PhTreeF.PhKnnQueryF;
+import ch.ethz.globis.phtree.util.BitTools;
+
+public class TestNearestNeighbourMetrics {
+
+	private static final int N = 2000;
+	private static final int K = 20;
+
+	@Test
+	public void testLInf() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			check(dim, PhDistanceF_LInf.THIS, false);
+		}
+	}
+
+	@Test
+	public void testLp() {
+		for (double p : new double[]{1, 1.5, 2, 3}) {
+			for (int dim : new int[]{2, 3, 8}) {
+				check(dim, new PhDistanceF_Lp(p), false);
+			}
+		}
+	}
+
+	@Test
+	public void testWeightedL2() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			double[] w = new double[dim];
+			for (int d = 0; d < dim; d++) {
+				w[d] = 0.1 + d;
+			}
+			check(dim, new PhDistanceF_WeightedL2(w), false);
+		}
+	}
+
+	@Test
+	public void testCosine() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			check(dim, PhDistanceF_Cosine.THIS, true);
+		}
+	}
+
+	@Test
+	public void testCosineValue() {
+		long[] v1 = toLong(1, 0);
+		long[] v2 = toLong(0, 1);
+		long[] v3 = toLong(-1, 0);
+		assertEquals(1, PhDistanceF_Cosine.THIS.dist(v1, v2), 1e-12);
+		assertEquals(2, PhDistanceF_Cosine.THIS.dist(v1, v3), 1e-12);
+		assertEquals(0, PhDistanceF_Cosine.THIS.dist(v1, v1), 0.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLpInvalid() {
+		new PhDistanceF_Lp(0.5);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWeightsInvalid() {
+		new PhDistanceF_WeightedL2(1, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWeightsTooFew() {
+		PhTreeF<Integer> tree = PhTreeF.create(3);
+		tree.put(new double[]{1, 2, 3}, 1);
+		tree.nearestNeighbour(1, new PhDistanceF_WeightedL2(1, 2), 0, 0, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWeightsTooMany() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		tree.rangeQuery(1, new PhDistanceF_WeightedL2(1, 2, 3), 0, 0);
+	}
+
+	private static void check(int dim, PhDistance dist, boolean normalize) {
+		Random R = new Random(dim);
+		PhTreeF<Integer> tree = PhTreeF.create(dim);
+		double[][] data = new double[N][];
+		for (int i = 0; i < N; i++) {
+			data[i] = randomPoint(R, dim, normalize);
+			tree.put(data[i], i);
+		}
+		for (int r = 0; r < 20; r++) {
+			double[] center = randomPoint(R, dim, normalize);
+			long[] lCenter = toLong(center);
+			double[] dists = new double[N];
+			for (int i = 0; i < N; i++) {
+				dists[i] = dist.dist(lCenter, toLong(data[i]));
+			}
+			Arrays.sort(dists);
+
+			PhKnnQueryF<Integer> q = tree.nearestNeighbour(K, dist, center);
+			int n = 0;
+			while (q.hasNext()) {
+				PhEntryDistF<Integer> e = q.nextEntry();
+				assertEquals(dist.toString(), dists[n], e.dist(), 0.0);
+				n++;
+			}
+			assertEquals(K, n);
+
+			//range query with the distance of the k'th neighbour
+			int nExpected = 0;
+			while (nExpected < N && dists[nExpected] <= dists[K-1]) {
+				nExpected++;
+			}
+			int nRange = 0;
+			for (PhTreeF.PhRangeQueryF<Integer> rq = tree.rangeQuery(dists[K-1], dist, center);
+					rq.hasNext(); rq.next()) {
+				nRange++;
+			}
+			assertEquals(nExpected, nRange);
+		}
+	}
+
+	private static double[] randomPoint(Random R, int dim, boolean normalize) {
+		double[] p = new double[dim];
+		double len = 0;
+		for (int d = 0; d < dim; d++) {
+			p[d] = R.nextDouble()*2 - 1;
+			len += p[d]*p[d];
+		}
+		if (normalize) {
+			len = Math.sqrt(len);
+			for (int d = 0; d < dim; d++) {
+				p[d] /= len;
+			}
+		}
+		return p;
+	}
+
+	private static long[] toLong(double... p) {
+		long[] l = new long[p.length];
+		for (int d = 0; d < p.length; d++) {
+			l[d] = BitTools.toSortableLong(p[d]);
+		}
+		return l;
+	}
+}
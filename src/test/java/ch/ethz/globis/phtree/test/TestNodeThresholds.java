@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.util.PhTreeStats;
+import ch.ethz.globis.phtree.v13.Node;
+import ch.ethz.globis.phtree.v13.NodeThresholds;
+import ch.ethz.globis.phtree.v13.PhTree13;
+
+public class TestNodeThresholds {
+
+	@Test
+	public void testDefault() {
+		PhTree13<Integer> tree = new PhTree13<>(3);
+		assertEquals(Node.AHC_LHC_BIAS, tree.getNodeThresholds().ahcLhcBias(), 0.0);
+		assertEquals(Node.NT_THRESHOLD, tree.getNodeThresholds().ntThreshold());
+		PhTreeStats s = tree.getStats();
+		assertEquals(0, s.getLhcToAhcCount());
+		assertEquals(0, s.getToNtCount());
+	}
+
+	@Test
+	public void testThresholds() {
+		for (int dim : new int[]{3, 5, 8}) {
+			for (double bias : new double[]{0, 0.5, 2, 10}) {
+				for (int nt : new int[]{8, 20, 150}) {
+					PhTreeConfig cfg = new PhTreeConfig(dim);
+					cfg.setNodeThresholds(bias, nt, nt/4);
+					PhTree13<Integer> tree = new PhTree13<>(cfg);
+					assertEquals(bias, tree.getNodeThresholds().ahcLhcBias(), 0.0);
+					assertEquals(nt, tree.getNodeThresholds().ntThreshold());
+					check(tree, dim, 5000);
+					if (bias == 0) {
+						assertEquals(0, tree.getStats().getLhcToAhcCount());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testConversionCounters() {
+		PhTreeConfig cfg = new PhTreeConfig(4);
+		cfg.setNodeThresholds(2.0, 12, 2);
+		PhTree13<Integer> tree = new PhTree13<>(cfg);
+		check(tree, 4, 5000);
+		PhTreeStats s = tree.getStats();
+		assertTrue(s.getLhcToAhcCount() > 0);
+		assertTrue(s.getAhcToLhcCount() > 0);
+		assertTrue(s.getToNtCount() > 0);
+		assertTrue(s.getFromNtCount() > 0);
+		assertEquals(tree.getNodeThresholds().getToNtCount(), s.getToNtCount());
+	}
+
+	@Test
+	public void testAdaptive() {
+		int dim = 5;
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setNodeThresholds(0, 16, 2);
+		cfg.setAdaptiveNodeThresholds(true);
+		PhTree13<Integer> tree = new PhTree13<>(cfg);
+		NodeThresholds th = tree.getNodeThresholds();
+		assertTrue(th.isAdaptive());
+		assertEquals(1, th.scale());
+
+		//all keys end up in one node with 32 slots
+		for (int i = 0; i < 12; i++) {
+			assertNull(tree.put(key(i, dim), i));
+		}
+		//write-only workload where the node flips between NT and LHC
+		for (int r = 0; r < 100; r++) {
+			for (int i = 12; i < 32; i++) {
+				assertNull(tree.put(key(i, dim), i));
+			}
+			for (int i = 31; i >= 12; i--) {
+				assertEquals(i, (int) tree.remove(key(i, dim)));
+			}
+		}
+		assertTrue(th.scale() > 1);
+		assertTrue(tree.getStats().getToNtCount() < 100);
+
+		//read-heavy workload
+		int scale = th.scale();
+		for (int r = 0; r < 1000; r++) {
+			for (int j = 0; j < 3; j++) {
+				for (int i = 0; i < 12; i++) {
+					assertEquals(i, (int) tree.get(key(i, dim)));
+				}
+			}
+			tree.put(key(20, dim), 20);
+			tree.remove(key(20, dim));
+		}
+		assertTrue(th.scale() < scale);
+		check(tree, dim, 1000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBias() {
+		new NodeThresholds(-1, 150, 30, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidNt() {
+		new NodeThresholds(2, 4, 1, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidHysteresis() {
+		new NodeThresholds(2, 150, 100, false);
+	}
+
+	private static long[] key(int i, int dim) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = (i >>> d) & 1;
+		}
+		return key;
+	}
+
+	private static void check(PhTree13<Integer> tree, int dim, int n) {
+		Random R = new Random(0);
+		long[][] keys = new long[n][];
+		int size = tree.size();
+		for (int i = 0; i < n; i++) {
+			keys[i] = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				keys[i][d] = R.nextInt(16);
+			}
+			if (tree.contains(keys[i])) {
+				keys[i] = null;
+			} else {
+				assertNull(tree.put(keys[i], i));
+				size++;
+			}
+			assertEquals(size, tree.size());
+		}
+		for (int i = 0; i < n; i++) {
+			if (keys[i] != null) {
+				assertEquals(i, (int) tree.get(keys[i]));
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			if (keys[i] != null) {
+				assertEquals(i, (int) tree.remove(keys[i]));
+				assertNull(tree.get(keys[i]));
+				size--;
+				assertEquals(size, tree.size());
+			}
+		}
+	}
+}
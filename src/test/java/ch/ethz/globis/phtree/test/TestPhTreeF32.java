@@ -0,0 +1,223 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeF32;
+import ch.ethz.globis.phtree.PhTreeF32.PhEntryDistF32;
+import ch.ethz.globis.phtree.PhTreeF32.PhEntryF32;
+import ch.ethz.globis.phtree.PhTreeF32.PhKnnQueryF32;
+import ch.ethz.globis.phtree.PhTreeF32.PhQueryF32;
+import ch.ethz.globis.phtree.PhTreeF32.PhRangeQueryF32;
+import ch.ethz.globis.phtree.PhTreeI;
+import ch.ethz.globis.phtree.pre.PreProcessorPointF32;
+import ch.ethz.globis.phtree.util.BitTools;
+
+public class TestPhTreeF32 {
+
+	@Test
+	public void testSortable() {
+		float[] values = {Float.NEGATIVE_INFINITY, -Float.MAX_VALUE, -1e10f, -1, -Float.MIN_VALUE, 
+				0, Float.MIN_VALUE, 1, 1e10f, Float.MAX_VALUE, Float.POSITIVE_INFINITY};
+		long prev = -1;
+		for (float f : values) {
+			long l = BitTools.toSortableUInt32(f);
+			assertTrue(l > prev);
+			assertTrue(l < (1L << 32));
+			assertEquals(f, BitTools.fromSortableUInt32(l), 0.0f);
+			prev = l;
+		}
+	}
+
+	@Test
+	public void testDepth() {
+		assertEquals(32, PhTreeF32.create(3).getInternalTree().getBitDepth());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyDims() {
+		PhTreeF32.create(PhTreeI.MAX_DIM + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrap64() {
+		PhTreeF32.wrap(PhTree.create(3));
+	}
+
+	@Test
+	public void testSpecialValues() {
+		PhTreeF32<Integer> tree = PhTreeF32.create(2);
+		float[][] keys = {{Float.NEGATIVE_INFINITY, 0}, {Float.POSITIVE_INFINITY, -0.5f}, 
+				{-Float.MAX_VALUE, Float.MAX_VALUE}};
+		for (int i = 0; i < keys.length; i++) {
+			assertNull(tree.put(keys[i], i));
+		}
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(i, (int) tree.get(keys[i]));
+		}
+		float[] min = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		float[] max = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+		assertEquals(keys.length, tree.queryAll(min, max).size());
+	}
+
+	@Test
+	public void testCompare() {
+		for (int dim : new int[]{1, 2, 3, 10}) {
+			check(PhTreeF32.create(dim), dim, 3000);
+		}
+	}
+
+	@Test
+	public void testMultiply() {
+		for (int dim : new int[]{2, 9}) {
+			check(PhTreeF32.create(dim, new PreProcessorPointF32.Multiply(1000)), dim, 2000);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMultiplyOutOfRange() {
+		PhTreeF32<Integer> tree = PhTreeF32.create(2, new PreProcessorPointF32.Multiply(1000));
+		tree.put(new float[]{1e10f, 0}, 0);
+	}
+
+	private static float[] normalize(float[] key, PreProcessorPointF32 pre) {
+		//return the key as the tree stores it
+		long[] l = new long[key.length];
+		pre.pre(key, l);
+		pre.post(l, key);
+		return key;
+	}
+
+	private static float[] randomKey(Random R, int dim) {
+		float[] key = new float[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = (R.nextFloat() - 0.5f) * 1000;
+		}
+		return key;
+	}
+
+	private static double dist(float[] a, float[] b) {
+		double sum = 0;
+		for (int d = 0; d < a.length; d++) {
+			double x = (double) a[d] - b[d];
+			sum += x * x;
+		}
+		return Math.sqrt(sum);
+	}
+
+	private static void check(PhTreeF32<Integer> tree, int dim, int n) {
+		Random R = new Random(dim);
+		PreProcessorPointF32 pre = tree.getPreprocessor();
+		List<float[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			float[] key = normalize(randomKey(R, dim), pre);
+			if (tree.contains(key)) {
+				continue;
+			}
+			assertNull(tree.put(key, keys.size()));
+			keys.add(key);
+		}
+		assertEquals(keys.size(), tree.size());
+		for (int i = 0; i < keys.size(); i++) {
+			assertEquals(i, (int) tree.get(keys.get(i)));
+		}
+
+		//window queries
+		for (int r = 0; r < 20; r++) {
+			float[] a = normalize(randomKey(R, dim), pre);
+			float[] b = normalize(randomKey(R, dim), pre);
+			float[] min = new float[dim];
+			float[] max = new float[dim];
+			for (int d = 0; d < dim; d++) {
+				min[d] = Math.min(a[d], b[d]);
+				max[d] = Math.max(a[d], b[d]);
+			}
+			int nExp = 0;
+			for (float[] key : keys) {
+				boolean match = true;
+				for (int d = 0; d < dim; d++) {
+					match &= key[d] >= min[d] && key[d] <= max[d];
+				}
+				nExp += match ? 1 : 0;
+			}
+			List<PhEntryF32<Integer>> res = tree.queryAll(min, max);
+			assertEquals(nExp, res.size());
+			for (PhEntryF32<Integer> e : res) {
+				assertArrayEquals(keys.get(e.getValue()), e.getKey(), 0.0f);
+			}
+			PhQueryF32<Integer> q = tree.query(min, max);
+			int nQuery = 0;
+			while (q.hasNext()) {
+				PhEntryF32<Integer> e = q.nextEntryReuse();
+				assertArrayEquals(keys.get(e.getValue()), e.getKey(), 0.0f);
+				nQuery++;
+			}
+			assertEquals(nExp, nQuery);
+		}
+
+		//kNN and range queries
+		for (int r = 0; r < 20; r++) {
+			float[] center = normalize(randomKey(R, dim), pre);
+			double[] dists = new double[keys.size()];
+			for (int i = 0; i < keys.size(); i++) {
+				dists[i] = dist(keys.get(i), center);
+			}
+			Arrays.sort(dists);
+			PhKnnQueryF32<Integer> knn = tree.nearestNeighbour(10, center);
+			for (int i = 0; i < 10; i++) {
+				assertTrue(knn.hasNext());
+				PhEntryDistF32<Integer> e = knn.nextEntryReuse();
+				assertEquals(dists[i], e.dist(), 1e-9);
+				assertEquals(e.dist(), dist(e.getKey(), center), 1e-9);
+			}
+
+			//avoid rounding issues at the boundary
+			double range = dists[Math.min(20, dists.length - 1)] + 1e-6;
+			int nExp = 0;
+			for (double d : dists) {
+				nExp += d <= range ? 1 : 0;
+			}
+			PhRangeQueryF32<Integer> rq = tree.rangeQuery(range, center);
+			int nRange = 0;
+			while (rq.hasNext()) {
+				assertTrue(dist(rq.nextKey(), center) <= range);
+				nRange++;
+			}
+			assertEquals(nExp, nRange);
+		}
+
+		//update and remove
+		for (int i = 0; i < keys.size(); i += 2) {
+			float[] newKey = keys.get(i).clone();
+			newKey[0] = -newKey[0];
+			newKey = normalize(newKey, pre);
+			if (tree.contains(newKey)) {
+				continue;
+			}
+			assertEquals(i, (int) tree.update(keys.get(i), newKey));
+			assertFalse(tree.contains(keys.get(i)));
+			keys.set(i, newKey);
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			assertEquals(i, (int) tree.remove(keys.get(i)));
+		}
+		assertFalse(tree.queryExtent().hasNext());
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeF.PhQueryF;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+import ch.ethz.globis.phtree.v11.PhTree11;
+import ch.ethz.globis.phtree.v16.PhTree16;
+import ch.ethz.globis.phtree.v8.PhTree8;
+
+public class TestQueryResume {
+
+	@Test
+	public void testPaging() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			check(TestUtil.newTree(dim), dim);
+		}
+		check(TestUtil.newTreeHD(70), 70);
+	}
+
+	@Test
+	public void testPagingDefault() {
+		check(new PhTree8<>(3), 3);
+		check(new PhTree11<>(5), 5);
+	}
+
+	/**
+	 * Dense keys result in large nodes, AHC in v13 and multiple BST pages in v16.
+	 */
+	@Test
+	public void testPagingDense() {
+		check(TestUtil.newTree(3), 3, 16);
+		check(TestUtil.newTree(6), 6, 4);
+		check(TestUtil.newTree(10), 10, 2);
+		PhTreeConfig cfg = new PhTreeConfig(10);
+		cfg.setBstPageSizes(4, 4);
+		check(new PhTree16<>(cfg), 10, 2);
+	}
+
+	private static void check(PhTree<Integer> tree, int dim) {
+		check(tree, dim, 2000);
+	}
+
+	private static void check(PhTree<Integer> tree, int dim, int range) {
+		Random R = new Random(dim);
+		for (int i = 0; i < 2000; i++) {
+			tree.put(randomKey(R, dim, range), i);
+		}
+		for (int r = 0; r < 10; r++) {
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				long a = R.nextInt(range) - range / 2;
+				long b = R.nextInt(range) - range / 2;
+				min[d] = r == 0 ? Long.MIN_VALUE : Math.min(a, b);
+				max[d] = r == 0 ? Long.MAX_VALUE : Math.max(a, b);
+			}
+			List<PhEntry<Integer>> expected = new ArrayList<>();
+			PhQuery<Integer> q = tree.query(min, max);
+			while (q.hasNext()) {
+				expected.add(q.nextEntry());
+			}
+			for (int i = 1; i < expected.size(); i++) {
+				assertTrue(PhTreeHelper.compareZOrder(
+						expected.get(i - 1).getKey(), expected.get(i).getKey()) < 0);
+			}
+
+			//page through the results
+			List<PhEntry<Integer>> result = new ArrayList<>();
+			int pageSize = 7;
+			q = tree.query(min, max);
+			while (true) {
+				int n = 0;
+				while (q.hasNext() && n < pageSize) {
+					result.add(q.nextEntry());
+					n++;
+				}
+				if (n < pageSize) {
+					break;
+				}
+				long[] cursor = result.get(result.size() - 1).getKey();
+				q = tree.query(min, max, cursor);
+			}
+			assertEquals(expected.size(), result.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertArrayEquals(expected.get(i).getKey(), result.get(i).getKey());
+			}
+
+			//resume after keys that are not in the tree
+			long[] after = randomKey(R, dim, range);
+			q = tree.query(min, max, after);
+			int pos = 0;
+			while (pos < expected.size() 
+					&& PhTreeHelper.compareZOrder(expected.get(pos).getKey(), after) <= 0) {
+				pos++;
+			}
+			while (q.hasNext()) {
+				assertArrayEquals(expected.get(pos++).getKey(), q.nextKey());
+			}
+			assertEquals(expected.size(), pos);
+		}
+	}
+
+	@Test
+	public void testPagingF() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		for (int i = 0; i < 100; i++) {
+			tree.put(new double[]{i - 50.5, 50.5 - i}, i);
+		}
+		double[] min = {-100, -100};
+		double[] max = {100, 100};
+		PhQueryF<Integer> q = tree.query(min, max);
+		List<Integer> expected = new ArrayList<>();
+		while (q.hasNext()) {
+			expected.add(q.nextValue());
+		}
+		List<Integer> result = new ArrayList<>();
+		double[] cursor = null;
+		do {
+			q = cursor == null ? tree.query(min, max) : tree.query(min, max, cursor);
+			cursor = null;
+			for (int n = 0; n < 10 && q.hasNext(); n++) {
+				PhTreeF.PhEntryF<Integer> e = q.nextEntry();
+				result.add(e.getValue());
+				cursor = e.getKey();
+			}
+		} while (cursor != null);
+		assertEquals(expected, result);
+	}
+
+	private static long[] randomKey(Random R, int dim, int range) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt(range) - range / 2;
+		}
+		return key;
+	}
+}
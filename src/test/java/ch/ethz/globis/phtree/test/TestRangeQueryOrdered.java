@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhRangeQuery;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeF.PhEntryDistF;
+import ch.ethz.globis.phtree.PhTreeF.PhKnnQueryF;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+import ch.ethz.globis.phtree.v11.PhTree11;
+
+public class TestRangeQueryOrdered {
+
+	@Test
+	public void testOrdered() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			check(TestUtil.newTree(dim), dim);
+		}
+		check(TestUtil.newTreeHD(70), 70);
+		//tree without native support
+		check(new PhTree11<>(3), 3);
+	}
+
+	private static void check(PhTree<Integer> tree, int dim) {
+		Random R = new Random(dim);
+		for (int i = 0; i < 2000; i++) {
+			tree.put(randomKey(R, dim), i);
+		}
+		double range = dim < 60 ? 2000 : 25000;
+		for (int r = 0; r < 20; r++) {
+			long[] center = randomKey(R, dim);
+			List<Integer> expected = new ArrayList<>();
+			PhRangeQuery<Integer> rq = tree.rangeQuery(range, center);
+			while (rq.hasNext()) {
+				expected.add(rq.nextValue());
+			}
+
+			PhKnnQuery<Integer> q = tree.rangeQueryOrdered(range, null, center);
+			List<Integer> result = new ArrayList<>();
+			double prev = 0;
+			while (q.hasNext()) {
+				PhEntryDist<Integer> e = q.nextEntry();
+				assertTrue(e.dist() >= prev);
+				assertTrue(e.dist() <= range);
+				assertEquals(PhDistanceL.THIS.dist(center, e.getKey()), e.dist(), 0.0);
+				prev = e.dist();
+				result.add(e.getValue());
+			}
+			Collections.sort(expected);
+			Collections.sort(result);
+			assertEquals(expected, result);
+		}
+	}
+
+	@Test
+	public void testEarlyTermination() {
+		PhTree<Integer> tree = TestUtil.newTree(2);
+		for (int i = 0; i < 1000; i++) {
+			tree.put(new long[]{i, 0}, i);
+		}
+		PhKnnQuery<Integer> q = tree.rangeQueryOrdered(1000, null, 500, 0);
+		assertEquals(500, (int) q.nextValue());
+		PhEntryDist<Integer> e = q.nextEntry();
+		assertEquals(1.0, e.dist(), 0.0);
+	}
+
+	@Test
+	public void testOrderedF() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		for (int i = 0; i < 100; i++) {
+			tree.put(new double[]{i, 0}, i);
+		}
+		PhKnnQueryF<Integer> q = tree.rangeQueryOrdered(1.5, null, 50.2, 0);
+		int[] expected = {50, 51, 49};
+		for (int i = 0; i < expected.length; i++) {
+			PhEntryDistF<Integer> e = q.nextEntry();
+			assertEquals(expected[i], (int) e.getValue());
+			assertEquals(Math.abs(50.2 - expected[i]), e.dist(), 1e-10);
+		}
+		assertFalse(q.hasNext());
+	}
+
+	private static long[] randomKey(Random R, int dim) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt(10000) - 5000;
+		}
+		return key;
+	}
+}
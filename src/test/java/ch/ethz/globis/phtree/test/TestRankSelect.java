@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.util.BitsLong;
+import ch.ethz.globis.phtree.v16.PhTree16;
+
+public class TestRankSelect {
+
+	private static PhTree16<Integer> newTree(int dim) {
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setSubtreeCounts(true);
+		return new PhTree16<>(cfg);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testNotEnabled() {
+		new PhTree16<Integer>(3).rank(1, 2, 3);
+	}
+
+	@Test
+	public void testCompareZOrder() {
+		assertEquals(0, PhTreeHelper.compareZOrder(new long[]{1, 2}, new long[]{1, 2}));
+		assertTrue(PhTreeHelper.compareZOrder(new long[]{1, 2}, new long[]{2, 1}) < 0);
+		assertTrue(PhTreeHelper.compareZOrder(new long[]{1, 0}, new long[]{0, 1}) > 0);
+		//negative values are ordered after positive values
+		assertTrue(PhTreeHelper.compareZOrder(new long[]{-1, 0}, new long[]{5, 0}) > 0);
+	}
+
+	@Test
+	public void testRankSelect() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			Random R = new Random(dim);
+			PhTree16<Integer> tree = newTree(dim);
+			List<long[]> keys = new ArrayList<>();
+			for (int i = 0; i < 10000; i++) {
+				long[] key = randomKey(R, dim);
+				keys.add(key);
+				tree.put(key, i);
+			}
+			check(tree, R);
+
+			for (int i = 0; i < keys.size(); i += 2) {
+				tree.remove(keys.get(i));
+			}
+			for (int i = 1; i < keys.size(); i += 4) {
+				tree.update(keys.get(i), randomKey(R, dim));
+			}
+			check(tree, R);
+		}
+	}
+
+	/**
+	 * Large nodes with splitting and merging of BST pages.
+	 */
+	@Test
+	public void testDenseNode() {
+		for (int dim : new int[]{8, 10}) {
+			Random R = new Random(dim);
+			PhTree16<Integer> tree = newTree(dim);
+			for (int r = 0; r < 20; r++) {
+				for (int i = 0; i < 1000; i++) {
+					long[] key = new long[dim];
+					for (int d = 0; d < dim; d++) {
+						key[d] = R.nextInt(2);
+					}
+					if (r % 4 == 3) {
+						tree.remove(key);
+					} else {
+						tree.put(key, i);
+					}
+				}
+				check(tree, R);
+			}
+		}
+	}
+
+	private static long[] randomKey(Random R, int dim) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt(64) - 32;
+		}
+		return key;
+	}
+
+	private void check(PhTree16<Integer> tree, Random R) {
+		List<PhEntry<Integer>> all = new ArrayList<>();
+		PhExtent<Integer> it = tree.queryExtent();
+		while (it.hasNext()) {
+			all.add(it.nextEntry());
+		}
+		assertEquals(tree.size(), all.size());
+		for (int i = 0; i < all.size(); i++) {
+			PhEntry<Integer> e = tree.select(i);
+			assertArrayEquals(all.get(i).getKey(), e.getKey());
+			assertEquals(all.get(i).getValue(), e.getValue());
+			assertEquals(i, tree.rank(e.getKey()));
+		}
+		for (int i = 0; i < 1000; i++) {
+			long[] key = randomKey(R, tree.getDim());
+			int n = 0;
+			while (n < all.size() && PhTreeHelper.compareZOrder(all.get(n).getKey(), key) < 0) {
+				n++;
+			}
+			assertEquals(n, tree.rank(key));
+		}
+	}
+
+	@Test
+	public void testSample() {
+		int dim = 3;
+		Random R = new Random(0);
+		PhTree16<Integer> tree = newTree(dim);
+		for (int i = 0; i < 20000; i++) {
+			tree.put(randomKey(R, dim), i);
+		}
+		long[] min = {-10, -20, 0};
+		long[] max = {20, 10, 30};
+		int n = tree.count(min, max);
+		assertEquals(n, tree.queryAll(min, max).size());
+
+		//sample everything
+		List<PhEntry<Integer>> sample = tree.sample(min, max, n + 10, R);
+		assertEquals(n, sample.size());
+		checkSample(sample, min, max);
+
+		for (int i = 0; i < 20; i++) {
+			sample = tree.sample(min, max, 100, R);
+			assertEquals(100, sample.size());
+			checkSample(sample, min, max);
+		}
+	}
+
+	private void checkSample(List<PhEntry<Integer>> sample, long[] min, long[] max) {
+		Set<Integer> values = new HashSet<>();
+		for (int i = 0; i < sample.size(); i++) {
+			PhEntry<Integer> e = sample.get(i);
+			assertTrue(BitsLong.checkRange(e.getKey(), min, max));
+			assertTrue(values.add(e.getValue()));
+			if (i > 0) {
+				assertTrue(PhTreeHelper.compareZOrder(sample.get(i - 1).getKey(), e.getKey()) < 0);
+			}
+		}
+	}
+
+	@Test
+	public void testEstimateCount() {
+		int dim = 3;
+		Random R = new Random(0);
+		PhTree16<Integer> tree = newTree(dim);
+		for (int i = 0; i < 20000; i++) {
+			long[] key = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				key[d] = R.nextInt(1 << 20);
+			}
+			tree.put(key, i);
+		}
+		long[] min = {0, 0, 0};
+		long[] max = {(1 << 20) - 1, (1 << 20) - 1, (1 << 20) - 1};
+		assertEquals(tree.size(), tree.estimateCount(min, max), 0.0);
+
+		max = new long[]{(1 << 19) - 1, (1 << 20) - 1, (1 << 18)};
+		int n = tree.count(min, max);
+		double est = tree.estimateCount(min, max);
+		assertTrue(est + " / " + n, Math.abs(est - n) < n * 0.2);
+	}
+}
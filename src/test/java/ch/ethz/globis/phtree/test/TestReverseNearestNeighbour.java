@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceF_L1;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeF.PhEntryDistF;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+import ch.ethz.globis.phtree.util.BitTools;
+
+public class TestReverseNearestNeighbour {
+
+	private static final int N = 1000;
+
+	@Test
+	public void testRkNN() {
+		for (int dim : new int[]{2, 3, 8, 10}) {
+			check(TestUtil.newTree(dim), dim, PhDistanceL.THIS);
+		}
+		check(TestUtil.newTreeHD(62), 62, PhDistanceL.THIS);
+	}
+
+	private static void check(PhTree<Integer> tree, int dim, PhDistance dist) {
+		Random R = new Random(dim);
+		long[][] data = new long[N][];
+		for (int i = 0; i < N; i++) {
+			data[i] = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				data[i][d] = R.nextInt(1000);
+			}
+			if (tree.put(data[i], i) != null) {
+				i--;
+			}
+		}
+		for (int r = 0; r < 10; r++) {
+			long[] center = r % 2 == 0 ? data[R.nextInt(N)] : new long[dim];
+			if (r % 2 != 0) {
+				for (int d = 0; d < dim; d++) {
+					center[d] = R.nextInt(1000);
+				}
+			}
+			for (int k : new int[]{1, 3, 10}) {
+				List<Integer> expected = bruteForce(data, center, k, dist);
+				List<Integer> result = new ArrayList<>();
+				for (PhEntryDist<Integer> e : tree.reverseNearestNeighbour(k, dist, center)) {
+					assertEquals(dist.dist(center, e.getKey()), e.dist(), 0.0);
+					result.add(e.getValue());
+				}
+				Collections.sort(result);
+				assertEquals("dim=" + dim + " k=" + k, expected, result);
+			}
+		}
+	}
+
+	private static List<Integer> bruteForce(long[][] data, long[] center, int k, PhDistance dist) {
+		List<Integer> result = new ArrayList<>();
+		for (int i = 0; i < data.length; i++) {
+			double dCenter = dist.dist(data[i], center);
+			int nCloser = 0;
+			for (int j = 0; j < data.length && nCloser < k; j++) {
+				if (i != j && dist.dist(data[i], data[j]) < dCenter) {
+					nCloser++;
+				}
+			}
+			if (nCloser < k) {
+				result.add(i);
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testRkNNF() {
+		for (PhDistance dist : new PhDistance[]{PhDistanceF.THIS, PhDistanceF_L1.THIS}) {
+			Random R = new Random(0);
+			PhTreeF<Integer> tree = PhTreeF.create(2);
+			long[][] data = new long[N][];
+			for (int i = 0; i < N; i++) {
+				double[] p = {R.nextDouble() * 2 - 1, R.nextDouble() * 2 - 1};
+				tree.put(p, i);
+				data[i] = new long[]{BitTools.toSortableLong(p[0]), BitTools.toSortableLong(p[1])};
+			}
+			for (int r = 0; r < 10; r++) {
+				double[] center = {R.nextDouble() * 2 - 1, R.nextDouble() * 2 - 1};
+				long[] lCenter = {BitTools.toSortableLong(center[0]), BitTools.toSortableLong(center[1])};
+				List<Integer> expected = bruteForce(data, lCenter, 2, dist);
+				List<Integer> result = new ArrayList<>();
+				for (PhEntryDistF<Integer> e : tree.reverseNearestNeighbour(2, dist, center)) {
+					result.add(e.getValue());
+				}
+				Collections.sort(result);
+				assertEquals(dist.toString(), expected, result);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeSolidF;
+
+public class TestSession {
+
+	private static double[] randomKey(Random R, int dim) {
+		double[] key = new double[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextDouble() - 0.5;
+		}
+		return key;
+	}
+
+	@Test
+	public void testPhTreeF() {
+		for (int dim : new int[]{1, 3, 10}) {
+			Random R = new Random(dim);
+			PhTreeF<Integer> tree = PhTreeF.create(dim);
+			PhTreeF<Integer>.Session s = tree.session();
+			int n = 1000;
+			double[][] keys = new double[n][];
+			for (int i = 0; i < n; i++) {
+				keys[i] = randomKey(R, dim);
+				assertNull(s.put(keys[i], i));
+			}
+			assertEquals(n, tree.size());
+			for (int i = 0; i < n; i++) {
+				assertTrue(s.contains(keys[i]));
+				assertEquals(i, (int) s.get(keys[i]));
+				assertEquals(i, (int) tree.get(keys[i]));
+			}
+			for (int i = 0; i < n; i += 2) {
+				double[] newKey = randomKey(R, dim);
+				assertEquals(i, (int) s.update(keys[i], newKey));
+				assertFalse(s.contains(keys[i]));
+				keys[i] = newKey;
+			}
+			for (int i = 0; i < n; i++) {
+				assertEquals(i, (int) s.get(keys[i]));
+				assertEquals(i, (int) s.remove(keys[i]));
+				assertNull(s.get(keys[i]));
+			}
+			assertEquals(0, tree.size());
+		}
+	}
+
+	@Test
+	public void testPhTreeSolidF() {
+		for (int dim : new int[]{1, 3, 5}) {
+			Random R = new Random(dim);
+			PhTreeSolidF<Integer> tree = PhTreeSolidF.create(dim);
+			PhTreeSolidF<Integer>.Session s = tree.session();
+			int n = 1000;
+			double[][] lo = new double[n][];
+			double[][] up = new double[n][];
+			for (int i = 0; i < n; i++) {
+				lo[i] = randomKey(R, dim);
+				up[i] = lo[i].clone();
+				up[i][0] += 0.1;
+				assertNull(s.put(lo[i], up[i], i));
+			}
+			assertEquals(n, tree.size());
+			for (int i = 0; i < n; i++) {
+				assertTrue(s.contains(lo[i], up[i]));
+				assertEquals(i, (int) s.get(lo[i], up[i]));
+			}
+			for (int i = 0; i < n; i += 2) {
+				double[] newLo = randomKey(R, dim);
+				double[] newUp = newLo.clone();
+				assertEquals(i, (int) s.update(lo[i], up[i], newLo, newUp));
+				assertFalse(s.contains(lo[i], up[i]));
+				lo[i] = newLo;
+				up[i] = newUp;
+			}
+			for (int i = 0; i < n; i++) {
+				assertEquals(i, (int) s.get(lo[i], up[i]));
+				assertEquals(i, (int) s.remove(lo[i], up[i]));
+				assertFalse(s.contains(lo[i], up[i]));
+			}
+			assertEquals(0, tree.size());
+		}
+	}
+}
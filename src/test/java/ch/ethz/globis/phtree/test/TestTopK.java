@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeF.PhEntryDistF;
+import ch.ethz.globis.phtree.test.util.TestUtil;
+import ch.ethz.globis.phtree.util.BitsLong;
+
+public class TestTopK {
+
+	@Test
+	public void testTopK() {
+		for (int dim : new int[]{2, 8}) {
+			Random R = new Random(dim);
+			PhTree<Double> tree = TestUtil.newTree(dim);
+			for (int i = 0; i < 10000; i++) {
+				long[] key = new long[dim];
+				for (int d = 0; d < dim; d++) {
+					key[d] = R.nextInt(1000) - 500;
+				}
+				tree.put(key, R.nextDouble());
+			}
+			long[] min = new long[dim];
+			long[] max = new long[dim];
+			for (int d = 0; d < dim; d++) {
+				min[d] = -300;
+				max[d] = 400;
+			}
+			List<Double> expected = new ArrayList<>();
+			for (PhEntry<Double> e : tree.queryAll(min, max)) {
+				expected.add(e.getValue());
+			}
+			expected.sort((d1, d2) -> Double.compare(d2, d1));
+
+			for (int k : new int[]{0, 1, 10, 100, expected.size() + 5}) {
+				List<PhEntryDist<Double>> result = tree.queryTopK(min, max, k, v -> v);
+				assertEquals(Math.min(k, expected.size()), result.size());
+				for (int i = 0; i < result.size(); i++) {
+					PhEntryDist<Double> e = result.get(i);
+					assertEquals(expected.get(i), e.getValue());
+					assertEquals(e.getValue(), e.dist(), 0.0);
+					assertTrue(BitsLong.checkRange(e.getKey(), min, max));
+					assertEquals(e.getValue(), tree.get(e.getKey()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTopKF() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		for (int i = 0; i < 100; i++) {
+			tree.put(new double[]{i, i * 0.5}, i);
+		}
+		List<PhEntryDistF<Integer>> result =
+				tree.queryTopK(new double[]{10, 0}, new double[]{20, 100}, 3, v -> v);
+		assertEquals(3, result.size());
+		assertEquals(20, (int) result.get(0).getValue());
+		assertEquals(20.0, result.get(0).getKey()[0], 0.0);
+		assertEquals(10.0, result.get(0).getKey()[1], 0.0);
+		assertEquals(18, (int) result.get(2).getValue());
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTreeAdaptive;
+import ch.ethz.globis.phtree.PhTreeAdaptive.Version;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.util.PhTreeStats;
+import ch.ethz.globis.phtree.v13.PhTree13;
+import ch.ethz.globis.phtree.v16.PhTree16;
+
+public class TestTreeAdaptive {
+
+	@Test
+	public void testMigrate() {
+		int dim = 3;
+		PhTreeAdaptive<Integer> tree = PhTreeAdaptive.<Integer>create(dim).setAutoMigrate(false);
+		assertEquals(Version.V13, tree.getVersion());
+		Map<Key, Integer> ref = new HashMap<>();
+		Random R = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			long[] k = randomKey(R, dim);
+			assertEquals(ref.put(new Key(k), i), tree.put(k, i));
+		}
+		tree.migrate(Version.V16);
+		assertEquals(Version.V16, tree.getVersion());
+		assertTrue(tree.getInternalTree() instanceof PhTree16);
+		check(tree, ref);
+		tree.migrate(Version.V16HD);
+		check(tree, ref);
+		tree.migrate(Version.V13);
+		assertTrue(tree.getInternalTree() instanceof PhTree13);
+		check(tree, ref);
+	}
+
+	@Test
+	public void testMigrateWithConcurrentWrites() throws Exception {
+		int dim = 3;
+		PhTreeAdaptive<Integer> tree = PhTreeAdaptive.<Integer>create(dim).setAutoMigrate(false);
+		Map<Key, Integer> ref = new HashMap<>();
+		Random R = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			long[] k = randomKey(R, dim);
+			ref.put(new Key(k), i);
+			tree.put(k, i);
+		}
+		Key[] keys = ref.keySet().toArray(new Key[0]);
+		CompletableFuture<Void> f = tree.migrateAsync(Version.V16);
+		assertNull(tree.migrateAsync(Version.V16HD));
+		int n = 0;
+		while (!f.isDone() || n < 1000) {
+			long[] k = randomKey(R, dim);
+			int v = n;
+			switch (n++ % 7) {
+			case 0:
+				assertEquals(ref.put(new Key(k), n), tree.put(k, n));
+				break;
+			case 1: 
+				Key old = keys[R.nextInt(keys.length)];
+				assertEquals(ref.remove(old), tree.remove(old.k));
+				break;
+			case 2: {
+				Key o = keys[R.nextInt(keys.length)];
+				if (ref.containsKey(o) && !ref.containsKey(new Key(k))) {
+					ref.put(new Key(k), ref.remove(o));
+					tree.update(o.k, k);
+				}
+				break;
+			}
+			case 3: {
+				Key o = keys[R.nextInt(keys.length)];
+				assertEquals(ref.merge(o, v, Integer::sum), tree.merge(o.k, v, Integer::sum));
+				break;
+			}
+			case 4: {
+				Key o = keys[R.nextInt(keys.length)];
+				assertEquals(ref.computeIfPresent(o, (key, x) -> null), 
+						tree.computeIfPresent(o.k, (key, x) -> null));
+				break;
+			}
+			case 5:
+				assertEquals(ref.putIfAbsent(new Key(k), v), tree.putIfAbsent(k, v));
+				break;
+			default:
+				assertEquals(ref.get(new Key(k)), tree.get(k));
+			}
+		}
+		f.get();
+		assertEquals(Version.V16, tree.getVersion());
+		check(tree, ref);
+	}
+
+	@Test
+	public void testPolicy() throws Exception {
+		int dim = 2;
+		PhTreeAdaptive<Integer> tree = PhTreeAdaptive.<Integer>create(dim)
+				.setAutoMigrate(true).setCheckInterval(1).setMinSize(10)
+				.setPolicy((d, current, workload, stats) -> 
+					workload.nKnnQueries > 0 ? Version.V16 : current);
+		Random R = new Random(2);
+		for (int i = 0; i < 1000; i++) {
+			tree.put(randomKey(R, dim), i);
+		}
+		assertEquals(Version.V13, tree.getVersion());
+		for (int i = 0; i < 100 && tree.getVersion() == Version.V13; i++) {
+			tree.nearestNeighbour(1, randomKey(R, dim));
+			tree.getMigration().get();
+			Thread.sleep(1);
+		}
+		assertEquals(Version.V16, tree.getVersion());
+		assertEquals(1000, tree.size());
+	}
+
+	@Test
+	public void testConfig() {
+		int dim = 3;
+		PhTreeConfig cfg = new PhTreeConfig(dim);
+		cfg.setSubtreeCounts(true);
+		PhTreeAdaptive<Integer> tree = PhTreeAdaptive.create(cfg);
+		Random R = new Random(3);
+		for (int i = 0; i < 1000; i++) {
+			tree.put(randomKey(R, dim), i);
+		}
+		tree.migrate(Version.V16);
+		long[] min = {Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+		long[] max = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+		//requires subtree counts
+		PhTree16<Integer> t16 = (PhTree16<Integer>) tree.getInternalTree();
+		assertEquals(tree.size(), t16.estimateCount(min, max), 0.0);
+	}
+
+	@Test
+	public void testNoAutoMigrateByDefault() {
+		int dim = 2;
+		PhTreeAdaptive<Integer> tree = PhTreeAdaptive.<Integer>create(dim)
+				.setCheckInterval(1).setMinSize(10)
+				.setPolicy((d, current, workload, stats) -> Version.V16);
+		Random R = new Random(4);
+		for (int i = 0; i < 1000; i++) {
+			tree.put(randomKey(R, dim), i);
+		}
+		assertEquals(Version.V13, tree.getVersion());
+		assertTrue(tree.getMigration().isDone());
+	}
+
+	@Test
+	public void testStatsSample() {
+		for (Version v : Version.values()) {
+			int dim = 3;
+			PhTreeAdaptive<Integer> tree = PhTreeAdaptive.create(dim);
+			tree.migrate(v);
+			Random R = new Random(5);
+			for (int i = 0; i < 100000; i++) {
+				tree.put(randomKey(R, dim), i);
+			}
+			PhTreeStats full = tree.getStats();
+			PhTreeStats sample = tree.getStatsSample(1000);
+			assertTrue(sample.nNodes > 0);
+			assertTrue(sample.nNodes < full.nNodes);
+			assertTrue(sample.nTotalChildren >= 1000);
+			assertTrue(sample.nTotalChildren < full.nTotalChildren);
+		}
+	}
+
+	private static void check(PhTreeAdaptive<Integer> tree, Map<Key, Integer> ref) {
+		assertEquals(ref.size(), tree.size());
+		for (Map.Entry<Key, Integer> e : ref.entrySet()) {
+			assertEquals(e.getValue(), tree.get(e.getKey().k));
+		}
+		int n = 0;
+		PhExtent<Integer> it = tree.queryExtent();
+		while (it.hasNext()) {
+			PhEntry<Integer> e = it.nextEntry();
+			assertEquals(ref.get(new Key(e.getKey())), e.getValue());
+			n++;
+		}
+		assertEquals(ref.size(), n);
+	}
+
+	private static long[] randomKey(Random R, int dim) {
+		long[] key = new long[dim];
+		for (int d = 0; d < dim; d++) {
+			key[d] = R.nextInt(100000) - 50000;
+		}
+		return key;
+	}
+
+	private static class Key {
+		final long[] k;
+		Key(long[] k) {
+			this.k = k;
+		}
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && java.util.Arrays.equals(k, ((Key) o).k);
+		}
+		@Override
+		public int hashCode() {
+			return java.util.Arrays.hashCode(k);
+		}
+	}
+}